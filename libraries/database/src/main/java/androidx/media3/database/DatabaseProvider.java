@@ -15,8 +15,10 @@
  */
 package androidx.media3.database;
 
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import androidx.annotation.WorkerThread;
 import androidx.media3.common.util.UnstableApi;
 
 /**
@@ -55,4 +57,46 @@ public interface DatabaseProvider {
    * @return A database object valid until {@link #getWritableDatabase()} is called.
    */
   SQLiteDatabase getReadableDatabase();
+
+  /** Writes to a database as part of a transaction. */
+  interface Transaction {
+
+    /**
+     * Performs the writes of the transaction.
+     *
+     * <p>Statements that are executed many times, for example once for each row that's written,
+     * should be compiled once using {@link SQLiteDatabase#compileStatement(String)} and reused.
+     *
+     * @param writableDatabase The database to write to.
+     * @throws SQLException If an error occurs writing to the database, in which case the
+     *     transaction is rolled back.
+     */
+    void run(SQLiteDatabase writableDatabase) throws SQLException;
+  }
+
+  /**
+   * Runs a {@link Transaction} on the database returned by {@link #getWritableDatabase()}. If the
+   * transaction is run as part of an enclosing transaction, its writes are committed together with
+   * those of the enclosing transaction.
+   *
+   * <p>Committing a transaction requires its writes to be synced to storage, so grouping many
+   * writes into one transaction is much faster than committing each write separately.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param transaction The {@link Transaction} to run.
+   * @throws SQLException If an error occurs writing to the database, in which case the transaction
+   *     is rolled back.
+   */
+  @WorkerThread
+  default void runInTransaction(Transaction transaction) throws SQLException {
+    SQLiteDatabase writableDatabase = getWritableDatabase();
+    writableDatabase.beginTransactionNonExclusive();
+    try {
+      transaction.run(writableDatabase);
+      writableDatabase.setTransactionSuccessful();
+    } finally {
+      writableDatabase.endTransaction();
+    }
+  }
 }
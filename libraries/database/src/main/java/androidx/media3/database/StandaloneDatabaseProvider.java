@@ -30,6 +30,10 @@ import androidx.media3.common.util.UnstableApi;
  * prefer to keep tables used by media library components isolated in their own database. Other
  * applications should prefer to use {@link DefaultDatabaseProvider} with their own {@link
  * SQLiteOpenHelper}.
+ *
+ * <p>The database uses write-ahead logging, so that reads aren't blocked by concurrent writes and
+ * writes that are committed in quick succession, such as updates of download progress and cache
+ * metadata, are cheaper.
  */
 // TODO: Make this class final when ExoDatabaseProvider is removed.
 @UnstableApi
@@ -49,6 +53,7 @@ public class StandaloneDatabaseProvider extends SQLiteOpenHelper implements Data
    */
   public StandaloneDatabaseProvider(Context context) {
     super(context.getApplicationContext(), DATABASE_NAME, /* factory= */ null, VERSION);
+    setWriteAheadLoggingEnabled(true);
   }
 
   @Override
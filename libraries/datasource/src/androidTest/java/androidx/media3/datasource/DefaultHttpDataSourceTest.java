@@ -19,6 +19,10 @@ package androidx.media3.datasource;
 import static com.google.common.truth.Truth.assertThat;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import androidx.media3.datasource.HttpDataSource.HttpDataSourceException;
 import androidx.media3.test.utils.TestUtil;
@@ -33,6 +37,7 @@ import okhttp3.mockwebserver.RecordedRequest;
 import okio.Buffer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
 /** Unit tests for {@link DefaultHttpDataSource}. */
 @RunWith(AndroidJUnit4.class)
@@ -326,6 +331,63 @@ public class DefaultHttpDataSourceTest {
     assertThat(request2.getBodySize()).isEqualTo(postBody.length);
   }
 
+  @Test
+  public void open_afterReadingPreviousResponse_reportsReusedConnection() throws Exception {
+    MockWebServer mockWebServer = new MockWebServer();
+    mockWebServer.enqueue(new MockResponse().setBody("data1"));
+    mockWebServer.enqueue(new MockResponse().setBody("data2"));
+    TransferListener transferListener = mock(TransferListener.class);
+    DefaultHttpDataSource dataSource =
+        new DefaultHttpDataSource.Factory()
+            .setTransferListener(transferListener)
+            .createDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder().setUri(mockWebServer.url("/test-path").toString()).build();
+
+    dataSource.open(dataSpec);
+    DataSourceUtil.readToEnd(dataSource);
+    dataSource.close();
+    dataSource.open(dataSpec);
+    DataSourceUtil.readToEnd(dataSource);
+    dataSource.close();
+
+    ArgumentCaptor<HttpConnectionMetrics> metrics =
+        ArgumentCaptor.forClass(HttpConnectionMetrics.class);
+    verify(transferListener, times(2))
+        .onConnectionMetrics(eq(dataSource), eq(dataSpec), eq(true), metrics.capture());
+    assertThat(metrics.getAllValues().get(0).isConnectionReused).isFalse();
+    assertThat(metrics.getAllValues().get(1).isConnectionReused).isTrue();
+    assertThat(mockWebServer.takeRequest(10, SECONDS).getSequenceNumber()).isEqualTo(0);
+    assertThat(mockWebServer.takeRequest(10, SECONDS).getSequenceNumber()).isEqualTo(1);
+  }
+
+  @Test
+  public void prewarmConnection_subsequentOpenReusesConnection() throws Exception {
+    MockWebServer mockWebServer = new MockWebServer();
+    mockWebServer.enqueue(new MockResponse());
+    mockWebServer.enqueue(new MockResponse().setBody("data"));
+    TransferListener transferListener = mock(TransferListener.class);
+    DefaultHttpDataSource dataSource =
+        new DefaultHttpDataSource.Factory()
+            .setTransferListener(transferListener)
+            .createDataSource();
+    DataSpec dataSpec =
+        new DataSpec.Builder().setUri(mockWebServer.url("/test-path").toString()).build();
+
+    dataSource.prewarmConnection(dataSpec.uri);
+    dataSource.open(dataSpec);
+    dataSource.close();
+
+    ArgumentCaptor<HttpConnectionMetrics> metrics =
+        ArgumentCaptor.forClass(HttpConnectionMetrics.class);
+    verify(transferListener)
+        .onConnectionMetrics(eq(dataSource), eq(dataSpec), eq(true), metrics.capture());
+    assertThat(metrics.getValue().isConnectionReused).isTrue();
+    RecordedRequest prewarmRequest = mockWebServer.takeRequest(10, SECONDS);
+    assertThat(prewarmRequest.getMethod()).isEqualTo("HEAD");
+    assertThat(mockWebServer.takeRequest(10, SECONDS).getSequenceNumber()).isEqualTo(1);
+  }
+
   @Test
   public void factory_setRequestPropertyAfterCreation_setsCorrectHeaders() throws Exception {
     MockWebServer mockWebServer = new MockWebServer();
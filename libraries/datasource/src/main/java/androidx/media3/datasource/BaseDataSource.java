@@ -69,6 +69,20 @@ public abstract class BaseDataSource implements DataSource {
     }
   }
 
+  /**
+   * Notifies listeners of the timings of the connection used for the data transfer for the
+   * specified {@link DataSpec}.
+   *
+   * @param dataSpec {@link DataSpec} describing the data for initializing transfer.
+   * @param metrics The {@link HttpConnectionMetrics}.
+   */
+  protected final void connectionMetricsAvailable(
+      DataSpec dataSpec, HttpConnectionMetrics metrics) {
+    for (int i = 0; i < listenerCount; i++) {
+      listeners.get(i).onConnectionMetrics(/* source= */ this, dataSpec, isNetwork, metrics);
+    }
+  }
+
   /**
    * Notifies listeners that data transfer for the specified {@link DataSpec} started.
    *
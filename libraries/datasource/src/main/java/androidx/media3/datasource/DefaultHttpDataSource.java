@@ -16,11 +16,13 @@
 package androidx.media3.datasource;
 
 import static androidx.media3.common.util.Assertions.checkNotNull;
+import static androidx.media3.common.util.Assertions.checkState;
 import static androidx.media3.common.util.Util.castNonNull;
 import static androidx.media3.datasource.HttpUtil.buildRangeRequestHeader;
 import static java.lang.Math.min;
 
 import android.net.Uri;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.media3.common.C;
@@ -45,6 +47,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.NoRouteToHostException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -68,6 +71,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
   public static final class Factory implements HttpDataSource.Factory {
 
     private final RequestProperties defaultRequestProperties;
+    private final ConnectionReuseTracker connectionReuseTracker;
 
     @Nullable private TransferListener transferListener;
     @Nullable private Predicate<String> contentTypePredicate;
@@ -81,6 +85,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     /** Creates an instance. */
     public Factory() {
       defaultRequestProperties = new RequestProperties();
+      connectionReuseTracker = new ConnectionReuseTracker();
       connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MILLIS;
       readTimeoutMs = DEFAULT_READ_TIMEOUT_MILLIS;
     }
@@ -230,7 +235,8 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
               crossProtocolRedirectsForceOriginal,
               defaultRequestProperties,
               contentTypePredicate,
-              keepPostFor302Redirects);
+              keepPostFor302Redirects,
+              connectionReuseTracker);
       if (transferListener != null) {
         dataSource.addTransferListener(transferListener);
       }
@@ -249,6 +255,8 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
   private static final int HTTP_STATUS_TEMPORARY_REDIRECT = 307;
   private static final int HTTP_STATUS_PERMANENT_REDIRECT = 308;
   private static final long MAX_BYTES_TO_DRAIN = 2048;
+  // The time for which the platform keeps idle connections in its connection pool.
+  private static final long KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
 
   private final boolean allowCrossProtocolRedirects;
   private final boolean crossProtocolRedirectsForceOriginal;
@@ -259,6 +267,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
   private final RequestProperties requestProperties;
   @Nullable private final Predicate<String> contentTypePredicate;
   private final boolean keepPostFor302Redirects;
+  private final ConnectionReuseTracker connectionReuseTracker;
 
   @Nullable private DataSpec dataSpec;
   @Nullable private HttpURLConnection connection;
@@ -267,6 +276,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
   private int responseCode;
   private long bytesToRead;
   private long bytesRead;
+  private long connectDurationMs;
 
   private DefaultHttpDataSource(
       @Nullable String userAgent,
@@ -276,7 +286,8 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
       boolean crossProtocolRedirectsForceOriginal,
       @Nullable RequestProperties defaultRequestProperties,
       @Nullable Predicate<String> contentTypePredicate,
-      boolean keepPostFor302Redirects) {
+      boolean keepPostFor302Redirects,
+      ConnectionReuseTracker connectionReuseTracker) {
     super(/* isNetwork= */ true);
     this.userAgent = userAgent;
     this.connectTimeoutMillis = connectTimeoutMillis;
@@ -292,6 +303,7 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     this.contentTypePredicate = contentTypePredicate;
     this.requestProperties = new RequestProperties();
     this.keepPostFor302Redirects = keepPostFor302Redirects;
+    this.connectionReuseTracker = connectionReuseTracker;
   }
 
   @UnstableApi
@@ -357,10 +369,19 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     String responseMessage;
     HttpURLConnection connection;
     try {
+      long openStartTimeMs = SystemClock.elapsedRealtime();
+      boolean isConnectionReused =
+          connectionReuseTracker.acquireConnection(new URL(dataSpec.uri.toString()));
       this.connection = makeConnection(dataSpec);
       connection = this.connection;
       responseCode = connection.getResponseCode();
       responseMessage = connection.getResponseMessage();
+      connectionMetricsAvailable(
+          dataSpec,
+          new HttpConnectionMetrics(
+              connectDurationMs,
+              /* timeToFirstByteMs= */ SystemClock.elapsedRealtime() - openStartTimeMs,
+              isConnectionReused));
     } catch (IOException e) {
       closeConnectionQuietly();
       throw HttpDataSourceException.createForIOException(
@@ -487,6 +508,10 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
         maybeTerminateInputStream(connection, bytesRemaining);
         try {
           inputStream.close();
+          if (bytesRemaining == 0 && connection != null && isKeepAlive(connection)) {
+            // The response was read in full, so the platform returns the connection to its pool.
+            connectionReuseTracker.releaseConnection(connection.getURL());
+          }
         } catch (IOException e) {
           throw new HttpDataSourceException(
               e,
@@ -505,6 +530,47 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     }
   }
 
+  /**
+   * Establishes a connection to the host of {@code uri} by making a {@code HEAD} request, so that a
+   * subsequent request to the same host, such as the request for the next media segment, can reuse
+   * the connection rather than having to resolve the host name, connect and perform a TLS
+   * handshake.
+   *
+   * <p>Must not be called whilst the data source is open. This method blocks until the response
+   * headers have been received.
+   *
+   * @param uri The {@link Uri} to request.
+   * @throws HttpDataSourceException If an error occurs making the request.
+   */
+  @UnstableApi
+  public void prewarmConnection(Uri uri) throws HttpDataSourceException {
+    checkState(connection == null);
+    DataSpec dataSpec =
+        new DataSpec.Builder().setUri(uri).setHttpMethod(DataSpec.HTTP_METHOD_HEAD).build();
+    @Nullable HttpURLConnection connection = null;
+    try {
+      connection = makeConnection(dataSpec);
+      int responseCode = connection.getResponseCode();
+      @Nullable
+      InputStream inputStream =
+          responseCode >= 200 && responseCode <= 299
+              ? connection.getInputStream()
+              : connection.getErrorStream();
+      if (inputStream != null) {
+        inputStream.close();
+      }
+      if (isKeepAlive(connection)) {
+        connectionReuseTracker.releaseConnection(connection.getURL());
+      }
+    } catch (IOException e) {
+      if (connection != null) {
+        connection.disconnect();
+      }
+      throw HttpDataSourceException.createForIOException(
+          e, dataSpec, HttpDataSourceException.TYPE_OPEN);
+    }
+  }
+
   /** Establishes a connection, following redirects to do so where permitted. */
   private HttpURLConnection makeConnection(DataSpec dataSpec) throws IOException {
     URL url = new URL(dataSpec.uri.toString());
@@ -631,14 +697,17 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     connection.setDoOutput(httpBody != null);
     connection.setRequestMethod(DataSpec.getStringForHttpMethod(httpMethod));
 
+    long connectStartTimeMs = SystemClock.elapsedRealtime();
     if (httpBody != null) {
       connection.setFixedLengthStreamingMode(httpBody.length);
       connection.connect();
+      connectDurationMs = SystemClock.elapsedRealtime() - connectStartTimeMs;
       OutputStream os = connection.getOutputStream();
       os.write(httpBody);
       os.close();
     } else {
       connection.connect();
+      connectDurationMs = SystemClock.elapsedRealtime() - connectStartTimeMs;
     }
     return connection;
   }
@@ -847,6 +916,61 @@ public class DefaultHttpDataSource extends BaseDataSource implements HttpDataSou
     return "gzip".equalsIgnoreCase(contentEncoding);
   }
 
+  private static boolean isKeepAlive(HttpURLConnection connection) {
+    return !"close".equalsIgnoreCase(connection.getHeaderField(HttpHeaders.CONNECTION));
+  }
+
+  /**
+   * Estimates whether requests are sent on reused connections, by keeping track of the connections
+   * that have been returned to the platform's connection pool.
+   */
+  private static final class ConnectionReuseTracker {
+
+    private final HashMap<String, ArrayDeque<Long>> idleConnectionReleaseTimesMs;
+
+    public ConnectionReuseTracker() {
+      idleConnectionReleaseTimesMs = new HashMap<>();
+    }
+
+    /** Records that a connection to the host of {@code url} was returned to the pool. */
+    public synchronized void releaseConnection(URL url) {
+      String key = getConnectionKey(url);
+      @Nullable ArrayDeque<Long> releaseTimesMs = idleConnectionReleaseTimesMs.get(key);
+      if (releaseTimesMs == null) {
+        releaseTimesMs = new ArrayDeque<>();
+        idleConnectionReleaseTimesMs.put(key, releaseTimesMs);
+      }
+      releaseTimesMs.addLast(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Takes a connection to the host of {@code url} from the pool, returning whether there was a
+     * connection to take.
+     */
+    public synchronized boolean acquireConnection(URL url) {
+      String key = getConnectionKey(url);
+      @Nullable ArrayDeque<Long> releaseTimesMs = idleConnectionReleaseTimesMs.get(key);
+      if (releaseTimesMs == null) {
+        return false;
+      }
+      long minReleaseTimeMs = SystemClock.elapsedRealtime() - KEEP_ALIVE_DURATION_MS;
+      while (!releaseTimesMs.isEmpty() && releaseTimesMs.peekFirst() < minReleaseTimeMs) {
+        releaseTimesMs.removeFirst();
+      }
+      // The most recently released connection is reused first.
+      boolean acquired = releaseTimesMs.pollLast() != null;
+      if (releaseTimesMs.isEmpty()) {
+        idleConnectionReleaseTimesMs.remove(key);
+      }
+      return acquired;
+    }
+
+    private static String getConnectionKey(URL url) {
+      int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+      return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+  }
+
   private static class NullFilteringHeadersMap extends ForwardingMap<String, List<String>> {
 
     private final Map<String, List<String>> headers;
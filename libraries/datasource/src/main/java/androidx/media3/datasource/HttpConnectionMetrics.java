@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import androidx.media3.common.util.UnstableApi;
+
+/**
+ * Timings of the connection used for an HTTP request, reported to {@link
+ * TransferListener#onConnectionMetrics}.
+ */
+@UnstableApi
+public final class HttpConnectionMetrics {
+
+  /**
+   * The time spent establishing the connection for the request, in milliseconds. For a new
+   * connection this includes resolving the host name, connecting and the TLS handshake, whereas for
+   * a reused connection it's close to zero. If the request was redirected, this is the time for the
+   * connection to which the final request was sent.
+   */
+  public final long connectDurationMs;
+
+  /**
+   * The time from starting the request until the response headers were received, in milliseconds,
+   * including the time spent establishing the connection and following any redirects.
+   */
+  public final long timeToFirstByteMs;
+
+  /**
+   * Whether the request was likely sent on a connection that was reused from an earlier request.
+   * This is a best-effort estimate, since the platform doesn't report whether a connection was
+   * taken from its connection pool.
+   */
+  public final boolean isConnectionReused;
+
+  /**
+   * Creates an instance.
+   *
+   * @param connectDurationMs See {@link #connectDurationMs}.
+   * @param timeToFirstByteMs See {@link #timeToFirstByteMs}.
+   * @param isConnectionReused See {@link #isConnectionReused}.
+   */
+  public HttpConnectionMetrics(
+      long connectDurationMs, long timeToFirstByteMs, boolean isConnectionReused) {
+    this.connectDurationMs = connectDurationMs;
+    this.timeToFirstByteMs = timeToFirstByteMs;
+    this.isConnectionReused = isConnectionReused;
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DataSource} that reads ahead from an upstream {@link DataSource} in blocks, so that
+ * small reads are served from memory. This reduces the number of reads from sources for which each
+ * read is a system call, such as {@link FileDataSource} and {@link ContentDataSource}.
+ *
+ * <p>The block size adapts to the access pattern. It doubles each time a block is read in full and
+ * the next block is needed, up to the maximum block size, so that sequential reads are served using
+ * few large reads. It halves when the source is closed after reading less than half of the last
+ * block, down to the minimum block size, so that seek-heavy access, in which the source is
+ * frequently reopened at a different position, doesn't read much data that's then discarded.
+ *
+ * <p>Reads that are at least as large as the current block size bypass the buffer.
+ */
+@UnstableApi
+public final class ReadaheadDataSource implements DataSource {
+
+  /** {@link DataSource.Factory} for {@link ReadaheadDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    private final DataSource.Factory upstreamFactory;
+
+    private int minBlockSize;
+    private int maxBlockSize;
+
+    /**
+     * Creates an instance.
+     *
+     * @param upstreamFactory A {@link DataSource.Factory} that provides upstream {@link DataSource
+     *     DataSources} for {@link ReadaheadDataSource} instances created by the factory.
+     */
+    public Factory(DataSource.Factory upstreamFactory) {
+      this.upstreamFactory = upstreamFactory;
+      minBlockSize = DEFAULT_MIN_BLOCK_SIZE;
+      maxBlockSize = DEFAULT_MAX_BLOCK_SIZE;
+    }
+
+    /**
+     * Sets the range of block sizes used to read from upstream.
+     *
+     * <p>The default is {@link #DEFAULT_MIN_BLOCK_SIZE} to {@link #DEFAULT_MAX_BLOCK_SIZE}.
+     *
+     * @param minBlockSize The minimum block size, in bytes.
+     * @param maxBlockSize The maximum block size, in bytes.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setBlockSizeRange(int minBlockSize, int maxBlockSize) {
+      checkArgument(minBlockSize > 0 && minBlockSize <= maxBlockSize);
+      this.minBlockSize = minBlockSize;
+      this.maxBlockSize = maxBlockSize;
+      return this;
+    }
+
+    @Override
+    public ReadaheadDataSource createDataSource() {
+      return new ReadaheadDataSource(
+          upstreamFactory.createDataSource(), minBlockSize, maxBlockSize);
+    }
+  }
+
+  /** The default minimum block size, in bytes. */
+  public static final int DEFAULT_MIN_BLOCK_SIZE = 4 * 1024;
+
+  /** The default maximum block size, in bytes. */
+  public static final int DEFAULT_MAX_BLOCK_SIZE = 256 * 1024;
+
+  private final DataSource upstream;
+  private final int minBlockSize;
+  private final int maxBlockSize;
+
+  private byte[] buffer;
+  private int blockSize;
+  private int bufferPosition;
+  private int bufferLimit;
+  private boolean isFirstBlock;
+  private long readCount;
+  private long upstreamReadCount;
+
+  /**
+   * Creates an instance that uses block sizes from {@link #DEFAULT_MIN_BLOCK_SIZE} to {@link
+   * #DEFAULT_MAX_BLOCK_SIZE}.
+   *
+   * @param upstream The upstream {@link DataSource}.
+   */
+  public ReadaheadDataSource(DataSource upstream) {
+    this(upstream, DEFAULT_MIN_BLOCK_SIZE, DEFAULT_MAX_BLOCK_SIZE);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param upstream The upstream {@link DataSource}.
+   * @param minBlockSize The minimum block size, in bytes.
+   * @param maxBlockSize The maximum block size, in bytes.
+   */
+  public ReadaheadDataSource(DataSource upstream, int minBlockSize, int maxBlockSize) {
+    checkArgument(minBlockSize > 0 && minBlockSize <= maxBlockSize);
+    this.upstream = checkNotNull(upstream);
+    this.minBlockSize = minBlockSize;
+    this.maxBlockSize = maxBlockSize;
+    blockSize = minBlockSize;
+    buffer = new byte[minBlockSize];
+  }
+
+  /**
+   * Returns the number of calls to {@link #read(byte[], int, int)} and {@link #read(ByteBuffer)}
+   * since this instance was created.
+   */
+  public long getReadCount() {
+    return readCount;
+  }
+
+  /**
+   * Returns the number of reads from the upstream {@link DataSource} since this instance was
+   * created. For upstream sources that read from the file system, each read is normally a system
+   * call.
+   */
+  public long getUpstreamReadCount() {
+    return upstreamReadCount;
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    bufferPosition = 0;
+    bufferLimit = 0;
+    isFirstBlock = true;
+    return upstream.open(dataSpec);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    readCount++;
+    if (length == 0) {
+      return 0;
+    }
+    if (bufferPosition == bufferLimit) {
+      if (length >= blockSize) {
+        // The buffer would be drained by this read, so read directly into the target.
+        upstreamReadCount++;
+        return upstream.read(buffer, offset, length);
+      }
+      if (!fillBuffer()) {
+        return C.RESULT_END_OF_INPUT;
+      }
+    }
+    int bytesToRead = min(length, bufferLimit - bufferPosition);
+    System.arraycopy(this.buffer, bufferPosition, buffer, offset, bytesToRead);
+    bufferPosition += bytesToRead;
+    return bytesToRead;
+  }
+
+  /**
+   * Reads up to {@link ByteBuffer#remaining()} bytes of data into {@code target}, starting at its
+   * position. The position is advanced by the number of bytes read.
+   *
+   * @param target The {@link ByteBuffer} into which the read data should be stored.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if no data is available
+   *     because the end of the opened range has been reached.
+   * @throws IOException If an error occurs reading from the source.
+   */
+  public int read(ByteBuffer target) throws IOException {
+    if (target.hasArray()) {
+      int bytesRead =
+          read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+      if (bytesRead > 0) {
+        target.position(target.position() + bytesRead);
+      }
+      return bytesRead;
+    }
+    readCount++;
+    if (!target.hasRemaining()) {
+      return 0;
+    }
+    if (bufferPosition == bufferLimit && !fillBuffer()) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int bytesToRead = min(target.remaining(), bufferLimit - bufferPosition);
+    target.put(buffer, bufferPosition, bytesToRead);
+    bufferPosition += bytesToRead;
+    return bytesToRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return upstream.getUri();
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return upstream.getResponseHeaders();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (bufferLimit - bufferPosition > bufferLimit / 2) {
+      // Most of the block was read ahead unnecessarily.
+      blockSize = max(blockSize / 2, minBlockSize);
+    }
+    bufferPosition = 0;
+    bufferLimit = 0;
+    upstream.close();
+  }
+
+  @VisibleForTesting
+  /* package */ int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Reads the next block from upstream into the buffer, returning whether data was read or the end
+   * of the opened range was reached.
+   */
+  private boolean fillBuffer() throws IOException {
+    if (!isFirstBlock) {
+      // The previous block was read in full, which suggests that the data is read sequentially.
+      blockSize = min(blockSize * 2, maxBlockSize);
+    }
+    isFirstBlock = false;
+    if (buffer.length < blockSize) {
+      buffer = new byte[blockSize];
+    }
+    upstreamReadCount++;
+    int bytesRead = upstream.read(buffer, /* offset= */ 0, blockSize);
+    bufferPosition = 0;
+    bufferLimit = bytesRead == C.RESULT_END_OF_INPUT ? 0 : bytesRead;
+    return bytesRead != C.RESULT_END_OF_INPUT;
+  }
+}
@@ -26,6 +26,8 @@ import androidx.media3.common.util.UnstableApi;
  *   <li>Initializing the underlying resource (e.g. opening a HTTP connection). {@link
  *       #onTransferInitializing(DataSource, DataSpec, boolean)} is called before the initialization
  *       starts.
+ *   <li>For HTTP transfers, {@link #onConnectionMetrics(DataSource, DataSpec, boolean,
+ *       HttpConnectionMetrics)} may be called when the response headers have been received.
  *   <li>Starting the transfer after successfully initializing the resource. {@link
  *       #onTransferStart(DataSource, DataSpec, boolean)} is called. Note that this only happens if
  *       the initialization was successful.
@@ -58,6 +60,18 @@ public interface TransferListener {
    */
   void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork);
 
+  /**
+   * Called when the timings of the connection used for a transfer are known. Only called by sources
+   * that measure them, before {@link #onTransferStart(DataSource, DataSpec, boolean)}.
+   *
+   * @param source The source performing the transfer.
+   * @param dataSpec Describes the data for which the transfer is initialized.
+   * @param isNetwork Whether the data is transferred through a network.
+   * @param metrics The {@link HttpConnectionMetrics}.
+   */
+  default void onConnectionMetrics(
+      DataSource source, DataSpec dataSpec, boolean isNetwork, HttpConnectionMetrics metrics) {}
+
   /**
    * Called incrementally during a transfer.
    *
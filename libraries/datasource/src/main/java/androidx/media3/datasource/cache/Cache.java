@@ -204,6 +204,41 @@ public interface Cache {
   @Nullable
   CacheSpan startReadWriteNonBlocking(String key, long position, long length) throws CacheException;
 
+  /**
+   * Same as {@link #startReadWriteNonBlocking(String, long, long)}. However, if the cache entry is
+   * locked because another caller is writing data into the hole starting at {@code position}, then
+   * this method blocks until some of the data at {@code position} has been written, and returns a
+   * {@link CacheSpan} for reading the written data from the file into which it's being written.
+   * This allows the data to be read whilst it's being written, rather than having to obtain it from
+   * another source.
+   *
+   * <p>The returned {@link CacheSpan} may only cover a part of the file that's being written, in
+   * which case a further call to this method is needed to read the remaining data.
+   *
+   * <p>The default implementation does not block, and is equivalent to calling {@link
+   * #startReadWriteNonBlocking(String, long, long)}.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param key The cache key of the resource.
+   * @param position The starting position in the resource from which data is required.
+   * @param length The length of the data being requested, or {@link C#LENGTH_UNSET} if unbounded.
+   *     The length is ignored if there is a cache entry that overlaps the position. Else, it
+   *     defines the range of data locked by the returned {@link CacheSpan}.
+   * @param timeoutMs The maximum time to block for, in milliseconds.
+   * @return The {@link CacheSpan}. Or null if the cache entry is locked, and no data at {@code
+   *     position} was written before the timeout elapsed.
+   * @throws InterruptedException If the thread was interrupted.
+   * @throws CacheException If an error is encountered.
+   */
+  @WorkerThread
+  @Nullable
+  default CacheSpan startReadWriteOrJoinWrite(
+      String key, long position, long length, long timeoutMs)
+      throws InterruptedException, CacheException {
+    return startReadWriteNonBlocking(key, position, length);
+  }
+
   /**
    * Obtains a cache file into which data can be written. Must only be called when holding a
    * corresponding hole {@link CacheSpan} obtained from {@link #startReadWrite(String, long, long)}.
@@ -220,6 +255,20 @@ public interface Cache {
   @WorkerThread
   File startFile(String key, long position, long length) throws CacheException;
 
+  /**
+   * Updates the length of the data that's been written into a file obtained from {@link
+   * #startFile(String, long, long)}, which has yet to be committed. The data must have been flushed
+   * to the file, so that it can be read by callers of {@link #startReadWriteOrJoinWrite(String,
+   * long, long, long)}. Must only be called when holding a corresponding hole {@link CacheSpan}
+   * obtained from {@link #startReadWrite(String, long, long)}.
+   *
+   * <p>The default implementation does nothing.
+   *
+   * @param file The file into which data is being written.
+   * @param length The length of the data that's been written into the file in bytes.
+   */
+  default void updateFileLength(File file, long length) {}
+
   /**
    * Commits a file into the cache. Must only be called when holding a corresponding hole {@link
    * CacheSpan} obtained from {@link #startReadWrite(String, long, long)}.
@@ -233,6 +282,25 @@ public interface Cache {
   @WorkerThread
   void commitFile(File file, long length) throws CacheException;
 
+  /**
+   * Commits a file into the cache, as {@link #commitFile(File, long)}, additionally providing a
+   * digest of its content. Implementations may use the digest to store files with identical content
+   * only once.
+   *
+   * <p>The default implementation ignores the digest and calls {@link #commitFile(File, long)}.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param file A newly written cache file.
+   * @param length The length of the newly written cache file in bytes.
+   * @param contentDigest A SHA-256 digest of the content of the file.
+   * @throws CacheException If an error is encountered.
+   */
+  @WorkerThread
+  default void commitFile(File file, long length, byte[] contentDigest) throws CacheException {
+    commitFile(file, length);
+  }
+
   /**
    * Releases a {@link CacheSpan} obtained from {@link #startReadWrite(String, long, long)} which
    * corresponded to a hole in the cache.
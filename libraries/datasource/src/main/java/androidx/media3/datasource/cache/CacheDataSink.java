@@ -28,11 +28,18 @@ import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSink;
 import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.cache.Cache.CacheException;
+import com.google.common.base.Ascii;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
@@ -41,6 +48,20 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
  * <p>If the {@link DataSpec} passed to {@link #open(DataSpec)} has the {@code length} field set to
  * {@link C#LENGTH_UNSET} and {@link DataSpec#FLAG_DONT_CACHE_IF_LENGTH_UNKNOWN} set, then {@link
  * #write(byte[], int, int)} calls are ignored.
+ *
+ * <p>If a compression {@link Predicate} is set, then cache files for requests that match it are
+ * compressed using deflate. The data is stored in the cache with its uncompressed length, and so
+ * the lengths reported by the {@link Cache} are unaffected by compression. Compression is recorded
+ * for each resource under {@link ContentMetadata#KEY_CONTENT_ENCODING}, and {@link CacheDataSource}
+ * decompresses the data when reading it. All cache files of a resource are compressed in the same
+ * way, and so a resource that's already partially cached without compression will not be
+ * compressed. Compression requires the {@link Cache} to store the lengths of cache files, as {@link
+ * SimpleCache} does when it's created with a {@link androidx.media3.database.DatabaseProvider}.
+ *
+ * <p>If content deduplication is enabled, then a SHA-256 digest of each uncompressed cache file is
+ * passed to {@link Cache#commitFile(File, long, byte[])}, so that the {@link Cache} can store cache
+ * files with identical content only once. {@link SimpleCache} does this when it's created with a
+ * {@link androidx.media3.database.DatabaseProvider}.
  */
 @UnstableApi
 public final class CacheDataSink implements DataSink {
@@ -51,6 +72,8 @@ public final class CacheDataSink implements DataSink {
     private @MonotonicNonNull Cache cache;
     private long fragmentSize;
     private int bufferSize;
+    @Nullable private Predicate<DataSpec> compressionPredicate;
+    private boolean contentDeduplicationEnabled;
 
     /** Creates an instance. */
     public Factory() {
@@ -106,9 +129,48 @@ public final class CacheDataSink implements DataSink {
       return this;
     }
 
+    /**
+     * Sets a {@link Predicate} that's used to determine whether the data for a request should be
+     * compressed in the cache. {@link #TEXT_CONTENT_PREDICATE} can be used to compress manifests,
+     * playlists and subtitles, which typically compress well.
+     *
+     * <p>The default value is {@code null}, which disables compression.
+     *
+     * @param compressionPredicate The compression {@link Predicate}, or {@code null} to disable
+     *     compression.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setCompressionPredicate(@Nullable Predicate<DataSpec> compressionPredicate) {
+      this.compressionPredicate = compressionPredicate;
+      return this;
+    }
+
+    /**
+     * Sets whether a digest of the content of each cache file is computed and passed to the {@link
+     * Cache} when the file is committed, so that the {@link Cache} can store cache files with
+     * identical content only once. This is useful when the same media is cached under different
+     * keys, for example if it's downloaded for multiple manifests.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * @param contentDeduplicationEnabled Whether content deduplication is enabled.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setContentDeduplicationEnabled(boolean contentDeduplicationEnabled) {
+      this.contentDeduplicationEnabled = contentDeduplicationEnabled;
+      return this;
+    }
+
     @Override
     public DataSink createDataSink() {
-      return new CacheDataSink(checkNotNull(cache), fragmentSize, bufferSize);
+      return new CacheDataSink(
+          checkNotNull(cache),
+          fragmentSize,
+          bufferSize,
+          compressionPredicate,
+          contentDeduplicationEnabled);
     }
   }
 
@@ -126,20 +188,48 @@ public final class CacheDataSink implements DataSink {
   /** Default buffer size in bytes. */
   public static final int DEFAULT_BUFFER_SIZE = 20 * 1024;
 
+  /**
+   * A compression {@link Predicate} that matches requests for text content, which typically
+   * compresses well. Matches requests for HLS playlists, DASH manifests and SmoothStreaming
+   * manifests, and for XML, JSON and subtitle files, based on the requested {@link DataSpec#uri}.
+   */
+  public static final Predicate<DataSpec> TEXT_CONTENT_PREDICATE =
+      dataSpec -> {
+        if (Util.inferContentType(dataSpec.uri) != C.CONTENT_TYPE_OTHER) {
+          return true;
+        }
+        @Nullable String lastPathSegment = dataSpec.uri.getLastPathSegment();
+        if (lastPathSegment == null) {
+          return false;
+        }
+        String extension =
+            Ascii.toLowerCase(lastPathSegment.substring(lastPathSegment.lastIndexOf('.') + 1));
+        return CacheDataSink.TEXT_FILE_EXTENSIONS.contains(extension);
+      };
+
   private static final long MIN_RECOMMENDED_FRAGMENT_SIZE = 2 * 1024 * 1024;
+  private static final ImmutableSet<String> TEXT_FILE_EXTENSIONS =
+      ImmutableSet.of("vtt", "webvtt", "ttml", "dfxp", "srt", "xml", "json");
   private static final String TAG = "CacheDataSink";
+  private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
 
   private final Cache cache;
   private final long fragmentSize;
   private final int bufferSize;
+  @Nullable private final Predicate<DataSpec> compressionPredicate;
+  private final boolean contentDeduplicationEnabled;
 
   @Nullable private DataSpec dataSpec;
+  private boolean compressDataSpec;
   private long dataSpecFragmentSize;
   @Nullable private File file;
   @Nullable private OutputStream outputStream;
   private long outputStreamBytesWritten;
+  private long outputStreamBytesFlushed;
   private long dataSpecBytesWritten;
   private @MonotonicNonNull ReusableBufferedOutputStream bufferedOutputStream;
+  @Nullable private Deflater deflater;
+  @Nullable private MessageDigest contentDigest;
 
   /**
    * Constructs an instance using {@link #DEFAULT_BUFFER_SIZE}.
@@ -166,6 +256,54 @@ public final class CacheDataSink implements DataSink {
    *     value disables buffering.
    */
   public CacheDataSink(Cache cache, long fragmentSize, int bufferSize) {
+    this(cache, fragmentSize, bufferSize, /* compressionPredicate= */ null);
+  }
+
+  /**
+   * @param cache The cache into which data should be written.
+   * @param fragmentSize For requests that should be fragmented into multiple cache files, this is
+   *     the maximum size of a cache file in bytes. If set to {@link C#LENGTH_UNSET} then no
+   *     fragmentation will occur. Using a small value allows for finer-grained cache eviction
+   *     policies, at the cost of increased overhead both on the cache implementation and the file
+   *     system. Values under {@code (2 * 1024 * 1024)} are not recommended.
+   * @param bufferSize The buffer size in bytes for writing to a cache file. A zero or negative
+   *     value disables buffering.
+   * @param compressionPredicate A {@link Predicate} that's used to determine whether the data for a
+   *     request should be compressed in the cache, or {@code null} to disable compression.
+   */
+  public CacheDataSink(
+      Cache cache,
+      long fragmentSize,
+      int bufferSize,
+      @Nullable Predicate<DataSpec> compressionPredicate) {
+    this(
+        cache,
+        fragmentSize,
+        bufferSize,
+        compressionPredicate,
+        /* contentDeduplicationEnabled= */ false);
+  }
+
+  /**
+   * @param cache The cache into which data should be written.
+   * @param fragmentSize For requests that should be fragmented into multiple cache files, this is
+   *     the maximum size of a cache file in bytes. If set to {@link C#LENGTH_UNSET} then no
+   *     fragmentation will occur. Using a small value allows for finer-grained cache eviction
+   *     policies, at the cost of increased overhead both on the cache implementation and the file
+   *     system. Values under {@code (2 * 1024 * 1024)} are not recommended.
+   * @param bufferSize The buffer size in bytes for writing to a cache file. A zero or negative
+   *     value disables buffering.
+   * @param compressionPredicate A {@link Predicate} that's used to determine whether the data for a
+   *     request should be compressed in the cache, or {@code null} to disable compression.
+   * @param contentDeduplicationEnabled Whether a digest of the content of each uncompressed cache
+   *     file is passed to the cache when the file is committed.
+   */
+  public CacheDataSink(
+      Cache cache,
+      long fragmentSize,
+      int bufferSize,
+      @Nullable Predicate<DataSpec> compressionPredicate,
+      boolean contentDeduplicationEnabled) {
     Assertions.checkState(
         fragmentSize > 0 || fragmentSize == C.LENGTH_UNSET,
         "fragmentSize must be positive or C.LENGTH_UNSET.");
@@ -179,6 +317,8 @@ public final class CacheDataSink implements DataSink {
     this.cache = checkNotNull(cache);
     this.fragmentSize = fragmentSize == C.LENGTH_UNSET ? Long.MAX_VALUE : fragmentSize;
     this.bufferSize = bufferSize;
+    this.compressionPredicate = compressionPredicate;
+    this.contentDeduplicationEnabled = contentDeduplicationEnabled;
   }
 
   @Override
@@ -194,6 +334,9 @@ public final class CacheDataSink implements DataSink {
         dataSpec.isFlagSet(DataSpec.FLAG_ALLOW_CACHE_FRAGMENTATION) ? fragmentSize : Long.MAX_VALUE;
     dataSpecBytesWritten = 0;
     try {
+      compressDataSpec = shouldCompress(dataSpec);
+      contentDigest =
+          contentDeduplicationEnabled && !compressDataSpec ? createContentDigest() : null;
       openNextOutputStream(dataSpec);
     } catch (IOException e) {
       throw new CacheDataSinkException(e);
@@ -216,10 +359,14 @@ public final class CacheDataSink implements DataSink {
         int bytesToWrite =
             (int) min(length - bytesWritten, dataSpecFragmentSize - outputStreamBytesWritten);
         castNonNull(outputStream).write(buffer, offset + bytesWritten, bytesToWrite);
+        if (contentDigest != null) {
+          contentDigest.update(buffer, offset + bytesWritten, bytesToWrite);
+        }
         bytesWritten += bytesToWrite;
         outputStreamBytesWritten += bytesToWrite;
         dataSpecBytesWritten += bytesToWrite;
       }
+      maybeFlushCurrentOutputStream();
     } catch (IOException e) {
       throw new CacheDataSinkException(e);
     }
@@ -257,7 +404,30 @@ public final class CacheDataSink implements DataSink {
     } else {
       outputStream = underlyingFileOutputStream;
     }
+    if (compressDataSpec) {
+      deflater = new Deflater();
+      // Sync flushing allows data that's flushed to be read before the file is committed.
+      outputStream = new DeflaterOutputStream(outputStream, deflater, /* syncFlush= */ true);
+    }
+    if (contentDigest != null) {
+      contentDigest.reset();
+    }
     outputStreamBytesWritten = 0;
+    outputStreamBytesFlushed = 0;
+  }
+
+  /**
+   * Flushes the current output stream once a buffer's worth of data has been written to it, and
+   * makes the flushed data available to readers of the file that's being written.
+   */
+  private void maybeFlushCurrentOutputStream() throws IOException {
+    long unflushedBytes = outputStreamBytesWritten - outputStreamBytesFlushed;
+    if (unflushedBytes == 0 || unflushedBytes < bufferSize) {
+      return;
+    }
+    castNonNull(outputStream).flush();
+    outputStreamBytesFlushed = outputStreamBytesWritten;
+    cache.updateFileLength(castNonNull(file), outputStreamBytesWritten);
   }
 
   private void closeCurrentOutputStream() throws IOException {
@@ -267,18 +437,63 @@ public final class CacheDataSink implements DataSink {
 
     boolean success = false;
     try {
+      if (outputStream instanceof DeflaterOutputStream) {
+        ((DeflaterOutputStream) outputStream).finish();
+      }
       outputStream.flush();
       success = true;
     } finally {
       Util.closeQuietly(outputStream);
       outputStream = null;
+      if (deflater != null) {
+        deflater.end();
+        deflater = null;
+      }
       File fileToCommit = castNonNull(file);
       file = null;
-      if (success) {
+      if (success && contentDigest != null) {
+        cache.commitFile(fileToCommit, outputStreamBytesWritten, contentDigest.digest());
+      } else if (success) {
         cache.commitFile(fileToCommit, outputStreamBytesWritten);
       } else {
         fileToCommit.delete();
       }
     }
   }
+
+  private boolean shouldCompress(DataSpec dataSpec) {
+    String key = castNonNull(dataSpec.key);
+    if (ContentMetadata.CONTENT_ENCODING_DEFLATE.equals(
+        ContentMetadata.getContentEncoding(cache.getContentMetadata(key)))) {
+      // Existing cache files of the resource are compressed.
+      return true;
+    }
+    if (compressionPredicate == null
+        || !compressionPredicate.apply(dataSpec)
+        || cache.getCachedBytes(key, /* position= */ 0, C.LENGTH_UNSET) > 0) {
+      return false;
+    }
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setContentEncoding(
+        mutations, ContentMetadata.CONTENT_ENCODING_DEFLATE);
+    try {
+      cache.applyContentMetadataMutations(key, mutations);
+    } catch (CacheException e) {
+      // Store the data uncompressed, which doesn't require the encoding to be recorded.
+      Log.w(TAG, "Failed to record content encoding", e);
+      return false;
+    }
+    return true;
+  }
+
+  @Nullable
+  private static MessageDigest createContentDigest() {
+    try {
+      return MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // Deduplication is an optimization, so the data can be cached without it.
+      Log.w(TAG, "Content digest algorithm unavailable", e);
+      return null;
+    }
+  }
 }
@@ -57,7 +57,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 /**
  * A {@link DataSource} that reads and writes a {@link Cache}. Requests are fulfilled from the cache
  * when possible. When data is not cached it is requested from an upstream {@link DataSource} and
- * written into the cache.
+ * written into the cache. Cache files that were compressed by {@link CacheDataSink} are
+ * decompressed when they're read.
  */
 @UnstableApi
 public final class CacheDataSource implements DataSource {
@@ -174,6 +175,15 @@ public final class CacheDataSource implements DataSource {
       return this;
     }
 
+    /**
+     * Returns the {@link DataSource.Factory} for upstream {@link DataSource DataSources}, or {@code
+     * null} if there is none.
+     */
+    @Nullable
+    public DataSource.Factory getUpstreamDataSourceFactory() {
+      return upstreamDataSourceFactory;
+    }
+
     /**
      * Sets an optional {@link PriorityTaskManager} to use when requesting data from upstream.
      *
@@ -344,8 +354,8 @@ public final class CacheDataSource implements DataSource {
 
   /**
    * Flags controlling the CacheDataSource's behavior. Possible flag values are {@link
-   * #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR} and {@link
-   * #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS}.
+   * #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR}, {@link
+   * #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS} and {@link #FLAG_JOIN_CONCURRENT_WRITES}.
    */
   @Documented
   @Retention(RetentionPolicy.SOURCE)
@@ -355,7 +365,8 @@ public final class CacheDataSource implements DataSource {
       value = {
         FLAG_BLOCK_ON_CACHE,
         FLAG_IGNORE_CACHE_ON_ERROR,
-        FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS
+        FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS,
+        FLAG_JOIN_CONCURRENT_WRITES
       })
   public @interface Flags {}
 
@@ -378,6 +389,24 @@ public final class CacheDataSource implements DataSource {
    */
   public static final int FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS = 1 << 2; // 4
 
+  /**
+   * A flag indicating whether data that's being written into the cache by another caller is read as
+   * it's written, if the cache key is locked. If set then reads of locked data wait for the data to
+   * be written, rather than requesting the same data from upstream. If no data is written for
+   * {@link #JOIN_CONCURRENT_WRITE_TIMEOUT_MS}, then the data is read from upstream instead. Has no
+   * effect if {@link #FLAG_BLOCK_ON_CACHE} is set.
+   *
+   * <p>Data is made available to readers as it's flushed by the {@link CacheDataSink} that's
+   * writing it, and so is read in increments of the sink's buffer size.
+   */
+  public static final int FLAG_JOIN_CONCURRENT_WRITES = 1 << 3; // 8
+
+  /**
+   * The maximum time to wait for another caller to write locked data when {@link
+   * #FLAG_JOIN_CONCURRENT_WRITES} is set, in milliseconds.
+   */
+  public static final long JOIN_CONCURRENT_WRITE_TIMEOUT_MS = 2_000;
+
   /**
    * Reasons the cache may be ignored. One of {@link #CACHE_IGNORED_REASON_ERROR} or {@link
    * #CACHE_IGNORED_REASON_UNSET_LENGTH}.
@@ -404,6 +433,7 @@ public final class CacheDataSource implements DataSource {
 
   private final Cache cache;
   private final DataSource cacheReadDataSource;
+  private final DataSource inflatingCacheReadDataSource;
   @Nullable private final DataSource cacheWriteDataSource;
   private final DataSource upstreamDataSource;
   private final CacheKeyFactory cacheKeyFactory;
@@ -412,6 +442,7 @@ public final class CacheDataSource implements DataSource {
   private final boolean blockOnCache;
   private final boolean ignoreCacheOnError;
   private final boolean ignoreCacheForUnsetLengthRequests;
+  private final boolean joinConcurrentWrites;
 
   @Nullable private Uri actualUri;
   @Nullable private DataSpec requestDataSpec;
@@ -445,8 +476,9 @@ public final class CacheDataSource implements DataSource {
    * @param cache The cache.
    * @param upstreamDataSource A {@link DataSource} for reading data not in the cache. If null,
    *     reading will fail if a cache miss occurs.
-   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR}
-   *     and {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS}, or 0.
+   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link
+   *     #FLAG_IGNORE_CACHE_ON_ERROR}, {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS} and
+   *     {@link #FLAG_JOIN_CONCURRENT_WRITES}, or 0.
    */
   public CacheDataSource(Cache cache, @Nullable DataSource upstreamDataSource, @Flags int flags) {
     this(
@@ -469,8 +501,9 @@ public final class CacheDataSource implements DataSource {
    * @param cacheReadDataSource A {@link DataSource} for reading data from the cache.
    * @param cacheWriteDataSink A {@link DataSink} for writing data to the cache. If null, cache is
    *     accessed read-only.
-   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR}
-   *     and {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS}, or 0.
+   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link
+   *     #FLAG_IGNORE_CACHE_ON_ERROR}, {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS} and
+   *     {@link #FLAG_JOIN_CONCURRENT_WRITES}, or 0.
    * @param eventListener An optional {@link EventListener} to receive events.
    */
   public CacheDataSource(
@@ -501,8 +534,9 @@ public final class CacheDataSource implements DataSource {
    * @param cacheReadDataSource A {@link DataSource} for reading data from the cache.
    * @param cacheWriteDataSink A {@link DataSink} for writing data to the cache. If null, cache is
    *     accessed read-only.
-   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR}
-   *     and {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS}, or 0.
+   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link
+   *     #FLAG_IGNORE_CACHE_ON_ERROR}, {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS} and
+   *     {@link #FLAG_JOIN_CONCURRENT_WRITES}, or 0.
    * @param eventListener An optional {@link EventListener} to receive events.
    * @param cacheKeyFactory An optional factory for cache keys.
    */
@@ -538,11 +572,13 @@ public final class CacheDataSource implements DataSource {
       @Nullable EventListener eventListener) {
     this.cache = cache;
     this.cacheReadDataSource = cacheReadDataSource;
+    this.inflatingCacheReadDataSource = new InflatingDataSource(cacheReadDataSource);
     this.cacheKeyFactory = cacheKeyFactory != null ? cacheKeyFactory : CacheKeyFactory.DEFAULT;
     this.blockOnCache = (flags & FLAG_BLOCK_ON_CACHE) != 0;
     this.ignoreCacheOnError = (flags & FLAG_IGNORE_CACHE_ON_ERROR) != 0;
     this.ignoreCacheForUnsetLengthRequests =
         (flags & FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS) != 0;
+    this.joinConcurrentWrites = (flags & FLAG_JOIN_CONCURRENT_WRITES) != 0;
     if (upstreamDataSource != null) {
       if (upstreamPriorityTaskManager != null) {
         upstreamDataSource =
@@ -719,6 +755,20 @@ public final class CacheDataSource implements DataSource {
         Thread.currentThread().interrupt();
         throw new InterruptedIOException();
       }
+    } else if (joinConcurrentWrites) {
+      try {
+        // Don't wait if we're already reading from upstream, since it's not worth stalling an open
+        // upstream request.
+        nextSpan =
+            cache.startReadWriteOrJoinWrite(
+                key,
+                readPosition,
+                bytesRemaining,
+                /* timeoutMs= */ checkCache ? 0 : JOIN_CONCURRENT_WRITE_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
     } else {
       nextSpan = cache.startReadWriteNonBlocking(key, readPosition, bytesRemaining);
     }
@@ -726,8 +776,8 @@ public final class CacheDataSource implements DataSource {
     DataSpec nextDataSpec;
     DataSource nextDataSource;
     if (nextSpan == null) {
-      // The data is locked in the cache, or we're ignoring the cache. Bypass the cache and read
-      // from upstream.
+      // The data is locked in the cache (and isn't being written, if we're joining concurrent
+      // writes), or we're ignoring the cache. Bypass the cache and read from upstream.
       nextDataSource = upstreamDataSource;
       nextDataSpec =
           requestDataSpec.buildUpon().setPosition(readPosition).setLength(bytesRemaining).build();
@@ -748,7 +798,11 @@ public final class CacheDataSource implements DataSource {
               .setPosition(positionInFile)
               .setLength(length)
               .build();
-      nextDataSource = cacheReadDataSource;
+      nextDataSource =
+          ContentMetadata.CONTENT_ENCODING_DEFLATE.equals(
+                  ContentMetadata.getContentEncoding(cache.getContentMetadata(key)))
+              ? inflatingCacheReadDataSource
+              : cacheReadDataSource;
     } else {
       // Data is not cached, and data is not locked, read from upstream with cache backing.
       long length;
@@ -840,7 +894,8 @@ public final class CacheDataSource implements DataSource {
   }
 
   private boolean isReadingFromCache() {
-    return currentDataSource == cacheReadDataSource;
+    return currentDataSource == cacheReadDataSource
+        || currentDataSource == inflatingCacheReadDataSource;
   }
 
   private boolean isWritingToCache() {
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import androidx.annotation.DoNotInline;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.Util;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Tracks cache files by a digest of their content, so that a file with the same content as an
+ * existing file can be replaced by a hard link to the existing file.
+ *
+ * <p>Files that are linked share their storage, which the file system frees when the last of them
+ * is deleted. This reference counting means that each file can be removed from the cache
+ * independently of the others, in the same way as a file that isn't linked.
+ *
+ * <p>This class is not thread safe.
+ */
+/* package */ final class CacheFileDeduplicator {
+
+  private static final String TAG = "CacheFileDeduplicator";
+  private static final String TEMPORARY_LINK_SUFFIX = ".link";
+
+  private final HashMap<String, ArrayList<File>> filesByContentDigest;
+  private final HashMap<File, String> contentDigestsByFile;
+
+  public CacheFileDeduplicator() {
+    filesByContentDigest = new HashMap<>();
+    contentDigestsByFile = new HashMap<>();
+  }
+
+  /**
+   * Adds a file.
+   *
+   * @param file The file.
+   * @param contentDigest A hex encoded digest of the content of the file.
+   */
+  public void add(File file, String contentDigest) {
+    @Nullable String previousContentDigest = contentDigestsByFile.put(file, contentDigest);
+    if (previousContentDigest != null) {
+      removeFromDigest(file, previousContentDigest);
+    }
+    @Nullable ArrayList<File> files = filesByContentDigest.get(contentDigest);
+    if (files == null) {
+      files = new ArrayList<>(/* initialCapacity= */ 1);
+      filesByContentDigest.put(contentDigest, files);
+    }
+    files.add(file);
+  }
+
+  /** Removes a file. Does nothing if the file was not added. */
+  public void remove(File file) {
+    @Nullable String contentDigest = contentDigestsByFile.remove(file);
+    if (contentDigest != null) {
+      removeFromDigest(file, contentDigest);
+    }
+  }
+
+  /** Returns the digest of the content of a file, or {@code null} if the file was not added. */
+  @Nullable
+  public String getContentDigest(File file) {
+    return contentDigestsByFile.get(file);
+  }
+
+  /**
+   * Replaces a file with a hard link to an added file that has the same content, if there is one.
+   * The file is left unchanged if it can't be replaced.
+   *
+   * @param file The file.
+   * @param contentDigest A hex encoded digest of the content of the file.
+   * @return Whether the file was replaced.
+   */
+  public boolean deduplicate(File file, String contentDigest) {
+    @Nullable ArrayList<File> files = filesByContentDigest.get(contentDigest);
+    if (files == null) {
+      return false;
+    }
+    long length = file.length();
+    for (int i = 0; i < files.size(); i++) {
+      File existingFile = files.get(i);
+      if (existingFile.equals(file) || existingFile.length() != length) {
+        continue;
+      }
+      // Link to a temporary file first, so that the file is left unchanged if linking fails.
+      File temporaryLink = new File(file.getPath() + TEMPORARY_LINK_SUFFIX);
+      temporaryLink.delete();
+      try {
+        link(existingFile, temporaryLink);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to link " + file + " to " + existingFile, e);
+        temporaryLink.delete();
+        return false;
+      }
+      if (!temporaryLink.renameTo(file)) {
+        temporaryLink.delete();
+        return false;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private void removeFromDigest(File file, String contentDigest) {
+    @Nullable ArrayList<File> files = filesByContentDigest.get(contentDigest);
+    if (files != null) {
+      files.remove(file);
+      if (files.isEmpty()) {
+        filesByContentDigest.remove(contentDigest);
+      }
+    }
+  }
+
+  private static void link(File existingFile, File newFile) throws IOException {
+    if (Util.SDK_INT >= 26) {
+      Api26.link(existingFile, newFile);
+    } else {
+      try {
+        Os.link(existingFile.getPath(), newFile.getPath());
+      } catch (ErrnoException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  @RequiresApi(26)
+  private static final class Api26 {
+    @DoNotInline
+    public static void link(File existingFile, File newFile) throws IOException {
+      Files.createLink(newFile.toPath(), existingFile.toPath());
+    }
+  }
+}
@@ -15,14 +15,20 @@
  */
 package androidx.media3.datasource.cache;
 
+import androidx.annotation.Nullable;
+
 /** Metadata associated with a cache file. */
 /* package */ final class CacheFileMetadata {
 
   public final long length;
   public final long lastTouchTimestamp;
 
-  public CacheFileMetadata(long length, long lastTouchTimestamp) {
+  /** A hex encoded digest of the content of the file, or {@code null} if unknown. */
+  @Nullable public final String contentDigest;
+
+  public CacheFileMetadata(long length, long lastTouchTimestamp, @Nullable String contentDigest) {
     this.length = length;
     this.lastTouchTimestamp = lastTouchTimestamp;
+    this.contentDigest = contentDigest;
   }
 }
@@ -17,12 +17,14 @@ package androidx.media3.datasource.cache;
 
 import static androidx.media3.common.util.Assertions.checkNotNull;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.media3.common.util.Assertions;
+import androidx.media3.common.util.NullableType;
 import androidx.media3.database.DatabaseIOException;
 import androidx.media3.database.DatabaseProvider;
 import androidx.media3.database.VersionTable;
@@ -35,21 +37,23 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 /* package */ final class CacheFileMetadataIndex {
 
   private static final String TABLE_PREFIX = DatabaseProvider.TABLE_PREFIX + "CacheFileMetadata";
-  private static final int TABLE_VERSION = 1;
+  private static final int TABLE_VERSION = 2;
 
   private static final String COLUMN_NAME = "name";
   private static final String COLUMN_LENGTH = "length";
   private static final String COLUMN_LAST_TOUCH_TIMESTAMP = "last_touch_timestamp";
+  private static final String COLUMN_CONTENT_DIGEST = "content_digest";
 
   private static final int COLUMN_INDEX_NAME = 0;
   private static final int COLUMN_INDEX_LENGTH = 1;
   private static final int COLUMN_INDEX_LAST_TOUCH_TIMESTAMP = 2;
+  private static final int COLUMN_INDEX_CONTENT_DIGEST = 3;
 
   private static final String WHERE_NAME_EQUALS = COLUMN_NAME + " = ?";
 
   private static final String[] COLUMNS =
       new String[] {
-        COLUMN_NAME, COLUMN_LENGTH, COLUMN_LAST_TOUCH_TIMESTAMP,
+        COLUMN_NAME, COLUMN_LENGTH, COLUMN_LAST_TOUCH_TIMESTAMP, COLUMN_CONTENT_DIGEST,
       };
   private static final String TABLE_SCHEMA =
       "("
@@ -58,7 +62,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
           + COLUMN_LENGTH
           + " INTEGER NOT NULL,"
           + COLUMN_LAST_TOUCH_TIMESTAMP
-          + " INTEGER NOT NULL)";
+          + " INTEGER NOT NULL,"
+          + COLUMN_CONTENT_DIGEST
+          + " TEXT)";
 
   private final DatabaseProvider databaseProvider;
 
@@ -124,8 +130,15 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         try {
           VersionTable.setVersion(
               writableDatabase, VersionTable.FEATURE_CACHE_FILE_METADATA, hexUid, TABLE_VERSION);
-          dropTable(writableDatabase, tableName);
-          writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
+          if (version == 1) {
+            // Version 1 doesn't have the content digest column. The lengths in the table must be
+            // kept, because they may differ from the lengths of compressed files.
+            writableDatabase.execSQL(
+                "ALTER TABLE " + tableName + " ADD COLUMN " + COLUMN_CONTENT_DIGEST + " TEXT");
+          } else {
+            dropTable(writableDatabase, tableName);
+            writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
+          }
           writableDatabase.setTransactionSuccessful();
         } finally {
           writableDatabase.endTransaction();
@@ -153,7 +166,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         String name = checkNotNull(cursor.getString(COLUMN_INDEX_NAME));
         long length = cursor.getLong(COLUMN_INDEX_LENGTH);
         long lastTouchTimestamp = cursor.getLong(COLUMN_INDEX_LAST_TOUCH_TIMESTAMP);
-        fileMetadata.put(name, new CacheFileMetadata(length, lastTouchTimestamp));
+        @Nullable String contentDigest = cursor.getString(COLUMN_INDEX_CONTENT_DIGEST);
+        fileMetadata.put(name, new CacheFileMetadata(length, lastTouchTimestamp, contentDigest));
       }
       return fileMetadata;
     } catch (SQLException e) {
@@ -169,18 +183,64 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    * @param name The name of the file.
    * @param length The file length.
    * @param lastTouchTimestamp The file last touch timestamp.
+   * @param contentDigest A hex encoded digest of the file content, or {@code null} if unknown.
    * @throws DatabaseIOException If an error occurs setting the metadata.
    */
   @WorkerThread
-  public void set(String name, long length, long lastTouchTimestamp) throws DatabaseIOException {
+  public void set(String name, long length, long lastTouchTimestamp, @Nullable String contentDigest)
+      throws DatabaseIOException {
     Assertions.checkNotNull(tableName);
     try {
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      ContentValues values = new ContentValues();
-      values.put(COLUMN_NAME, name);
-      values.put(COLUMN_LENGTH, length);
-      values.put(COLUMN_LAST_TOUCH_TIMESTAMP, lastTouchTimestamp);
-      writableDatabase.replaceOrThrow(tableName, /* nullColumnHack= */ null, values);
+      try (SQLiteStatement statement = compileSetStatement(writableDatabase)) {
+        bindSetStatement(statement, name, length, lastTouchTimestamp, contentDigest);
+        statement.executeInsert();
+      }
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * Sets and removes metadata in a single transaction, which is much faster than setting and
+   * removing the metadata of each file separately.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param updates The metadata to set, keyed by file name. The metadata of files that are mapped
+   *     to {@code null} is removed.
+   * @throws DatabaseIOException If an error occurs updating the metadata, in which case none of the
+   *     updates are applied.
+   */
+  @WorkerThread
+  public void update(Map<String, @NullableType CacheFileMetadata> updates)
+      throws DatabaseIOException {
+    Assertions.checkNotNull(tableName);
+    if (updates.isEmpty()) {
+      return;
+    }
+    try {
+      databaseProvider.runInTransaction(
+          writableDatabase -> {
+            try (SQLiteStatement setStatement = compileSetStatement(writableDatabase);
+                SQLiteStatement removeStatement = compileRemoveStatement(writableDatabase)) {
+              for (Map.Entry<String, @NullableType CacheFileMetadata> update : updates.entrySet()) {
+                @Nullable CacheFileMetadata metadata = update.getValue();
+                if (metadata == null) {
+                  removeStatement.bindString(1, update.getKey());
+                  removeStatement.executeUpdateDelete();
+                } else {
+                  bindSetStatement(
+                      setStatement,
+                      update.getKey(),
+                      metadata.length,
+                      metadata.lastTouchTimestamp,
+                      metadata.contentDigest);
+                  setStatement.executeInsert();
+                }
+              }
+            }
+          });
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
@@ -216,17 +276,19 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @WorkerThread
   public void removeAll(Set<String> names) throws DatabaseIOException {
     Assertions.checkNotNull(tableName);
+    if (names.isEmpty()) {
+      return;
+    }
     try {
-      SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      writableDatabase.beginTransactionNonExclusive();
-      try {
-        for (String name : names) {
-          writableDatabase.delete(tableName, WHERE_NAME_EQUALS, new String[] {name});
-        }
-        writableDatabase.setTransactionSuccessful();
-      } finally {
-        writableDatabase.endTransaction();
-      }
+      databaseProvider.runInTransaction(
+          writableDatabase -> {
+            try (SQLiteStatement statement = compileRemoveStatement(writableDatabase)) {
+              for (String name : names) {
+                statement.bindString(1, name);
+                statement.executeUpdateDelete();
+              }
+            }
+          });
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
@@ -246,6 +308,42 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
             /* orderBy= */ null);
   }
 
+  private SQLiteStatement compileSetStatement(SQLiteDatabase writableDatabase) {
+    return writableDatabase.compileStatement(
+        "INSERT OR REPLACE INTO "
+            + tableName
+            + " ("
+            + COLUMN_NAME
+            + ", "
+            + COLUMN_LENGTH
+            + ", "
+            + COLUMN_LAST_TOUCH_TIMESTAMP
+            + ", "
+            + COLUMN_CONTENT_DIGEST
+            + ") VALUES (?, ?, ?, ?)");
+  }
+
+  private SQLiteStatement compileRemoveStatement(SQLiteDatabase writableDatabase) {
+    return writableDatabase.compileStatement(
+        "DELETE FROM " + tableName + " WHERE " + WHERE_NAME_EQUALS);
+  }
+
+  private static void bindSetStatement(
+      SQLiteStatement statement,
+      String name,
+      long length,
+      long lastTouchTimestamp,
+      @Nullable String contentDigest) {
+    statement.bindString(1, name);
+    statement.bindLong(2, length);
+    statement.bindLong(3, lastTouchTimestamp);
+    if (contentDigest == null) {
+      statement.bindNull(4);
+    } else {
+      statement.bindString(4, contentDigest);
+    }
+  }
+
   private static void dropTable(SQLiteDatabase writableDatabase, String tableName) {
     writableDatabase.execSQL("DROP TABLE IF EXISTS " + tableName);
   }
@@ -15,16 +15,27 @@
  */
 package androidx.media3.datasource.cache;
 
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.media3.common.C;
 import androidx.media3.common.PriorityTaskManager;
 import androidx.media3.common.PriorityTaskManager.PriorityTooLowException;
+import androidx.media3.common.util.RunnableFutureTask;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSourceUtil;
 import androidx.media3.datasource.DataSpec;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /** Caching related utility methods. */
 @UnstableApi
@@ -54,6 +65,10 @@ public final class CacheWriter {
   private final String cacheKey;
   private final byte[] temporaryBuffer;
   @Nullable private final ProgressListener progressListener;
+  @Nullable private final CacheDataSource.Factory chunkDataSourceFactory;
+  @Nullable private final Executor chunkExecutor;
+  private final long chunkLength;
+  private final ArrayList<ChunkCacheRunnable> activeChunkRunnables;
 
   private long nextPosition;
   private long endPosition;
@@ -73,12 +88,73 @@ public final class CacheWriter {
       DataSpec dataSpec,
       @Nullable byte[] temporaryBuffer,
       @Nullable ProgressListener progressListener) {
+    this(
+        dataSource,
+        dataSpec,
+        temporaryBuffer,
+        progressListener,
+        /* chunkDataSourceFactory= */ null,
+        /* chunkExecutor= */ null,
+        /* chunkLength= */ C.LENGTH_UNSET);
+  }
+
+  /**
+   * Creates an instance that caches the requested data in chunks, which are fetched in parallel.
+   *
+   * <p>Once the length of the requested data is known, it's split into chunks of {@code
+   * chunkLength} bytes. Chunks that aren't fully cached are cached on {@code executor}, each using
+   * its own {@link CacheDataSource}, and so each is written to the cache as separate spans. If the
+   * length of the requested data isn't known, the data after the last cached span is requested
+   * first to resolve it. If the length still can't be determined, the data is cached sequentially.
+   *
+   * <p>{@link #cache()} blocks until all of the chunks have been cached, and so {@code executor}
+   * should not run tasks on the thread that calls it, other than by running them directly (e.g.,
+   * {@code Runnable::run}).
+   *
+   * @param dataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the data
+   *     will be written.
+   * @param dataSpec Defines the data to be written.
+   * @param progressListener An optional progress listener. Progress of all chunks is aggregated.
+   *     The listener may be called from the threads used by {@code executor}, but calls are never
+   *     made concurrently.
+   * @param executor An {@link Executor} used to cache chunks.
+   * @param chunkLength The maximum length of each chunk, in bytes.
+   */
+  public CacheWriter(
+      CacheDataSource.Factory dataSourceFactory,
+      DataSpec dataSpec,
+      @Nullable ProgressListener progressListener,
+      Executor executor,
+      long chunkLength) {
+    this(
+        dataSourceFactory.createDataSourceForDownloading(),
+        dataSpec,
+        /* temporaryBuffer= */ null,
+        progressListener,
+        dataSourceFactory,
+        executor,
+        chunkLength);
+    checkArgument(chunkLength > 0);
+  }
+
+  private CacheWriter(
+      CacheDataSource dataSource,
+      DataSpec dataSpec,
+      @Nullable byte[] temporaryBuffer,
+      @Nullable ProgressListener progressListener,
+      @Nullable CacheDataSource.Factory chunkDataSourceFactory,
+      @Nullable Executor chunkExecutor,
+      long chunkLength) {
     this.dataSource = dataSource;
     this.cache = dataSource.getCache();
     this.dataSpec = dataSpec;
     this.temporaryBuffer =
         temporaryBuffer == null ? new byte[DEFAULT_BUFFER_SIZE_BYTES] : temporaryBuffer;
     this.progressListener = progressListener;
+    this.chunkDataSourceFactory = chunkDataSourceFactory;
+    this.chunkExecutor = chunkExecutor;
+    this.chunkLength = chunkLength;
+    activeChunkRunnables = new ArrayList<>();
     cacheKey = dataSource.getCacheKeyFactory().buildCacheKey(dataSpec);
     nextPosition = dataSpec.position;
   }
@@ -89,7 +165,12 @@ public final class CacheWriter {
    * operation has been canceled.
    */
   public void cancel() {
-    isCanceled = true;
+    synchronized (activeChunkRunnables) {
+      isCanceled = true;
+      for (int i = 0; i < activeChunkRunnables.size(); i++) {
+        activeChunkRunnables.get(i).cancel(/* interruptIfRunning= */ true);
+      }
+    }
   }
 
   /**
@@ -122,6 +203,16 @@ public final class CacheWriter {
       progressListener.onProgress(getLength(), bytesCached, /* newBytesCached= */ 0);
     }
 
+    if (chunkExecutor != null) {
+      if (endPosition == C.INDEX_UNSET) {
+        resolveEndPosition();
+      }
+      if (endPosition != C.INDEX_UNSET) {
+        cacheChunks(chunkExecutor);
+        return;
+      }
+    }
+
     while (endPosition == C.INDEX_UNSET || nextPosition < endPosition) {
       throwIfCanceled();
       long maxRemainingLength =
@@ -138,6 +229,131 @@ public final class CacheWriter {
     }
   }
 
+  /**
+   * Resolves the end position of the requested data by opening the data source with an unbounded
+   * request after the last cached span. The start of the response is cached, which ensures that the
+   * resolved length is retained in the cache's metadata.
+   *
+   * @throws IOException If an error occurs reading the data, or writing the data into the cache.
+   */
+  private void resolveEndPosition() throws IOException {
+    long position = nextPosition;
+    long blockLength;
+    while ((blockLength = cache.getCachedLength(cacheKey, position, Long.MAX_VALUE))
+        != -Long.MAX_VALUE) {
+      position += abs(blockLength);
+    }
+    DataSpec unboundedDataSpec =
+        dataSpec.buildUpon().setPosition(position).setLength(C.LENGTH_UNSET).build();
+    try {
+      long resolvedLength = dataSource.open(unboundedDataSpec);
+      if (resolvedLength != C.LENGTH_UNSET) {
+        onRequestEndPosition(position + resolvedLength);
+        int bytesRead =
+            resolvedLength > 0
+                ? dataSource.read(
+                    temporaryBuffer,
+                    /* offset= */ 0,
+                    (int) min(temporaryBuffer.length, min(chunkLength, resolvedLength)))
+                : 0;
+        if (bytesRead > 0) {
+          onNewBytesCached(bytesRead);
+        }
+      }
+    } catch (IOException e) {
+      DataSourceUtil.closeQuietly(dataSource);
+      throw e;
+    }
+    dataSource.close();
+  }
+
+  /**
+   * Caches the data up to the end position in chunks, which are cached in parallel on the given
+   * executor.
+   *
+   * @param executor The {@link Executor} on which to cache the chunks.
+   * @throws IOException If an error occurs caching one of the chunks.
+   */
+  private void cacheChunks(Executor executor) throws IOException {
+    ArrayDeque<ChunkCacheRunnable> recycledRunnables = new ArrayDeque<>();
+    try {
+      for (long position = nextPosition; position < endPosition; position += chunkLength) {
+        throwIfCanceled();
+        long length = min(chunkLength, endPosition - position);
+        if (cache.getCachedBytes(cacheKey, position, length) == length) {
+          continue;
+        }
+        DataSpec chunkDataSpec = dataSpec.subrange(position - dataSpec.position, length);
+        @Nullable ChunkCacheRunnable recycledRunnable = recycledRunnables.pollFirst();
+        ChunkCacheRunnable chunkRunnable =
+            recycledRunnable != null
+                ? new ChunkCacheRunnable(
+                    chunkDataSpec, recycledRunnable.dataSource, recycledRunnable.temporaryBuffer)
+                : new ChunkCacheRunnable(
+                    chunkDataSpec,
+                    checkNotNull(chunkDataSourceFactory).createDataSourceForDownloading(),
+                    new byte[DEFAULT_BUFFER_SIZE_BYTES]);
+        synchronized (activeChunkRunnables) {
+          throwIfCanceled();
+          activeChunkRunnables.add(chunkRunnable);
+        }
+        executor.execute(chunkRunnable);
+        // Clean up runnables that have finished, without blocking.
+        removeFinishedChunkRunnables(recycledRunnables, /* blockUntilFinished= */ false);
+        // Don't move on to the next chunk until the runnable for this chunk has started. This drip
+        // feeds runnables to the executor, rather than providing them all up front.
+        chunkRunnable.blockUntilStarted();
+      }
+      removeFinishedChunkRunnables(recycledRunnables, /* blockUntilFinished= */ true);
+      nextPosition = endPosition;
+    } finally {
+      // If one of the runnables has thrown an exception, then it's possible there are other active
+      // runnables still doing work. Cancel them, and wait until they finish.
+      synchronized (activeChunkRunnables) {
+        for (int i = 0; i < activeChunkRunnables.size(); i++) {
+          activeChunkRunnables.get(i).cancel(/* interruptIfRunning= */ true);
+        }
+      }
+      for (int i = activeChunkRunnables.size() - 1; i >= 0; i--) {
+        activeChunkRunnables.get(i).blockUntilFinished();
+        removeActiveChunkRunnable(i);
+      }
+    }
+  }
+
+  private void removeFinishedChunkRunnables(
+      ArrayDeque<ChunkCacheRunnable> recycledRunnables, boolean blockUntilFinished)
+      throws IOException {
+    for (int i = activeChunkRunnables.size() - 1; i >= 0; i--) {
+      ChunkCacheRunnable chunkRunnable = activeChunkRunnables.get(i);
+      if (!blockUntilFinished && !chunkRunnable.isDone()) {
+        continue;
+      }
+      try {
+        chunkRunnable.get();
+      } catch (ExecutionException e) {
+        Throwable cause = checkNotNull(e.getCause());
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else {
+          // The cause must be an uncaught Throwable type.
+          Util.sneakyThrow(cause);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      removeActiveChunkRunnable(i);
+      recycledRunnables.addLast(chunkRunnable);
+    }
+  }
+
+  private void removeActiveChunkRunnable(int index) {
+    synchronized (activeChunkRunnables) {
+      activeChunkRunnables.remove(index);
+    }
+  }
+
   /**
    * Reads the specified block of data, writing it into the cache.
    *
@@ -224,6 +440,14 @@ public final class CacheWriter {
     }
   }
 
+  private void onNewChunkBytesCached(long newBytesCached) {
+    if (newBytesCached > 0) {
+      synchronized (activeChunkRunnables) {
+        onNewBytesCached(newBytesCached);
+      }
+    }
+  }
+
   private long getLength() {
     return endPosition == C.INDEX_UNSET ? C.LENGTH_UNSET : endPosition - dataSpec.position;
   }
@@ -233,4 +457,35 @@ public final class CacheWriter {
       throw new InterruptedIOException();
     }
   }
+
+  private final class ChunkCacheRunnable extends RunnableFutureTask<Void, IOException> {
+
+    public final CacheDataSource dataSource;
+    public final byte[] temporaryBuffer;
+    private final CacheWriter cacheWriter;
+
+    public ChunkCacheRunnable(
+        DataSpec dataSpec, CacheDataSource dataSource, byte[] temporaryBuffer) {
+      this.dataSource = dataSource;
+      this.temporaryBuffer = temporaryBuffer;
+      cacheWriter =
+          new CacheWriter(
+              dataSource,
+              dataSpec,
+              temporaryBuffer,
+              /* progressListener= */ (requestLength, bytesCached, newBytesCached) ->
+                  onNewChunkBytesCached(newBytesCached));
+    }
+
+    @Override
+    protected Void doWork() throws IOException {
+      cacheWriter.cache();
+      return null;
+    }
+
+    @Override
+    protected void cancelWork() {
+      cacheWriter.cancel();
+    }
+  }
 }
@@ -26,9 +26,16 @@ import androidx.media3.common.C;
 import androidx.media3.common.util.Log;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.TreeSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-/** Defines the cached content for a single resource. */
+/**
+ * Defines the cached content for a single resource.
+ *
+ * <p>Mutations must be externally synchronized. The cached spans and metadata may be queried
+ * concurrently with mutations, without any external synchronization.
+ */
 /* package */ final class CachedContent {
 
   private static final String TAG = "CachedContent";
@@ -39,14 +46,14 @@ import java.util.TreeSet;
   /** The cache key that uniquely identifies the resource. */
   public final String key;
 
-  /** The cached spans of this content. */
-  private final TreeSet<SimpleCacheSpan> cachedSpans;
+  /** The cached spans of this content, keyed by position. */
+  private final ConcurrentSkipListMap<Long, SimpleCacheSpan> cachedSpans;
 
   /** Currently locked ranges. */
   private final ArrayList<Range> lockedRanges;
 
   /** Metadata values. */
-  private DefaultContentMetadata metadata;
+  private volatile DefaultContentMetadata metadata;
 
   /**
    * Creates a CachedContent.
@@ -62,7 +69,7 @@ import java.util.TreeSet;
     this.id = id;
     this.key = key;
     this.metadata = metadata;
-    cachedSpans = new TreeSet<>();
+    cachedSpans = new ConcurrentSkipListMap<>();
     lockedRanges = new ArrayList<>();
   }
 
@@ -138,12 +145,17 @@ import java.util.TreeSet;
 
   /** Adds the given {@link SimpleCacheSpan} which contains a part of the content. */
   public void addSpan(SimpleCacheSpan span) {
-    cachedSpans.add(span);
+    cachedSpans.putIfAbsent(span.position, span);
   }
 
-  /** Returns a set of all {@link SimpleCacheSpan}s. */
-  public TreeSet<SimpleCacheSpan> getSpans() {
-    return cachedSpans;
+  /**
+   * Returns a read only collection of all {@link SimpleCacheSpan}s, ordered by position.
+   *
+   * <p>Subsequent changes to the spans are reflected in the returned collection. The collection can
+   * be safely iterated whilst the spans are being modified.
+   */
+  public Collection<SimpleCacheSpan> getSpans() {
+    return cachedSpans.values();
   }
 
   /**
@@ -155,13 +167,16 @@ import java.util.TreeSet;
    * @return The corresponding cache {@link SimpleCacheSpan}.
    */
   public SimpleCacheSpan getSpan(long position, long length) {
-    SimpleCacheSpan lookupSpan = SimpleCacheSpan.createLookup(key, position);
-    SimpleCacheSpan floorSpan = cachedSpans.floor(lookupSpan);
-    if (floorSpan != null && floorSpan.position + floorSpan.length > position) {
-      return floorSpan;
+    @Nullable Map.Entry<Long, SimpleCacheSpan> floorEntry = cachedSpans.floorEntry(position);
+    if (floorEntry != null) {
+      SimpleCacheSpan floorSpan = floorEntry.getValue();
+      if (floorSpan.position + floorSpan.length > position) {
+        return floorSpan;
+      }
     }
-    SimpleCacheSpan ceilSpan = cachedSpans.ceiling(lookupSpan);
-    if (ceilSpan != null) {
+    @Nullable Map.Entry<Long, SimpleCacheSpan> ceilEntry = cachedSpans.ceilingEntry(position);
+    if (ceilEntry != null) {
+      SimpleCacheSpan ceilSpan = ceilEntry.getValue();
       long holeLength = ceilSpan.position - position;
       length = length == C.LENGTH_UNSET ? holeLength : min(holeLength, length);
     }
@@ -194,7 +209,8 @@ import java.util.TreeSet;
     }
     long currentEndPosition = span.position + span.length;
     if (currentEndPosition < queryEndPosition) {
-      for (SimpleCacheSpan next : cachedSpans.tailSet(span, false)) {
+      for (SimpleCacheSpan next :
+          cachedSpans.tailMap(span.position, /* inclusive= */ false).values()) {
         if (next.position > currentEndPosition) {
           // There's a hole in the cache within the queried region.
           break;
@@ -222,7 +238,7 @@ import java.util.TreeSet;
    */
   public SimpleCacheSpan setLastTouchTimestamp(
       SimpleCacheSpan cacheSpan, long lastTouchTimestamp, boolean updateFile) {
-    checkState(cachedSpans.remove(cacheSpan));
+    checkState(cachedSpans.containsKey(cacheSpan.position));
     File file = checkNotNull(cacheSpan.file);
     if (updateFile) {
       File directory = checkNotNull(file.getParentFile());
@@ -236,7 +252,8 @@ import java.util.TreeSet;
     }
     SimpleCacheSpan newCacheSpan =
         cacheSpan.copyWithFileAndLastTouchTimestamp(file, lastTouchTimestamp);
-    cachedSpans.add(newCacheSpan);
+    // Replace the span atomically, so that concurrent queries never observe a transient hole.
+    cachedSpans.put(newCacheSpan.position, newCacheSpan);
     return newCacheSpan;
   }
 
@@ -247,7 +264,7 @@ import java.util.TreeSet;
 
   /** Removes the given span from cache. */
   public boolean removeSpan(CacheSpan span) {
-    if (cachedSpans.remove(span)) {
+    if (cachedSpans.remove(span.position) != null) {
       if (span.file != null) {
         span.file.delete();
       }
@@ -275,7 +292,7 @@ import java.util.TreeSet;
     CachedContent that = (CachedContent) o;
     return id == that.id
         && key.equals(that.key)
-        && cachedSpans.equals(that.cachedSpans)
+        && cachedSpans.keySet().equals(that.cachedSpans.keySet())
         && metadata.equals(that.metadata);
   }
 
@@ -18,6 +18,7 @@ package androidx.media3.datasource.cache;
 import static androidx.media3.common.util.Assertions.checkNotNull;
 import static androidx.media3.common.util.Assertions.checkState;
 import static androidx.media3.common.util.Util.castNonNull;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import android.content.ContentValues;
@@ -30,6 +31,7 @@ import android.util.SparseBooleanArray;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
+import androidx.media3.common.C;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.AtomicFile;
 import androidx.media3.common.util.NullableType;
@@ -39,14 +41,18 @@ import androidx.media3.database.DatabaseProvider;
 import androidx.media3.database.VersionTable;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -57,6 +63,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
@@ -65,14 +73,22 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
-/** Maintains the index of cached content. */
+/**
+ * Maintains the index of cached content.
+ *
+ * <p>Mutations must be externally synchronized. {@link #get(String)}, {@link #getKeys()} and {@link
+ * #getContentMetadata(String)} may be called concurrently with mutations, without any external
+ * synchronization.
+ */
 /* package */ class CachedContentIndex {
 
   /* package */ static final String FILE_NAME_ATOMIC = "cached_content_index.exi";
 
+  /* package */ static final String FILE_NAME_JOURNAL = FILE_NAME_ATOMIC + ".journal";
+
   private static final int INCREMENTAL_METADATA_READ_LENGTH = 10 * 1024 * 1024;
 
-  private final HashMap<String, CachedContent> keyToContent;
+  private final ConcurrentHashMap<String, CachedContent> keyToContent;
 
   /**
    * Maps assigned ids to their corresponding keys. Also contains (id -> null) entries for ids that
@@ -107,7 +123,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   /** Returns whether the file is an index file. */
   public static boolean isIndexFile(String fileName) {
-    // Atomic file backups add additional suffixes to the file name.
+    // Atomic file backups and journals add additional suffixes to the file name.
     return fileName.startsWith(FILE_NAME_ATOMIC);
   }
 
@@ -162,7 +178,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       boolean legacyStorageEncrypt,
       boolean preferLegacyStorage) {
     checkState(databaseProvider != null || legacyStorageDir != null);
-    keyToContent = new HashMap<>();
+    keyToContent = new ConcurrentHashMap<>();
     idToKey = new SparseArray<>();
     removedIds = new SparseBooleanArray();
     newIds = new SparseBooleanArray();
@@ -174,6 +190,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         legacyStorageDir != null
             ? new LegacyStorage(
                 new File(legacyStorageDir, FILE_NAME_ATOMIC),
+                new File(legacyStorageDir, FILE_NAME_JOURNAL),
                 legacyStorageSecretKey,
                 legacyStorageEncrypt)
             : null;
@@ -258,8 +275,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   /**
    * Returns a read only collection of all {@link CachedContent CachedContents} in the index.
    *
-   * <p>Subsequent changes to the index are reflected in the returned collection. If the index is
-   * modified whilst iterating over the collection, the result of the iteration is undefined.
+   * <p>Subsequent changes to the index are reflected in the returned collection. The collection can
+   * be safely iterated whilst the index is being modified, although the iteration may not reflect
+   * such modifications.
    */
   public Collection<CachedContent> getAll() {
     return Collections.unmodifiableCollection(keyToContent.values());
@@ -311,9 +329,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   /**
    * Returns a set of all content keys. The set is backed by the {@code keyToContent} map, so
-   * changes to the map are reflected in the set, and vice-versa. If the map is modified while an
-   * iteration over the set is in progress (except through the iterator's own remove operation), the
-   * results of the iteration are undefined.
+   * changes to the map are reflected in the set, and vice-versa. The set can be safely iterated
+   * whilst the map is being modified, although the iteration may not reflect such modifications.
    */
   public Set<String> getKeys() {
     return keyToContent.keySet();
@@ -450,7 +467,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      * @param idToKey The id to key map to populate with persisted data.
      * @throws IOException If an error occurs loading the index.
      */
-    void load(HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+    void load(Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException;
 
     /**
@@ -460,17 +477,17 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeFully(HashMap<String, CachedContent> content) throws IOException;
+    void storeFully(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Ensures incremental changes to the index since the initial {@link #initialize(long)} or last
-     * {@link #storeFully(HashMap)} are persisted. The storage will have been notified of all such
+     * {@link #storeFully(Map)} are persisted. The storage will have been notified of all such
      * changes via {@link #onUpdate(CachedContent)} and {@link #onRemove(CachedContent, boolean)}.
      *
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeIncremental(HashMap<String, CachedContent> content) throws IOException;
+    void storeIncremental(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Called when a {@link CachedContent} is added or updated.
@@ -489,23 +506,44 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     void onRemove(CachedContent cachedContent, boolean neverStored);
   }
 
-  /** {@link Storage} implementation that uses an {@link AtomicFile}. */
+  /**
+   * {@link Storage} implementation that uses an {@link AtomicFile}.
+   *
+   * <p>The {@link AtomicFile} contains a snapshot of the index. Incremental changes are appended to
+   * a journal file, which is replayed on top of the snapshot when the index is loaded. The snapshot
+   * is rewritten, and the journal deleted, once the journal contains more records than there are
+   * entries in the index. The journal header records the number of entries and the hash code of the
+   * snapshot it extends, and a journal whose header doesn't match the snapshot is ignored. This
+   * handles the process being killed after the snapshot is rewritten but before the old journal is
+   * deleted, in which case replaying the journal could bind reused ids to the wrong keys.
+   */
   private static class LegacyStorage implements Storage {
 
     private static final int VERSION = 2;
     private static final int VERSION_METADATA_INTRODUCED = 2;
     private static final int FLAG_ENCRYPTED_INDEX = 1;
 
+    private static final int JOURNAL_VERSION = 2;
+    private static final int JOURNAL_RECORD_TYPE_UPDATE = 0;
+    private static final int JOURNAL_RECORD_TYPE_REMOVE = 1;
+    private static final int MIN_JOURNAL_RECORD_COUNT_FOR_COMPACTION = 1000;
+
     private final boolean encrypt;
     @Nullable private final Cipher cipher;
     @Nullable private final SecretKeySpec secretKeySpec;
     @Nullable private final SecureRandom random;
     private final AtomicFile atomicFile;
+    private final File journalFile;
+    private final SparseArray<@NullableType CachedContent> pendingUpdates;
 
     private boolean changed;
+    private boolean journalAppendable;
+    private int journalRecordCount;
+    private int snapshotContentCount;
+    private int snapshotHashCode;
     @Nullable private ReusableBufferedOutputStream bufferedOutputStream;
 
-    public LegacyStorage(File file, @Nullable byte[] secretKey, boolean encrypt) {
+    public LegacyStorage(File file, File journalFile, @Nullable byte[] secretKey, boolean encrypt) {
       checkState(secretKey != null || !encrypt);
       @Nullable Cipher cipher = null;
       @Nullable SecretKeySpec secretKeySpec = null;
@@ -525,6 +563,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       this.secretKeySpec = secretKeySpec;
       random = encrypt ? new SecureRandom() : null;
       atomicFile = new AtomicFile(file);
+      this.journalFile = journalFile;
+      pendingUpdates = new SparseArray<>();
     }
 
     @Override
@@ -540,46 +580,67 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     @Override
     public void delete() {
       atomicFile.delete();
+      journalFile.delete();
     }
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       checkState(!changed);
-      if (!readFile(content, idToKey)) {
+      if (!readFile(content, idToKey) || !readJournal(content, idToKey)) {
         content.clear();
         idToKey.clear();
-        atomicFile.delete();
+        delete();
+        journalAppendable = false;
       }
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       writeFile(content);
+      journalFile.delete();
+      journalAppendable = true;
+      journalRecordCount = 0;
+      pendingUpdates.clear();
       changed = false;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (!changed) {
         return;
       }
-      storeFully(content);
+      if (!journalAppendable) {
+        storeFully(content);
+        return;
+      }
+      appendToJournal();
+      if (journalRecordCount > max(MIN_JOURNAL_RECORD_COUNT_FOR_COMPACTION, content.size())) {
+        storeFully(content);
+      }
     }
 
     @Override
     public void onUpdate(CachedContent cachedContent) {
+      pendingUpdates.put(cachedContent.id, cachedContent);
       changed = true;
     }
 
     @Override
     public void onRemove(CachedContent cachedContent, boolean neverStored) {
+      if (neverStored) {
+        pendingUpdates.delete(cachedContent.id);
+      } else {
+        pendingUpdates.put(cachedContent.id, null);
+      }
       changed = true;
     }
 
     private boolean readFile(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       if (!atomicFile.exists()) {
+        // Any journal belongs to a snapshot that no longer exists.
+        journalFile.delete();
         return true;
       }
 
@@ -609,6 +670,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         } else if (encrypt) {
           changed = true; // Force index to be rewritten encrypted after read.
         }
+        journalAppendable = !changed;
 
         int count = input.readInt();
         int hashCode = 0;
@@ -623,6 +685,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         if (fileHashCode != hashCode || !isEOF) {
           return false;
         }
+        snapshotContentCount = count;
+        snapshotHashCode = hashCode;
       } catch (IOException e) {
         return false;
       } finally {
@@ -633,7 +697,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       return true;
     }
 
-    private void writeFile(HashMap<String, CachedContent> content) throws IOException {
+    private void writeFile(Map<String, CachedContent> content) throws IOException {
       @Nullable DataOutputStream output = null;
       try {
         OutputStream outputStream = atomicFile.startWrite();
@@ -675,11 +739,200 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         // Avoid calling close twice. Duplicate CipherOutputStream.close calls did
         // not used to be no-ops: https://android-review.googlesource.com/#/c/272799/
         output = null;
+        snapshotContentCount = content.size();
+        snapshotHashCode = hashCode;
       } finally {
         Util.closeQuietly(output);
       }
     }
 
+    /**
+     * Replays the journal on top of the index read from the snapshot.
+     *
+     * <p>A record that was only partially written, for example because the process was killed
+     * whilst appending it, is ignored along with any records that follow it. The index is then
+     * fully rewritten when it's next stored. The same applies to a journal that extends a different
+     * snapshot, which is ignored entirely.
+     *
+     * @return Whether the journal was replayed, or {@code false} if the index is in a bad state.
+     */
+    private boolean readJournal(
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+      if (!journalFile.exists()) {
+        return true;
+      }
+      try {
+        byte[] journal;
+        try (InputStream inputStream = new FileInputStream(journalFile)) {
+          journal = Util.toByteArray(inputStream);
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(journal));
+        if (input.available() < 16) {
+          // The journal header was only partially written.
+          journalAppendable = false;
+          changed = true;
+          return true;
+        }
+        if (input.readInt() != JOURNAL_VERSION) {
+          return false;
+        }
+        boolean encrypted = (input.readInt() & FLAG_ENCRYPTED_INDEX) != 0;
+        if (input.readInt() != snapshotContentCount || input.readInt() != snapshotHashCode) {
+          // The journal belongs to an older snapshot, and its changes are already in this one.
+          journalAppendable = false;
+          changed = true;
+          return true;
+        }
+        if (encrypted && cipher == null) {
+          return false;
+        } else if (encrypted != encrypt) {
+          // Force index to be rewritten, so that records appended to the journal are consistent.
+          journalAppendable = false;
+          changed = true;
+        }
+        CRC32 crc32 = new CRC32();
+        while (input.available() > 0) {
+          @Nullable byte[] record = null;
+          int recordLength = input.available() >= 4 ? input.readInt() : C.LENGTH_UNSET;
+          if (recordLength >= 0 && input.available() >= recordLength + 4) {
+            record = new byte[recordLength];
+            input.readFully(record);
+            crc32.reset();
+            crc32.update(record);
+            if (input.readInt() != (int) crc32.getValue()) {
+              record = null;
+            }
+          }
+          if (record == null) {
+            // The record was only partially written. Ignore it, and any data that follows.
+            journalAppendable = false;
+            changed = true;
+            return true;
+          }
+          if (encrypted) {
+            record = decryptJournalRecord(record);
+          }
+          applyJournalRecord(
+              new DataInputStream(new ByteArrayInputStream(record)), content, idToKey);
+          journalRecordCount++;
+        }
+        return true;
+      } catch (IOException | GeneralSecurityException e) {
+        return false;
+      }
+    }
+
+    private void applyJournalRecord(
+        DataInputStream input,
+        Map<String, CachedContent> content,
+        SparseArray<@NullableType String> idToKey)
+        throws IOException {
+      int type = input.readUnsignedByte();
+      int id = input.readInt();
+      if (type == JOURNAL_RECORD_TYPE_UPDATE) {
+        String key = input.readUTF();
+        DefaultContentMetadata metadata = readContentMetadata(input);
+        @Nullable CachedContent existingContent = content.get(key);
+        if (existingContent != null && existingContent.id != id) {
+          idToKey.remove(existingContent.id);
+        }
+        content.put(key, new CachedContent(id, key, metadata));
+        idToKey.put(id, key);
+      } else if (type == JOURNAL_RECORD_TYPE_REMOVE) {
+        @Nullable String key = idToKey.get(id);
+        if (key != null) {
+          content.remove(key);
+          idToKey.remove(id);
+        }
+      } else {
+        throw new IOException("Unexpected journal record type: " + type);
+      }
+    }
+
+    private void appendToJournal() throws IOException {
+      if (pendingUpdates.size() == 0) {
+        return;
+      }
+      boolean writeHeader = !journalFile.exists() || journalFile.length() == 0;
+      try (FileOutputStream outputStream =
+          new FileOutputStream(journalFile, /* append= */ true)) {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        if (writeHeader) {
+          output.writeInt(JOURNAL_VERSION);
+          output.writeInt(encrypt ? FLAG_ENCRYPTED_INDEX : 0);
+          output.writeInt(snapshotContentCount);
+          output.writeInt(snapshotHashCode);
+        }
+        ByteArrayOutputStream recordOutputStream = new ByteArrayOutputStream();
+        DataOutputStream recordOutput = new DataOutputStream(recordOutputStream);
+        CRC32 crc32 = new CRC32();
+        for (int i = 0; i < pendingUpdates.size(); i++) {
+          @Nullable CachedContent cachedContent = pendingUpdates.valueAt(i);
+          recordOutputStream.reset();
+          if (cachedContent != null) {
+            recordOutput.writeByte(JOURNAL_RECORD_TYPE_UPDATE);
+            recordOutput.writeInt(cachedContent.id);
+            recordOutput.writeUTF(cachedContent.key);
+            writeContentMetadata(cachedContent.getMetadata(), recordOutput);
+          } else {
+            recordOutput.writeByte(JOURNAL_RECORD_TYPE_REMOVE);
+            recordOutput.writeInt(pendingUpdates.keyAt(i));
+          }
+          recordOutput.flush();
+          byte[] record = recordOutputStream.toByteArray();
+          if (encrypt) {
+            record = encryptJournalRecord(record);
+          }
+          crc32.reset();
+          crc32.update(record);
+          output.writeInt(record.length);
+          output.write(record);
+          output.writeInt((int) crc32.getValue());
+        }
+        output.flush();
+        outputStream.getFD().sync();
+      } catch (IOException e) {
+        // A record may have been partially written, in which case any records appended after it
+        // would be ignored when the journal is read. Rewrite the index when it's next stored.
+        journalAppendable = false;
+        throw e;
+      }
+      journalRecordCount += pendingUpdates.size();
+      pendingUpdates.clear();
+      changed = false;
+    }
+
+    private byte[] encryptJournalRecord(byte[] record) {
+      byte[] initializationVector = new byte[16];
+      castNonNull(random).nextBytes(initializationVector);
+      byte[] encryptedRecord;
+      try {
+        Cipher cipher = castNonNull(this.cipher);
+        cipher.init(
+            Cipher.ENCRYPT_MODE,
+            castNonNull(secretKeySpec),
+            new IvParameterSpec(initializationVector));
+        encryptedRecord = cipher.doFinal(record);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e); // Should never happen.
+      }
+      byte[] result = Arrays.copyOf(initializationVector, 16 + encryptedRecord.length);
+      System.arraycopy(encryptedRecord, 0, result, 16, encryptedRecord.length);
+      return result;
+    }
+
+    private byte[] decryptJournalRecord(byte[] record) throws GeneralSecurityException {
+      if (record.length < 16) {
+        throw new GeneralSecurityException("Journal record too short: " + record.length);
+      }
+      Cipher cipher = castNonNull(this.cipher);
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          castNonNull(secretKeySpec),
+          new IvParameterSpec(record, /* offset= */ 0, /* len= */ 16));
+      return cipher.doFinal(record, /* inputOffset= */ 16, /* inputLen= */ record.length - 16);
+    }
+
     /**
      * Calculates a hash code for a {@link CachedContent} which is compatible with a particular
      * index version.
@@ -800,8 +1053,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+    public void load(Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException {
       checkState(pendingUpdates.size() == 0);
       try {
@@ -844,7 +1096,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       try {
         SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
         writableDatabase.beginTransactionNonExclusive();
@@ -864,7 +1116,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (pendingUpdates.size() == 0) {
         return;
       }
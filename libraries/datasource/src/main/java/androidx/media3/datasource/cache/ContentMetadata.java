@@ -37,6 +37,15 @@ public interface ContentMetadata {
   /** Key for content length in bytes (type: long). */
   String KEY_CONTENT_LENGTH = "exo_len";
 
+  /**
+   * Key for the encoding with which the content is compressed in cache files, if it's compressed
+   * (type: String). The only supported value is {@link #CONTENT_ENCODING_DEFLATE}.
+   */
+  String KEY_CONTENT_ENCODING = "exo_enc";
+
+  /** Value of {@link #KEY_CONTENT_ENCODING} for content compressed using deflate. */
+  String CONTENT_ENCODING_DEFLATE = "deflate";
+
   /**
    * Returns a metadata value.
    *
@@ -86,4 +95,13 @@ public interface ContentMetadata {
     @Nullable String redirectedUri = contentMetadata.get(KEY_REDIRECTED_URI, (String) null);
     return redirectedUri == null ? null : Uri.parse(redirectedUri);
   }
+
+  /**
+   * Returns the value stored under {@link #KEY_CONTENT_ENCODING}, or {@code null} if the content
+   * isn't compressed.
+   */
+  @Nullable
+  static String getContentEncoding(ContentMetadata contentMetadata) {
+    return contentMetadata.get(KEY_CONTENT_ENCODING, (String) null);
+  }
 }
@@ -66,6 +66,23 @@ public class ContentMetadataMutations {
     }
   }
 
+  /**
+   * Adds a mutation to set the {@link ContentMetadata#KEY_CONTENT_ENCODING} value, or to remove any
+   * existing entry if {@code null} is passed.
+   *
+   * @param mutations The mutations to modify.
+   * @param contentEncoding The content encoding, or {@code null} to remove any existing entry.
+   * @return The mutations instance, for convenience.
+   */
+  public static ContentMetadataMutations setContentEncoding(
+      ContentMetadataMutations mutations, @Nullable String contentEncoding) {
+    if (contentEncoding == null) {
+      return mutations.remove(ContentMetadata.KEY_CONTENT_ENCODING);
+    } else {
+      return mutations.set(ContentMetadata.KEY_CONTENT_ENCODING, contentEncoding);
+    }
+  }
+
   private final Map<String, Object> editedValues;
   private final List<String> removedValues;
 
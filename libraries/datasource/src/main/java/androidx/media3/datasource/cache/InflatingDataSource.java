@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceException;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link DataSource} that inflates cache files that were compressed by {@link CacheDataSink}.
+ *
+ * <p>The position and length of the {@link DataSpec} passed to {@link #open(DataSpec)} refer to the
+ * inflated data. Since deflated data can't be seeked, the upstream source is always read from the
+ * start of the file.
+ */
+/* package */ final class InflatingDataSource implements DataSource {
+
+  private static final int INPUT_BUFFER_SIZE = 4096;
+
+  private final DataSource upstream;
+  private final byte[] inputBuffer;
+
+  @Nullable private Inflater inflater;
+  private long bytesRemaining;
+
+  public InflatingDataSource(DataSource upstream) {
+    this.upstream = upstream;
+    inputBuffer = new byte[INPUT_BUFFER_SIZE];
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    upstream.open(dataSpec.buildUpon().setPosition(0).setLength(C.LENGTH_UNSET).build());
+    inflater = new Inflater();
+    if (dataSpec.position > 0) {
+      skip(dataSpec.position);
+    }
+    bytesRemaining = dataSpec.length;
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    } else if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int bytesToRead = bytesRemaining == C.LENGTH_UNSET ? length : (int) min(bytesRemaining, length);
+    int bytesRead = inflate(buffer, offset, bytesToRead);
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      if (bytesRemaining != C.LENGTH_UNSET) {
+        // The file is shorter than the requested data.
+        throw new EOFException();
+      }
+      return C.RESULT_END_OF_INPUT;
+    }
+    if (bytesRemaining != C.LENGTH_UNSET) {
+      bytesRemaining -= bytesRead;
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return upstream.getUri();
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return upstream.getResponseHeaders();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+    upstream.close();
+  }
+
+  private void skip(long bytesToSkip) throws IOException {
+    byte[] skipBuffer = new byte[INPUT_BUFFER_SIZE];
+    while (bytesToSkip > 0) {
+      int bytesSkipped = inflate(skipBuffer, 0, (int) min(bytesToSkip, skipBuffer.length));
+      if (bytesSkipped == C.RESULT_END_OF_INPUT) {
+        throw new DataSourceException(PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE);
+      }
+      bytesToSkip -= bytesSkipped;
+    }
+  }
+
+  private int inflate(byte[] buffer, int offset, int length) throws IOException {
+    Inflater inflater = checkNotNull(this.inflater);
+    while (true) {
+      int bytesInflated;
+      try {
+        bytesInflated = inflater.inflate(buffer, offset, length);
+      } catch (DataFormatException e) {
+        throw new DataSourceException(e, PlaybackException.ERROR_CODE_IO_UNSPECIFIED);
+      }
+      if (bytesInflated > 0) {
+        return bytesInflated;
+      } else if (inflater.finished() || inflater.needsDictionary()) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = upstream.read(inputBuffer, 0, inputBuffer.length);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      inflater.setInput(inputBuffer, 0, bytesRead);
+    }
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded in-memory cache of small resources, which can be used in front of a {@link Cache} to
+ * serve frequently read resources without reading them from disk. Data is stored and retrieved by
+ * {@link MemoryCacheDataSource}.
+ *
+ * <p>Each entry holds the complete data for a request, identified by its cache key, position and
+ * length. Entries are evicted in least recently used order when the total size of the entries
+ * exceeds the maximum size.
+ *
+ * <p>If a backing {@link Cache} is provided, data is only stored if the backing cache holds the
+ * same range of the resource, so that responses that the backing cache bypassed or didn't store,
+ * such as refreshed live playlists, are always read from upstream. Entries for a resource are
+ * removed when any of the resource's data is removed from the backing cache, for example by {@link
+ * Cache#removeResource} or {@link Cache#removeSpan}, so that the memory cache doesn't retain data
+ * that's no longer cached. Without a backing cache, entries are never invalidated, so the memory
+ * cache should only be used for resources that don't change.
+ *
+ * <p>This class is thread-safe, and a single instance is normally shared between {@link
+ * MemoryCacheDataSource} instances.
+ */
+@UnstableApi
+public final class MemoryCache {
+
+  /** The default maximum size of a single entry, in bytes. */
+  public static final int DEFAULT_MAX_ENTRY_BYTES = 256 * 1024;
+
+  private final long maxBytes;
+  private final int maxEntryBytes;
+  @Nullable private final Cache backingCache;
+  private final Cache.Listener backingCacheListener;
+  private final LinkedHashMap<EntryKey, byte[]> entries;
+  private final HashMap<String, Integer> entryCountsByKey;
+  // Guards the registration of backingCacheListener. The backing cache holds its own lock when it
+  // notifies the listener, so this lock must not be acquired whilst holding the lock on this
+  // instance.
+  private final Object listenerLock;
+  private final HashSet<String> listenedKeys;
+  private final List<String> keysWithoutEntriesPendingRemoval;
+
+  private long currentSize;
+  private long backingCacheRemovalCount;
+  private long hitCount;
+  private long missCount;
+
+  /**
+   * Creates an instance without a backing cache, which allows entries of up to {@link
+   * #DEFAULT_MAX_ENTRY_BYTES}, or {@code maxBytes} if smaller.
+   *
+   * @param maxBytes The maximum total size of the entries, in bytes.
+   */
+  public MemoryCache(long maxBytes) {
+    this(maxBytes, (int) min(maxBytes, DEFAULT_MAX_ENTRY_BYTES), /* backingCache= */ null);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxBytes The maximum total size of the entries, in bytes.
+   * @param maxEntryBytes The maximum size of a single entry, in bytes. Data for requests that are
+   *     larger than this is never stored.
+   * @param backingCache The {@link Cache} from which data stored in this instance is read, whose
+   *     removals are applied to this instance, or {@code null} if there's no backing cache.
+   */
+  public MemoryCache(long maxBytes, int maxEntryBytes, @Nullable Cache backingCache) {
+    checkArgument(maxEntryBytes >= 0 && maxEntryBytes <= maxBytes);
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+    this.backingCache = backingCache;
+    backingCacheListener = new BackingCacheListener();
+    entries = new LinkedHashMap<>(/* initialCapacity= */ 16, /* loadFactor= */ 0.75f, true);
+    entryCountsByKey = new HashMap<>();
+    listenerLock = new Object();
+    listenedKeys = new HashSet<>();
+    keysWithoutEntriesPendingRemoval = new ArrayList<>();
+  }
+
+  /** Returns the maximum size of a single entry, in bytes. */
+  public int getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * Returns the data for a request, or {@code null} if it's not stored. A returned array must not
+   * be modified.
+   *
+   * @param key The cache key of the resource.
+   * @param position The position of the requested data in the resource.
+   * @param length The requested length, or {@link C#LENGTH_UNSET} if the request was unbounded.
+   * @return The data, or {@code null} if it's not stored.
+   */
+  @Nullable
+  public synchronized byte[] get(String key, long position, long length) {
+    @Nullable byte[] data = entries.get(new EntryKey(key, position, length));
+    if (data != null) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+    return data;
+  }
+
+  /**
+   * Stores the complete data for a request. Does nothing if the data is larger than {@link
+   * #getMaxEntryBytes()}, or if there's a backing cache that doesn't hold the data.
+   *
+   * @param key The cache key of the resource.
+   * @param position The position of the requested data in the resource.
+   * @param length The requested length, or {@link C#LENGTH_UNSET} if the request was unbounded.
+   * @param data The data, which must not be modified after it's been stored.
+   */
+  public void put(String key, long position, long length, byte[] data) {
+    if (data.length > maxEntryBytes) {
+      return;
+    }
+    synchronized (listenerLock) {
+      // The listener is added before the entry, so that removals from the backing cache can't be
+      // missed.
+      if (backingCache != null && listenedKeys.add(key)) {
+        backingCache.addListener(key, backingCacheListener);
+      }
+      List<String> keysWithoutEntries = new ArrayList<>();
+      long removalCount;
+      synchronized (this) {
+        removalCount = backingCacheRemovalCount;
+      }
+      if (backingCache != null && !backingCache.isCached(key, position, data.length)) {
+        // The backing cache bypassed the request or didn't store the data.
+        keysWithoutEntries.add(key);
+        removeBackingCacheListeners(keysWithoutEntries);
+        return;
+      }
+      synchronized (this) {
+        if (removalCount != backingCacheRemovalCount) {
+          // Data was removed from the backing cache after it was checked, so it may be stale.
+          keysWithoutEntries.add(key);
+        } else {
+          putEntry(key, position, length, data, keysWithoutEntries);
+        }
+      }
+      removeBackingCacheListeners(keysWithoutEntries);
+    }
+  }
+
+  /**
+   * Removes all entries for a resource.
+   *
+   * @param key The cache key of the resource.
+   */
+  public void remove(String key) {
+    synchronized (listenerLock) {
+      List<String> keysWithoutEntries = new ArrayList<>();
+      removeEntries(key, keysWithoutEntries);
+      removeBackingCacheListeners(keysWithoutEntries);
+    }
+  }
+
+  /** Removes all entries. */
+  public void clear() {
+    synchronized (listenerLock) {
+      List<String> keysWithoutEntries;
+      synchronized (this) {
+        keysWithoutEntries = new ArrayList<>(entryCountsByKey.keySet());
+        entries.clear();
+        entryCountsByKey.clear();
+        currentSize = 0;
+      }
+      removeBackingCacheListeners(keysWithoutEntries);
+    }
+  }
+
+  /** Returns the total size of the stored entries, in bytes. */
+  public synchronized long getSize() {
+    return currentSize;
+  }
+
+  /** Returns the number of calls to {@link #get} that returned data. */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of calls to {@link #get} that didn't return data. */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  private synchronized void putEntry(
+      String key, long position, long length, byte[] data, List<String> keysWithoutEntries) {
+    @Nullable byte[] replacedData = entries.put(new EntryKey(key, position, length), data);
+    if (replacedData != null) {
+      currentSize -= replacedData.length;
+      removeEntryCount(key, keysWithoutEntries);
+    }
+    currentSize += data.length;
+    addEntryCount(key);
+    Iterator<Map.Entry<EntryKey, byte[]>> iterator = entries.entrySet().iterator();
+    while (currentSize > maxBytes) {
+      Map.Entry<EntryKey, byte[]> eldestEntry = iterator.next();
+      iterator.remove();
+      currentSize -= eldestEntry.getValue().length;
+      removeEntryCount(eldestEntry.getKey().key, keysWithoutEntries);
+    }
+  }
+
+  private synchronized void addEntryCount(String key) {
+    @Nullable Integer entryCount = entryCountsByKey.get(key);
+    entryCountsByKey.put(key, entryCount == null ? 1 : entryCount + 1);
+  }
+
+  private synchronized void removeEntryCount(String key, List<String> keysWithoutEntries) {
+    @Nullable Integer entryCount = entryCountsByKey.get(key);
+    if (entryCount == null) {
+      return;
+    }
+    if (entryCount == 1) {
+      entryCountsByKey.remove(key);
+      keysWithoutEntries.add(key);
+    } else {
+      entryCountsByKey.put(key, entryCount - 1);
+    }
+  }
+
+  private synchronized void removeEntries(String key, List<String> keysWithoutEntries) {
+    Iterator<Map.Entry<EntryKey, byte[]>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<EntryKey, byte[]> entry = iterator.next();
+      if (entry.getKey().key.equals(key)) {
+        iterator.remove();
+        currentSize -= entry.getValue().length;
+        removeEntryCount(key, keysWithoutEntries);
+      }
+    }
+  }
+
+  /**
+   * Removes the listeners for resources that no longer have entries. Must be called whilst holding
+   * {@link #listenerLock}.
+   */
+  private void removeBackingCacheListeners(List<String> keys) {
+    if (backingCache == null) {
+      return;
+    }
+    synchronized (this) {
+      keys.addAll(keysWithoutEntriesPendingRemoval);
+      keysWithoutEntriesPendingRemoval.clear();
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      if (!hasEntries(key) && listenedKeys.remove(key)) {
+        backingCache.removeListener(key, backingCacheListener);
+      }
+    }
+  }
+
+  private synchronized boolean hasEntries(String key) {
+    return entryCountsByKey.containsKey(key);
+  }
+
+  private final class BackingCacheListener implements Cache.Listener {
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+      // The listener can't be removed whilst the backing cache is notifying it, so it's removed by
+      // the next call to put, remove or clear instead.
+      synchronized (MemoryCache.this) {
+        backingCacheRemovalCount++;
+        removeEntries(span.key, keysWithoutEntriesPendingRemoval);
+      }
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+      // Do nothing.
+    }
+  }
+
+  private static final class EntryKey {
+
+    public final String key;
+    public final long position;
+    public final long length;
+
+    public EntryKey(String key, long position, long length) {
+      this.key = key;
+      this.position = position;
+      this.length = length;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      EntryKey other = (EntryKey) obj;
+      return position == other.position && length == other.length && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(key, position, length);
+    }
+  }
+}
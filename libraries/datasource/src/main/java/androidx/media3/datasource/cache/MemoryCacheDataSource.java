@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DataSource} that serves requests from a {@link MemoryCache} if possible, and otherwise
+ * reads them from an upstream {@link DataSource}, normally a {@link CacheDataSource}.
+ *
+ * <p>Data read from upstream is stored in the {@link MemoryCache} when the request is read to the
+ * end, isn't larger than {@link MemoryCache#getMaxEntryBytes()} and, if the {@link MemoryCache} has
+ * a backing {@link Cache}, was stored in the backing cache. Subsequent requests for the same cache
+ * key, position and length are then served from memory.
+ */
+@UnstableApi
+public final class MemoryCacheDataSource implements DataSource {
+
+  /** {@link DataSource.Factory} for {@link MemoryCacheDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    private final MemoryCache memoryCache;
+    private final DataSource.Factory upstreamFactory;
+
+    private CacheKeyFactory cacheKeyFactory;
+
+    /**
+     * Creates an instance.
+     *
+     * @param memoryCache The {@link MemoryCache} used by the {@link MemoryCacheDataSource}
+     *     instances created by the factory.
+     * @param upstreamFactory A {@link DataSource.Factory} that provides upstream {@link DataSource
+     *     DataSources} for {@link MemoryCacheDataSource} instances created by the factory.
+     */
+    public Factory(MemoryCache memoryCache, DataSource.Factory upstreamFactory) {
+      this.memoryCache = memoryCache;
+      this.upstreamFactory = upstreamFactory;
+      cacheKeyFactory = CacheKeyFactory.DEFAULT;
+    }
+
+    /**
+     * Sets the {@link CacheKeyFactory}. This should normally be the same {@link CacheKeyFactory} as
+     * is used by the upstream {@link CacheDataSource}.
+     *
+     * <p>The default is {@link CacheKeyFactory#DEFAULT}.
+     *
+     * @param cacheKeyFactory The {@link CacheKeyFactory}.
+     * @return This factory.
+     */
+    @CanIgnoreReturnValue
+    public Factory setCacheKeyFactory(CacheKeyFactory cacheKeyFactory) {
+      this.cacheKeyFactory = cacheKeyFactory;
+      return this;
+    }
+
+    @Override
+    public MemoryCacheDataSource createDataSource() {
+      return new MemoryCacheDataSource(
+          memoryCache, upstreamFactory.createDataSource(), cacheKeyFactory);
+    }
+  }
+
+  private final MemoryCache memoryCache;
+  private final DataSource upstream;
+  private final CacheKeyFactory cacheKeyFactory;
+
+  @Nullable private DataSpec dataSpec;
+  @Nullable private String key;
+  @Nullable private byte[] cachedData;
+  private int cachedDataReadPosition;
+  private boolean isUpstreamOpen;
+  @Nullable private ByteArrayOutputStream upstreamData;
+  private long upstreamLength;
+  private long upstreamBytesRead;
+  private boolean upstreamEndOfInput;
+
+  /**
+   * Creates an instance that uses {@link CacheKeyFactory#DEFAULT}.
+   *
+   * @param memoryCache The {@link MemoryCache} from which data is read and into which it's stored.
+   * @param upstream The upstream {@link DataSource}.
+   */
+  public MemoryCacheDataSource(MemoryCache memoryCache, DataSource upstream) {
+    this(memoryCache, upstream, CacheKeyFactory.DEFAULT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param memoryCache The {@link MemoryCache} from which data is read and into which it's stored.
+   * @param upstream The upstream {@link DataSource}.
+   * @param cacheKeyFactory The {@link CacheKeyFactory} used to build the keys of the entries.
+   */
+  public MemoryCacheDataSource(
+      MemoryCache memoryCache, DataSource upstream, CacheKeyFactory cacheKeyFactory) {
+    this.memoryCache = checkNotNull(memoryCache);
+    this.upstream = checkNotNull(upstream);
+    this.cacheKeyFactory = checkNotNull(cacheKeyFactory);
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    this.dataSpec = dataSpec;
+    if (dataSpec.httpMethod != DataSpec.HTTP_METHOD_GET) {
+      key = null;
+    } else {
+      key = cacheKeyFactory.buildCacheKey(dataSpec);
+      cachedData = memoryCache.get(key, dataSpec.position, dataSpec.length);
+      if (cachedData != null) {
+        cachedDataReadPosition = 0;
+        return cachedData.length;
+      }
+    }
+    upstreamLength = upstream.open(dataSpec);
+    isUpstreamOpen = true;
+    upstreamBytesRead = 0;
+    upstreamEndOfInput = false;
+    if (key != null && shouldStoreUpstreamData(dataSpec, upstreamLength)) {
+      upstreamData =
+          new ByteArrayOutputStream(upstreamLength != C.LENGTH_UNSET ? (int) upstreamLength : 32);
+    }
+    return upstreamLength;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (cachedData != null) {
+      int bytesRemaining = cachedData.length - cachedDataReadPosition;
+      if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = min(length, bytesRemaining);
+      System.arraycopy(cachedData, cachedDataReadPosition, buffer, offset, bytesToRead);
+      cachedDataReadPosition += bytesToRead;
+      return bytesToRead;
+    }
+    int bytesRead = upstream.read(buffer, offset, length);
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      upstreamEndOfInput = true;
+      return C.RESULT_END_OF_INPUT;
+    }
+    upstreamBytesRead += bytesRead;
+    if (upstreamData != null) {
+      if (upstreamData.size() + bytesRead > memoryCache.getMaxEntryBytes()) {
+        upstreamData = null;
+      } else {
+        upstreamData.write(buffer, offset, bytesRead);
+      }
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    if (cachedData != null) {
+      return checkNotNull(dataSpec).uri;
+    }
+    return upstream.getUri();
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    // Response headers aren't stored in the memory cache.
+    return cachedData != null ? Collections.emptyMap() : upstream.getResponseHeaders();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (cachedData != null) {
+      cachedData = null;
+      dataSpec = null;
+      return;
+    }
+    @Nullable ByteArrayOutputStream upstreamData = this.upstreamData;
+    @Nullable DataSpec dataSpec = this.dataSpec;
+    boolean upstreamDataComplete = upstreamData != null && isUpstreamDataComplete();
+    this.upstreamData = null;
+    this.dataSpec = null;
+    if (isUpstreamOpen) {
+      isUpstreamOpen = false;
+      upstream.close();
+    }
+    // The data is stored after closing upstream, which commits it to the backing cache.
+    if (upstreamDataComplete) {
+      memoryCache.put(
+          checkNotNull(key),
+          checkNotNull(dataSpec).position,
+          dataSpec.length,
+          checkNotNull(upstreamData).toByteArray());
+    }
+  }
+
+  private boolean shouldStoreUpstreamData(DataSpec dataSpec, long length) {
+    if (length == C.LENGTH_UNSET) {
+      return !dataSpec.isFlagSet(DataSpec.FLAG_DONT_CACHE_IF_LENGTH_UNKNOWN);
+    }
+    return length <= memoryCache.getMaxEntryBytes();
+  }
+
+  private boolean isUpstreamDataComplete() {
+    return upstreamLength != C.LENGTH_UNSET
+        ? upstreamBytesRead == upstreamLength
+        : upstreamEndOfInput;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.UnstableApi;
+import java.util.TreeSet;
+
+/**
+ * Evicts cache files using a segmented least recently used policy, with admission of new files
+ * based on how frequently they're accessed.
+ *
+ * <p>Cache files start out in a probationary segment, and are promoted to a protected segment when
+ * they're read from the cache. Files are evicted from the probationary segment first, in least
+ * recently used order. The protected segment is limited to a fraction of the cache size, with its
+ * least recently used files being moved back to the probationary segment when the limit is
+ * exceeded. Files that are larger than the protected segment limit are never promoted.
+ *
+ * <p>The evictor estimates how frequently each file is accessed, including files that have already
+ * been evicted. A newly added file is only kept if it's accessed more frequently than each of the
+ * files that would need to be evicted to make space for it. Otherwise the new file is evicted
+ * instead, which means large files need to be accessed more frequently than all of the files they
+ * would replace.
+ *
+ * <p>Compared to {@link LeastRecentlyUsedCacheEvictor}, this prevents content that's read once,
+ * such as a long linear playback, from evicting small files that are read repeatedly, such as
+ * initialization segments and the start of popular content.
+ *
+ * <p>Files are only evicted once they've been added to the cache, so the cache may exceed the
+ * maximum size by the size of the files being written.
+ */
+@UnstableApi
+public final class SegmentedLeastRecentlyUsedCacheEvictor implements CacheEvictor {
+
+  /** The default fraction of the cache size that's used for the protected segment. */
+  public static final float DEFAULT_PROTECTED_FRACTION = 0.8f;
+
+  private final long maxBytes;
+  private final long maxProtectedBytes;
+  private final TreeSet<CacheSpan> probationary;
+  private final TreeSet<CacheSpan> protectedSpans;
+  private final FrequencySketch frequencySketch;
+
+  private long currentSize;
+  private long protectedSize;
+
+  /**
+   * Creates an instance that uses {@link #DEFAULT_PROTECTED_FRACTION} of the cache size for the
+   * protected segment.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   */
+  public SegmentedLeastRecentlyUsedCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_PROTECTED_FRACTION);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   * @param protectedFraction The fraction of {@code maxBytes} that can be used by files in the
+   *     protected segment. Must be in the range [0, 1).
+   */
+  public SegmentedLeastRecentlyUsedCacheEvictor(long maxBytes, float protectedFraction) {
+    checkArgument(protectedFraction >= 0 && protectedFraction < 1);
+    this.maxBytes = maxBytes;
+    this.maxProtectedBytes = (long) (maxBytes * protectedFraction);
+    probationary = new TreeSet<>(SegmentedLeastRecentlyUsedCacheEvictor::compare);
+    protectedSpans = new TreeSet<>(SegmentedLeastRecentlyUsedCacheEvictor::compare);
+    frequencySketch = new FrequencySketch();
+  }
+
+  @Override
+  public boolean requiresCacheSpanTouches() {
+    return true;
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Do nothing.
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long length) {
+    // Do nothing. Whether existing files are evicted depends on the file being written, and so is
+    // decided when it's added.
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    frequencySketch.increment(span);
+    probationary.add(span);
+    currentSize += span.length;
+    evictCache(cache, /* candidate= */ span);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    if (protectedSpans.remove(span)) {
+      protectedSize -= span.length;
+    } else {
+      probationary.remove(span);
+    }
+    currentSize -= span.length;
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    frequencySketch.increment(newSpan);
+    onSpanRemoved(cache, oldSpan);
+    currentSize += newSpan.length;
+    if (newSpan.length > maxProtectedBytes) {
+      // Promoting the span would demote the whole of the protected segment.
+      probationary.add(newSpan);
+    } else {
+      protectedSpans.add(newSpan);
+      protectedSize += newSpan.length;
+      while (protectedSize > maxProtectedBytes) {
+        CacheSpan demotedSpan = checkNotNull(protectedSpans.pollFirst());
+        protectedSize -= demotedSpan.length;
+        probationary.add(demotedSpan);
+      }
+    }
+    evictCache(cache, /* candidate= */ null);
+  }
+
+  private void evictCache(Cache cache, @Nullable CacheSpan candidate) {
+    while (currentSize > maxBytes && (!probationary.isEmpty() || !protectedSpans.isEmpty())) {
+      CacheSpan victim = !probationary.isEmpty() ? probationary.first() : protectedSpans.first();
+      if (candidate != null
+          && victim != candidate
+          && frequencySketch.getFrequency(victim) > frequencySketch.getFrequency(candidate)) {
+        // The candidate isn't worth the space that needs to be freed for it.
+        victim = candidate;
+      }
+      if (victim == candidate) {
+        candidate = null;
+      }
+      cache.removeSpan(victim);
+    }
+  }
+
+  private static int compare(CacheSpan lhs, CacheSpan rhs) {
+    long lastTouchTimestampDelta = lhs.lastTouchTimestamp - rhs.lastTouchTimestamp;
+    if (lastTouchTimestampDelta == 0) {
+      // Use the standard compareTo method as a tie-break.
+      return lhs.compareTo(rhs);
+    }
+    return lhs.lastTouchTimestamp < rhs.lastTouchTimestamp ? -1 : 1;
+  }
+
+  /**
+   * A count-min sketch that estimates how many times each span has been accessed. Counts are
+   * periodically halved, so that the estimates favor recent accesses.
+   */
+  private static final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+    private static final int MAX_COUNT = 15;
+    private static final int RESET_INCREMENT_COUNT = 10 * WIDTH;
+    private static final long[] SEEDS = {
+      0x97CB3127L, 0xB492B66FL, 0x9AE16A3BL, 0xC949D7C7L,
+    };
+
+    private final byte[] counts;
+
+    private int incrementCount;
+
+    public FrequencySketch() {
+      counts = new byte[DEPTH * WIDTH];
+    }
+
+    /** Returns the estimated number of times the span has been accessed. */
+    public int getFrequency(CacheSpan span) {
+      long hash = hash(span);
+      int frequency = MAX_COUNT;
+      for (int row = 0; row < DEPTH; row++) {
+        frequency = min(frequency, counts[getIndex(hash, row)]);
+      }
+      return frequency;
+    }
+
+    /** Records an access to the span. */
+    public void increment(CacheSpan span) {
+      long hash = hash(span);
+      for (int row = 0; row < DEPTH; row++) {
+        int index = getIndex(hash, row);
+        if (counts[index] < MAX_COUNT) {
+          counts[index]++;
+        }
+      }
+      if (++incrementCount == RESET_INCREMENT_COUNT) {
+        for (int i = 0; i < counts.length; i++) {
+          counts[i] = (byte) (counts[i] >> 1);
+        }
+        incrementCount /= 2;
+      }
+    }
+
+    private static long hash(CacheSpan span) {
+      return 31L * span.key.hashCode() + span.position;
+    }
+
+    private static int getIndex(long hash, int row) {
+      long mixedHash = (hash + SEEDS[row]) * 0x9E3779B97F4A7C15L;
+      return row * WIDTH + (int) ((mixedHash >>> 32) & (WIDTH - 1));
+    }
+  }
+}
@@ -21,6 +21,7 @@ import androidx.annotation.WorkerThread;
 import androidx.media3.common.C;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.Log;
+import androidx.media3.common.util.NullableType;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.database.DatabaseIOException;
@@ -31,16 +32,26 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
  * A {@link Cache} implementation that maintains an in-memory representation.
  *
+ * <p>Read-only queries ({@link #getCachedSpans}, {@link #getKeys}, {@link #getCacheSpace}, {@link
+ * #isCached}, {@link #getCachedLength}, {@link #getCachedBytes} and {@link #getContentMetadata})
+ * don't acquire the cache's lock, and so never block each other or block on writes. If the {@link
+ * CacheEvictor} doesn't {@linkplain CacheEvictor#requiresCacheSpanTouches() require cache spans to
+ * be touched}, then {@link #startReadWrite} and {@link #startReadWriteNonBlocking} also return
+ * spans for cached ranges without acquiring the lock.
+ *
  * <p>Only one instance of SimpleCache is allowed for a given directory at a given time.
  *
  * <p>To delete a SimpleCache, use {@link #delete(File, DatabaseProvider)} rather than deleting the
@@ -60,6 +71,12 @@ public final class SimpleCache implements Cache {
    */
   private static final int SUBDIRECTORY_COUNT = 10;
 
+  /**
+   * The maximum number of touched and removed files whose file index entries are updated at once.
+   * Updates are deferred so that they can be written in a single transaction.
+   */
+  private static final int MAX_PENDING_FILE_INDEX_UPDATES = 64;
+
   private static final String UID_FILE_SUFFIX = ".uid";
 
   private static final HashSet<File> lockedCacheDirs = new HashSet<>();
@@ -68,13 +85,20 @@ public final class SimpleCache implements Cache {
   private final CacheEvictor evictor;
   private final CachedContentIndex contentIndex;
   @Nullable private final CacheFileMetadataIndex fileIndex;
+  private final CacheFileDeduplicator deduplicator;
+  private final HashMap<String, @NullableType CacheFileMetadata> pendingFileIndexUpdates;
   private final HashMap<String, ArrayList<Listener>> listeners;
+  private final ConcurrentHashMap<File, FileBeingWritten> filesBeingWritten;
+  private final AtomicInteger joinWaiterCount;
   private final Random random;
   private final boolean touchCacheSpans;
 
+  // The fields below are only written whilst holding the lock on this instance, but may be read by
+  // queries that do not hold it.
   private long uid;
-  private long totalSpace;
-  private boolean released;
+  private volatile long totalSpace;
+  private volatile boolean initialized;
+  private volatile boolean released;
   private @MonotonicNonNull CacheException initializationException;
 
   /**
@@ -220,7 +244,11 @@ public final class SimpleCache implements Cache {
     this.evictor = evictor;
     this.contentIndex = contentIndex;
     this.fileIndex = fileIndex;
+    deduplicator = new CacheFileDeduplicator();
+    pendingFileIndexUpdates = new HashMap<>();
     listeners = new HashMap<>();
+    filesBeingWritten = new ConcurrentHashMap<>();
+    joinWaiterCount = new AtomicInteger();
     random = new Random();
     touchCacheSpans = evictor.requiresCacheSpanTouches();
     uid = UID_UNSET;
@@ -234,6 +262,7 @@ public final class SimpleCache implements Cache {
           conditionVariable.open();
           initialize();
           SimpleCache.this.evictor.onCacheInitialized();
+          initialized = true;
         }
       }
     }.start();
@@ -252,7 +281,8 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized long getUid() {
+  public long getUid() {
+    blockUntilInitialized();
     return uid;
   }
 
@@ -262,7 +292,13 @@ public final class SimpleCache implements Cache {
       return;
     }
     listeners.clear();
+    filesBeingWritten.clear();
     removeStaleSpans();
+    try {
+      storePendingFileIndexUpdates();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to update file index", e);
+    }
     try {
       contentIndex.store();
     } catch (IOException e) {
@@ -302,8 +338,9 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     CachedContent cachedContent = contentIndex.get(key);
     return cachedContent == null || cachedContent.isEmpty()
         ? new TreeSet<>()
@@ -311,25 +348,52 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
+  public Set<String> getKeys() {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     return new HashSet<>(contentIndex.getKeys());
   }
 
   @Override
-  public synchronized long getCacheSpace() {
+  public long getCacheSpace() {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     return totalSpace;
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position, long length)
+  public CacheSpan startReadWrite(String key, long position, long length)
+      throws InterruptedException, CacheException {
+    Assertions.checkState(!released);
+    @Nullable CacheSpan span = getCachedSpanWithoutLocking(key, position, length);
+    return span != null ? span : startReadWriteLocked(key, position, length);
+  }
+
+  @Override
+  @Nullable
+  public CacheSpan startReadWriteNonBlocking(String key, long position, long length)
+      throws CacheException {
+    Assertions.checkState(!released);
+    @Nullable CacheSpan span = getCachedSpanWithoutLocking(key, position, length);
+    return span != null ? span : startReadWriteNonBlockingLocked(key, position, length);
+  }
+
+  @Override
+  @Nullable
+  public CacheSpan startReadWriteOrJoinWrite(String key, long position, long length, long timeoutMs)
+      throws InterruptedException, CacheException {
+    Assertions.checkState(!released);
+    @Nullable CacheSpan span = getCachedSpanWithoutLocking(key, position, length);
+    return span != null ? span : startReadWriteOrJoinWriteLocked(key, position, length, timeoutMs);
+  }
+
+  private synchronized CacheSpan startReadWriteLocked(String key, long position, long length)
       throws InterruptedException, CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
     while (true) {
-      CacheSpan span = startReadWriteNonBlocking(key, position, length);
+      CacheSpan span = startReadWriteNonBlockingLocked(key, position, length);
       if (span != null) {
         return span;
       } else {
@@ -343,10 +407,43 @@ public final class SimpleCache implements Cache {
     }
   }
 
-  @Override
   @Nullable
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position, long length)
-      throws CacheException {
+  private synchronized CacheSpan startReadWriteOrJoinWriteLocked(
+      String key, long position, long length, long timeoutMs)
+      throws InterruptedException, CacheException {
+    Assertions.checkState(!released);
+    checkInitialization();
+
+    long endTimeNs = System.nanoTime() + timeoutMs * 1_000_000;
+    // Writers only notify waiters of data written into files that are being written whilst there
+    // are waiters, so register before checking for written data.
+    joinWaiterCount.incrementAndGet();
+    try {
+      while (true) {
+        @Nullable CacheSpan span = startReadWriteNonBlockingLocked(key, position, length);
+        if (span != null) {
+          return span;
+        }
+        span = getWrittenSpan(key, position);
+        if (span != null) {
+          return span;
+        }
+        long remainingTimeMs = (endTimeNs - System.nanoTime()) / 1_000_000;
+        if (remainingTimeMs <= 0) {
+          return null;
+        }
+        // We'll be woken up when data is written into a file that's being written, when a span is
+        // added, or when a locked span is released.
+        wait(remainingTimeMs);
+      }
+    } finally {
+      joinWaiterCount.decrementAndGet();
+    }
+  }
+
+  @Nullable
+  private synchronized CacheSpan startReadWriteNonBlockingLocked(
+      String key, long position, long length) throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
@@ -388,13 +485,56 @@ public final class SimpleCache implements Cache {
       createCacheDirectories(cacheSubDir);
     }
     long lastTouchTimestamp = System.currentTimeMillis();
-    return SimpleCacheSpan.getCacheFile(
-        cacheSubDir, cachedContent.id, position, lastTouchTimestamp);
+    File file =
+        SimpleCacheSpan.getCacheFile(cacheSubDir, cachedContent.id, position, lastTouchTimestamp);
+    filesBeingWritten.put(file, new FileBeingWritten(key, position, lastTouchTimestamp, file));
+    return file;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This method doesn't acquire the lock on this instance unless a reader is waiting to join a
+   * write, so it doesn't add contention to the write path when concurrent writes aren't joined.
+   */
+  @Override
+  public void updateFileLength(File file, long length) {
+    Assertions.checkState(!released);
+    @Nullable FileBeingWritten fileBeingWritten = filesBeingWritten.get(file);
+    if (fileBeingWritten == null || length <= fileBeingWritten.length) {
+      return;
+    }
+    fileBeingWritten.length = length;
+    if (joinWaiterCount.get() > 0) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
   }
 
   @Override
   public synchronized void commitFile(File file, long length) throws CacheException {
+    commitFileInternal(file, length, /* contentDigest= */ null);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the cache has a file index, a file with the same content as a file that's already in the
+   * cache is replaced by a hard link to the existing file, so that its content is stored once. The
+   * files are still accounted for separately by {@link #getCacheSpace()}. Files of resources whose
+   * data is compressed are never deduplicated.
+   */
+  @Override
+  public synchronized void commitFile(File file, long length, byte[] contentDigest)
+      throws CacheException {
+    commitFileInternal(file, length, Util.toHexString(contentDigest));
+  }
+
+  private void commitFileInternal(File file, long length, @Nullable String contentDigest)
+      throws CacheException {
     Assertions.checkState(!released);
+    filesBeingWritten.remove(file);
     if (!file.exists()) {
       return;
     }
@@ -405,6 +545,9 @@ public final class SimpleCache implements Cache {
 
     SimpleCacheSpan span =
         Assertions.checkNotNull(SimpleCacheSpan.createCacheEntry(file, length, contentIndex));
+    if (isCompressed(span.key)) {
+      span = span.copyWithFileLength(file.length());
+    }
     CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
     Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
 
@@ -415,12 +558,25 @@ public final class SimpleCache implements Cache {
     }
 
     if (fileIndex != null) {
+      if (contentDigest != null && isCompressed(span.key)) {
+        contentDigest = null;
+      }
+      if (contentDigest != null) {
+        deduplicator.deduplicate(file, contentDigest);
+      }
+      // Store the metadata of the new file together with any pending updates.
       String fileName = file.getName();
+      pendingFileIndexUpdates.put(
+          fileName, new CacheFileMetadata(span.length, span.lastTouchTimestamp, contentDigest));
       try {
-        fileIndex.set(fileName, span.length, span.lastTouchTimestamp);
+        storePendingFileIndexUpdates();
       } catch (IOException e) {
+        pendingFileIndexUpdates.remove(fileName);
         throw new CacheException(e);
       }
+      if (contentDigest != null) {
+        deduplicator.add(file, contentDigest);
+      }
     }
     addSpan(span);
     try {
@@ -437,6 +593,17 @@ public final class SimpleCache implements Cache {
     CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
     cachedContent.unlockRange(holeSpan.position);
     contentIndex.maybeRemove(cachedContent.key);
+    // Any files that were being written into the hole, but weren't committed, have been abandoned.
+    Iterator<FileBeingWritten> filesBeingWrittenIterator = filesBeingWritten.values().iterator();
+    while (filesBeingWrittenIterator.hasNext()) {
+      FileBeingWritten fileBeingWritten = filesBeingWrittenIterator.next();
+      if (fileBeingWritten.key.equals(holeSpan.key)
+          && fileBeingWritten.position >= holeSpan.position
+          && (holeSpan.isOpenEnded()
+              || fileBeingWritten.position < holeSpan.position + holeSpan.length)) {
+        filesBeingWrittenIterator.remove();
+      }
+    }
     notifyAll();
   }
 
@@ -446,6 +613,11 @@ public final class SimpleCache implements Cache {
     for (CacheSpan span : getCachedSpans(key)) {
       removeSpanInternal(span);
     }
+    try {
+      storePendingFileIndexUpdates();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to update file index", e);
+    }
   }
 
   @Override
@@ -455,15 +627,17 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized boolean isCached(String key, long position, long length) {
+  public boolean isCached(String key, long position, long length) {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     @Nullable CachedContent cachedContent = contentIndex.get(key);
     return cachedContent != null && cachedContent.getCachedBytesLength(position, length) >= length;
   }
 
   @Override
-  public synchronized long getCachedLength(String key, long position, long length) {
+  public long getCachedLength(String key, long position, long length) {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     if (length == C.LENGTH_UNSET) {
       length = Long.MAX_VALUE;
     }
@@ -472,7 +646,7 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized long getCachedBytes(String key, long position, long length) {
+  public long getCachedBytes(String key, long position, long length) {
     long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
     if (endPosition < 0) {
       // The calculation rolled over (length is probably Long.MAX_VALUE).
@@ -509,11 +683,53 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized ContentMetadata getContentMetadata(String key) {
+  public ContentMetadata getContentMetadata(String key) {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     return contentIndex.getContentMetadata(key);
   }
 
+  /**
+   * Blocks until the initialization thread has finished loading the in-memory representation. Must
+   * be called by queries that read the in-memory representation without holding the lock.
+   */
+  private void blockUntilInitialized() {
+    if (!initialized) {
+      synchronized (this) {
+        // The initialization thread holds the lock until initialization has completed.
+        Assertions.checkState(initialized);
+      }
+    }
+  }
+
+  /**
+   * Returns the cached span containing {@code position} without acquiring the lock, or {@code null}
+   * if the position isn't cached or the span can't be returned without holding the lock.
+   *
+   * @param key The key of the span being requested.
+   * @param position The position of the span being requested.
+   * @param length The length of the span, or {@link C#LENGTH_UNSET} if unbounded.
+   * @return The cached span, or {@code null} if the caller should fall back to the locked path.
+   */
+  @Nullable
+  private SimpleCacheSpan getCachedSpanWithoutLocking(String key, long position, long length) {
+    if (touchCacheSpans) {
+      // Touching a span updates the evictor and the file index, which requires the lock.
+      return null;
+    }
+    blockUntilInitialized();
+    @Nullable CachedContent cachedContent = contentIndex.get(key);
+    if (initializationException != null || cachedContent == null) {
+      return null;
+    }
+    SimpleCacheSpan span = cachedContent.getSpan(position, length);
+    if (!span.isCached || Assertions.checkNotNull(span.file).length() != span.fileLength) {
+      // Holes need to be locked for writing, and stale spans need to be removed, under the lock.
+      return null;
+    }
+    return span;
+  }
+
   /** Ensures that the cache's in-memory representation has been initialized. */
   private void initialize() {
     if (!cacheDir.exists()) {
@@ -616,6 +832,13 @@ public final class SimpleCache implements Cache {
         SimpleCacheSpan span =
             SimpleCacheSpan.createCacheEntry(file, length, lastTouchTimestamp, contentIndex);
         if (span != null) {
+          if (metadata != null && isCompressed(span.key)) {
+            // The file index stores the uncompressed length of the data.
+            span = span.copyWithFileLength(file.length());
+          }
+          if (metadata != null && metadata.contentDigest != null) {
+            deduplicator.add(Assertions.checkNotNull(span.file), metadata.contentDigest);
+          }
           addSpan(span);
         } else {
           file.delete();
@@ -624,6 +847,36 @@ public final class SimpleCache implements Cache {
     }
   }
 
+  /**
+   * Returns whether the data in the cache files of a resource is compressed, in which case the
+   * lengths of the files differ from the lengths of the spans.
+   */
+  private boolean isCompressed(String key) {
+    return ContentMetadata.getContentEncoding(contentIndex.getContentMetadata(key)) != null;
+  }
+
+  /**
+   * Returns a span for reading the data at {@code position} that's been written into a file that's
+   * yet to be committed, or {@code null} if no such data has been written.
+   */
+  @Nullable
+  private CacheSpan getWrittenSpan(String key, long position) {
+    for (FileBeingWritten fileBeingWritten : filesBeingWritten.values()) {
+      long length = fileBeingWritten.length;
+      if (fileBeingWritten.key.equals(key)
+          && fileBeingWritten.position <= position
+          && position < fileBeingWritten.position + length) {
+        return new CacheSpan(
+            key,
+            fileBeingWritten.position,
+            length,
+            fileBeingWritten.lastTouchTimestamp,
+            fileBeingWritten.file);
+      }
+    }
+    return null;
+  }
+
   /**
    * Touches a cache span, returning the updated result. If the evictor does not require cache spans
    * to be touched, then this method does nothing and the span is returned without modification.
@@ -636,16 +889,17 @@ public final class SimpleCache implements Cache {
     if (!touchCacheSpans) {
       return span;
     }
-    String fileName = Assertions.checkNotNull(span.file).getName();
+    File file = Assertions.checkNotNull(span.file);
+    String fileName = file.getName();
     long length = span.length;
     long lastTouchTimestamp = System.currentTimeMillis();
     boolean updateFile = false;
     if (fileIndex != null) {
-      try {
-        fileIndex.set(fileName, length, lastTouchTimestamp);
-      } catch (IOException e) {
-        Log.w(TAG, "Failed to update index with new touch timestamp.");
-      }
+      // Losing a touch timestamp only affects the eviction order, so it's stored lazily.
+      pendingFileIndexUpdates.put(
+          fileName,
+          new CacheFileMetadata(length, lastTouchTimestamp, deduplicator.getContentDigest(file)));
+      maybeStorePendingFileIndexUpdates();
     } else {
       // Updating the file itself to incorporate the new last touch timestamp is much slower than
       // updating the file index. Hence we only update the file if we don't have a file index.
@@ -674,7 +928,7 @@ public final class SimpleCache implements Cache {
     }
     while (true) {
       SimpleCacheSpan span = cachedContent.getSpan(position, length);
-      if (span.isCached && Assertions.checkNotNull(span.file).length() != span.length) {
+      if (span.isCached && Assertions.checkNotNull(span.file).length() != span.fileLength) {
         // The file has been modified or deleted underneath us. It's likely that other files will
         // have been modified too, so scan the whole in-memory representation.
         removeStaleSpans();
@@ -702,19 +956,36 @@ public final class SimpleCache implements Cache {
     }
     totalSpace -= span.length;
     if (fileIndex != null) {
-      String fileName = Assertions.checkNotNull(span.file).getName();
-      try {
-        fileIndex.remove(fileName);
-      } catch (IOException e) {
-        // This will leave a stale entry in the file index. It will be removed next time the cache
-        // is initialized.
-        Log.w(TAG, "Failed to remove file index entry for: " + fileName);
-      }
+      File file = Assertions.checkNotNull(span.file);
+      deduplicator.remove(file);
+      // A stale entry in the file index is removed next time the cache is initialized, so the
+      // removal is stored lazily.
+      pendingFileIndexUpdates.put(file.getName(), null);
+      maybeStorePendingFileIndexUpdates();
     }
     contentIndex.maybeRemove(cachedContent.key);
     notifySpanRemoved(span);
   }
 
+  private void maybeStorePendingFileIndexUpdates() {
+    if (pendingFileIndexUpdates.size() < MAX_PENDING_FILE_INDEX_UPDATES) {
+      return;
+    }
+    try {
+      storePendingFileIndexUpdates();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to update file index", e);
+    }
+  }
+
+  private void storePendingFileIndexUpdates() throws IOException {
+    if (fileIndex == null || pendingFileIndexUpdates.isEmpty()) {
+      return;
+    }
+    fileIndex.update(pendingFileIndexUpdates);
+    pendingFileIndexUpdates.clear();
+  }
+
   /**
    * Scans all of the cached spans in the in-memory representation, removing any for which the
    * underlying file lengths no longer match.
@@ -722,8 +993,8 @@ public final class SimpleCache implements Cache {
   private void removeStaleSpans() {
     ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
     for (CachedContent cachedContent : contentIndex.getAll()) {
-      for (CacheSpan span : cachedContent.getSpans()) {
-        if (Assertions.checkNotNull(span.file).length() != span.length) {
+      for (SimpleCacheSpan span : cachedContent.getSpans()) {
+        if (Assertions.checkNotNull(span.file).length() != span.fileLength) {
           spansToBeRemoved.add(span);
         }
       }
@@ -820,4 +1091,26 @@ public final class SimpleCache implements Cache {
   private static synchronized void unlockFolder(File cacheDir) {
     lockedCacheDirs.remove(cacheDir.getAbsoluteFile());
   }
+
+  /** A file that's being written, whose flushed data can be read by readers joining the write. */
+  private static final class FileBeingWritten {
+
+    public final String key;
+    public final long position;
+    public final long lastTouchTimestamp;
+    public final File file;
+
+    /**
+     * The length of the data flushed to the file. Only written by the writer of the file, but may
+     * be read by readers that don't hold the lock on the cache.
+     */
+    public volatile long length;
+
+    public FileBeingWritten(String key, long position, long lastTouchTimestamp, File file) {
+      this.key = key;
+      this.position = position;
+      this.lastTouchTimestamp = lastTouchTimestamp;
+      this.file = file;
+    }
+  }
 }
@@ -36,6 +36,12 @@ import java.util.regex.Pattern;
   private static final Pattern CACHE_FILE_PATTERN_V3 =
       Pattern.compile("^(\\d+)\\.(\\d+)\\.(\\d+)\\.v3\\.exo$", Pattern.DOTALL);
 
+  /**
+   * The length of the underlying file in bytes. Differs from {@link #length} if the data in the
+   * file is compressed. Equal to {@link #length} if this is a hole.
+   */
+  public final long fileLength;
+
   /**
    * Returns a new {@link File} instance from {@code cacheDir}, {@code id}, {@code position}, {@code
    * timestamp}.
@@ -50,17 +56,6 @@ import java.util.regex.Pattern;
     return new File(cacheDir, id + "." + position + "." + timestamp + SUFFIX);
   }
 
-  /**
-   * Creates a lookup span.
-   *
-   * @param key The cache key of the resource.
-   * @param position The position of the span in the resource.
-   * @return The span.
-   */
-  public static SimpleCacheSpan createLookup(String key, long position) {
-    return new SimpleCacheSpan(key, position, C.LENGTH_UNSET, C.TIME_UNSET, null);
-  }
-
   /**
    * Creates a hole span.
    *
@@ -70,7 +65,7 @@ import java.util.regex.Pattern;
    * @return The hole span.
    */
   public static SimpleCacheSpan createHole(String key, long position, long length) {
-    return new SimpleCacheSpan(key, position, length, C.TIME_UNSET, null);
+    return new SimpleCacheSpan(key, position, length, C.TIME_UNSET, null, /* fileLength= */ length);
   }
 
   /**
@@ -137,7 +132,8 @@ import java.util.regex.Pattern;
     if (lastTouchTimestamp == C.TIME_UNSET) {
       lastTouchTimestamp = Long.parseLong(Assertions.checkNotNull(matcher.group(3)));
     }
-    return new SimpleCacheSpan(key, position, length, lastTouchTimestamp, file);
+    return new SimpleCacheSpan(
+        key, position, length, lastTouchTimestamp, file, /* fileLength= */ length);
   }
 
   /**
@@ -185,10 +181,17 @@ import java.util.regex.Pattern;
    * @param lastTouchTimestamp The last touch timestamp, or {@link C#TIME_UNSET} if {@link
    *     #isCached} is false.
    * @param file The file corresponding to this span, or null if it's a hole.
+   * @param fileLength The length of the file in bytes.
    */
   private SimpleCacheSpan(
-      String key, long position, long length, long lastTouchTimestamp, @Nullable File file) {
+      String key,
+      long position,
+      long length,
+      long lastTouchTimestamp,
+      @Nullable File file,
+      long fileLength) {
     super(key, position, length, lastTouchTimestamp, file);
+    this.fileLength = fileLength;
   }
 
   /**
@@ -201,6 +204,18 @@ import java.util.regex.Pattern;
    */
   public SimpleCacheSpan copyWithFileAndLastTouchTimestamp(File file, long lastTouchTimestamp) {
     Assertions.checkState(isCached);
-    return new SimpleCacheSpan(key, position, length, lastTouchTimestamp, file);
+    return new SimpleCacheSpan(key, position, length, lastTouchTimestamp, file, fileLength);
+  }
+
+  /**
+   * Returns a copy of this CacheSpan with a new file length, for a file containing compressed data.
+   *
+   * @param fileLength The new file length.
+   * @return A copy with the new file length.
+   * @throws IllegalStateException If called on a non-cached span (i.e. {@link #isCached} is false).
+   */
+  public SimpleCacheSpan copyWithFileLength(long fileLength) {
+    Assertions.checkState(isCached);
+    return new SimpleCacheSpan(key, position, length, lastTouchTimestamp, file, fileLength);
   }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.test.utils.FakeDataSource;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ReadaheadDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class ReadaheadDataSourceTest {
+
+  private static final Uri URI = Uri.parse("test://data.test");
+  private static final byte[] DATA = TestUtil.buildTestData(/* length= */ 100_000);
+
+  private FakeDataSource upstream;
+
+  @Before
+  public void setUp() {
+    upstream = new FakeDataSource();
+    upstream.getDataSet().setData(URI, DATA);
+  }
+
+  @Test
+  public void smallSequentialReads_readFromUpstreamInGrowingBlocks() throws Exception {
+    ReadaheadDataSource dataSource =
+        new ReadaheadDataSource(upstream, /* minBlockSize= */ 1024, /* maxBlockSize= */ 16_384);
+
+    dataSource.open(new DataSpec(URI));
+    byte[] readData = readToEnd(dataSource, /* readLength= */ 8);
+    dataSource.close();
+
+    assertThat(readData).isEqualTo(DATA);
+    assertThat(dataSource.getReadCount()).isEqualTo(100_000 / 8 + 1);
+    // 1 + 2 + 4 + 8 KiB blocks, followed by 16 KiB blocks and a read that returns end of input.
+    assertThat(dataSource.getUpstreamReadCount()).isEqualTo(4 + 6 + 1);
+    assertThat(dataSource.getBlockSize()).isEqualTo(16_384);
+  }
+
+  @Test
+  public void shortReadsAfterOpeningAtDifferentPositions_shrinksBlockSize() throws Exception {
+    ReadaheadDataSource dataSource =
+        new ReadaheadDataSource(upstream, /* minBlockSize= */ 1024, /* maxBlockSize= */ 16_384);
+    dataSource.open(new DataSpec(URI));
+    readToEnd(dataSource, /* readLength= */ 8);
+    dataSource.close();
+
+    for (int position = 0; position < 50_000; position += 10_000) {
+      dataSource.open(new DataSpec.Builder().setUri(URI).setPosition(position).build());
+      byte[] readData = new byte[16];
+      assertThat(dataSource.read(readData, /* offset= */ 0, readData.length)).isEqualTo(16);
+      assertThat(readData).isEqualTo(Arrays.copyOfRange(DATA, position, position + 16));
+      dataSource.close();
+    }
+
+    assertThat(dataSource.getBlockSize()).isEqualTo(1024);
+  }
+
+  @Test
+  public void readLargerThanBlockSize_bypassesBuffer() throws Exception {
+    ReadaheadDataSource dataSource =
+        new ReadaheadDataSource(upstream, /* minBlockSize= */ 1024, /* maxBlockSize= */ 1024);
+    byte[] readData = new byte[50_000];
+
+    dataSource.open(new DataSpec(URI));
+    int bytesRead = dataSource.read(readData, /* offset= */ 0, readData.length);
+    dataSource.close();
+
+    assertThat(bytesRead).isEqualTo(50_000);
+    assertThat(readData).isEqualTo(Arrays.copyOf(DATA, 50_000));
+    assertThat(dataSource.getUpstreamReadCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void readIntoDirectByteBuffer_readsData() throws Exception {
+    ReadaheadDataSource dataSource =
+        new ReadaheadDataSource(upstream, /* minBlockSize= */ 1024, /* maxBlockSize= */ 16_384);
+    ByteBuffer target = ByteBuffer.allocateDirect(DATA.length + 1);
+
+    dataSource.open(new DataSpec(URI));
+    while (dataSource.read(target) != C.RESULT_END_OF_INPUT) {}
+    dataSource.close();
+
+    target.flip();
+    byte[] readData = new byte[target.remaining()];
+    target.get(readData);
+    assertThat(readData).isEqualTo(DATA);
+  }
+
+  @Test
+  public void readIntoHeapByteBuffer_advancesPosition() throws Exception {
+    ReadaheadDataSource dataSource = new ReadaheadDataSource(upstream);
+    ByteBuffer target = ByteBuffer.allocate(10);
+    target.position(2);
+
+    dataSource.open(new DataSpec(URI));
+    int bytesRead = dataSource.read(target);
+    dataSource.close();
+
+    assertThat(bytesRead).isEqualTo(8);
+    assertThat(target.position()).isEqualTo(10);
+    assertThat(Arrays.copyOfRange(target.array(), 2, 10)).isEqualTo(Arrays.copyOf(DATA, 8));
+  }
+
+  private static byte[] readToEnd(DataSource dataSource, int readLength) throws Exception {
+    byte[] data = new byte[DATA.length + 1];
+    int position = 0;
+    int bytesRead;
+    while ((bytesRead = dataSource.read(data, position, min(readLength, data.length - position)))
+        != C.RESULT_END_OF_INPUT) {
+      position += bytesRead;
+    }
+    return Arrays.copyOf(data, position);
+  }
+}
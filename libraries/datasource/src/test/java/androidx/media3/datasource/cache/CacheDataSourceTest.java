@@ -33,12 +33,15 @@ import androidx.media3.test.utils.FakeDataSource;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Strings;
+import com.google.common.primitives.Bytes;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -522,6 +525,97 @@ public final class CacheDataSourceTest {
     cacheDataSource.close();
   }
 
+  @Test
+  public void readWithJoinConcurrentWrites_dataBeingWritten_readsDataFromCache() throws Exception {
+    CacheDataSource writingCacheDataSource = createWritingCacheDataSource();
+    writingCacheDataSource.open(unboundedDataSpec);
+    byte[] writtenData = DataSourceUtil.readExactly(writingCacheDataSource, 100);
+    FakeDataSource joiningUpstream = new FakeDataSource();
+    joiningUpstream.getDataSet().newDefaultData().appendReadData(1024).endData();
+    CacheDataSource joiningCacheDataSource =
+        new CacheDataSource(cache, joiningUpstream, CacheDataSource.FLAG_JOIN_CONCURRENT_WRITES);
+
+    // Read the data that's been written so far.
+    joiningCacheDataSource.open(unboundedDataSpec);
+    byte[] joinedData = DataSourceUtil.readExactly(joiningCacheDataSource, 100);
+    // Finish writing the data, and read the rest of it.
+    writtenData = Bytes.concat(writtenData, DataSourceUtil.readToEnd(writingCacheDataSource));
+    writingCacheDataSource.close();
+    joinedData = Bytes.concat(joinedData, DataSourceUtil.readToEnd(joiningCacheDataSource));
+    joiningCacheDataSource.close();
+
+    assertThat(joinedData).isEqualTo(writtenData);
+    assertThat(joiningUpstream.getAndClearOpenedDataSpecs()).isEmpty();
+  }
+
+  @Test
+  public void readWithJoinConcurrentWrites_waitingForData_readsDataOnceWritten() throws Exception {
+    CacheDataSource writingCacheDataSource = createWritingCacheDataSource();
+    writingCacheDataSource.open(unboundedDataSpec);
+    FakeDataSource joiningUpstream = new FakeDataSource();
+    joiningUpstream.getDataSet().newDefaultData().appendReadData(1024).endData();
+    CacheDataSource joiningCacheDataSource =
+        new CacheDataSource(cache, joiningUpstream, CacheDataSource.FLAG_JOIN_CONCURRENT_WRITES);
+    AtomicReference<byte[]> joinedData = new AtomicReference<>();
+    Thread joiningThread =
+        new Thread(
+            () -> {
+              try {
+                joiningCacheDataSource.open(unboundedDataSpec);
+                joinedData.set(DataSourceUtil.readToEnd(joiningCacheDataSource));
+                joiningCacheDataSource.close();
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    joiningThread.start();
+
+    byte[] writtenData = DataSourceUtil.readToEnd(writingCacheDataSource);
+    writingCacheDataSource.close();
+    joiningThread.join();
+
+    assertThat(joinedData.get()).isEqualTo(writtenData);
+    assertThat(joiningUpstream.getAndClearOpenedDataSpecs()).isEmpty();
+  }
+
+  @Test
+  public void readFromCompressedCacheFiles_readsUncompressedData() throws Exception {
+    byte[] data = Util.getUtf8Bytes(Strings.repeat("#EXTINF:4.0,\nsegment.ts\n", 100));
+    FakeDataSource upstream = new FakeDataSource();
+    upstream.getDataSet().newDefaultData().appendReadData(data).endData();
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(() -> upstream)
+            .setCacheWriteDataSinkFactory(
+                new CacheDataSink.Factory()
+                    .setCache(cache)
+                    .setFragmentSize(1000)
+                    .setCompressionPredicate(dataSpec -> true));
+    CacheDataSource cacheDataSource = cacheDataSourceFactory.createDataSource();
+    cacheDataSource.open(unboundedDataSpec);
+    DataSourceUtil.readToEnd(cacheDataSource);
+    cacheDataSource.close();
+    upstream.getAndClearOpenedDataSpecs();
+
+    // Read data from the middle of the compressed cache files.
+    cacheDataSource = cacheDataSourceFactory.createDataSource();
+    cacheDataSource.open(buildDataSpec(/* position= */ 1500, /* length= */ 800));
+    byte[] readData = DataSourceUtil.readToEnd(cacheDataSource);
+    cacheDataSource.close();
+
+    assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 1500, 2300));
+    assertThat(upstream.getAndClearOpenedDataSpecs()).isEmpty();
+    // The cache reports the uncompressed length of the data.
+    assertThat(cache.getCachedBytes(defaultCacheKey, /* position= */ 0, C.LENGTH_UNSET))
+        .isEqualTo(data.length);
+    long fileLength = 0;
+    for (CacheSpan cacheSpan : cache.getCachedSpans(defaultCacheKey)) {
+      fileLength += cacheSpan.file.length();
+    }
+    assertThat(fileLength).isLessThan(data.length / 2);
+  }
+
   private void assertCacheAndRead(DataSpec dataSpec, boolean unknownLength) throws IOException {
     assertCacheAndRead(dataSpec, unknownLength, /* cacheKeyFactory= */ null);
   }
@@ -636,6 +730,22 @@ public final class CacheDataSourceTest {
         cacheKeyFactory);
   }
 
+  /**
+   * Returns a {@link CacheDataSource} that writes 1 KB of data into the cache, flushing it to the
+   * cache in small increments.
+   */
+  private CacheDataSource createWritingCacheDataSource() {
+    FakeDataSource upstream = new FakeDataSource();
+    upstream.getDataSet().newDefaultData().appendReadData(1024).endData();
+    return new CacheDataSource(
+        cache,
+        upstream,
+        new FileDataSource(),
+        new CacheDataSink(cache, C.LENGTH_UNSET, /* bufferSize= */ 16),
+        /* flags= */ 0,
+        /* eventListener= */ null);
+  }
+
   private DataSpec buildDataSpec(boolean unbounded, @Nullable String key) {
     return buildDataSpec(/* position= */ 0, unbounded ? C.LENGTH_UNSET : TEST_DATA.length, key);
   }
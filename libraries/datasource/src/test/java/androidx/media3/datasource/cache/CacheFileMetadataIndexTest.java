@@ -17,9 +17,11 @@ package androidx.media3.datasource.cache;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import androidx.media3.common.util.NullableType;
 import androidx.media3.database.DatabaseIOException;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import org.junit.Test;
@@ -39,8 +41,8 @@ public class CacheFileMetadataIndexTest {
   public void insert() throws DatabaseIOException {
     CacheFileMetadataIndex index = newInitializedIndex();
 
-    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456);
-    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123);
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456, /* contentDigest= */ null);
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123, /* contentDigest= */ null);
 
     Map<String, CacheFileMetadata> all = index.getAll();
     assertThat(all.size()).isEqualTo(2);
@@ -63,8 +65,8 @@ public class CacheFileMetadataIndexTest {
   public void insertAndRemove() throws DatabaseIOException {
     CacheFileMetadataIndex index = newInitializedIndex();
 
-    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456);
-    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123);
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456, /* contentDigest= */ null);
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123, /* contentDigest= */ null);
 
     index.remove("name1");
 
@@ -92,8 +94,8 @@ public class CacheFileMetadataIndexTest {
   public void insertAndRemoveAll() throws DatabaseIOException {
     CacheFileMetadataIndex index = newInitializedIndex();
 
-    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456);
-    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123);
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456, /* contentDigest= */ null);
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123, /* contentDigest= */ null);
 
     HashSet<String> namesToRemove = new HashSet<>();
     namesToRemove.add("name1");
@@ -114,8 +116,8 @@ public class CacheFileMetadataIndexTest {
   public void insertAndReplace() throws DatabaseIOException {
     CacheFileMetadataIndex index = newInitializedIndex();
 
-    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456);
-    index.set("name1", /* length= */ 789, /* lastTouchTimestamp= */ 123);
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456, /* contentDigest= */ null);
+    index.set("name1", /* length= */ 789, /* lastTouchTimestamp= */ 123, /* contentDigest= */ null);
 
     Map<String, CacheFileMetadata> all = index.getAll();
     assertThat(all.size()).isEqualTo(1);
@@ -126,6 +128,42 @@ public class CacheFileMetadataIndexTest {
     assertThat(metadata.lastTouchTimestamp).isEqualTo(123);
   }
 
+  @Test
+  public void insertWithContentDigest() throws DatabaseIOException {
+    CacheFileMetadataIndex index = newInitializedIndex();
+
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456, "0123abcd");
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123, /* contentDigest= */ null);
+
+    Map<String, CacheFileMetadata> all = index.getAll();
+    assertThat(all.get("name1").contentDigest).isEqualTo("0123abcd");
+    assertThat(all.get("name2").contentDigest).isNull();
+  }
+
+  @Test
+  public void update_setsAndRemovesMetadata() throws DatabaseIOException {
+    CacheFileMetadataIndex index = newInitializedIndex();
+    index.set("name1", /* length= */ 123, /* lastTouchTimestamp= */ 456, /* contentDigest= */ null);
+    index.set("name2", /* length= */ 789, /* lastTouchTimestamp= */ 123, /* contentDigest= */ null);
+    Map<String, @NullableType CacheFileMetadata> updates = new HashMap<>();
+    updates.put("name1", null);
+    updates.put(
+        "name2", new CacheFileMetadata(/* length= */ 789, /* lastTouchTimestamp= */ 999, "abcd"));
+    updates.put(
+        "name3",
+        new CacheFileMetadata(
+            /* length= */ 111, /* lastTouchTimestamp= */ 222, /* contentDigest= */ null));
+
+    index.update(updates);
+
+    Map<String, CacheFileMetadata> all = index.getAll();
+    assertThat(all.keySet()).containsExactly("name2", "name3");
+    assertThat(all.get("name2").lastTouchTimestamp).isEqualTo(999);
+    assertThat(all.get("name2").contentDigest).isEqualTo("abcd");
+    assertThat(all.get("name3").length).isEqualTo(111);
+    assertThat(all.get("name3").lastTouchTimestamp).isEqualTo(222);
+  }
+
   private static CacheFileMetadataIndex newInitializedIndex() throws DatabaseIOException {
     CacheFileMetadataIndex index =
         new CacheFileMetadataIndex(TestUtil.getInMemoryDatabaseProvider());
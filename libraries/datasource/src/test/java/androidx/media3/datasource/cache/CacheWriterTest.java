@@ -32,6 +32,8 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
@@ -263,6 +265,92 @@ public final class CacheWriterTest {
     assertCachedData(cache, fakeDataSet);
   }
 
+  @Test
+  public void cacheInParallel() throws Exception {
+    FakeDataSet fakeDataSet = new FakeDataSet().setRandomData("test_data", 100);
+    CacheDataSource.Factory dataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+    CachingCounters counters = new CachingCounters();
+    ExecutorService executor = Executors.newFixedThreadPool(/* nThreads= */ 3);
+
+    try {
+      CacheWriter cacheWriter =
+          new CacheWriter(
+              dataSourceFactory,
+              new DataSpec(Uri.parse("test_data")),
+              counters,
+              executor,
+              /* chunkLength= */ 30);
+      cacheWriter.cache();
+    } finally {
+      executor.shutdown();
+    }
+
+    counters.assertValues(0, 100, 100);
+    assertCachedData(cache, fakeDataSet);
+    assertThat(cache.getCachedSpans("test_data")).hasSize(4);
+  }
+
+  @Test
+  public void cacheInParallel_partiallyCached_cachesMissingData() throws Exception {
+    FakeDataSet fakeDataSet = new FakeDataSet().setRandomData("test_data", 100);
+    FakeDataSource dataSource = new FakeDataSource(fakeDataSet);
+    Uri testUri = Uri.parse("test_data");
+    new CacheWriter(
+            new CacheDataSource(cache, dataSource),
+            new DataSpec(testUri, /* position= */ 10, /* length= */ 20),
+            /* temporaryBuffer= */ null,
+            /* progressListener= */ null)
+        .cache();
+    CacheDataSource.Factory dataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+    CachingCounters counters = new CachingCounters();
+
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            dataSourceFactory,
+            new DataSpec(testUri),
+            counters,
+            /* executor= */ Runnable::run,
+            /* chunkLength= */ 30);
+    cacheWriter.cache();
+
+    counters.assertValues(20, 80, 100);
+    assertCachedData(cache, fakeDataSet);
+  }
+
+  @Test
+  public void cacheInParallel_unknownLength_cachesSequentially() throws Exception {
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .newData("test_data")
+            .setSimulateUnknownLength(true)
+            .appendReadData(TestUtil.buildTestData(100))
+            .endData();
+    CacheDataSource.Factory dataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+    CachingCounters counters = new CachingCounters();
+
+    CacheWriter cacheWriter =
+        new CacheWriter(
+            dataSourceFactory,
+            new DataSpec(Uri.parse("test_data")),
+            counters,
+            /* executor= */ Runnable::run,
+            /* chunkLength= */ 30);
+    cacheWriter.cache();
+
+    counters.assertValues(0, 100, 100);
+    assertCachedData(cache, fakeDataSet);
+    assertThat(cache.getCachedSpans("test_data")).hasSize(1);
+  }
+
   private static final class CachingCounters implements CacheWriter.ProgressListener {
 
     private long contentLength = C.LENGTH_UNSET;
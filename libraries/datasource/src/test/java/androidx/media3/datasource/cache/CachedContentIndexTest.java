@@ -18,6 +18,7 @@ package androidx.media3.datasource.cache;
 import static androidx.media3.test.utils.TestUtil.createTestFile;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.assertThrows;
 
 import android.net.Uri;
 import android.util.SparseArray;
@@ -30,6 +31,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 import org.junit.After;
@@ -324,6 +328,165 @@ public class CachedContentIndexTest {
     assertThat(ContentMetadata.getContentLength(metadata2)).isEqualTo(2560);
   }
 
+  @Test
+  public void legacyStoreIncremental_appendsChangesToJournal() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.getOrAdd("key2");
+    index.store();
+    File indexFile = new File(cacheDir, CachedContentIndex.FILE_NAME_ATOMIC);
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+    long indexFileLength = indexFile.length();
+
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setContentLength(mutations, 2560);
+    index.applyContentMetadataMutations("key1", mutations);
+    index.maybeRemove("key2");
+    index.getOrAdd("key3");
+    index.store();
+
+    assertThat(indexFile.length()).isEqualTo(indexFileLength);
+    assertThat(journalFile.exists()).isTrue();
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+    assertLoadedEqual(index, index2);
+    assertThat(index2.getKeys()).containsExactly("key1", "key3");
+  }
+
+  @Test
+  public void legacyLoad_withPartiallyWrittenJournalRecord_ignoresRecord() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    index.getOrAdd("key2");
+    index.store();
+    index.getOrAdd("key3");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+    try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+      file.setLength(journalFile.length() - 1);
+    }
+
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("key1", "key2");
+
+    // The journal can't be appended to, so the next store rewrites the index.
+    index2.getOrAdd("key4");
+    index2.store();
+    assertThat(journalFile.exists()).isFalse();
+    CachedContentIndex index3 = newLegacyInstance();
+    index3.initialize(/* uid= */ 0);
+    assertLoadedEqual(index2, index3);
+  }
+
+  @Test
+  public void legacyStoreIncremental_afterFailedJournalWrite_rewritesIndex() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    index.getOrAdd("key2");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+    byte[] journal = Files.readAllBytes(journalFile.toPath());
+    // Make appending to the journal fail.
+    journalFile.delete();
+    journalFile.mkdir();
+    index.getOrAdd("key3");
+    assertThrows(IOException.class, index::store);
+    // Simulate the failed write having left a partially written record behind.
+    journalFile.delete();
+    Files.write(journalFile.toPath(), Arrays.copyOf(journal, journal.length + 2));
+
+    index.getOrAdd("key4");
+    index.store();
+
+    assertThat(journalFile.exists()).isFalse();
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+    assertLoadedEqual(index, index2);
+    assertThat(index2.getKeys()).containsExactly("key1", "key2", "key3", "key4");
+  }
+
+  @Test
+  public void legacyStoreIncremental_manyChanges_compactsJournal() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+
+    boolean journalCompacted = false;
+    for (int i = 0; i < 2000; i++) {
+      ContentMetadataMutations mutations = new ContentMetadataMutations();
+      ContentMetadataMutations.setContentLength(mutations, i);
+      index.applyContentMetadataMutations("key1", mutations);
+      index.store();
+      journalCompacted |= !journalFile.exists();
+    }
+
+    assertThat(journalCompacted).isTrue();
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+    assertLoadedEqual(index, index2);
+    assertThat(ContentMetadata.getContentLength(index2.getContentMetadata("key1"))).isEqualTo(1999);
+  }
+
+  @Test
+  public void legacyLoad_withJournalOfPreviousSnapshot_ignoresJournal() throws Exception {
+    CachedContentIndex index = newLegacyInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    index.getOrAdd("key2");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+    byte[] staleJournal = Files.readAllBytes(journalFile.toPath());
+    // Remove key2 so that its id is reused by key3.
+    index.maybeRemove("key2");
+    index.store();
+    index.getOrAdd("key3");
+    // Store until the journal is compacted into a new snapshot.
+    for (int i = 0; journalFile.exists(); i++) {
+      ContentMetadataMutations mutations = new ContentMetadataMutations();
+      ContentMetadataMutations.setContentLength(mutations, i);
+      index.applyContentMetadataMutations("key1", mutations);
+      index.store();
+    }
+    // Simulate the process being killed after the snapshot was written, but before the journal was
+    // deleted.
+    Files.write(journalFile.toPath(), staleJournal);
+
+    CachedContentIndex index2 = newLegacyInstance();
+    index2.initialize(/* uid= */ 0);
+
+    assertLoadedEqual(index, index2);
+    assertThat(index2.getKeys()).containsExactly("key1", "key3");
+  }
+
+  @Test
+  public void legacyEncryptedJournal() throws Exception {
+    byte[] key = Util.getUtf8Bytes("Bar12345Bar12345"); // 128 bit key
+    byte[] key2 = Util.getUtf8Bytes("Foo12345Foo12345"); // 128 bit key
+    CachedContentIndex index = newLegacyInstance(key);
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("key1");
+    index.store();
+    index.getOrAdd("key2");
+    index.store();
+
+    CachedContentIndex index2 = newLegacyInstance(key);
+    index2.initialize(/* uid= */ 0);
+    assertLoadedEqual(index, index2);
+
+    CachedContentIndex index3 = newLegacyInstance(key2);
+    index3.initialize(/* uid= */ 0);
+    assertThat(index3.getKeys()).isEmpty();
+  }
+
   @Test
   public void assignIdForKeyAndGetKeyForId() {
     CachedContentIndex index = newInstance();
@@ -461,6 +624,14 @@ public class CachedContentIndexTest {
     }
   }
 
+  private static void assertLoadedEqual(CachedContentIndex index, CachedContentIndex index2) {
+    Set<String> keys = index.getKeys();
+    assertThat(index2.getKeys()).isEqualTo(keys);
+    for (String key : keys) {
+      assertThat(index2.get(key)).isEqualTo(index.get(key));
+    }
+  }
+
   private CachedContentIndex newInstance() {
     return new CachedContentIndex(TestUtil.getInMemoryDatabaseProvider());
   }
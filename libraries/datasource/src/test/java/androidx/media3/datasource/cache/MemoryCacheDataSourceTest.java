@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.datasource.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.test.utils.FakeDataSource;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MemoryCacheDataSource} and {@link MemoryCache}. */
+@RunWith(AndroidJUnit4.class)
+public final class MemoryCacheDataSourceTest {
+
+  private static final Uri TEST_URI = Uri.parse("https://www.test.com/data");
+  private static final byte[] TEST_DATA = TestUtil.buildTestData(100);
+
+  private File tempFolder;
+  private SimpleCache cache;
+  private FakeDataSource upstreamDataSource;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    upstreamDataSource = new FakeDataSource();
+    upstreamDataSource.getDataSet().setData(TEST_URI, TEST_DATA);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cache.release();
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void readTwice_secondReadServedFromMemory() throws Exception {
+    MemoryCache memoryCache =
+        new MemoryCache(/* maxBytes= */ 1000, /* maxEntryBytes= */ 1000, cache);
+    MemoryCacheDataSource dataSource = createMemoryCacheDataSource(memoryCache);
+    DataSpec dataSpec = new DataSpec.Builder().setUri(TEST_URI).setPosition(10).build();
+
+    byte[] firstReadData = read(dataSource, dataSpec);
+    upstreamDataSource.getAndClearOpenedDataSpecs();
+    byte[] secondReadData = read(dataSource, dataSpec);
+
+    assertThat(firstReadData).isEqualTo(Arrays.copyOfRange(TEST_DATA, 10, 100));
+    assertThat(secondReadData).isEqualTo(firstReadData);
+    assertThat(upstreamDataSource.getAndClearOpenedDataSpecs()).isEmpty();
+    assertThat(memoryCache.getHitCount()).isEqualTo(1);
+    assertThat(memoryCache.getMissCount()).isEqualTo(1);
+    assertThat(memoryCache.getSize()).isEqualTo(90);
+  }
+
+  @Test
+  public void readDifferentRange_notServedFromMemory() throws Exception {
+    MemoryCache memoryCache =
+        new MemoryCache(/* maxBytes= */ 1000, /* maxEntryBytes= */ 1000, cache);
+    MemoryCacheDataSource dataSource = createMemoryCacheDataSource(memoryCache);
+
+    read(dataSource, new DataSpec(TEST_URI));
+    byte[] data = read(dataSource, new DataSpec.Builder().setUri(TEST_URI).setPosition(50).build());
+
+    assertThat(data).isEqualTo(Arrays.copyOfRange(TEST_DATA, 50, 100));
+    assertThat(memoryCache.getHitCount()).isEqualTo(0);
+    assertThat(memoryCache.getMissCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void partialRead_notStored() throws Exception {
+    MemoryCache memoryCache =
+        new MemoryCache(/* maxBytes= */ 1000, /* maxEntryBytes= */ 1000, cache);
+    MemoryCacheDataSource dataSource = createMemoryCacheDataSource(memoryCache);
+
+    dataSource.open(new DataSpec(TEST_URI));
+    DataSourceUtil.readExactly(dataSource, /* length= */ 50);
+    dataSource.close();
+
+    assertThat(memoryCache.getSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void readLargerThanMaxEntryBytes_notStored() throws Exception {
+    MemoryCache memoryCache = new MemoryCache(/* maxBytes= */ 1000, /* maxEntryBytes= */ 50, cache);
+    MemoryCacheDataSource dataSource = createMemoryCacheDataSource(memoryCache);
+
+    read(dataSource, new DataSpec(TEST_URI));
+    read(dataSource, new DataSpec.Builder().setUri(TEST_URI).setPosition(60).build());
+
+    assertThat(memoryCache.getSize()).isEqualTo(40);
+  }
+
+  @Test
+  public void readChangingResourceBypassedByBackingCache_alwaysReadFromUpstream() throws Exception {
+    MemoryCache memoryCache =
+        new MemoryCache(/* maxBytes= */ 1000, /* maxEntryBytes= */ 1000, cache);
+    // Like a refreshed live playlist, unset length requests aren't stored by the backing cache.
+    MemoryCacheDataSource dataSource =
+        new MemoryCacheDataSource(
+            memoryCache,
+            new CacheDataSource(
+                cache,
+                upstreamDataSource,
+                CacheDataSource.FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS),
+            CacheKeyFactory.DEFAULT);
+    byte[] updatedData = TestUtil.buildTestData(/* length= */ 50, /* seed= */ 1);
+
+    byte[] firstReadData = read(dataSource, new DataSpec(TEST_URI));
+    upstreamDataSource.getDataSet().setData(TEST_URI, updatedData);
+    byte[] secondReadData = read(dataSource, new DataSpec(TEST_URI));
+
+    assertThat(firstReadData).isEqualTo(TEST_DATA);
+    assertThat(secondReadData).isEqualTo(updatedData);
+    assertThat(memoryCache.getSize()).isEqualTo(0);
+    assertThat(memoryCache.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void put_exceedsMaxBytes_evictsLeastRecentlyUsedEntries() {
+    MemoryCache memoryCache = new MemoryCache(/* maxBytes= */ 30);
+    memoryCache.put("key1", /* position= */ 0, /* length= */ 10, new byte[10]);
+    memoryCache.put("key2", /* position= */ 0, /* length= */ 10, new byte[10]);
+    memoryCache.put("key3", /* position= */ 0, /* length= */ 10, new byte[10]);
+    memoryCache.get("key1", /* position= */ 0, /* length= */ 10);
+
+    memoryCache.put("key4", /* position= */ 0, /* length= */ 10, new byte[10]);
+
+    assertThat(memoryCache.get("key1", /* position= */ 0, /* length= */ 10)).isNotNull();
+    assertThat(memoryCache.get("key2", /* position= */ 0, /* length= */ 10)).isNull();
+    assertThat(memoryCache.get("key3", /* position= */ 0, /* length= */ 10)).isNotNull();
+    assertThat(memoryCache.get("key4", /* position= */ 0, /* length= */ 10)).isNotNull();
+    assertThat(memoryCache.getSize()).isEqualTo(30);
+  }
+
+  @Test
+  public void removeResourceFromBackingCache_removesEntries() throws Exception {
+    MemoryCache memoryCache =
+        new MemoryCache(/* maxBytes= */ 1000, /* maxEntryBytes= */ 1000, cache);
+    MemoryCacheDataSource dataSource = createMemoryCacheDataSource(memoryCache);
+    read(dataSource, new DataSpec(TEST_URI));
+    String key = CacheKeyFactory.DEFAULT.buildCacheKey(new DataSpec(TEST_URI));
+
+    cache.removeResource(key);
+
+    assertThat(memoryCache.getSize()).isEqualTo(0);
+    assertThat(memoryCache.get(key, /* position= */ 0, C.LENGTH_UNSET)).isNull();
+    // Reading again stores the data again.
+    read(dataSource, new DataSpec(TEST_URI));
+    assertThat(memoryCache.getSize()).isEqualTo(100);
+  }
+
+  private MemoryCacheDataSource createMemoryCacheDataSource(MemoryCache memoryCache) {
+    return new MemoryCacheDataSource(
+        memoryCache, new CacheDataSource(cache, upstreamDataSource), CacheKeyFactory.DEFAULT);
+  }
+
+  private static byte[] read(MemoryCacheDataSource dataSource, DataSpec dataSpec)
+      throws IOException {
+    try {
+      dataSource.open(dataSpec);
+      return DataSourceUtil.readToEnd(dataSource);
+    } finally {
+      dataSource.close();
+    }
+  }
+}
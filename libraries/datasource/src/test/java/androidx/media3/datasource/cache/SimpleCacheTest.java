@@ -23,6 +23,7 @@ import static org.mockito.Mockito.doAnswer;
 import android.net.Uri;
 import androidx.media3.common.util.Util;
 import androidx.media3.database.DatabaseProvider;
+import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.cache.Cache.CacheException;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
@@ -32,13 +33,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.NavigableSet;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.robolectric.shadows.ShadowSystemClock;
 
 /** Unit tests for {@link SimpleCache}. */
 @RunWith(AndroidJUnit4.class)
@@ -148,6 +154,28 @@ public class SimpleCacheTest {
         .isEqualTo(Uri.parse("https://redirect.google.com"));
   }
 
+  @Test
+  public void newInstance_withTouchedSpans_withDatabase_loadsTouchTimestamps() throws Exception {
+    SimpleCache simpleCache =
+        new SimpleCache(
+            cacheDir, new LeastRecentlyUsedCacheEvictor(/* maxBytes= */ 1000), databaseProvider);
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    long committedTimestamp = simpleCache.getCachedSpans(KEY_1).first().lastTouchTimestamp;
+    ShadowSystemClock.advanceBy(Duration.ofMillis(100));
+    CacheSpan touchedSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    simpleCache.release();
+
+    simpleCache =
+        new SimpleCache(
+            cacheDir, new LeastRecentlyUsedCacheEvictor(/* maxBytes= */ 1000), databaseProvider);
+    CacheSpan span = simpleCache.getCachedSpans(KEY_1).first();
+
+    assertThat(touchedSpan.lastTouchTimestamp).isGreaterThan(committedTimestamp);
+    assertThat(span.lastTouchTimestamp).isEqualTo(touchedSpan.lastTouchTimestamp);
+  }
+
   @Test
   public void newInstance_withExistingCacheInstance_fails() {
     getSimpleCache();
@@ -382,6 +410,168 @@ public class SimpleCacheTest {
     simpleCache.releaseHoleSpan(holeSpan1);
   }
 
+  @Test
+  public void startReadWriteOrJoinWrite_rangeBeingWritten_returnsWrittenPartOfFile()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    File file = simpleCache.startFile(KEY_1, 0, LENGTH_UNSET);
+    byte[] data = generateData(KEY_1, 0, 15);
+    try (FileOutputStream fos = new FileOutputStream(file)) {
+      fos.write(data, 0, 10);
+    }
+    simpleCache.updateFileLength(file, 10);
+
+    CacheSpan writtenSpan =
+        simpleCache.startReadWriteOrJoinWrite(KEY_1, 5, LENGTH_UNSET, /* timeoutMs= */ 0);
+
+    assertThat(writtenSpan.isCached).isTrue();
+    assertThat(writtenSpan.file).isEqualTo(file);
+    assertThat(writtenSpan.position).isEqualTo(0);
+    assertThat(writtenSpan.length).isEqualTo(10);
+    // Data that's yet to be written can't be read.
+    assertThat(simpleCache.startReadWriteOrJoinWrite(KEY_1, 10, LENGTH_UNSET, /* timeoutMs= */ 0))
+        .isNull();
+    simpleCache.releaseHoleSpan(holeSpan);
+  }
+
+  @Test
+  public void startReadWriteOrJoinWrite_waitingForWrite_returnsWrittenPartOfFileOnceWritten()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    File file = simpleCache.startFile(KEY_1, 0, LENGTH_UNSET);
+    AtomicReference<CacheSpan> writtenSpan = new AtomicReference<>();
+    Thread joiningThread =
+        new Thread(
+            () -> {
+              try {
+                writtenSpan.set(
+                    simpleCache.startReadWriteOrJoinWrite(
+                        KEY_1, 0, LENGTH_UNSET, /* timeoutMs= */ 60_000));
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    joiningThread.start();
+
+    try (FileOutputStream fos = new FileOutputStream(file)) {
+      fos.write(generateData(KEY_1, 0, 15));
+    }
+    simpleCache.updateFileLength(file, 15);
+    joiningThread.join();
+
+    assertThat(writtenSpan.get().file).isEqualTo(file);
+    assertThat(writtenSpan.get().length).isEqualTo(15);
+    simpleCache.releaseHoleSpan(holeSpan);
+  }
+
+  @Test
+  public void startReadWriteOrJoinWrite_fileAbandoned_acquiresLock() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    File file = simpleCache.startFile(KEY_1, 0, LENGTH_UNSET);
+    try (FileOutputStream fos = new FileOutputStream(file)) {
+      fos.write(generateData(KEY_1, 0, 15));
+    }
+    simpleCache.updateFileLength(file, 15);
+    file.delete();
+    simpleCache.releaseHoleSpan(holeSpan);
+
+    CacheSpan span =
+        simpleCache.startReadWriteOrJoinWrite(KEY_1, 0, LENGTH_UNSET, /* timeoutMs= */ 0);
+
+    assertThat(span.isHoleSpan()).isTrue();
+    simpleCache.releaseHoleSpan(span);
+  }
+
+  @Test
+  public void newInstance_withCompressedCacheFiles_keepsUncompressedLength() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheDataSink cacheDataSink =
+        new CacheDataSink(
+            simpleCache,
+            LENGTH_UNSET,
+            CacheDataSink.DEFAULT_BUFFER_SIZE,
+            /* compressionPredicate= */ dataSpec -> true);
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    cacheDataSink.open(
+        new DataSpec.Builder().setUri(Uri.parse("https://test.test")).setKey(KEY_1).build());
+    cacheDataSink.write(new byte[1000], /* offset= */ 0, /* length= */ 1000);
+    cacheDataSink.close();
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.release();
+
+    simpleCache = getSimpleCache();
+    CacheSpan span = simpleCache.startReadWriteNonBlocking(KEY_1, 0, LENGTH_UNSET);
+
+    assertThat(span.isCached).isTrue();
+    assertThat(span.length).isEqualTo(1000);
+    assertThat(span.file.length()).isLessThan(1000);
+  }
+
+  @Test
+  public void commitFile_withSameContentDigest_storesContentOnce() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    byte[] data = generateData(KEY_1, /* position= */ 0, /* length= */ 1000);
+
+    writeWithContentDeduplication(simpleCache, KEY_1, data);
+    writeWithContentDeduplication(simpleCache, KEY_2, data);
+    CacheSpan span1 = simpleCache.startReadWriteNonBlocking(KEY_1, 0, LENGTH_UNSET);
+    CacheSpan span2 = simpleCache.startReadWriteNonBlocking(KEY_2, 0, LENGTH_UNSET);
+
+    assertThat(span1.isCached).isTrue();
+    assertThat(span2.isCached).isTrue();
+    assertThat(Files.isSameFile(span1.file.toPath(), span2.file.toPath())).isTrue();
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(2000);
+  }
+
+  @Test
+  public void commitFile_withDifferentContentDigest_storesContentSeparately() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+
+    writeWithContentDeduplication(
+        simpleCache, KEY_1, generateData(KEY_1, /* position= */ 0, /* length= */ 1000));
+    writeWithContentDeduplication(
+        simpleCache, KEY_2, generateData(KEY_2, /* position= */ 0, /* length= */ 1000));
+    CacheSpan span1 = simpleCache.startReadWriteNonBlocking(KEY_1, 0, LENGTH_UNSET);
+    CacheSpan span2 = simpleCache.startReadWriteNonBlocking(KEY_2, 0, LENGTH_UNSET);
+
+    assertThat(Files.isSameFile(span1.file.toPath(), span2.file.toPath())).isFalse();
+  }
+
+  @Test
+  public void removeResource_withDeduplicatedContent_keepsContentOfOtherResource()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    byte[] data = generateData(KEY_1, /* position= */ 0, /* length= */ 1000);
+    writeWithContentDeduplication(simpleCache, KEY_1, data);
+    writeWithContentDeduplication(simpleCache, KEY_2, data);
+
+    simpleCache.removeResource(KEY_1);
+    CacheSpan span = simpleCache.startReadWriteNonBlocking(KEY_2, 0, LENGTH_UNSET);
+
+    assertThat(span.isCached).isTrue();
+    try (FileInputStream inputStream = new FileInputStream(span.file)) {
+      assertThat(ByteStreams.toByteArray(inputStream)).isEqualTo(data);
+    }
+  }
+
+  @Test
+  public void newInstance_withDeduplicatedContent_deduplicatesNewFiles() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    byte[] data = generateData(KEY_1, /* position= */ 0, /* length= */ 1000);
+    writeWithContentDeduplication(simpleCache, KEY_1, data);
+    simpleCache.release();
+
+    simpleCache = getSimpleCache();
+    writeWithContentDeduplication(simpleCache, KEY_2, data);
+    CacheSpan span1 = simpleCache.startReadWriteNonBlocking(KEY_1, 0, LENGTH_UNSET);
+    CacheSpan span2 = simpleCache.startReadWriteNonBlocking(KEY_2, 0, LENGTH_UNSET);
+
+    assertThat(Files.isSameFile(span1.file.toPath(), span2.file.toPath())).isTrue();
+  }
+
   @Test
   public void applyContentMetadataMutations_setsContentLength() throws Exception {
     SimpleCache simpleCache = getSimpleCache();
@@ -620,6 +810,47 @@ public class SimpleCacheTest {
     assertThat(fileSpan.length).isEqualTo(15);
   }
 
+  @Test
+  public void readOnlyQueries_whileAnotherThreadHoldsLock_doNotBlock() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    CountDownLatch releaseLock = new CountDownLatch(1);
+    Thread lockHoldingThread = startLockHoldingThread(simpleCache, releaseLock);
+
+    long cachedLength = simpleCache.getCachedLength(KEY_1, 0, LENGTH_UNSET);
+    long cachedBytes = simpleCache.getCachedBytes(KEY_1, 0, 20);
+    boolean isCached = simpleCache.isCached(KEY_1, 5, 10);
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    long cacheSpace = simpleCache.getCacheSpace();
+    releaseLock.countDown();
+    lockHoldingThread.join();
+
+    assertThat(cachedLength).isEqualTo(15);
+    assertThat(cachedBytes).isEqualTo(15);
+    assertThat(isCached).isTrue();
+    assertThat(cachedSpans).hasSize(1);
+    assertThat(cacheSpace).isEqualTo(15);
+  }
+
+  @Test
+  public void startReadWrite_cachedRangeWhileAnotherThreadHoldsLock_returnsCachedSpan()
+      throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    CountDownLatch releaseLock = new CountDownLatch(1);
+    Thread lockHoldingThread = startLockHoldingThread(simpleCache, releaseLock);
+
+    CacheSpan fileSpan = simpleCache.startReadWrite(KEY_1, 0, LENGTH_UNSET);
+    releaseLock.countDown();
+    lockHoldingThread.join();
+
+    assertCachedDataReadCorrect(fileSpan);
+  }
+
   @Test
   public void usingReleasedCache_throwsException() {
     SimpleCache simpleCache = getSimpleCache();
@@ -633,6 +864,30 @@ public class SimpleCacheTest {
     return new SimpleCache(cacheDir, new NoOpCacheEvictor(), databaseProvider);
   }
 
+  /**
+   * Starts a thread that acquires the lock on {@code simpleCache}, and holds it until {@code
+   * releaseLock} is counted down. Returns once the lock has been acquired.
+   */
+  private static Thread startLockHoldingThread(SimpleCache simpleCache, CountDownLatch releaseLock)
+      throws InterruptedException {
+    CountDownLatch lockAcquired = new CountDownLatch(1);
+    Thread thread =
+        new Thread(
+            () -> {
+              synchronized (simpleCache) {
+                lockAcquired.countDown();
+                try {
+                  releaseLock.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+            });
+    thread.start();
+    lockAcquired.await();
+    return thread;
+  }
+
   private static void addCache(SimpleCache simpleCache, String key, int position, int length)
       throws IOException {
     File file = simpleCache.startFile(key, position, length);
@@ -642,6 +897,23 @@ public class SimpleCacheTest {
     simpleCache.commitFile(file, length);
   }
 
+  private static void writeWithContentDeduplication(
+      SimpleCache simpleCache, String key, byte[] data) throws Exception {
+    CacheDataSink cacheDataSink =
+        new CacheDataSink(
+            simpleCache,
+            LENGTH_UNSET,
+            CacheDataSink.DEFAULT_BUFFER_SIZE,
+            /* compressionPredicate= */ null,
+            /* contentDeduplicationEnabled= */ true);
+    CacheSpan holeSpan = simpleCache.startReadWrite(key, 0, LENGTH_UNSET);
+    cacheDataSink.open(
+        new DataSpec.Builder().setUri(Uri.parse("https://test.test")).setKey(key).build());
+    cacheDataSink.write(data, /* offset= */ 0, data.length);
+    cacheDataSink.close();
+    simpleCache.releaseHoleSpan(holeSpan);
+  }
+
   private static void assertCachedDataReadCorrect(CacheSpan cacheSpan) throws IOException {
     assertThat(cacheSpan.isCached).isTrue();
     byte[] expected = generateData(cacheSpan.key, (int) cacheSpan.position, (int) cacheSpan.length);
@@ -15,6 +15,7 @@
  */
 package androidx.media3.exoplayer.offline;
 
+import static androidx.media3.common.util.Assertions.checkArgument;
 import static androidx.media3.common.util.Assertions.checkNotNull;
 
 import android.content.ContentValues;
@@ -22,6 +23,7 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import androidx.annotation.GuardedBy;
@@ -37,16 +39,53 @@ import androidx.media3.database.DatabaseProvider;
 import androidx.media3.database.VersionTable;
 import androidx.media3.exoplayer.offline.Download.FailureReason;
 import androidx.media3.exoplayer.offline.Download.State;
+import com.google.common.base.Strings;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArraySet;
 
-/** A {@link DownloadIndex} that uses SQLite to persist {@link Download Downloads}. */
+/**
+ * A {@link DownloadIndex} that uses SQLite to persist {@link Download Downloads}.
+ *
+ * <p>The table is indexed by state and update time, so that queries for downloads in a few states,
+ * such as the unfinished downloads that a {@link DownloadManager} loads when it's initialized, and
+ * queries for recently updated downloads don't need to read every stored download.
+ */
 @UnstableApi
 public final class DefaultDownloadIndex implements WritableDownloadIndex {
 
+  /**
+   * Listener of changes to a {@link DefaultDownloadIndex}.
+   *
+   * <p>Methods are called on the thread that made the change, after the change has been written.
+   */
+  public interface Listener {
+
+    /**
+     * Called when a download is added or replaced.
+     *
+     * @param download The added or replaced {@link Download}.
+     */
+    default void onDownloadChanged(Download download) {}
+
+    /**
+     * Called when a download is removed.
+     *
+     * @param id The ID of the removed download.
+     */
+    default void onDownloadRemoved(String id) {}
+
+    /**
+     * Called when the state or stop reason of several downloads is changed at once, for example by
+     * {@link #setStatesToRemoving()}. Listeners that keep a copy of the downloads should query the
+     * index again.
+     */
+    default void onDownloadsChanged() {}
+  }
+
   private static final String TABLE_PREFIX = DatabaseProvider.TABLE_PREFIX + "Downloads";
 
-  @VisibleForTesting /* package */ static final int TABLE_VERSION = 3;
+  @VisibleForTesting /* package */ static final int TABLE_VERSION = 4;
 
   private static final String COLUMN_ID = "id";
   private static final String COLUMN_MIME_TYPE = "mime_type";
@@ -81,6 +120,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
   private static final int COLUMN_INDEX_KEY_SET_ID = 14;
 
   private static final String WHERE_ID_EQUALS = COLUMN_ID + " = ?";
+  private static final String WHERE_UPDATE_TIME_AFTER = COLUMN_UPDATE_TIME_MS + " > ?";
   private static final String WHERE_STATE_IS_DOWNLOADING =
       COLUMN_STATE + " = " + Download.STATE_DOWNLOADING;
   private static final String WHERE_STATE_IS_TERMINAL =
@@ -144,6 +184,7 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
   private final String tableName;
   private final DatabaseProvider databaseProvider;
   private final Object initializationLock;
+  private final CopyOnWriteArraySet<Listener> listeners;
 
   @GuardedBy("initializationLock")
   private boolean initialized;
@@ -178,6 +219,26 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
     this.databaseProvider = databaseProvider;
     tableName = TABLE_PREFIX + name;
     initializationLock = new Object();
+    listeners = new CopyOnWriteArraySet<>();
+  }
+
+  /**
+   * Adds a {@link Listener}.
+   *
+   * @param listener The listener to be added.
+   */
+  public void addListener(Listener listener) {
+    checkNotNull(listener);
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a {@link Listener}.
+   *
+   * @param listener The listener to be removed.
+   */
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
   }
 
   @Override
@@ -202,43 +263,139 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
     return new DownloadCursorImpl(cursor);
   }
 
+  /**
+   * Returns a {@link DownloadCursor} to a page of the {@link Download}s with the given {@code
+   * states}, sorted by start time.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param offset The number of downloads to skip.
+   * @param limit The maximum number of downloads to return.
+   * @param states Returns only the {@link Download}s with this states. If empty, returns all.
+   * @return A cursor to at most {@code limit} {@link Download}s with the given {@code states}.
+   * @throws DatabaseIOException If an error occurs reading the state.
+   */
+  public DownloadCursor getDownloadsPage(int offset, int limit, @Download.State int... states)
+      throws DatabaseIOException {
+    checkArgument(offset >= 0 && limit >= 0);
+    ensureInitialized();
+    Cursor cursor =
+        getCursor(
+            getStateQuery(states),
+            /* selectionArgs= */ null,
+            COLUMN_START_TIME_MS + " ASC, " + COLUMN_ID + " ASC",
+            /* limit= */ offset + "," + limit);
+    return new DownloadCursorImpl(cursor);
+  }
+
+  /**
+   * Returns a {@link DownloadCursor} to the {@link Download}s with the given {@code states} that
+   * were updated after the given time, sorted by update time.
+   *
+   * <p>Applications can use this method to read only the downloads that changed since they last
+   * read the index, by passing the largest {@link Download#updateTimeMs} they've read. Note that
+   * downloads that were removed, or whose state or stop reason was changed using one of the bulk
+   * update methods, aren't returned. Use a {@link Listener} to be notified of such changes.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param updateTimeMs Returns only the {@link Download}s with a later {@link
+   *     Download#updateTimeMs}.
+   * @param states Returns only the {@link Download}s with this states. If empty, returns all.
+   * @return A cursor to the {@link Download}s updated after {@code updateTimeMs}.
+   * @throws DatabaseIOException If an error occurs reading the state.
+   */
+  public DownloadCursor getDownloadsUpdatedAfter(long updateTimeMs, @Download.State int... states)
+      throws DatabaseIOException {
+    ensureInitialized();
+    Cursor cursor =
+        getCursor(
+            WHERE_UPDATE_TIME_AFTER + " AND " + getStateQuery(states),
+            new String[] {Long.toString(updateTimeMs)},
+            COLUMN_UPDATE_TIME_MS + " ASC, " + COLUMN_ID + " ASC",
+            /* limit= */ null);
+    return new DownloadCursorImpl(cursor);
+  }
+
   @Override
   public void putDownload(Download download) throws DatabaseIOException {
     ensureInitialized();
-    try {
-      SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      putDownloadInternal(download, writableDatabase);
+    try (SQLiteStatement statement = compilePutStatement(databaseProvider.getWritableDatabase())) {
+      putDownloadInternal(download, statement);
     } catch (SQLiteException e) {
       throw new DatabaseIOException(e);
     }
+    for (Listener listener : listeners) {
+      listener.onDownloadChanged(download);
+    }
+  }
+
+  @Override
+  public void putDownloads(List<Download> downloads) throws DatabaseIOException {
+    ensureInitialized();
+    if (downloads.isEmpty()) {
+      return;
+    }
+    try {
+      databaseProvider.runInTransaction(
+          writableDatabase -> {
+            try (SQLiteStatement statement = compilePutStatement(writableDatabase)) {
+              for (int i = 0; i < downloads.size(); i++) {
+                putDownloadInternal(downloads.get(i), statement);
+              }
+            }
+          });
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+    for (int i = 0; i < downloads.size(); i++) {
+      Download download = downloads.get(i);
+      for (Listener listener : listeners) {
+        listener.onDownloadChanged(download);
+      }
+    }
   }
 
   @Override
   public void removeDownload(String id) throws DatabaseIOException {
     ensureInitialized();
     try {
-      databaseProvider.getWritableDatabase().delete(tableName, WHERE_ID_EQUALS, new String[] {id});
+      int removedCount =
+          databaseProvider
+              .getWritableDatabase()
+              .delete(tableName, WHERE_ID_EQUALS, new String[] {id});
+      if (removedCount == 0) {
+        return;
+      }
     } catch (SQLiteException e) {
       throw new DatabaseIOException(e);
     }
+    for (Listener listener : listeners) {
+      listener.onDownloadRemoved(id);
+    }
   }
 
   @Override
   public void setDownloadingStatesToQueued() throws DatabaseIOException {
     ensureInitialized();
+    int updatedCount;
     try {
       ContentValues values = new ContentValues();
       values.put(COLUMN_STATE, Download.STATE_QUEUED);
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      writableDatabase.update(tableName, values, WHERE_STATE_IS_DOWNLOADING, /* whereArgs= */ null);
+      updatedCount =
+          writableDatabase.update(
+              tableName, values, WHERE_STATE_IS_DOWNLOADING, /* whereArgs= */ null);
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
+    maybeNotifyDownloadsChanged(updatedCount);
   }
 
   @Override
   public void setStatesToRemoving() throws DatabaseIOException {
     ensureInitialized();
+    int updatedCount;
     try {
       ContentValues values = new ContentValues();
       values.put(COLUMN_STATE, Download.STATE_REMOVING);
@@ -246,40 +403,50 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
       // case we're moving downloads from STATE_FAILED to STATE_REMOVING.
       values.put(COLUMN_FAILURE_REASON, Download.FAILURE_REASON_NONE);
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      writableDatabase.update(tableName, values, /* whereClause= */ null, /* whereArgs= */ null);
+      updatedCount =
+          writableDatabase.update(
+              tableName, values, /* whereClause= */ null, /* whereArgs= */ null);
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
+    maybeNotifyDownloadsChanged(updatedCount);
   }
 
   @Override
   public void setStopReason(int stopReason) throws DatabaseIOException {
     ensureInitialized();
+    int updatedCount;
     try {
       ContentValues values = new ContentValues();
       values.put(COLUMN_STOP_REASON, stopReason);
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      writableDatabase.update(tableName, values, WHERE_STATE_IS_TERMINAL, /* whereArgs= */ null);
+      updatedCount =
+          writableDatabase.update(
+              tableName, values, WHERE_STATE_IS_TERMINAL, /* whereArgs= */ null);
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
+    maybeNotifyDownloadsChanged(updatedCount);
   }
 
   @Override
   public void setStopReason(String id, int stopReason) throws DatabaseIOException {
     ensureInitialized();
+    int updatedCount;
     try {
       ContentValues values = new ContentValues();
       values.put(COLUMN_STOP_REASON, stopReason);
       SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
-      writableDatabase.update(
-          tableName,
-          values,
-          WHERE_STATE_IS_TERMINAL + " AND " + WHERE_ID_EQUALS,
-          new String[] {id});
+      updatedCount =
+          writableDatabase.update(
+              tableName,
+              values,
+              WHERE_STATE_IS_TERMINAL + " AND " + WHERE_ID_EQUALS,
+              new String[] {id});
     } catch (SQLException e) {
       throw new DatabaseIOException(e);
     }
+    maybeNotifyDownloadsChanged(updatedCount);
   }
 
   private void ensureInitialized() throws DatabaseIOException {
@@ -296,13 +463,36 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
           try {
             VersionTable.setVersion(
                 writableDatabase, VersionTable.FEATURE_OFFLINE, name, TABLE_VERSION);
-            List<Download> upgradedDownloads =
-                version == 2 ? loadDownloadsFromVersion2(writableDatabase) : new ArrayList<>();
-            writableDatabase.execSQL("DROP TABLE IF EXISTS " + tableName);
-            writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
-            for (Download download : upgradedDownloads) {
-              putDownloadInternal(download, writableDatabase);
+            if (version != 3 || !Util.tableExists(writableDatabase, tableName)) {
+              // Version 3 has the same table schema, without the indices.
+              List<Download> upgradedDownloads =
+                  version == 2 ? loadDownloadsFromVersion2(writableDatabase) : new ArrayList<>();
+              writableDatabase.execSQL("DROP TABLE IF EXISTS " + tableName);
+              writableDatabase.execSQL("CREATE TABLE " + tableName + " " + TABLE_SCHEMA);
+              if (!upgradedDownloads.isEmpty()) {
+                try (SQLiteStatement statement = compilePutStatement(writableDatabase)) {
+                  for (Download download : upgradedDownloads) {
+                    putDownloadInternal(download, statement);
+                  }
+                }
+              }
             }
+            writableDatabase.execSQL(
+                "CREATE INDEX IF NOT EXISTS "
+                    + getIndexName(COLUMN_STATE)
+                    + " ON "
+                    + tableName
+                    + " ("
+                    + COLUMN_STATE
+                    + ")");
+            writableDatabase.execSQL(
+                "CREATE INDEX IF NOT EXISTS "
+                    + getIndexName(COLUMN_UPDATE_TIME_MS)
+                    + " ON "
+                    + tableName
+                    + " ("
+                    + COLUMN_UPDATE_TIME_MS
+                    + ")");
             writableDatabase.setTransactionSuccessful();
           } finally {
             writableDatabase.endTransaction();
@@ -315,26 +505,56 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
     }
   }
 
-  private void putDownloadInternal(Download download, SQLiteDatabase database) {
+  private String getIndexName(String columnName) {
+    return tableName + "_" + columnName;
+  }
+
+  private void maybeNotifyDownloadsChanged(int updatedCount) {
+    if (updatedCount == 0) {
+      return;
+    }
+    for (Listener listener : listeners) {
+      listener.onDownloadsChanged();
+    }
+  }
+
+  private SQLiteStatement compilePutStatement(SQLiteDatabase writableDatabase) {
+    return writableDatabase.compileStatement(
+        "INSERT OR REPLACE INTO "
+            + tableName
+            + " ("
+            + TextUtils.join(",", COLUMNS)
+            + ") VALUES (?"
+            + Strings.repeat(",?", COLUMNS.length - 1)
+            + ")");
+  }
+
+  private void putDownloadInternal(Download download, SQLiteStatement statement) {
     byte[] keySetId =
         download.request.keySetId == null ? Util.EMPTY_BYTE_ARRAY : download.request.keySetId;
-    ContentValues values = new ContentValues();
-    values.put(COLUMN_ID, download.request.id);
-    values.put(COLUMN_MIME_TYPE, download.request.mimeType);
-    values.put(COLUMN_URI, download.request.uri.toString());
-    values.put(COLUMN_STREAM_KEYS, encodeStreamKeys(download.request.streamKeys));
-    values.put(COLUMN_CUSTOM_CACHE_KEY, download.request.customCacheKey);
-    values.put(COLUMN_DATA, download.request.data);
-    values.put(COLUMN_STATE, download.state);
-    values.put(COLUMN_START_TIME_MS, download.startTimeMs);
-    values.put(COLUMN_UPDATE_TIME_MS, download.updateTimeMs);
-    values.put(COLUMN_CONTENT_LENGTH, download.contentLength);
-    values.put(COLUMN_STOP_REASON, download.stopReason);
-    values.put(COLUMN_FAILURE_REASON, download.failureReason);
-    values.put(COLUMN_PERCENT_DOWNLOADED, download.getPercentDownloaded());
-    values.put(COLUMN_BYTES_DOWNLOADED, download.getBytesDownloaded());
-    values.put(COLUMN_KEY_SET_ID, keySetId);
-    database.replaceOrThrow(tableName, /* nullColumnHack= */ null, values);
+    // Statement parameter indices are 1-based.
+    statement.clearBindings();
+    statement.bindString(COLUMN_INDEX_ID + 1, download.request.id);
+    if (download.request.mimeType != null) {
+      statement.bindString(COLUMN_INDEX_MIME_TYPE + 1, download.request.mimeType);
+    }
+    statement.bindString(COLUMN_INDEX_URI + 1, download.request.uri.toString());
+    statement.bindString(
+        COLUMN_INDEX_STREAM_KEYS + 1, encodeStreamKeys(download.request.streamKeys));
+    if (download.request.customCacheKey != null) {
+      statement.bindString(COLUMN_INDEX_CUSTOM_CACHE_KEY + 1, download.request.customCacheKey);
+    }
+    statement.bindBlob(COLUMN_INDEX_DATA + 1, download.request.data);
+    statement.bindLong(COLUMN_INDEX_STATE + 1, download.state);
+    statement.bindLong(COLUMN_INDEX_START_TIME_MS + 1, download.startTimeMs);
+    statement.bindLong(COLUMN_INDEX_UPDATE_TIME_MS + 1, download.updateTimeMs);
+    statement.bindLong(COLUMN_INDEX_CONTENT_LENGTH + 1, download.contentLength);
+    statement.bindLong(COLUMN_INDEX_STOP_REASON + 1, download.stopReason);
+    statement.bindLong(COLUMN_INDEX_FAILURE_REASON + 1, download.failureReason);
+    statement.bindDouble(COLUMN_INDEX_PERCENT_DOWNLOADED + 1, download.getPercentDownloaded());
+    statement.bindLong(COLUMN_INDEX_BYTES_DOWNLOADED + 1, download.getBytesDownloaded());
+    statement.bindBlob(COLUMN_INDEX_KEY_SET_ID + 1, keySetId);
+    statement.executeInsert();
   }
 
   private List<Download> loadDownloadsFromVersion2(SQLiteDatabase database) {
@@ -391,8 +611,14 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
 
   private Cursor getCursor(String selection, @Nullable String[] selectionArgs)
       throws DatabaseIOException {
+    return getCursor(
+        selection, selectionArgs, COLUMN_START_TIME_MS + " ASC", /* limit= */ (String) null);
+  }
+
+  private Cursor getCursor(
+      String selection, @Nullable String[] selectionArgs, String sortOrder, @Nullable String limit)
+      throws DatabaseIOException {
     try {
-      String sortOrder = COLUMN_START_TIME_MS + " ASC";
       return databaseProvider
           .getReadableDatabase()
           .query(
@@ -402,7 +628,8 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
               selectionArgs,
               /* groupBy= */ null,
               /* having= */ null,
-              sortOrder);
+              sortOrder,
+              limit);
     } catch (SQLiteException e) {
       throw new DatabaseIOException(e);
     }
@@ -526,7 +753,8 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
         downloadProgress);
   }
 
-  private static List<StreamKey> decodeStreamKeys(@Nullable String encodedStreamKeys) {
+  @VisibleForTesting
+  /* package */ static List<StreamKey> decodeStreamKeys(@Nullable String encodedStreamKeys) {
     ArrayList<StreamKey> streamKeys = new ArrayList<>();
     if (TextUtils.isEmpty(encodedStreamKeys)) {
       return streamKeys;
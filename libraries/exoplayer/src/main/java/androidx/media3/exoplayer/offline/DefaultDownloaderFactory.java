@@ -22,6 +22,8 @@ import androidx.media3.common.MediaItem;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.cache.Cache;
 import androidx.media3.datasource.cache.CacheDataSource;
 import java.lang.reflect.Constructor;
 import java.util.concurrent.Executor;
@@ -39,6 +41,8 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
 
   private final CacheDataSource.Factory cacheDataSourceFactory;
   private final Executor executor;
+  @Nullable private final DataSource.Factory upstreamFactory;
+  @Nullable private final DownloadScheduler downloadScheduler;
 
   /**
    * Creates an instance.
@@ -66,6 +70,36 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
       CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
     this.cacheDataSourceFactory = Assertions.checkNotNull(cacheDataSourceFactory);
     this.executor = Assertions.checkNotNull(executor);
+    upstreamFactory = null;
+    downloadScheduler = null;
+  }
+
+  /**
+   * Creates an instance that makes the requests of each download through a {@link
+   * DownloadScheduler}, using the priority that's set for the download's {@link DownloadRequest#id}
+   * by {@link DownloadScheduler#setPriority}.
+   *
+   * @param cache The cache into which downloads will be written.
+   * @param upstreamFactory A {@link DataSource.Factory} for creating {@link DataSource}s for
+   *     downloading data.
+   * @param executor An {@link Executor} used to download data. Passing {@code Runnable::run} will
+   *     cause each download task to download data on its own thread. Passing an {@link Executor}
+   *     that uses multiple threads will speed up download tasks that can be split into smaller
+   *     parts for parallel execution.
+   * @param downloadScheduler The {@link DownloadScheduler} through which requests are made.
+   */
+  public DefaultDownloaderFactory(
+      Cache cache,
+      DataSource.Factory upstreamFactory,
+      Executor executor,
+      DownloadScheduler downloadScheduler) {
+    this.cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(upstreamFactory);
+    this.executor = Assertions.checkNotNull(executor);
+    this.upstreamFactory = upstreamFactory;
+    this.downloadScheduler = Assertions.checkNotNull(downloadScheduler);
   }
 
   @Override
@@ -83,7 +117,7 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
                 .setUri(request.uri)
                 .setCustomCacheKey(request.customCacheKey)
                 .build(),
-            cacheDataSourceFactory,
+            getCacheDataSourceFactory(request),
             executor);
       default:
         throw new IllegalArgumentException("Unsupported type: " + contentType);
@@ -102,13 +136,24 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
             .setCustomCacheKey(request.customCacheKey)
             .build();
     try {
-      return constructor.newInstance(mediaItem, cacheDataSourceFactory, executor);
+      return constructor.newInstance(mediaItem, getCacheDataSourceFactory(request), executor);
     } catch (Exception e) {
       throw new IllegalStateException(
           "Failed to instantiate downloader for content type " + contentType, e);
     }
   }
 
+  private CacheDataSource.Factory getCacheDataSourceFactory(DownloadRequest request) {
+    if (downloadScheduler == null) {
+      return cacheDataSourceFactory;
+    }
+    return new CacheDataSource.Factory()
+        .setCache(cacheDataSourceFactory.getCache())
+        .setUpstreamDataSourceFactory(
+            downloadScheduler.createDataSourceFactory(
+                Assertions.checkNotNull(upstreamFactory), request.id));
+  }
+
   private static SparseArray<Constructor<? extends Downloader>> createDownloaderConstructors() {
     SparseArray<Constructor<? extends Downloader>> array = new SparseArray<>();
     try {
@@ -56,6 +56,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages downloads.
@@ -174,6 +177,7 @@ public final class DownloadManager {
   private static final int MSG_CONTENT_LENGTH_CHANGED = 11;
   private static final int MSG_UPDATE_PROGRESS = 12;
   private static final int MSG_RELEASE = 13;
+  private static final int MSG_RETRY_TASK = 14;
 
   private static final String TAG = "DownloadManager";
 
@@ -226,7 +230,38 @@ public final class DownloadManager {
   }
 
   /**
-   * Constructs a {@link DownloadManager}.
+   * Constructs a {@link DownloadManager} whose downloads make their requests through a {@link
+   * DownloadScheduler}.
+   *
+   * @param context Any context.
+   * @param databaseProvider Provides the SQLite database in which downloads are persisted.
+   * @param cache A cache to be used to store downloaded data. The cache should be configured with
+   *     an {@link CacheEvictor} that will not evict downloaded content, for example {@link
+   *     NoOpCacheEvictor}.
+   * @param upstreamFactory A {@link Factory} for creating {@link DataSource}s for downloading data.
+   * @param executor An {@link Executor} used to download data. Passing {@code Runnable::run} will
+   *     cause each download task to download data on its own thread. Passing an {@link Executor}
+   *     that uses multiple threads will speed up download tasks that can be split into smaller
+   *     parts for parallel execution.
+   * @param downloadScheduler The {@link DownloadScheduler} that limits the requests made by all
+   *     downloads. The priority of each download can be set with {@link
+   *     DownloadScheduler#setPriority}.
+   */
+  public DownloadManager(
+      Context context,
+      DatabaseProvider databaseProvider,
+      Cache cache,
+      Factory upstreamFactory,
+      Executor executor,
+      DownloadScheduler downloadScheduler) {
+    this(
+        context,
+        new DefaultDownloadIndex(databaseProvider),
+        new DefaultDownloaderFactory(cache, upstreamFactory, executor, downloadScheduler));
+  }
+
+  /**
+   * Constructs a {@link DownloadManager} that runs each download task on its own thread.
    *
    * @param context Any context.
    * @param downloadIndex The download index used to hold the download information.
@@ -234,6 +269,31 @@ public final class DownloadManager {
    */
   public DownloadManager(
       Context context, WritableDownloadIndex downloadIndex, DownloaderFactory downloaderFactory) {
+    this(
+        context,
+        downloadIndex,
+        downloaderFactory,
+        /* taskExecutor= */ runnable -> new Thread(runnable).start());
+  }
+
+  /**
+   * Constructs a {@link DownloadManager}.
+   *
+   * @param context Any context.
+   * @param downloadIndex The download index used to hold the download information.
+   * @param downloaderFactory A factory for creating {@link Downloader}s.
+   * @param taskExecutor An {@link Executor} on which download and remove tasks are run. A task
+   *     occupies a thread of the executor until the download or removal stops, except whilst it's
+   *     waiting to be retried after an error. An executor that runs tasks on a bounded pool of
+   *     threads should therefore have at least {@link #getMaxParallelDownloads()} + 1 threads, to
+   *     avoid tasks waiting for others to finish. On JVMs that support virtual threads, an executor
+   *     that starts a virtual thread for each task can be used to run many parallel downloads.
+   */
+  public DownloadManager(
+      Context context,
+      WritableDownloadIndex downloadIndex,
+      DownloaderFactory downloaderFactory,
+      Executor taskExecutor) {
     this.context = context.getApplicationContext();
     this.downloadIndex = downloadIndex;
 
@@ -253,6 +313,7 @@ public final class DownloadManager {
             internalThread,
             downloadIndex,
             downloaderFactory,
+            taskExecutor,
             mainHandler,
             maxParallelDownloads,
             minRetryCount,
@@ -660,15 +721,32 @@ public final class DownloadManager {
     // existing download.
     long startTimeMs =
         state == STATE_REMOVING || download.isTerminalState() ? nowMs : download.startTimeMs;
-    if (state == STATE_REMOVING || state == STATE_RESTARTING) {
+    boolean isRestarting = state == STATE_REMOVING || state == STATE_RESTARTING;
+    if (isRestarting) {
       state = STATE_RESTARTING;
     } else if (stopReason != STOP_REASON_NONE) {
       state = STATE_STOPPED;
     } else {
       state = STATE_QUEUED;
     }
+    DownloadRequest mergedRequest = download.request.copyWithMergedRequest(request);
+    if (!isRestarting && mergedRequest.equals(download.request)) {
+      // The same content is downloaded again, for example to refresh the download of live content.
+      // Keep the progress, which the downloader will update in place as it finds new content. This
+      // is also correct for content that can't grow, because downloaders report the progress they
+      // find in the cache before downloading anything, which replaces any outdated progress.
+      return new Download(
+          mergedRequest,
+          state,
+          startTimeMs,
+          /* updateTimeMs= */ nowMs,
+          download.contentLength,
+          stopReason,
+          FAILURE_REASON_NONE,
+          download.progress);
+    }
     return new Download(
-        download.request.copyWithMergedRequest(request),
+        mergedRequest,
         state,
         startTimeMs,
         /* updateTimeMs= */ nowMs,
@@ -686,10 +764,13 @@ public final class DownloadManager {
     private final HandlerThread thread;
     private final WritableDownloadIndex downloadIndex;
     private final DownloaderFactory downloaderFactory;
+    private final Executor taskExecutor;
     private final Handler mainHandler;
     private final ArrayList<Download> downloads;
     private final HashMap<String, Task> activeTasks;
 
+    @Nullable private ScheduledExecutorService retryExecutor;
+
     private @Requirements.RequirementFlags int notMetRequirements;
     private boolean downloadsPaused;
     private int maxParallelDownloads;
@@ -701,6 +782,7 @@ public final class DownloadManager {
         HandlerThread thread,
         WritableDownloadIndex downloadIndex,
         DownloaderFactory downloaderFactory,
+        Executor taskExecutor,
         Handler mainHandler,
         int maxParallelDownloads,
         int minRetryCount,
@@ -709,6 +791,7 @@ public final class DownloadManager {
       this.thread = thread;
       this.downloadIndex = downloadIndex;
       this.downloaderFactory = downloaderFactory;
+      this.taskExecutor = taskExecutor;
       this.mainHandler = mainHandler;
       this.maxParallelDownloads = maxParallelDownloads;
       this.minRetryCount = minRetryCount;
@@ -763,6 +846,15 @@ public final class DownloadManager {
           onTaskStopped(task);
           processedExternalMessage = false; // This message is posted internally.
           break;
+        case MSG_RETRY_TASK:
+          task = (Task) message.obj;
+          if (task.isCanceled) {
+            onTaskStopped(task);
+            processedExternalMessage = false; // This message is posted internally.
+            break;
+          }
+          scheduleTaskRetry(task, /* delayMs= */ message.arg1);
+          return; // No need to post back to mainHandler.
         case MSG_CONTENT_LENGTH_CHANGED:
           task = (Task) message.obj;
           onContentLengthChanged(task, Util.toLong(message.arg1, message.arg2));
@@ -939,6 +1031,9 @@ public final class DownloadManager {
       for (Task task : activeTasks.values()) {
         task.cancel(/* released= */ true);
       }
+      if (retryExecutor != null) {
+        retryExecutor.shutdownNow();
+      }
       try {
         downloadIndex.setDownloadingStatesToQueued();
       } catch (IOException e) {
@@ -1018,6 +1113,7 @@ public final class DownloadManager {
               download.progress,
               /* isRemove= */ false,
               minRetryCount,
+              taskExecutor,
               /* internalHandler= */ this);
       activeTasks.put(download.request.id, activeTask);
       if (activeDownloadTaskCount++ == 0) {
@@ -1060,6 +1156,7 @@ public final class DownloadManager {
               download.progress,
               /* isRemove= */ true,
               minRetryCount,
+              taskExecutor,
               /* internalHandler= */ this);
       activeTasks.put(download.request.id, activeTask);
       hasActiveRemoveTask = true;
@@ -1068,6 +1165,13 @@ public final class DownloadManager {
 
     // Task event processing.
 
+    private void scheduleTaskRetry(Task task, long delayMs) {
+      if (retryExecutor == null) {
+        retryExecutor = Util.newSingleThreadScheduledExecutor("ExoPlayer:DownloadRetry");
+      }
+      task.retryFuture = retryExecutor.schedule(task::start, delayMs, TimeUnit.MILLISECONDS);
+    }
+
     private void onContentLengthChanged(Task task, long contentLength) {
       String downloadId = task.request.id;
       Download download =
@@ -1183,16 +1287,19 @@ public final class DownloadManager {
     // Progress updates.
 
     private void updateProgress() {
+      List<Download> downloadingDownloads = new ArrayList<>();
       for (int i = 0; i < downloads.size(); i++) {
         Download download = downloads.get(i);
         if (download.state == STATE_DOWNLOADING) {
-          try {
-            downloadIndex.putDownload(download);
-          } catch (IOException e) {
-            Log.e(TAG, "Failed to update index.", e);
-          }
+          downloadingDownloads.add(download);
         }
       }
+      try {
+        // Write the progress of all downloads in a single transaction.
+        downloadIndex.putDownloads(downloadingDownloads);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to update index.", e);
+      }
       sendEmptyMessageDelayed(MSG_UPDATE_PROGRESS, UPDATE_PROGRESS_INTERVAL_MS);
     }
 
@@ -1282,19 +1389,28 @@ public final class DownloadManager {
     }
   }
 
-  private static class Task extends Thread implements Downloader.ProgressListener {
+  private static class Task implements Runnable, Downloader.ProgressListener {
 
     private final DownloadRequest request;
     private final Downloader downloader;
     private final DownloadProgress downloadProgress;
     private final boolean isRemove;
     private final int minRetryCount;
+    private final Executor executor;
 
     @Nullable private volatile InternalHandler internalHandler;
     private volatile boolean isCanceled;
     @Nullable private Exception finalException;
 
+    /** The thread running the task, or null if it's not running. Guarded by the instance. */
+    @Nullable private Thread thread;
+
+    /** The scheduled retry of the task. Only accessed on the internal thread. */
+    @Nullable private ScheduledFuture<?> retryFuture;
+
     private long contentLength;
+    private int errorCount;
+    private long errorPosition;
 
     private Task(
         DownloadRequest request,
@@ -1302,14 +1418,21 @@ public final class DownloadManager {
         DownloadProgress downloadProgress,
         boolean isRemove,
         int minRetryCount,
+        Executor executor,
         InternalHandler internalHandler) {
       this.request = request;
       this.downloader = downloader;
       this.downloadProgress = downloadProgress;
       this.isRemove = isRemove;
       this.minRetryCount = minRetryCount;
+      this.executor = executor;
       this.internalHandler = internalHandler;
       contentLength = C.LENGTH_UNSET;
+      errorPosition = C.LENGTH_UNSET;
+    }
+
+    public void start() {
+      executor.execute(this);
     }
 
     @SuppressWarnings("nullness:assignment")
@@ -1324,7 +1447,18 @@ public final class DownloadManager {
       if (!isCanceled) {
         isCanceled = true;
         downloader.cancel();
-        interrupt();
+        synchronized (this) {
+          if (thread != null) {
+            thread.interrupt();
+          }
+        }
+        if (retryFuture != null && retryFuture.cancel(/* mayInterruptIfRunning= */ false)) {
+          // The task was waiting to be retried, so it won't run again.
+          @Nullable Handler internalHandler = this.internalHandler;
+          if (internalHandler != null) {
+            internalHandler.obtainMessage(MSG_TASK_STOPPED, this).sendToTarget();
+          }
+        }
       }
     }
 
@@ -1332,40 +1466,61 @@ public final class DownloadManager {
 
     @Override
     public void run() {
-      try {
-        if (isRemove) {
-          downloader.remove();
-        } else {
-          int errorCount = 0;
-          long errorPosition = C.LENGTH_UNSET;
-          while (!isCanceled) {
-            try {
-              downloader.download(/* progressListener= */ this);
-              break;
-            } catch (IOException e) {
-              if (!isCanceled) {
-                long bytesDownloaded = downloadProgress.bytesDownloaded;
-                if (bytesDownloaded != errorPosition) {
-                  errorPosition = bytesDownloaded;
-                  errorCount = 0;
-                }
-                if (++errorCount > minRetryCount) {
-                  throw e;
-                }
-                Thread.sleep(getRetryDelayMillis(errorCount));
-              }
-            }
+      boolean shouldRetry = false;
+      synchronized (this) {
+        if (!isCanceled) {
+          thread = Thread.currentThread();
+        }
+      }
+      if (thread != null) {
+        try {
+          if (isRemove) {
+            downloader.remove();
+          } else {
+            shouldRetry = download();
           }
+        } catch (InterruptedException e) {
+          // The task was canceled.
+        } catch (Exception e) {
+          finalException = e;
+        }
+        synchronized (this) {
+          thread = null;
+          // Clear any interrupt caused by cancelation, since the executor may reuse the thread.
+          Thread.interrupted();
         }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      } catch (Exception e) {
-        finalException = e;
       }
       @Nullable Handler internalHandler = this.internalHandler;
       if (internalHandler != null) {
-        internalHandler.obtainMessage(MSG_TASK_STOPPED, this).sendToTarget();
+        if (shouldRetry) {
+          internalHandler
+              .obtainMessage(MSG_RETRY_TASK, getRetryDelayMillis(errorCount), /* unused */ 0, this)
+              .sendToTarget();
+        } else {
+          internalHandler.obtainMessage(MSG_TASK_STOPPED, this).sendToTarget();
+        }
+      }
+    }
+
+    /** Downloads the content, returning whether the download should be retried after an error. */
+    private boolean download() throws IOException, InterruptedException {
+      try {
+        downloader.download(/* progressListener= */ this);
+      } catch (IOException e) {
+        if (isCanceled) {
+          return false;
+        }
+        long bytesDownloaded = downloadProgress.bytesDownloaded;
+        if (bytesDownloaded != errorPosition) {
+          errorPosition = bytesDownloaded;
+          errorCount = 0;
+        }
+        if (++errorCount > minRetryCount) {
+          throw e;
+        }
+        return true;
       }
+      return false;
     }
 
     @Override
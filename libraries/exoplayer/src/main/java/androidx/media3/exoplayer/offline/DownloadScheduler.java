@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.offline;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static java.lang.Math.max;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.PriorityTaskManager;
+import androidx.media3.common.util.Clock;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Coordinates the requests made by downloads, limiting the number of requests that are in progress
+ * at the same time and the total rate at which data is downloaded.
+ *
+ * <p>Requests are made through {@link DataSource DataSources} created by {@link
+ * #createDataSourceFactory}. The simplest way to use a scheduler is to pass it to {@link
+ * DefaultDownloaderFactory#DefaultDownloaderFactory(Cache, DataSource.Factory, Executor,
+ * DownloadScheduler)}, which makes the requests of each download through the scheduler using the
+ * download's priority. Alternatively, a factory created by {@link #createDataSourceFactory} can be
+ * used as the upstream of the {@link CacheDataSource.Factory} passed to a {@link
+ * DownloaderFactory}. Because the limits apply to each request, they cover both the downloads
+ * running in parallel in a {@link DownloadManager} and the segments that a {@link
+ * SegmentDownloader} downloads in parallel on its {@link Executor}.
+ *
+ * <p>When the number of requests is at the limit, waiting requests are started in order of the
+ * priority of the download for which they were made, as set by {@link #setPriority}, and then in
+ * the order in which they were made.
+ *
+ * <p>If a {@link PriorityTaskManager} is provided, requests are registered with it at {@link
+ * C#PRIORITY_DOWNLOAD}, and are paused whilst tasks with a higher priority are registered, such as
+ * an {@link androidx.media3.exoplayer.ExoPlayer} that's loading media for playback.
+ */
+@UnstableApi
+public final class DownloadScheduler {
+
+  /** The default maximum number of requests in progress at the same time. */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+  /** The priority of downloads whose priority hasn't been set. */
+  public static final int DEFAULT_PRIORITY = 0;
+
+  private final int maxConcurrentRequests;
+  @Nullable private final PriorityTaskManager priorityTaskManager;
+  @Nullable private final RateLimiter rateLimiter;
+  private final Clock clock;
+  private final PriorityQueue<Request> pendingRequests;
+  private final Map<String, Integer> downloadPriorities;
+
+  private int activeRequestCount;
+  private long nextSequenceNumber;
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxConcurrentRequests The maximum number of requests in progress at the same time.
+   * @param maxBytesPerSecond The maximum total rate at which data is downloaded, in bytes per
+   *     second, or {@link C#RATE_UNSET_INT} for no limit.
+   * @param priorityTaskManager The {@link PriorityTaskManager} with which requests are registered,
+   *     or {@code null} if requests shouldn't be paused for higher priority tasks.
+   */
+  public DownloadScheduler(
+      int maxConcurrentRequests,
+      long maxBytesPerSecond,
+      @Nullable PriorityTaskManager priorityTaskManager) {
+    this(maxConcurrentRequests, maxBytesPerSecond, priorityTaskManager, Clock.DEFAULT);
+  }
+
+  @VisibleForTesting
+  /* package */ DownloadScheduler(
+      int maxConcurrentRequests,
+      long maxBytesPerSecond,
+      @Nullable PriorityTaskManager priorityTaskManager,
+      Clock clock) {
+    checkArgument(maxConcurrentRequests > 0);
+    checkArgument(maxBytesPerSecond > 0 || maxBytesPerSecond == C.RATE_UNSET_INT);
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.priorityTaskManager = priorityTaskManager;
+    this.clock = clock;
+    rateLimiter = maxBytesPerSecond != C.RATE_UNSET_INT ? new RateLimiter(maxBytesPerSecond) : null;
+    pendingRequests = new PriorityQueue<>();
+    downloadPriorities = new HashMap<>();
+  }
+
+  /**
+   * Returns a {@link DataSource.Factory} whose {@link DataSource DataSources} make requests that
+   * don't belong to a particular download, using {@link #DEFAULT_PRIORITY}.
+   *
+   * @param upstreamFactory The {@link DataSource.Factory} for the sources that make the requests.
+   */
+  public DataSource.Factory createDataSourceFactory(DataSource.Factory upstreamFactory) {
+    return () ->
+        new ScheduledDataSource(upstreamFactory.createDataSource(), /* downloadId= */ null);
+  }
+
+  /**
+   * Returns a {@link DataSource.Factory} whose {@link DataSource DataSources} make requests for a
+   * download, using the priority of the download.
+   *
+   * @param upstreamFactory The {@link DataSource.Factory} for the sources that make the requests.
+   * @param downloadId The {@link DownloadRequest#id} of the download.
+   */
+  public DataSource.Factory createDataSourceFactory(
+      DataSource.Factory upstreamFactory, String downloadId) {
+    checkNotNull(downloadId);
+    return () -> new ScheduledDataSource(upstreamFactory.createDataSource(), downloadId);
+  }
+
+  /**
+   * Sets the priority of a download. Requests for downloads with larger values are started first.
+   * The priority applies to requests that are waiting to start as well as to future requests.
+   *
+   * <p>Setting a priority of {@link #DEFAULT_PRIORITY} releases the memory used to store the
+   * priority, and should be done once a download has completed or been removed.
+   *
+   * @param downloadId The {@link DownloadRequest#id} of the download.
+   * @param priority The priority of the download.
+   */
+  public synchronized void setPriority(String downloadId, int priority) {
+    if (priority == DEFAULT_PRIORITY) {
+      downloadPriorities.remove(downloadId);
+    } else {
+      downloadPriorities.put(downloadId, priority);
+    }
+    List<Request> updatedRequests = new ArrayList<>();
+    for (Request request : pendingRequests) {
+      if (downloadId.equals(request.downloadId)) {
+        updatedRequests.add(request);
+      }
+    }
+    for (int i = 0; i < updatedRequests.size(); i++) {
+      Request request = updatedRequests.get(i);
+      pendingRequests.remove(request);
+      request.priority = priority;
+      pendingRequests.add(request);
+    }
+    if (!updatedRequests.isEmpty()) {
+      notifyAll();
+    }
+  }
+
+  /** Returns the number of requests that are in progress. */
+  public synchronized int getActiveRequestCount() {
+    return activeRequestCount;
+  }
+
+  /** Returns the number of requests that are waiting to start. */
+  public synchronized int getPendingRequestCount() {
+    return pendingRequests.size();
+  }
+
+  /**
+   * Adds a request to the requests that are waiting to start, which it leaves either once {@link
+   * #tryStartRequest} returns {@code true} for it, or when it's passed to {@link #cancelRequest}.
+   *
+   * @param downloadId The {@link DownloadRequest#id} of the download for which the request is made,
+   *     or {@code null} if the request doesn't belong to a particular download.
+   * @return The pending request.
+   */
+  /* package */ synchronized Request addRequest(@Nullable String downloadId) {
+    @Nullable Integer priority = downloadId != null ? downloadPriorities.get(downloadId) : null;
+    Request request =
+        new Request(
+            downloadId, priority != null ? priority : DEFAULT_PRIORITY, nextSequenceNumber++);
+    pendingRequests.add(request);
+    return request;
+  }
+
+  /**
+   * Starts a pending request if the number of requests in progress is below the limit and no
+   * pending request comes before it, returning whether it was started.
+   */
+  /* package */ synchronized boolean tryStartRequest(Request request) {
+    if (activeRequestCount >= maxConcurrentRequests || pendingRequests.peek() != request) {
+      return false;
+    }
+    pendingRequests.remove();
+    activeRequestCount++;
+    // The next pending request may also be able to start.
+    notifyAll();
+    return true;
+  }
+
+  /** Removes a request that hasn't started from the requests that are waiting to start. */
+  /* package */ synchronized void cancelRequest(Request request) {
+    pendingRequests.remove(request);
+    notifyAll();
+  }
+
+  /** Ends a request that was started by {@link #tryStartRequest}. */
+  /* package */ synchronized void endRequest() {
+    activeRequestCount--;
+    notifyAll();
+  }
+
+  /**
+   * Returns whether requests that are in progress should pause, because a task with a higher
+   * priority than {@link C#PRIORITY_DOWNLOAD} is registered with the {@link PriorityTaskManager}.
+   */
+  /* package */ boolean shouldPause() {
+    return priorityTaskManager != null
+        && !priorityTaskManager.proceedNonBlocking(C.PRIORITY_DOWNLOAD);
+  }
+
+  /**
+   * Accounts for the transfer of the given number of bytes, returning how long the transferring
+   * request must wait before transferring more data, in microseconds, to keep to the rate limit.
+   */
+  /* package */ long onBytesTransferred(int bytesTransferred) {
+    if (rateLimiter == null) {
+      return 0;
+    }
+    synchronized (rateLimiter) {
+      return rateLimiter.reserve(bytesTransferred, /* nowUs= */ clock.elapsedRealtime() * 1000);
+    }
+  }
+
+  private synchronized void startRequest(Request request) throws InterruptedException {
+    try {
+      while (!tryStartRequest(request)) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      cancelRequest(request);
+      throw e;
+    }
+  }
+
+  /**
+   * Limits a transfer rate by scheduling transfers at the rate, allowing a short burst after a
+   * period without transfers.
+   */
+  /* package */ static final class RateLimiter {
+
+    private static final long MAX_BURST_DURATION_US = 100_000;
+
+    private final long bytesPerSecond;
+
+    private long nextTransferTimeUs;
+
+    public RateLimiter(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+      nextTransferTimeUs = Long.MIN_VALUE;
+    }
+
+    /**
+     * Reserves the transfer of the given number of bytes, returning how long the caller must wait,
+     * in microseconds, to keep to the rate.
+     */
+    public long reserve(long bytes, long nowUs) {
+      nextTransferTimeUs = max(nextTransferTimeUs, nowUs - MAX_BURST_DURATION_US);
+      nextTransferTimeUs += bytes * C.MICROS_PER_SECOND / bytesPerSecond;
+      return max(nextTransferTimeUs - nowUs, 0);
+    }
+  }
+
+  /** A request made through the scheduler. */
+  /* package */ static final class Request implements Comparable<Request> {
+
+    @Nullable private final String downloadId;
+    private final long sequenceNumber;
+
+    private int priority;
+
+    private Request(@Nullable String downloadId, int priority, long sequenceNumber) {
+      this.downloadId = downloadId;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public int compareTo(Request other) {
+      if (priority != other.priority) {
+        // Higher priorities come first.
+        return Integer.compare(other.priority, priority);
+      }
+      return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+  }
+
+  private final class ScheduledDataSource implements DataSource {
+
+    private final DataSource upstream;
+    @Nullable private final String downloadId;
+
+    private boolean isRegisteredWithPriorityTaskManager;
+    private boolean isRequestStarted;
+
+    public ScheduledDataSource(DataSource upstream, @Nullable String downloadId) {
+      this.upstream = upstream;
+      this.downloadId = downloadId;
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+      checkNotNull(transferListener);
+      upstream.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      try {
+        if (priorityTaskManager != null) {
+          priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+          isRegisteredWithPriorityTaskManager = true;
+          priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
+        }
+        startRequest(addRequest(downloadId));
+        isRequestStarted = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      try {
+        if (priorityTaskManager != null) {
+          priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
+        }
+        int bytesRead = upstream.read(buffer, offset, length);
+        if (bytesRead > 0) {
+          long delayUs = onBytesTransferred(bytesRead);
+          if (delayUs > 0) {
+            Thread.sleep(delayUs / 1000, (int) (delayUs % 1000) * 1000);
+          }
+        }
+        return bytesRead;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    @Override
+    @Nullable
+    public Uri getUri() {
+      return upstream.getUri();
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+      return upstream.getResponseHeaders();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        upstream.close();
+      } finally {
+        if (isRequestStarted) {
+          isRequestStarted = false;
+          endRequest();
+        }
+        if (isRegisteredWithPriorityTaskManager) {
+          isRegisteredWithPriorityTaskManager = false;
+          checkNotNull(priorityTaskManager).remove(C.PRIORITY_DOWNLOAD);
+        }
+      }
+    }
+  }
+}
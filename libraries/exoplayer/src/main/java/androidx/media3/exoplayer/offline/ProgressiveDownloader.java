@@ -42,6 +42,7 @@ public final class ProgressiveDownloader implements Downloader {
   private final DataSpec dataSpec;
   private final CacheDataSource dataSource;
   private final CacheWriter cacheWriter;
+  private final boolean isCachingInParallel;
   @Nullable private final PriorityTaskManager priorityTaskManager;
 
   @Nullable private ProgressListener progressListener;
@@ -66,12 +67,33 @@ public final class ProgressiveDownloader implements Downloader {
    * @param mediaItem The media item with a uri to the stream to be downloaded.
    * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
    *     download will be written.
-   * @param executor An {@link Executor} used to make requests for the media being downloaded. In
-   *     the future, providing an {@link Executor} that uses multiple threads may speed up the
-   *     download by allowing parts of it to be executed in parallel.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded. Use
+   *     {@link #ProgressiveDownloader(MediaItem, CacheDataSource.Factory, Executor, long)} to
+   *     download parts of the stream in parallel.
    */
   public ProgressiveDownloader(
       MediaItem mediaItem, CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
+    this(mediaItem, cacheDataSourceFactory, executor, /* parallelChunkLength= */ C.LENGTH_UNSET);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * @param mediaItem The media item with a uri to the stream to be downloaded.
+   * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
+   *     download will be written.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded.
+   * @param parallelChunkLength The length of the chunks into which the stream is split, in bytes,
+   *     so that they can be downloaded in parallel on {@code executor}. {@link C#LENGTH_UNSET} to
+   *     download the stream using a single request. When set, the download is coordinated from the
+   *     thread calling {@link #download}, and providing an {@link Executor} that uses multiple
+   *     threads speeds up the download.
+   */
+  public ProgressiveDownloader(
+      MediaItem mediaItem,
+      CacheDataSource.Factory cacheDataSourceFactory,
+      Executor executor,
+      long parallelChunkLength) {
     this.executor = Assertions.checkNotNull(executor);
     Assertions.checkNotNull(mediaItem.localConfiguration);
     dataSpec =
@@ -83,8 +105,12 @@ public final class ProgressiveDownloader implements Downloader {
     dataSource = cacheDataSourceFactory.createDataSourceForDownloading();
     @SuppressWarnings("nullness:methodref.receiver.bound")
     CacheWriter.ProgressListener progressListener = this::onProgress;
+    isCachingInParallel = parallelChunkLength != C.LENGTH_UNSET;
     cacheWriter =
-        new CacheWriter(dataSource, dataSpec, /* temporaryBuffer= */ null, progressListener);
+        isCachingInParallel
+            ? new CacheWriter(
+                cacheDataSourceFactory, dataSpec, progressListener, executor, parallelChunkLength)
+            : new CacheWriter(dataSource, dataSpec, /* temporaryBuffer= */ null, progressListener);
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
   }
 
@@ -115,7 +141,13 @@ public final class ProgressiveDownloader implements Downloader {
         if (priorityTaskManager != null) {
           priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
         }
-        executor.execute(downloadRunnable);
+        if (isCachingInParallel) {
+          // The cache writer uses the executor to cache chunks in parallel, so coordinate them from
+          // this thread to avoid blocking one of the executor's threads.
+          downloadRunnable.run();
+        } else {
+          executor.execute(downloadRunnable);
+        }
         try {
           downloadRunnable.get();
           finished = true;
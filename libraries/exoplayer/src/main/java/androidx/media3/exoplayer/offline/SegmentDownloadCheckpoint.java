@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.offline;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.util.Log;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.ContentMetadata;
+import androidx.media3.datasource.cache.ContentMetadataMutations;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Records which segments of a {@link SegmentDownloader} download have been fully downloaded, so
+ * that a download that's resumed only needs to check that each of them is still cached, rather
+ * than querying the {@link Cache} for the cached bytes of each segment.
+ *
+ * <p>The checkpoint is stored in the {@link Cache} as content metadata of the manifest, so that
+ * it's removed together with the manifest when the download is removed. It consists of a
+ * fingerprint of the list of segments and a bitmap of the downloaded segments, and is discarded
+ * if the list of segments changes, for example when the manifest of live content is refreshed.
+ *
+ * <p>For live content, the cache keys of the downloaded segments are stored separately, so that
+ * segments that are no longer listed by the latest version of a sliding window manifest can still
+ * be removed together with the download. The keys are stored in order, each without the prefix it
+ * shares with the previous key, because the keys of the segments of live content usually differ
+ * only in a sequence number.
+ */
+/* package */ final class SegmentDownloadCheckpoint {
+
+  /** The name of the content metadata value in which the checkpoint is stored. */
+  /* package */ static final String METADATA_KEY = "exo_seg_ckpt";
+
+  /**
+   * The name of the content metadata value in which the cache keys of the downloaded segments of
+   * live content are stored.
+   */
+  /* package */ static final String METADATA_KEY_SEGMENT_CACHE_KEYS = "exo_seg_keys";
+
+  private static final String TAG = "SegmentDownloadCkpt";
+
+  private static final int VERSION = 4;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /** The minimum number of segments downloaded between storing the checkpoint, in percent. */
+  private static final int STORE_INTERVAL_PERCENT = 1;
+
+  private final Cache cache;
+  private final String manifestCacheKey;
+  private final long manifestFingerprint;
+  private final BitSet downloadedSegments;
+  private final TreeSet<String> retainedSegmentCacheKeys;
+  private final int storeIntervalSegmentCount;
+
+  @Nullable private String[] segmentCacheKeys;
+  private int segmentsChangedSinceStore;
+
+  private SegmentDownloadCheckpoint(
+      Cache cache,
+      String manifestCacheKey,
+      long manifestFingerprint,
+      int segmentCount,
+      BitSet downloadedSegments,
+      TreeSet<String> retainedSegmentCacheKeys) {
+    this.cache = cache;
+    this.manifestCacheKey = manifestCacheKey;
+    this.manifestFingerprint = manifestFingerprint;
+    this.downloadedSegments = downloadedSegments;
+    this.retainedSegmentCacheKeys = retainedSegmentCacheKeys;
+    storeIntervalSegmentCount = max(1, segmentCount * STORE_INTERVAL_PERCENT / 100);
+  }
+
+  /**
+   * Restores the checkpoint stored for a list of segments, or creates an empty checkpoint if none
+   * is stored or if the stored checkpoint was created for a different list of segments.
+   *
+   * @param cache The {@link Cache} into which the segments are downloaded.
+   * @param manifestCacheKey The cache key of the manifest.
+   * @param segmentFingerprints The fingerprints of the segments, as returned by {@link
+   *     #getSegmentFingerprint}. Segments are referred to by their index in this array.
+   * @return The checkpoint.
+   */
+  public static SegmentDownloadCheckpoint restore(
+      Cache cache, String manifestCacheKey, long[] segmentFingerprints) {
+    long manifestFingerprint = FNV_OFFSET_BASIS;
+    for (long segmentFingerprint : segmentFingerprints) {
+      manifestFingerprint = (manifestFingerprint ^ segmentFingerprint) * FNV_PRIME;
+    }
+    manifestFingerprint = (manifestFingerprint ^ segmentFingerprints.length) * FNV_PRIME;
+    ContentMetadata metadata = cache.getContentMetadata(manifestCacheKey);
+    @Nullable BitSet downloadedSegments = readDownloadedSegments(metadata, manifestFingerprint);
+    if (downloadedSegments == null || downloadedSegments.length() > segmentFingerprints.length) {
+      downloadedSegments = new BitSet(segmentFingerprints.length);
+    }
+    return new SegmentDownloadCheckpoint(
+        cache,
+        manifestCacheKey,
+        manifestFingerprint,
+        segmentFingerprints.length,
+        downloadedSegments,
+        new TreeSet<>(readSegmentCacheKeys(metadata)));
+  }
+
+  /**
+   * Returns the cache keys of the downloaded segments of live content recorded for a manifest,
+   * including segments that the manifest no longer lists.
+   *
+   * @param cache The {@link Cache} into which the segments were downloaded.
+   * @param manifestCacheKey The cache key of the manifest.
+   * @return The cache keys, or an empty list if none are recorded.
+   */
+  public static List<String> getDownloadedSegmentCacheKeys(Cache cache, String manifestCacheKey) {
+    return readSegmentCacheKeys(cache.getContentMetadata(manifestCacheKey));
+  }
+
+  /**
+   * Adds mutations to {@code mutations} that copy the checkpoint and the recorded segment cache
+   * keys from the content metadata of a manifest, so that they can be applied to another copy of
+   * the manifest.
+   *
+   * @param metadata The content metadata of the manifest.
+   * @param mutations The mutations to which to add.
+   */
+  public static void copy(ContentMetadata metadata, ContentMetadataMutations mutations) {
+    @Nullable
+    byte[] checkpointData = metadata.get(METADATA_KEY, /* defaultValue= */ (byte[]) null);
+    if (checkpointData != null) {
+      mutations.set(METADATA_KEY, checkpointData);
+    }
+    @Nullable
+    byte[] segmentCacheKeysData =
+        metadata.get(METADATA_KEY_SEGMENT_CACHE_KEYS, /* defaultValue= */ (byte[]) null);
+    if (segmentCacheKeysData != null) {
+      mutations.set(METADATA_KEY_SEGMENT_CACHE_KEYS, segmentCacheKeysData);
+    }
+  }
+
+  /**
+   * Returns a fingerprint that identifies a segment.
+   *
+   * @param cacheKey The cache key of the segment.
+   * @param position The position of the segment in the resource.
+   * @param length The length of the segment, or {@link androidx.media3.common.C#LENGTH_UNSET}.
+   * @return The fingerprint.
+   */
+  public static long getSegmentFingerprint(String cacheKey, long position, long length) {
+    // A 64-bit FNV-1a hash, because String.hashCode collides too often for large downloads.
+    long fingerprint = FNV_OFFSET_BASIS;
+    for (int i = 0; i < cacheKey.length(); i++) {
+      fingerprint = (fingerprint ^ cacheKey.charAt(i)) * FNV_PRIME;
+    }
+    fingerprint = (fingerprint ^ position) * FNV_PRIME;
+    return (fingerprint ^ length) * FNV_PRIME;
+  }
+
+  /**
+   * Sets the cache keys of the segments, so that the cache keys of the downloaded segments are
+   * recorded. Should be called for live content, whose manifest may stop listing downloaded
+   * segments.
+   *
+   * @param segmentCacheKeys The cache keys of the segments, in the same order as the fingerprints
+   *     passed to {@link #restore}.
+   */
+  public synchronized void setSegmentCacheKeys(String[] segmentCacheKeys) {
+    this.segmentCacheKeys = segmentCacheKeys;
+  }
+
+  /**
+   * Returns whether the segment with the given index has been downloaded according to the
+   * checkpoint. Callers should check that the segment is still cached, because another download
+   * that shares the segment may have removed it.
+   */
+  public synchronized boolean isSegmentDownloaded(int segmentIndex) {
+    return downloadedSegments.get(segmentIndex);
+  }
+
+  /**
+   * Records that the segment with the given index has been downloaded. May be called from any
+   * thread.
+   */
+  public synchronized void onSegmentDownloaded(int segmentIndex) {
+    if (!downloadedSegments.get(segmentIndex)) {
+      downloadedSegments.set(segmentIndex);
+      segmentsChangedSinceStore++;
+    }
+  }
+
+  /**
+   * Records that the segment with the given index is no longer cached, although the checkpoint
+   * recorded it as downloaded.
+   */
+  public synchronized void onSegmentNotDownloaded(int segmentIndex) {
+    if (downloadedSegments.get(segmentIndex)) {
+      downloadedSegments.clear(segmentIndex);
+      segmentsChangedSinceStore++;
+    }
+  }
+
+  /**
+   * Stores the checkpoint if enough segments have been downloaded since it was last stored, so that
+   * the cost of storing it is spread over many segments.
+   */
+  public void maybeStore() {
+    synchronized (this) {
+      if (segmentsChangedSinceStore < storeIntervalSegmentCount) {
+        return;
+      }
+    }
+    store();
+  }
+
+  /** Stores the checkpoint if any segments have changed since it was last stored. */
+  public void store() {
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    synchronized (this) {
+      if (segmentsChangedSinceStore == 0) {
+        return;
+      }
+      segmentsChangedSinceStore = 0;
+      mutations.set(METADATA_KEY, encodeDownloadedSegments());
+      if (segmentCacheKeys != null) {
+        for (int i = downloadedSegments.nextSetBit(0);
+            i >= 0;
+            i = downloadedSegments.nextSetBit(i + 1)) {
+          retainedSegmentCacheKeys.add(segmentCacheKeys[i]);
+        }
+        mutations.set(
+            METADATA_KEY_SEGMENT_CACHE_KEYS, encodeSegmentCacheKeys(retainedSegmentCacheKeys));
+      }
+    }
+    if (cache.getCachedSpans(manifestCacheKey).isEmpty()) {
+      // Don't create an entry in the cache for a manifest that isn't cached.
+      return;
+    }
+    try {
+      cache.applyContentMetadataMutations(manifestCacheKey, mutations);
+    } catch (Cache.CacheException e) {
+      // Storing the checkpoint is an optimization, so the download can continue without it.
+      Log.w(TAG, "Failed to store checkpoint", e);
+    }
+  }
+
+  private byte[] encodeDownloadedSegments() {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+    try {
+      dataOutputStream.writeInt(VERSION);
+      dataOutputStream.writeLong(manifestFingerprint);
+      dataOutputStream.write(downloadedSegments.toByteArray());
+      dataOutputStream.flush();
+    } catch (IOException e) {
+      // Never happens when writing to a ByteArrayOutputStream.
+      throw new IllegalStateException(e);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static byte[] encodeSegmentCacheKeys(TreeSet<String> segmentCacheKeys) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+    try {
+      dataOutputStream.writeInt(VERSION);
+      dataOutputStream.writeInt(segmentCacheKeys.size());
+      String previousSegmentCacheKey = "";
+      for (String segmentCacheKey : segmentCacheKeys) {
+        int sharedPrefixLength = getSharedPrefixLength(previousSegmentCacheKey, segmentCacheKey);
+        dataOutputStream.writeInt(sharedPrefixLength);
+        dataOutputStream.writeUTF(segmentCacheKey.substring(sharedPrefixLength));
+        previousSegmentCacheKey = segmentCacheKey;
+      }
+      dataOutputStream.flush();
+    } catch (IOException e) {
+      // Never happens when writing to a ByteArrayOutputStream.
+      throw new IllegalStateException(e);
+    }
+    return outputStream.toByteArray();
+  }
+
+  @Nullable
+  private static BitSet readDownloadedSegments(
+      ContentMetadata metadata, long manifestFingerprint) {
+    @Nullable byte[] data = metadata.get(METADATA_KEY, /* defaultValue= */ (byte[]) null);
+    if (data == null) {
+      return null;
+    }
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+    try {
+      if (inputStream.readInt() != VERSION || inputStream.readLong() != manifestFingerprint) {
+        // The checkpoint is of another version, or was created for a different list of segments.
+        return null;
+      }
+      byte[] bitmap = new byte[inputStream.available()];
+      inputStream.readFully(bitmap);
+      return BitSet.valueOf(bitmap);
+    } catch (IOException e) {
+      Log.w(TAG, "Ignoring invalid checkpoint", e);
+      return null;
+    }
+  }
+
+  private static List<String> readSegmentCacheKeys(ContentMetadata metadata) {
+    List<String> segmentCacheKeys = new ArrayList<>();
+    @Nullable
+    byte[] data = metadata.get(METADATA_KEY_SEGMENT_CACHE_KEYS, /* defaultValue= */ (byte[]) null);
+    if (data == null) {
+      return segmentCacheKeys;
+    }
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+    try {
+      if (inputStream.readInt() != VERSION) {
+        // Keys of other versions are discarded.
+        return segmentCacheKeys;
+      }
+      int count = inputStream.readInt();
+      if (count < 0 || count > inputStream.available() / 6) {
+        throw new IOException("Invalid segment cache key count: " + count);
+      }
+      String previousSegmentCacheKey = "";
+      for (int i = 0; i < count; i++) {
+        int sharedPrefixLength = inputStream.readInt();
+        if (sharedPrefixLength < 0 || sharedPrefixLength > previousSegmentCacheKey.length()) {
+          throw new IOException("Invalid shared prefix length: " + sharedPrefixLength);
+        }
+        String segmentCacheKey =
+            previousSegmentCacheKey.substring(0, sharedPrefixLength) + inputStream.readUTF();
+        segmentCacheKeys.add(segmentCacheKey);
+        previousSegmentCacheKey = segmentCacheKey;
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Ignoring invalid segment cache keys", e);
+      segmentCacheKeys.clear();
+    }
+    return segmentCacheKeys;
+  }
+
+  private static int getSharedPrefixLength(String first, String second) {
+    int maxLength = min(first.length(), second.length());
+    int length = 0;
+    while (length < maxLength && first.charAt(length) == second.charAt(length)) {
+      length++;
+    }
+    return length;
+  }
+}
@@ -28,20 +28,26 @@ import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.RunnableFutureTask;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
+import androidx.media3.datasource.ByteArrayDataSource;
 import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.PlaceholderDataSource;
 import androidx.media3.datasource.cache.Cache;
 import androidx.media3.datasource.cache.CacheDataSource;
 import androidx.media3.datasource.cache.CacheKeyFactory;
 import androidx.media3.datasource.cache.CacheWriter;
 import androidx.media3.datasource.cache.ContentMetadata;
+import androidx.media3.datasource.cache.ContentMetadataMutations;
 import androidx.media3.exoplayer.upstream.ParsingLoadable;
 import androidx.media3.exoplayer.upstream.ParsingLoadable.Parser;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -79,6 +85,18 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
 
   private static final int BUFFER_SIZE_BYTES = 128 * 1024;
 
+  /**
+   * The suffix of the cache key under which a refreshed manifest is cached before it replaces the
+   * cached manifest.
+   */
+  private static final String REFRESHED_MANIFEST_CACHE_KEY_SUFFIX = "#refreshed";
+
+  /**
+   * The name of the content metadata value that marks a refreshed manifest as fully cached, with
+   * the metadata that needs to be carried over to the cached manifest.
+   */
+  private static final String METADATA_KEY_REFRESH_COMPLETE = "exo_refresh_complete";
+
   private final DataSpec manifestDataSpec;
   private final Parser<M> manifestParser;
   private final ArrayList<StreamKey> streamKeys;
@@ -99,6 +117,12 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
    */
   private final ArrayList<RunnableFutureTask<?, ?>> activeRunnables;
 
+  /** The cache keys of the manifests that have been loaded during {@link #download}. */
+  private final HashSet<String> loadedManifestCacheKeys;
+
+  /** Whether a live manifest has been loaded during {@link #download}. */
+  private boolean hasLiveManifest;
+
   private volatile boolean isCanceled;
 
   /**
@@ -147,17 +171,21 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
     cacheKeyFactory = cacheDataSourceFactory.getCacheKeyFactory();
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
     activeRunnables = new ArrayList<>();
+    loadedManifestCacheKeys = new HashSet<>();
     maxMergedSegmentStartTimeDiffUs = Util.msToUs(maxMergedSegmentStartTimeDiffMs);
   }
 
   @Override
   public final void download(@Nullable ProgressListener progressListener)
       throws IOException, InterruptedException {
-    ArrayDeque<Segment> pendingSegments = new ArrayDeque<>();
+    ArrayDeque<Integer> pendingSegmentIndices = new ArrayDeque<>();
     ArrayDeque<SegmentDownloadRunnable> recycledRunnables = new ArrayDeque<>();
     if (priorityTaskManager != null) {
       priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
     }
+    @Nullable SegmentDownloadCheckpoint checkpoint = null;
+    loadedManifestCacheKeys.clear();
+    hasLiveManifest = false;
     try {
       CacheDataSource dataSource = cacheDataSourceFactory.createDataSourceForDownloading();
       // Get the manifest and all of the segments.
@@ -172,14 +200,35 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
       Collections.sort(segments);
       mergeSegments(segments, cacheKeyFactory, maxMergedSegmentStartTimeDiffUs);
 
-      // Scan the segments, removing any that are fully downloaded.
+      // Restore the checkpoint of a previous download. For live content, the previous download may
+      // have been of an earlier version of the manifest, in which case the checkpoint is discarded
+      // and the segments are checked in the cache, so that only those added since are pending.
       int totalSegments = segments.size();
+      String[] segmentCacheKeys = new String[totalSegments];
+      long[] segmentFingerprints = new long[totalSegments];
+      for (int i = 0; i < totalSegments; i++) {
+        DataSpec dataSpec = segments.get(i).dataSpec;
+        segmentCacheKeys[i] = cacheKeyFactory.buildCacheKey(dataSpec);
+        segmentFingerprints[i] =
+            SegmentDownloadCheckpoint.getSegmentFingerprint(
+                segmentCacheKeys[i], dataSpec.position, dataSpec.length);
+      }
+      checkpoint =
+          SegmentDownloadCheckpoint.restore(
+              cache, cacheKeyFactory.buildCacheKey(manifestDataSpec), segmentFingerprints);
+      if (hasLiveManifest) {
+        // Later versions of the manifest may no longer list the segments being downloaded, so the
+        // checkpoint records their keys for when the download is removed.
+        checkpoint.setSegmentCacheKeys(segmentCacheKeys);
+      }
+
+      // Scan the segments, skipping any that are fully downloaded.
       int segmentsDownloaded = 0;
       long contentLength = 0;
       long bytesDownloaded = 0;
-      for (int i = segments.size() - 1; i >= 0; i--) {
+      for (int i = totalSegments - 1; i >= 0; i--) {
         DataSpec dataSpec = segments.get(i).dataSpec;
-        String cacheKey = cacheKeyFactory.buildCacheKey(dataSpec);
+        String cacheKey = segmentCacheKeys[i];
         long segmentLength = dataSpec.length;
         if (segmentLength == C.LENGTH_UNSET) {
           long resourceLength =
@@ -188,15 +237,28 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
             segmentLength = resourceLength - dataSpec.position;
           }
         }
-        long segmentBytesDownloaded =
-            cache.getCachedBytes(cacheKey, dataSpec.position, segmentLength);
+        long segmentBytesDownloaded = 0;
+        if (segmentLength != C.LENGTH_UNSET && checkpoint.isSegmentDownloaded(i)) {
+          // Another download that shares the segment, for example an initialization segment, may
+          // have removed it. A single lookup confirms that it's still cached.
+          if (cache.getCachedLength(cacheKey, dataSpec.position, segmentLength) == segmentLength) {
+            segmentBytesDownloaded = segmentLength;
+          } else {
+            checkpoint.onSegmentNotDownloaded(i);
+          }
+        }
+        if (segmentBytesDownloaded != segmentLength) {
+          segmentBytesDownloaded = cache.getCachedBytes(cacheKey, dataSpec.position, segmentLength);
+        }
         bytesDownloaded += segmentBytesDownloaded;
+        if (segmentLength != C.LENGTH_UNSET && segmentLength == segmentBytesDownloaded) {
+          // The segment is fully downloaded.
+          segmentsDownloaded++;
+          checkpoint.onSegmentDownloaded(i);
+        } else {
+          pendingSegmentIndices.addFirst(i);
+        }
         if (segmentLength != C.LENGTH_UNSET) {
-          if (segmentLength == segmentBytesDownloaded) {
-            // The segment is fully downloaded.
-            segmentsDownloaded++;
-            segments.remove(i);
-          }
           if (contentLength != C.LENGTH_UNSET) {
             contentLength += segmentLength;
           }
@@ -204,6 +266,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
           contentLength = C.LENGTH_UNSET;
         }
       }
+      checkpoint.maybeStore();
 
       // Download the segments.
       @Nullable
@@ -216,8 +279,12 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
                   bytesDownloaded,
                   segmentsDownloaded)
               : null;
-      pendingSegments.addAll(segments);
-      while (!isCanceled && !pendingSegments.isEmpty()) {
+      if (progressNotifier != null) {
+        // Report the progress found in the cache straight away, so that progress kept from an
+        // earlier download of the same content is corrected before any new segment is downloaded.
+        progressNotifier.notifyProgress();
+      }
+      while (!isCanceled && !pendingSegmentIndices.isEmpty()) {
         // Block until there aren't any higher priority tasks.
         if (priorityTaskManager != null) {
           priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
@@ -234,10 +301,15 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
           segmentDataSource = cacheDataSourceFactory.createDataSourceForDownloading();
           temporaryBuffer = new byte[BUFFER_SIZE_BYTES];
         }
-        Segment segment = pendingSegments.removeFirst();
+        int segmentIndex = pendingSegmentIndices.removeFirst();
         SegmentDownloadRunnable downloadRunnable =
             new SegmentDownloadRunnable(
-                segment, segmentDataSource, progressNotifier, temporaryBuffer);
+                segments.get(segmentIndex),
+                segmentIndex,
+                segmentDataSource,
+                checkpoint,
+                progressNotifier,
+                temporaryBuffer);
         addActiveRunnable(downloadRunnable);
         executor.execute(downloadRunnable);
 
@@ -247,7 +319,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
           // Only block until the runnable has finished if we don't have any more pending segments
           // to start. If we do have pending segments to start then only process the runnable if
           // it's already finished.
-          if (pendingSegments.isEmpty() || activeRunnable.isDone()) {
+          if (pendingSegmentIndices.isEmpty() || activeRunnable.isDone()) {
             try {
               activeRunnable.get();
               removeActiveRunnable(j);
@@ -256,7 +328,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
               Throwable cause = Assertions.checkNotNull(e.getCause());
               if (cause instanceof PriorityTooLowException) {
                 // We need to schedule this segment again in a future loop iteration.
-                pendingSegments.addFirst(activeRunnable.segment);
+                pendingSegmentIndices.addFirst(activeRunnable.segmentIndex);
                 removeActiveRunnable(j);
                 recycledRunnables.addLast(activeRunnable);
               } else if (cause instanceof IOException) {
@@ -272,6 +344,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
         // Don't move on to the next segment until the runnable for this segment has started. This
         // drip feeds runnables to the executor, rather than providing them all up front.
         downloadRunnable.blockUntilStarted();
+        checkpoint.maybeStore();
       }
     } finally {
       // If one of the runnables has thrown an exception, then it's possible there are other active
@@ -286,6 +359,9 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
         activeRunnables.get(i).blockUntilFinished();
         removeActiveRunnable(i);
       }
+      if (checkpoint != null) {
+        checkpoint.store();
+      }
       if (priorityTaskManager != null) {
         priorityTaskManager.remove(C.PRIORITY_DOWNLOAD);
       }
@@ -305,6 +381,16 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
   @Override
   public final void remove() {
     CacheDataSource dataSource = cacheDataSourceFactory.createDataSourceForRemovingDownload();
+    String manifestCacheKey = cacheKeyFactory.buildCacheKey(manifestDataSpec);
+    String refreshedManifestCacheKey = getRefreshedManifestCacheKey(manifestCacheKey);
+    // Segments of live content that the cached manifest no longer lists are only recorded by the
+    // checkpoint, which is removed together with the manifest. If a refresh of the manifest was
+    // interrupted, the checkpoint may only be stored with the refreshed manifest.
+    List<String> downloadedSegmentCacheKeys =
+        new ArrayList<>(
+            SegmentDownloadCheckpoint.getDownloadedSegmentCacheKeys(cache, manifestCacheKey));
+    downloadedSegmentCacheKeys.addAll(
+        SegmentDownloadCheckpoint.getDownloadedSegmentCacheKeys(cache, refreshedManifestCacheKey));
     try {
       M manifest = getManifest(dataSource, manifestDataSpec, /* removing= */ true);
       List<Segment> segments = getSegments(dataSource, manifest, /* removing= */ true);
@@ -316,8 +402,12 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
     } catch (Exception e) {
       // Ignore exceptions when removing.
     } finally {
+      for (int i = 0; i < downloadedSegmentCacheKeys.size(); i++) {
+        cache.removeResource(downloadedSegmentCacheKeys.get(i));
+      }
       // Always attempt to remove the manifest.
-      cache.removeResource(cacheKeyFactory.buildCacheKey(manifestDataSpec));
+      cache.removeResource(manifestCacheKey);
+      cache.removeResource(refreshedManifestCacheKey);
     }
   }
 
@@ -335,6 +425,45 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
    */
   protected final M getManifest(DataSource dataSource, DataSpec dataSpec, boolean removing)
       throws InterruptedException, IOException {
+    String cacheKey = cacheKeyFactory.buildCacheKey(dataSpec);
+    maybeCompleteManifestRefresh(dataSpec, cacheKey);
+    boolean isCachedFromPreviousDownload =
+        !removing
+            && loadedManifestCacheKeys.add(cacheKey)
+            && !cache.getCachedSpans(cacheKey).isEmpty();
+    M manifest = loadManifest(dataSource, dataSpec, removing);
+    if (!removing && isLiveManifest(manifest)) {
+      hasLiveManifest = true;
+      @Nullable
+      DataSource.Factory upstreamDataSourceFactory =
+          cacheDataSourceFactory.getUpstreamDataSourceFactory();
+      if (isCachedFromPreviousDownload && upstreamDataSourceFactory != null) {
+        // The cached manifest may be out of date, so load the latest version to find any segments
+        // that have been added since the content was last downloaded.
+        manifest =
+            refreshManifest(upstreamDataSourceFactory.createDataSource(), dataSpec, cacheKey);
+      }
+    }
+    return manifest;
+  }
+
+  /**
+   * Returns whether a manifest is of live content, which may have more segments than when it was
+   * cached. If the cached copy of a live manifest is loaded by {@link #getManifest} whilst
+   * downloading, the latest version of the manifest is loaded, so that segments that have been
+   * added are downloaded.
+   *
+   * <p>The default implementation returns {@code false}.
+   *
+   * @param manifest A manifest loaded using {@link #getManifest}.
+   * @return Whether the manifest is of live content.
+   */
+  protected boolean isLiveManifest(M manifest) {
+    return false;
+  }
+
+  private M loadManifest(DataSource dataSource, DataSpec dataSpec, boolean removing)
+      throws InterruptedException, IOException {
     return execute(
         new RunnableFutureTask<M, IOException>() {
           @Override
@@ -345,6 +474,131 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
         removing);
   }
 
+  /**
+   * Loads the latest version of a manifest from upstream, and replaces the cached copy with it.
+   *
+   * <p>The cached copy is only replaced once the latest version has been loaded and parsed, so that
+   * the downloaded content can still be played if the latest version can't be loaded. The
+   * checkpoint stored with the cached copy is kept, including the cache keys of the downloaded
+   * segments, so that segments that the latest version no longer lists are still removed with the
+   * download.
+   *
+   * <p>The latest version is first cached under a temporary key together with the checkpoint, and
+   * only then replaces the cached copy. If replacing the cached copy fails, {@link
+   * #maybeCompleteManifestRefresh} completes the replacement the next time the manifest is loaded,
+   * so that the checkpoint and the manifest are never lost.
+   */
+  private M refreshManifest(DataSource upstreamDataSource, DataSpec dataSpec, String cacheKey)
+      throws InterruptedException, IOException {
+    return execute(
+        new RunnableFutureTask<M, IOException>() {
+          @Override
+          protected M doWork() throws IOException {
+            byte[] data;
+            Uri uri;
+            try {
+              upstreamDataSource.open(dataSpec);
+              data = DataSourceUtil.readToEnd(upstreamDataSource);
+              @Nullable Uri upstreamUri = upstreamDataSource.getUri();
+              uri = upstreamUri != null ? upstreamUri : dataSpec.uri;
+            } finally {
+              DataSourceUtil.closeQuietly(upstreamDataSource);
+            }
+            M manifest = manifestParser.parse(uri, new ByteArrayInputStream(data));
+
+            ContentMetadata metadata = cache.getContentMetadata(cacheKey);
+            @Nullable Uri redirectedUri = uri.equals(dataSpec.uri) ? null : uri;
+            String refreshedCacheKey = getRefreshedManifestCacheKey(cacheKey);
+            cache.removeResource(refreshedCacheKey);
+            writeManifestToCache(
+                dataSpec,
+                refreshedCacheKey,
+                data,
+                buildManifestMetadataMutations(metadata, redirectedUri)
+                    .set(METADATA_KEY_REFRESH_COMPLETE, 1));
+            replaceCachedManifest(
+                dataSpec,
+                cacheKey,
+                data,
+                buildManifestMetadataMutations(metadata, redirectedUri));
+            return manifest;
+          }
+        },
+        /* removing= */ false);
+  }
+
+  /**
+   * Replaces a cached manifest with its refreshed version if a previous refresh was interrupted
+   * after the refreshed version had been fully cached, and discards the refreshed version
+   * otherwise.
+   */
+  private void maybeCompleteManifestRefresh(DataSpec dataSpec, String cacheKey)
+      throws IOException {
+    String refreshedCacheKey = getRefreshedManifestCacheKey(cacheKey);
+    ContentMetadata metadata = cache.getContentMetadata(refreshedCacheKey);
+    if (metadata.get(METADATA_KEY_REFRESH_COMPLETE, /* defaultValue= */ 0) == 0) {
+      // Either no refresh was interrupted, or the refreshed version wasn't fully cached.
+      cache.removeResource(refreshedCacheKey);
+      return;
+    }
+    byte[] data;
+    DataSource cacheDataSource = new CacheDataSource(cache, PlaceholderDataSource.INSTANCE);
+    try {
+      cacheDataSource.open(dataSpec.buildUpon().setKey(refreshedCacheKey).build());
+      data = DataSourceUtil.readToEnd(cacheDataSource);
+    } finally {
+      DataSourceUtil.closeQuietly(cacheDataSource);
+    }
+    replaceCachedManifest(
+        dataSpec,
+        cacheKey,
+        data,
+        buildManifestMetadataMutations(metadata, ContentMetadata.getRedirectedUri(metadata)));
+  }
+
+  /**
+   * Replaces a cached manifest with its refreshed version, and then removes the refreshed version
+   * from the cache.
+   */
+  private void replaceCachedManifest(
+      DataSpec dataSpec, String cacheKey, byte[] data, ContentMetadataMutations mutations)
+      throws IOException {
+    cache.removeResource(cacheKey);
+    writeManifestToCache(dataSpec, cacheKey, data, mutations);
+    cache.removeResource(getRefreshedManifestCacheKey(cacheKey));
+  }
+
+  /**
+   * Writes the data of a manifest to the cache under {@code cacheKey}, and then applies {@code
+   * mutations} to its content metadata.
+   */
+  private void writeManifestToCache(
+      DataSpec dataSpec, String cacheKey, byte[] data, ContentMetadataMutations mutations)
+      throws IOException {
+    new CacheWriter(
+            new CacheDataSource(cache, new ByteArrayDataSource(data)),
+            dataSpec.buildUpon().setKey(cacheKey).build(),
+            /* temporaryBuffer= */ null,
+            /* progressListener= */ null)
+        .cache();
+    // The mutations are applied after writing, which sets the redirected URI of the written data.
+    cache.applyContentMetadataMutations(cacheKey, mutations);
+  }
+
+  private static ContentMetadataMutations buildManifestMetadataMutations(
+      ContentMetadata metadata, @Nullable Uri redirectedUri) {
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    SegmentDownloadCheckpoint.copy(metadata, mutations);
+    if (redirectedUri != null) {
+      ContentMetadataMutations.setRedirectedUri(mutations, redirectedUri);
+    }
+    return mutations;
+  }
+
+  private static String getRefreshedManifestCacheKey(String manifestCacheKey) {
+    return manifestCacheKey + REFRESHED_MANIFEST_CACHE_KEY_SUFFIX;
+  }
+
   /**
    * Executes the provided {@link RunnableFutureTask}.
    *
@@ -484,18 +738,24 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
   private static final class SegmentDownloadRunnable extends RunnableFutureTask<Void, IOException> {
 
     public final Segment segment;
+    public final int segmentIndex;
     public final CacheDataSource dataSource;
+    private final SegmentDownloadCheckpoint checkpoint;
     @Nullable private final ProgressNotifier progressNotifier;
     public final byte[] temporaryBuffer;
     private final CacheWriter cacheWriter;
 
     public SegmentDownloadRunnable(
         Segment segment,
+        int segmentIndex,
         CacheDataSource dataSource,
+        SegmentDownloadCheckpoint checkpoint,
         @Nullable ProgressNotifier progressNotifier,
         byte[] temporaryBuffer) {
       this.segment = segment;
+      this.segmentIndex = segmentIndex;
       this.dataSource = dataSource;
+      this.checkpoint = checkpoint;
       this.progressNotifier = progressNotifier;
       this.temporaryBuffer = temporaryBuffer;
       this.cacheWriter =
@@ -505,6 +765,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
     @Override
     protected Void doWork() throws IOException {
       cacheWriter.cache();
+      checkpoint.onSegmentDownloaded(segmentIndex);
       if (progressNotifier != null) {
         progressNotifier.onSegmentDownloaded();
       }
@@ -548,6 +809,10 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
 
     public void onSegmentDownloaded() {
       segmentsDownloaded++;
+      notifyProgress();
+    }
+
+    public void notifyProgress() {
       progressListener.onProgress(contentLength, bytesDownloaded, getPercentDownloaded());
     }
 
@@ -21,6 +21,7 @@ import androidx.media3.common.C;
 import androidx.media3.common.DataReader;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
 import androidx.media3.extractor.DefaultExtractorInput;
 import androidx.media3.extractor.Extractor;
 import androidx.media3.extractor.ExtractorInput;
@@ -45,6 +46,8 @@ import java.util.Map;
 public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor {
 
   private final ExtractorsFactory extractorsFactory;
+  @Nullable private final SniffedExtractorCache sniffedExtractorCache;
+  @Nullable private final String customCacheKey;
 
   @Nullable private Extractor extractor;
   @Nullable private ExtractorInput extractorInput;
@@ -55,7 +58,26 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
    * @param extractorsFactory The {@link ExtractorsFactory} providing the extractors to choose from.
    */
   public BundledExtractorsAdapter(ExtractorsFactory extractorsFactory) {
+    this(extractorsFactory, /* sniffedExtractorCache= */ null, /* customCacheKey= */ null);
+  }
+
+  /**
+   * Creates a holder that will select an extractor and initialize it using the specified output.
+   *
+   * @param extractorsFactory The {@link ExtractorsFactory} providing the extractors to choose from.
+   * @param sniffedExtractorCache A {@link SniffedExtractorCache} that records the extractor that
+   *     was able to read each media, and from which the extractor to sniff first is taken. May be
+   *     null if no cache should be used.
+   * @param customCacheKey The custom key with which the media is requested, as in {@link
+   *     DataSpec#key}, or null if the media is requested without a custom key.
+   */
+  /* package */ BundledExtractorsAdapter(
+      ExtractorsFactory extractorsFactory,
+      @Nullable SniffedExtractorCache sniffedExtractorCache,
+      @Nullable String customCacheKey) {
     this.extractorsFactory = extractorsFactory;
+    this.sniffedExtractorCache = sniffedExtractorCache;
+    this.customCacheKey = customCacheKey;
   }
 
   @Override
@@ -78,6 +100,11 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
     if (extractors.length == 1) {
       this.extractor = extractors[0];
     } else {
+      @Nullable DataSpec cacheDataSpec = null;
+      if (sniffedExtractorCache != null) {
+        cacheDataSpec = new DataSpec.Builder().setUri(uri).setKey(customCacheKey).build();
+        moveCachedExtractorToFront(extractors, sniffedExtractorCache.get(cacheDataSpec));
+      }
       for (Extractor extractor : extractors) {
         try {
           if (extractor.sniff(extractorInput)) {
@@ -94,6 +121,14 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
           extractorInput.resetPeekPosition();
         }
       }
+      if (sniffedExtractorCache != null && cacheDataSpec != null) {
+        if (extractor != null) {
+          sniffedExtractorCache.put(
+              cacheDataSpec, extractor.getUnderlyingImplementation().getClass());
+        } else {
+          sniffedExtractorCache.remove(cacheDataSpec);
+        }
+      }
       if (extractor == null) {
         throw new UnrecognizedInputFormatException(
             "None of the available extractors ("
@@ -146,4 +181,23 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
     return Assertions.checkNotNull(extractor)
         .read(Assertions.checkNotNull(extractorInput), positionHolder);
   }
+
+  /**
+   * Moves the first extractor whose underlying implementation is an instance of {@code
+   * cachedExtractorClass} to the front of {@code extractors}, keeping the order of the others.
+   */
+  private static void moveCachedExtractorToFront(
+      Extractor[] extractors, @Nullable Class<? extends Extractor> cachedExtractorClass) {
+    if (cachedExtractorClass == null) {
+      return;
+    }
+    for (int i = 0; i < extractors.length; i++) {
+      Extractor extractor = extractors[i];
+      if (extractor.getUnderlyingImplementation().getClass() == cachedExtractorClass) {
+        System.arraycopy(extractors, 0, extractors, 1, i);
+        extractors[0] = extractor;
+        return;
+      }
+    }
+  }
 }
@@ -28,6 +28,8 @@ import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.TransferListener;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheKeyFactory;
 import androidx.media3.exoplayer.drm.DefaultDrmSessionManagerProvider;
 import androidx.media3.exoplayer.drm.DrmSessionManager;
 import androidx.media3.exoplayer.drm.DrmSessionManagerProvider;
@@ -59,6 +61,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
   public static final class Factory implements MediaSourceFactory {
 
     private final DataSource.Factory dataSourceFactory;
+    @Nullable private final ExtractorsFactory extractorsFactory;
+    @Nullable private final SniffedExtractorCache sniffedExtractorCache;
 
     private ProgressiveMediaExtractor.Factory progressiveMediaExtractorFactory;
     private DrmSessionManagerProvider drmSessionManagerProvider;
@@ -85,7 +89,11 @@ public final class ProgressiveMediaSource extends BaseMediaSource
 
     /**
      * Equivalent to {@link #Factory(DataSource.Factory, ProgressiveMediaExtractor.Factory) new
-     * Factory(dataSourceFactory, () -> new BundledExtractorsAdapter(extractorsFactory)}.
+     * Factory(dataSourceFactory, () -> new BundledExtractorsAdapter(extractorsFactory)}, except
+     * that the adapters remember which extractor was able to read each media and sniff it first
+     * when the same media is loaded again. The media is identified by its cache key, built by the
+     * {@link CacheKeyFactory} of {@code dataSourceFactory} if it's a {@link
+     * CacheDataSource.Factory} and by {@link CacheKeyFactory#DEFAULT} otherwise.
      *
      * <p>The factory will use the following default components:
      *
@@ -100,7 +108,15 @@ public final class ProgressiveMediaSource extends BaseMediaSource
      *     the media from its container.
      */
     public Factory(DataSource.Factory dataSourceFactory, ExtractorsFactory extractorsFactory) {
-      this(dataSourceFactory, playerId -> new BundledExtractorsAdapter(extractorsFactory));
+      this(
+          dataSourceFactory,
+          playerId -> new BundledExtractorsAdapter(extractorsFactory),
+          extractorsFactory,
+          new SniffedExtractorCache(
+              dataSpec -> getCacheKeyFactory(dataSourceFactory).buildCacheKey(dataSpec)),
+          new DefaultDrmSessionManagerProvider(),
+          new DefaultLoadErrorHandlingPolicy(),
+          DEFAULT_LOADING_CHECK_INTERVAL_BYTES);
     }
 
     /**
@@ -149,7 +165,27 @@ public final class ProgressiveMediaSource extends BaseMediaSource
         DrmSessionManagerProvider drmSessionManagerProvider,
         LoadErrorHandlingPolicy loadErrorHandlingPolicy,
         int continueLoadingCheckIntervalBytes) {
+      this(
+          dataSourceFactory,
+          progressiveMediaExtractorFactory,
+          /* extractorsFactory= */ null,
+          /* sniffedExtractorCache= */ null,
+          drmSessionManagerProvider,
+          loadErrorHandlingPolicy,
+          continueLoadingCheckIntervalBytes);
+    }
+
+    private Factory(
+        DataSource.Factory dataSourceFactory,
+        ProgressiveMediaExtractor.Factory progressiveMediaExtractorFactory,
+        @Nullable ExtractorsFactory extractorsFactory,
+        @Nullable SniffedExtractorCache sniffedExtractorCache,
+        DrmSessionManagerProvider drmSessionManagerProvider,
+        LoadErrorHandlingPolicy loadErrorHandlingPolicy,
+        int continueLoadingCheckIntervalBytes) {
       this.dataSourceFactory = dataSourceFactory;
+      this.extractorsFactory = extractorsFactory;
+      this.sniffedExtractorCache = sniffedExtractorCache;
       this.progressiveMediaExtractorFactory = progressiveMediaExtractorFactory;
       this.drmSessionManagerProvider = drmSessionManagerProvider;
       this.loadErrorHandlingPolicy = loadErrorHandlingPolicy;
@@ -207,6 +243,16 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     @Override
     public ProgressiveMediaSource createMediaSource(MediaItem mediaItem) {
       checkNotNull(mediaItem.localConfiguration);
+      ProgressiveMediaExtractor.Factory progressiveMediaExtractorFactory =
+          this.progressiveMediaExtractorFactory;
+      if (extractorsFactory != null && sniffedExtractorCache != null) {
+        // The custom cache key can't change for the lifetime of the source.
+        progressiveMediaExtractorFactory =
+            createBundledExtractorsAdapterFactory(
+                extractorsFactory,
+                sniffedExtractorCache,
+                mediaItem.localConfiguration.customCacheKey);
+      }
       return new ProgressiveMediaSource(
           mediaItem,
           dataSourceFactory,
@@ -220,6 +266,20 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     public @C.ContentType int[] getSupportedTypes() {
       return new int[] {C.CONTENT_TYPE_OTHER};
     }
+
+    private static ProgressiveMediaExtractor.Factory createBundledExtractorsAdapterFactory(
+        ExtractorsFactory extractorsFactory,
+        SniffedExtractorCache sniffedExtractorCache,
+        @Nullable String customCacheKey) {
+      return playerId ->
+          new BundledExtractorsAdapter(extractorsFactory, sniffedExtractorCache, customCacheKey);
+    }
+
+    private static CacheKeyFactory getCacheKeyFactory(DataSource.Factory dataSourceFactory) {
+      return dataSourceFactory instanceof CacheDataSource.Factory
+          ? ((CacheDataSource.Factory) dataSourceFactory).getCacheKeyFactory()
+          : CacheKeyFactory.DEFAULT;
+    }
   }
 
   /**
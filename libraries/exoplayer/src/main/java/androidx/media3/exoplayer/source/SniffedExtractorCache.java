@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import androidx.annotation.Nullable;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheKeyFactory;
+import androidx.media3.extractor.Extractor;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache that holds the {@link Extractor} implementation that was able to read the media of a
+ * {@link DataSpec}, for up to {@code maxSize} cache keys.
+ *
+ * <p>Entries are keyed by the cache key that a {@link CacheKeyFactory} builds for the {@link
+ * DataSpec}, so that the media is identified the same way as when its data is cached.
+ *
+ * <p>The cache is safe to use from multiple loading threads.
+ */
+/* package */ final class SniffedExtractorCache {
+
+  /** The default maximum number of cache keys held by the cache. */
+  public static final int DEFAULT_MAX_SIZE = 32;
+
+  private final CacheKeyFactory cacheKeyFactory;
+  private final LinkedHashMap<String, Class<? extends Extractor>> backingMap;
+
+  /**
+   * Creates an instance with a maximum size of {@link #DEFAULT_MAX_SIZE}.
+   *
+   * @param cacheKeyFactory The {@link CacheKeyFactory} that builds the cache key of a {@link
+   *     DataSpec}.
+   */
+  public SniffedExtractorCache(CacheKeyFactory cacheKeyFactory) {
+    this(cacheKeyFactory, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param cacheKeyFactory The {@link CacheKeyFactory} that builds the cache key of a {@link
+   *     DataSpec}.
+   * @param maxSize The maximum number of cache keys held by the cache.
+   */
+  public SniffedExtractorCache(CacheKeyFactory cacheKeyFactory, int maxSize) {
+    this.cacheKeyFactory = cacheKeyFactory;
+    backingMap =
+        new LinkedHashMap<String, Class<? extends Extractor>>(
+            /* initialCapacity= */ maxSize + 1, /* loadFactor= */ 1, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(
+              Map.Entry<String, Class<? extends Extractor>> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  /**
+   * Returns the class of the extractor that was last able to read the media of {@code dataSpec},
+   * or null if it isn't present in the cache.
+   */
+  @Nullable
+  public Class<? extends Extractor> get(DataSpec dataSpec) {
+    String key = cacheKeyFactory.buildCacheKey(dataSpec);
+    synchronized (this) {
+      return backingMap.get(key);
+    }
+  }
+
+  /** Sets the class of the extractor that was able to read the media of {@code dataSpec}. */
+  public void put(DataSpec dataSpec, Class<? extends Extractor> extractorClass) {
+    String key = cacheKeyFactory.buildCacheKey(dataSpec);
+    synchronized (this) {
+      backingMap.put(key, extractorClass);
+    }
+  }
+
+  /** Removes the media of {@code dataSpec} from the cache. */
+  public void remove(DataSpec dataSpec) {
+    String key = cacheKeyFactory.buildCacheKey(dataSpec);
+    synchronized (this) {
+      backingMap.remove(key);
+    }
+  }
+}
@@ -25,8 +25,11 @@ import androidx.media3.common.MediaItem;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.exoplayer.source.MediaSource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 
@@ -68,6 +71,10 @@ public abstract class BasePreloadManager<T> {
   @GuardedBy("lock")
   private final PriorityQueue<MediaSourceHolder> sourceHolderPriorityQueue;
 
+  /** The managed sources in the order of their priorities at the last {@link #invalidate()}. */
+  @GuardedBy("lock")
+  private final List<MediaSourceHolder> rankedSourceHolders;
+
   @GuardedBy("lock")
   @Nullable
   private TargetPreloadStatusControl.PreloadStatus targetPreloadStatusOfCurrentPreloadingSource;
@@ -83,6 +90,7 @@ public abstract class BasePreloadManager<T> {
     mediaItemMediaSourceHolderMap = new HashMap<>();
     startPreloadingHandler = Util.createHandlerForCurrentOrMainLooper();
     sourceHolderPriorityQueue = new PriorityQueue<>();
+    rankedSourceHolders = new ArrayList<>();
   }
 
   /**
@@ -124,6 +132,9 @@ public abstract class BasePreloadManager<T> {
    */
   public final void invalidate() {
     synchronized (lock) {
+      rankedSourceHolders.clear();
+      rankedSourceHolders.addAll(mediaItemMediaSourceHolderMap.values());
+      Collections.sort(rankedSourceHolders);
       sourceHolderPriorityQueue.clear();
       sourceHolderPriorityQueue.addAll(mediaItemMediaSourceHolderMap.values());
       while (!sourceHolderPriorityQueue.isEmpty() && !maybeStartPreloadNextSource()) {
@@ -147,6 +158,38 @@ public abstract class BasePreloadManager<T> {
     return mediaItemMediaSourceHolderMap.get(mediaItem).mediaSource;
   }
 
+  /**
+   * Returns the number of bytes currently allocated for preloading the {@link MediaSource} of the
+   * given {@link MediaItem}.
+   *
+   * @param mediaItem The media item.
+   * @return The number of bytes allocated for preloading, or {@link C#LENGTH_UNSET} if the {@code
+   *     mediaItem} isn't managed by the preload manager or the number of bytes is unknown.
+   */
+  public final long getAllocatedBytes(MediaItem mediaItem) {
+    @Nullable MediaSourceHolder mediaSourceHolder = mediaItemMediaSourceHolderMap.get(mediaItem);
+    if (mediaSourceHolder == null) {
+      return C.LENGTH_UNSET;
+    }
+    return getAllocatedBytesInternal(mediaSourceHolder.mediaSource);
+  }
+
+  /**
+   * Returns the total number of bytes currently allocated for preloading the {@linkplain
+   * MediaSource media sources} managed by the preload manager. Sources for which the number of
+   * bytes is unknown aren't counted.
+   */
+  public final long getTotalAllocatedBytes() {
+    long totalAllocatedBytes = 0;
+    for (MediaSourceHolder mediaSourceHolder : mediaItemMediaSourceHolderMap.values()) {
+      long allocatedBytes = getAllocatedBytesInternal(mediaSourceHolder.mediaSource);
+      if (allocatedBytes != C.LENGTH_UNSET) {
+        totalAllocatedBytes += allocatedBytes;
+      }
+    }
+    return totalAllocatedBytes;
+  }
+
   /**
    * Removes a {@link MediaItem} from the preload manager.
    *
@@ -156,9 +199,11 @@ public abstract class BasePreloadManager<T> {
    */
   public final boolean remove(MediaItem mediaItem) {
     if (mediaItemMediaSourceHolderMap.containsKey(mediaItem)) {
-      MediaSource mediaSource = mediaItemMediaSourceHolderMap.get(mediaItem).mediaSource;
-      mediaItemMediaSourceHolderMap.remove(mediaItem);
-      releaseSourceInternal(mediaSource);
+      MediaSourceHolder mediaSourceHolder = mediaItemMediaSourceHolderMap.remove(mediaItem);
+      synchronized (lock) {
+        rankedSourceHolders.remove(mediaSourceHolder);
+      }
+      releaseSourceInternal(mediaSourceHolder.mediaSource);
       return true;
     }
     return false;
@@ -174,9 +219,12 @@ public abstract class BasePreloadManager<T> {
   public final boolean remove(MediaSource mediaSource) {
     MediaItem mediaItem = mediaSource.getMediaItem();
     if (mediaItemMediaSourceHolderMap.containsKey(mediaItem)) {
-      MediaSource heldMediaSource = mediaItemMediaSourceHolderMap.get(mediaItem).mediaSource;
-      if (mediaSource == heldMediaSource) {
+      MediaSourceHolder mediaSourceHolder = mediaItemMediaSourceHolderMap.get(mediaItem);
+      if (mediaSource == mediaSourceHolder.mediaSource) {
         mediaItemMediaSourceHolderMap.remove(mediaItem);
+        synchronized (lock) {
+          rankedSourceHolders.remove(mediaSourceHolder);
+        }
         releaseSourceInternal(mediaSource);
         return true;
       }
@@ -193,6 +241,7 @@ public abstract class BasePreloadManager<T> {
     }
     mediaItemMediaSourceHolderMap.clear();
     synchronized (lock) {
+      rankedSourceHolders.clear();
       sourceHolderPriorityQueue.clear();
       targetPreloadStatusOfCurrentPreloadingSource = null;
     }
@@ -240,6 +289,42 @@ public abstract class BasePreloadManager<T> {
     }
   }
 
+  /**
+   * Reclaims memory for the given {@link MediaSource} by clearing the preloaded data of the sources
+   * ranked lower than it, starting from the lowest ranked source, until at least {@code
+   * bytesToReclaim} bytes are reclaimed or there are no lower ranked sources left.
+   *
+   * <p>The sources are ranked by their priorities at the last {@link #invalidate()}. Sources for
+   * which {@link #getAllocatedBytesInternal(MediaSource)} doesn't return a positive number of bytes
+   * aren't cleared. The memory of cleared sources may be released asynchronously.
+   *
+   * <p>Can be called from any thread.
+   *
+   * @param mediaSource The media source to reclaim memory for.
+   * @param bytesToReclaim The number of bytes to reclaim.
+   * @return The number of bytes reclaimed, which may be less than {@code bytesToReclaim}.
+   */
+  protected final long reclaimAllocatedBytes(MediaSource mediaSource, long bytesToReclaim) {
+    long reclaimedBytes = 0;
+    synchronized (lock) {
+      for (int i = rankedSourceHolders.size() - 1; i >= 0; i--) {
+        if (reclaimedBytes >= bytesToReclaim) {
+          break;
+        }
+        MediaSource lowerRankedMediaSource = rankedSourceHolders.get(i).mediaSource;
+        if (lowerRankedMediaSource == mediaSource) {
+          break;
+        }
+        long allocatedBytes = getAllocatedBytesInternal(lowerRankedMediaSource);
+        if (allocatedBytes > 0) {
+          clearSourceInternal(lowerRankedMediaSource);
+          reclaimedBytes += allocatedBytes;
+        }
+      }
+    }
+    return reclaimedBytes;
+  }
+
   /**
    * Returns the {@link MediaSource} that the preload manager creates for preloading based on the
    * given {@link MediaSource source}. The default implementation returns the same source.
@@ -280,6 +365,19 @@ public abstract class BasePreloadManager<T> {
    */
   protected abstract void releaseSourceInternal(MediaSource mediaSource);
 
+  /**
+   * Returns the number of bytes currently allocated for preloading the given {@link MediaSource}.
+   * The default implementation returns {@link C#LENGTH_UNSET}.
+   *
+   * <p>Can be called from any thread.
+   *
+   * @param mediaSource The media source.
+   * @return The number of bytes allocated for preloading, or {@link C#LENGTH_UNSET} if unknown.
+   */
+  protected long getAllocatedBytesInternal(MediaSource mediaSource) {
+    return C.LENGTH_UNSET;
+  }
+
   /** Releases the preload manager, see {@link #release()}. */
   protected void releaseInternal() {}
 
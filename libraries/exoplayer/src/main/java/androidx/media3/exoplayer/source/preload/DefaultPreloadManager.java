@@ -20,17 +20,24 @@ import static androidx.media3.common.util.Assertions.checkNotNull;
 import static java.lang.Math.abs;
 import static java.lang.annotation.ElementType.TYPE_USE;
 
+import android.os.Handler;
 import android.os.Looper;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
+import androidx.media3.datasource.cache.CacheDataSource;
 import androidx.media3.exoplayer.ExoPlayer;
 import androidx.media3.exoplayer.Renderer;
 import androidx.media3.exoplayer.RendererCapabilitiesList;
 import androidx.media3.exoplayer.RenderersFactory;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
 import androidx.media3.exoplayer.source.MediaSource;
+import androidx.media3.exoplayer.source.MediaSourceEventListener;
 import androidx.media3.exoplayer.source.SampleQueue;
 import androidx.media3.exoplayer.trackselection.TrackSelector;
 import androidx.media3.exoplayer.upstream.Allocator;
@@ -41,10 +48,20 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A preload manager that preloads with the {@link PreloadMediaSource} to load the media data into
  * the {@link SampleQueue}.
+ *
+ * <p>Each source preloads into its own {@link Allocator} that obtains memory from the {@link
+ * Allocator} passed to the constructor, so that the memory used for preloading each source can be
+ * {@linkplain #getAllocatedBytes(MediaItem) measured}. The memory used for preloading can be
+ * limited with {@link #setMemoryBudgetBytes(long)}, {@link #setPerSourceMemoryQuotaBytes(long)} and
+ * {@link #setTotalMemoryQuotaBytes(long)}, and the effectiveness of preloading can be measured with
+ * {@link #getPreloadMetrics()}.
  */
 @UnstableApi
 public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
@@ -104,6 +121,34 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
 
   private final RendererCapabilitiesList rendererCapabilitiesList;
   private final PreloadMediaSource.Factory preloadMediaSourceFactory;
+  private final Allocator allocator;
+  private final Handler preloadHandler;
+  private final Object metricsLock;
+
+  @GuardedBy("metricsLock")
+  private final Map<MediaSource, PreloadTracker> preloadTrackers;
+
+  @GuardedBy("metricsLock")
+  private long bytesPreloaded;
+
+  @GuardedBy("metricsLock")
+  private long bytesWasted;
+
+  @GuardedBy("metricsLock")
+  private int preloadedPlaybackCount;
+
+  @GuardedBy("metricsLock")
+  private long preloadedTimeToFirstFrameSumMs;
+
+  @GuardedBy("metricsLock")
+  private int notPreloadedPlaybackCount;
+
+  @GuardedBy("metricsLock")
+  private long notPreloadedTimeToFirstFrameSumMs;
+
+  private volatile long memoryBudgetBytes;
+  private volatile long perSourceMemoryQuotaBytes;
+  private volatile long totalMemoryQuotaBytes;
 
   /**
    * Constructs a new instance.
@@ -136,6 +181,13 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
       Allocator allocator,
       Looper preloadLooper) {
     super(new RankingDataComparator(), targetPreloadStatusControl, mediaSourceFactory);
+    this.allocator = allocator;
+    preloadHandler = Util.createHandler(preloadLooper, /* callback= */ null);
+    metricsLock = new Object();
+    preloadTrackers = new HashMap<>();
+    memoryBudgetBytes = C.LENGTH_UNSET;
+    perSourceMemoryQuotaBytes = C.LENGTH_UNSET;
+    totalMemoryQuotaBytes = C.LENGTH_UNSET;
     this.rendererCapabilitiesList =
         rendererCapabilitiesListFactory.createRendererCapabilitiesList();
     preloadMediaSourceFactory =
@@ -160,34 +212,218 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
     rankingDataComparator.currentPlayingIndex = currentPlayingIndex;
   }
 
+  /**
+   * Sets the maximum number of bytes that may be allocated from the {@link Allocator} before
+   * preloading stops loading media data.
+   *
+   * <p>The budget is shared with the player that uses the same {@link Allocator}, so preloading
+   * yields to playback once the budget is used up. Sources continue to be prepared and have their
+   * tracks selected when the budget is exceeded, as this doesn't load media data.
+   *
+   * <p>Takes effect the next time the manager decides whether to continue loading a source. Call
+   * {@link #invalidate()} to apply it to all sources immediately.
+   *
+   * @param memoryBudgetBytes The memory budget in bytes, or {@link C#LENGTH_UNSET} for no budget.
+   */
+  public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+    checkArgument(memoryBudgetBytes > 0 || memoryBudgetBytes == C.LENGTH_UNSET);
+    this.memoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  /**
+   * Enables speculative prefetching of the data that sources need before their media can be loaded,
+   * in parallel with their preparation. See {@link
+   * PreloadMediaSource.Factory#setSpeculativePrefetch(CacheDataSource.Factory, Executor,
+   * PrefetchTargetParser)}.
+   *
+   * <p>Only applies to the {@link MediaItem media items} that are added after calling this method.
+   *
+   * @param cacheDataSourceFactory The {@link CacheDataSource.Factory} for the cache into which data
+   *     is prefetched. The {@link MediaSource.Factory} passed to the constructor should read from
+   *     the same cache.
+   * @param executor The {@link Executor} on which data is prefetched.
+   * @param targetParser The {@link PrefetchTargetParser} for the manifests of the sources, or
+   *     {@code null} to only prefetch the data loaded in earlier preloads.
+   */
+  public void setSpeculativePrefetch(
+      CacheDataSource.Factory cacheDataSourceFactory,
+      Executor executor,
+      @Nullable PrefetchTargetParser targetParser) {
+    preloadMediaSourceFactory.setSpeculativePrefetch(
+        cacheDataSourceFactory, executor, targetParser);
+  }
+
+  /**
+   * Sets the maximum number of bytes that may be allocated for preloading a single source. Loading
+   * a source stops once it holds that many bytes.
+   *
+   * <p>Takes effect the next time the manager decides whether to continue loading a source.
+   *
+   * @param perSourceMemoryQuotaBytes The memory quota per source in bytes, or {@link
+   *     C#LENGTH_UNSET} for no quota.
+   */
+  public void setPerSourceMemoryQuotaBytes(long perSourceMemoryQuotaBytes) {
+    checkArgument(perSourceMemoryQuotaBytes > 0 || perSourceMemoryQuotaBytes == C.LENGTH_UNSET);
+    this.perSourceMemoryQuotaBytes = perSourceMemoryQuotaBytes;
+  }
+
+  /**
+   * Sets the maximum number of bytes that may be allocated for preloading all sources. Sources used
+   * by a player don't count towards the quota.
+   *
+   * <p>When a source needs more memory than the quota leaves, the preloaded data of sources ranked
+   * lower than it is cleared, starting from the lowest ranked source. If that doesn't reclaim
+   * enough memory, loading the source stops.
+   *
+   * <p>Takes effect the next time the manager decides whether to continue loading a source.
+   *
+   * @param totalMemoryQuotaBytes The total memory quota in bytes, or {@link C#LENGTH_UNSET} for no
+   *     quota.
+   */
+  public void setTotalMemoryQuotaBytes(long totalMemoryQuotaBytes) {
+    checkArgument(totalMemoryQuotaBytes > 0 || totalMemoryQuotaBytes == C.LENGTH_UNSET);
+    this.totalMemoryQuotaBytes = totalMemoryQuotaBytes;
+  }
+
+  /**
+   * Reports the time it took for the first frame of a media item to be rendered after its playback
+   * was requested, for the {@linkplain #getPreloadMetrics() preload metrics}.
+   *
+   * <p>The playback is counted as a playback of a preloaded source if the media item was added to
+   * this manager and its source had been prepared by preloading when the player started using it.
+   *
+   * @param mediaItem The {@link MediaItem} that was played.
+   * @param timeToFirstFrameMs The time to first frame in milliseconds.
+   */
+  public void reportTimeToFirstFrame(MediaItem mediaItem, long timeToFirstFrameMs) {
+    checkArgument(timeToFirstFrameMs >= 0);
+    @Nullable MediaSource mediaSource = getMediaSource(mediaItem);
+    synchronized (metricsLock) {
+      @Nullable
+      PreloadTracker preloadTracker = mediaSource != null ? preloadTrackers.get(mediaSource) : null;
+      if (preloadTracker != null && preloadTracker.preparedWhenUsedByPlayer) {
+        preloadedPlaybackCount++;
+        preloadedTimeToFirstFrameSumMs += timeToFirstFrameMs;
+      } else {
+        notPreloadedPlaybackCount++;
+        notPreloadedTimeToFirstFrameSumMs += timeToFirstFrameMs;
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link PreloadMetrics} of the preloading done by this manager since it was created.
+   *
+   * <p>Bytes are counted when a load of a source completes or is canceled while the source is
+   * preloaded. Loads that are still in progress when a source is used by the player or removed
+   * aren't counted.
+   */
+  public PreloadMetrics getPreloadMetrics() {
+    synchronized (metricsLock) {
+      return new PreloadMetrics(
+          bytesPreloaded,
+          bytesWasted,
+          preloadedPlaybackCount,
+          preloadedPlaybackCount > 0
+              ? preloadedTimeToFirstFrameSumMs / preloadedPlaybackCount
+              : C.TIME_UNSET,
+          notPreloadedPlaybackCount,
+          notPreloadedPlaybackCount > 0
+              ? notPreloadedTimeToFirstFrameSumMs / notPreloadedPlaybackCount
+              : C.TIME_UNSET);
+    }
+  }
+
   @Override
   public MediaSource createMediaSourceForPreloading(MediaSource mediaSource) {
-    return preloadMediaSourceFactory.createMediaSource(mediaSource);
+    PreloadTracker preloadTracker = new PreloadTracker(new PreloadAllocator(allocator));
+    PreloadMediaSource preloadMediaSource =
+        preloadMediaSourceFactory.createMediaSource(mediaSource, preloadTracker.preloadAllocator);
+    synchronized (metricsLock) {
+      preloadTrackers.put(preloadMediaSource, preloadTracker);
+    }
+    preloadMediaSource.addEventListener(preloadHandler, preloadTracker);
+    return preloadMediaSource;
   }
 
   @Override
   protected void preloadSourceInternal(MediaSource mediaSource, long startPositionsUs) {
     checkArgument(mediaSource instanceof PreloadMediaSource);
+    synchronized (metricsLock) {
+      @Nullable PreloadTracker preloadTracker = preloadTrackers.get(mediaSource);
+      if (preloadTracker != null) {
+        preloadTracker.isPreloading = true;
+      }
+    }
     ((PreloadMediaSource) mediaSource).preload(startPositionsUs);
   }
 
   @Override
   protected void clearSourceInternal(MediaSource mediaSource) {
     checkArgument(mediaSource instanceof PreloadMediaSource);
+    synchronized (metricsLock) {
+      @Nullable PreloadTracker preloadTracker = preloadTrackers.get(mediaSource);
+      if (preloadTracker != null) {
+        preloadTracker.discardPendingBytes();
+      }
+    }
     ((PreloadMediaSource) mediaSource).clear();
   }
 
   @Override
   protected void releaseSourceInternal(MediaSource mediaSource) {
     checkArgument(mediaSource instanceof PreloadMediaSource);
+    synchronized (metricsLock) {
+      @Nullable PreloadTracker preloadTracker = preloadTrackers.remove(mediaSource);
+      if (preloadTracker != null) {
+        preloadTracker.discardPendingBytes();
+        mediaSource.removeEventListener(preloadTracker);
+      }
+    }
     ((PreloadMediaSource) mediaSource).releasePreloadMediaSource();
   }
 
+  @Override
+  protected long getAllocatedBytesInternal(MediaSource mediaSource) {
+    synchronized (metricsLock) {
+      @Nullable PreloadTracker preloadTracker = preloadTrackers.get(mediaSource);
+      return preloadTracker != null ? preloadTracker.getAllocatedBytes() : C.LENGTH_UNSET;
+    }
+  }
+
   @Override
   protected void releaseInternal() {
     rendererCapabilitiesList.release();
   }
 
+  private boolean canAllocateForPreloading(PreloadMediaSource mediaSource) {
+    long memoryBudgetBytes = this.memoryBudgetBytes;
+    if (memoryBudgetBytes != C.LENGTH_UNSET
+        && allocator.getTotalBytesAllocated() >= memoryBudgetBytes) {
+      return false;
+    }
+    long perSourceMemoryQuotaBytes = this.perSourceMemoryQuotaBytes;
+    if (perSourceMemoryQuotaBytes != C.LENGTH_UNSET
+        && getAllocatedBytesInternal(mediaSource) >= perSourceMemoryQuotaBytes) {
+      return false;
+    }
+    long totalMemoryQuotaBytes = this.totalMemoryQuotaBytes;
+    if (totalMemoryQuotaBytes == C.LENGTH_UNSET) {
+      return true;
+    }
+    long totalAllocatedBytes = 0;
+    synchronized (metricsLock) {
+      for (PreloadTracker preloadTracker : preloadTrackers.values()) {
+        totalAllocatedBytes += preloadTracker.getAllocatedBytes();
+      }
+    }
+    // Make room for at least one more allocation.
+    long bytesToReclaim =
+        totalAllocatedBytes + allocator.getIndividualAllocationLength() - totalMemoryQuotaBytes;
+    return bytesToReclaim <= 0
+        || reclaimAllocatedBytes(mediaSource, bytesToReclaim) >= bytesToReclaim;
+  }
+
   private static final class RankingDataComparator implements Comparator<Integer> {
 
     public int currentPlayingIndex;
@@ -205,6 +441,12 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
   private final class SourcePreloadControl implements PreloadMediaSource.PreloadControl {
     @Override
     public boolean onSourcePrepared(PreloadMediaSource mediaSource) {
+      synchronized (metricsLock) {
+        @Nullable PreloadTracker preloadTracker = preloadTrackers.get(mediaSource);
+        if (preloadTracker != null) {
+          preloadTracker.isPrepared = true;
+        }
+      }
       // The PreloadMediaSource may have more data preloaded than the target preload status if it
       // has been preloaded before, thus we set `clearExceededDataFromTargetPreloadStatus` to
       // `true` to clear the exceeded data.
@@ -222,7 +464,8 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
       return continueOrCompletePreloading(
           mediaSource,
           /* continueLoadingPredicate= */ status ->
-              status.getStage() > Status.STAGE_TRACKS_SELECTED,
+              status.getStage() > Status.STAGE_TRACKS_SELECTED
+                  && canAllocateForPreloading(mediaSource),
           /* clearExceededDataFromTargetPreloadStatus= */ false);
     }
 
@@ -235,12 +478,22 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
           mediaSource,
           /* continueLoadingPredicate= */ status ->
               status.getStage() == Status.STAGE_LOADED_TO_POSITION_MS
-                  && status.getValue() > Util.usToMs(bufferedPositionUs),
+                  && status.getValue() > Util.usToMs(bufferedPositionUs)
+                  && canAllocateForPreloading(mediaSource),
           /* clearExceededDataFromTargetPreloadStatus= */ false);
     }
 
     @Override
     public void onUsedByPlayer(PreloadMediaSource mediaSource) {
+      synchronized (metricsLock) {
+        @Nullable PreloadTracker preloadTracker = preloadTrackers.get(mediaSource);
+        if (preloadTracker != null) {
+          // The preloaded data is played from now on, and data loaded by the player isn't counted.
+          preloadTracker.preparedWhenUsedByPlayer = preloadTracker.isPrepared;
+          preloadTracker.isPreloading = false;
+          preloadTracker.pendingBytes = 0;
+        }
+      }
       onPreloadCompleted(mediaSource);
     }
 
@@ -269,4 +522,68 @@ public final class DefaultPreloadManager extends BasePreloadManager<Integer> {
       return false;
     }
   }
+
+  /** Tracks the memory used and the bytes loaded by preloading a source. */
+  private final class PreloadTracker implements MediaSourceEventListener {
+
+    public final PreloadAllocator preloadAllocator;
+
+    @GuardedBy("metricsLock")
+    public boolean isPreloading;
+
+    @GuardedBy("metricsLock")
+    public boolean isPrepared;
+
+    @GuardedBy("metricsLock")
+    public boolean preparedWhenUsedByPlayer;
+
+    @GuardedBy("metricsLock")
+    public long pendingBytes;
+
+    public PreloadTracker(PreloadAllocator preloadAllocator) {
+      this.preloadAllocator = preloadAllocator;
+    }
+
+    @Override
+    public void onLoadCompleted(
+        int windowIndex,
+        @Nullable MediaSource.MediaPeriodId mediaPeriodId,
+        LoadEventInfo loadEventInfo,
+        MediaLoadData mediaLoadData) {
+      onBytesLoaded(loadEventInfo.bytesLoaded);
+    }
+
+    @Override
+    public void onLoadCanceled(
+        int windowIndex,
+        @Nullable MediaSource.MediaPeriodId mediaPeriodId,
+        LoadEventInfo loadEventInfo,
+        MediaLoadData mediaLoadData) {
+      onBytesLoaded(loadEventInfo.bytesLoaded);
+    }
+
+    /**
+     * Returns the number of bytes allocated for preloading the source, which is zero when the
+     * source is used by a player.
+     */
+    @GuardedBy("metricsLock")
+    public long getAllocatedBytes() {
+      return isPreloading ? preloadAllocator.getTotalBytesAllocated() : 0;
+    }
+
+    @GuardedBy("metricsLock")
+    public void discardPendingBytes() {
+      bytesWasted += pendingBytes;
+      pendingBytes = 0;
+    }
+
+    private void onBytesLoaded(long bytesLoaded) {
+      synchronized (metricsLock) {
+        if (isPreloading) {
+          bytesPreloaded += bytesLoaded;
+          pendingBytes += bytesLoaded;
+        }
+      }
+    }
+  }
 }
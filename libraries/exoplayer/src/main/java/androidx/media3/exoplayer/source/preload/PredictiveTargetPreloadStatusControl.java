@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import static androidx.media3.common.util.Assertions.checkArgument;
+import static androidx.media3.common.util.Assertions.checkState;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Clock;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+
+/**
+ * A {@link TargetPreloadStatusControl} for feeds of media items, such as short-form video feeds,
+ * that predicts which items the user will play next from how they've been scrolling.
+ *
+ * <p>The ranking data of an item is its index in the feed. The app must call {@link
+ * #setCurrentIndex(int)} whenever the user moves to another item, followed by {@link
+ * DefaultPreloadManager#setCurrentPlayingIndex(int)} and {@link
+ * DefaultPreloadManager#invalidate()}.
+ *
+ * <p>The control learns the average time the user dwells on an item, and the direction in which
+ * they scroll. Items in the direction of scrolling that the user is predicted to reach within the
+ * {@linkplain Builder#setLookaheadDurationMs(long) lookahead duration} are loaded, and items
+ * further away have their tracks selected or are only prepared. Items are buffered for no longer
+ * than the dwell time, because a user who scrolls quickly won't play more than that of an item. The
+ * item before the current one in the opposite direction is prepared, so that the user can scroll
+ * back.
+ *
+ * <p>Methods should be called on the same thread as the methods of the {@link
+ * DefaultPreloadManager}.
+ */
+@UnstableApi
+public final class PredictiveTargetPreloadStatusControl
+    implements TargetPreloadStatusControl<Integer> {
+
+  /** A builder for {@link PredictiveTargetPreloadStatusControl} instances. */
+  public static final class Builder {
+
+    private long initialDwellTimeMs;
+    private long minBufferedDurationMs;
+    private long maxBufferedDurationMs;
+    private long lookaheadDurationMs;
+    private int maxLookaheadItemCount;
+    private Clock clock;
+    private boolean buildCalled;
+
+    /** Creates an instance. */
+    public Builder() {
+      initialDwellTimeMs = DEFAULT_INITIAL_DWELL_TIME_MS;
+      minBufferedDurationMs = DEFAULT_MIN_BUFFERED_DURATION_MS;
+      maxBufferedDurationMs = DEFAULT_MAX_BUFFERED_DURATION_MS;
+      lookaheadDurationMs = DEFAULT_LOOKAHEAD_DURATION_MS;
+      maxLookaheadItemCount = DEFAULT_MAX_LOOKAHEAD_ITEM_COUNT;
+      clock = Clock.DEFAULT;
+    }
+
+    /**
+     * Sets the time the user is assumed to dwell on an item before the control has learnt it, in
+     * milliseconds.
+     *
+     * <p>The default value is {@link #DEFAULT_INITIAL_DWELL_TIME_MS}.
+     *
+     * @param initialDwellTimeMs The initial dwell time, in milliseconds.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setInitialDwellTimeMs(long initialDwellTimeMs) {
+      checkState(!buildCalled);
+      checkArgument(initialDwellTimeMs > 0);
+      this.initialDwellTimeMs = initialDwellTimeMs;
+      return this;
+    }
+
+    /**
+     * Sets the minimum and maximum durations of media that are buffered for an item, in
+     * milliseconds. Items that the user is predicted to reach soon are buffered up to the dwell
+     * time, within these limits.
+     *
+     * <p>The default values are {@link #DEFAULT_MIN_BUFFERED_DURATION_MS} and {@link
+     * #DEFAULT_MAX_BUFFERED_DURATION_MS}.
+     *
+     * @param minBufferedDurationMs The minimum buffered duration, in milliseconds.
+     * @param maxBufferedDurationMs The maximum buffered duration, in milliseconds.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setBufferedDurationsMs(long minBufferedDurationMs, long maxBufferedDurationMs) {
+      checkState(!buildCalled);
+      checkArgument(0 < minBufferedDurationMs && minBufferedDurationMs <= maxBufferedDurationMs);
+      this.minBufferedDurationMs = minBufferedDurationMs;
+      this.maxBufferedDurationMs = maxBufferedDurationMs;
+      return this;
+    }
+
+    /**
+     * Sets the duration into the future for which the items the user will reach are predicted, in
+     * milliseconds. Items that are reached within this duration are loaded, and items that are
+     * reached within twice and three times this duration have their tracks selected and are
+     * prepared respectively.
+     *
+     * <p>The default value is {@link #DEFAULT_LOOKAHEAD_DURATION_MS}.
+     *
+     * @param lookaheadDurationMs The lookahead duration, in milliseconds.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setLookaheadDurationMs(long lookaheadDurationMs) {
+      checkState(!buildCalled);
+      checkArgument(lookaheadDurationMs > 0);
+      this.lookaheadDurationMs = lookaheadDurationMs;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of items that are loaded ahead of the current item, however quickly
+     * the user scrolls.
+     *
+     * <p>The default value is {@link #DEFAULT_MAX_LOOKAHEAD_ITEM_COUNT}.
+     *
+     * @param maxLookaheadItemCount The maximum number of items loaded ahead of the current item.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setMaxLookaheadItemCount(int maxLookaheadItemCount) {
+      checkState(!buildCalled);
+      checkArgument(maxLookaheadItemCount > 0);
+      this.maxLookaheadItemCount = maxLookaheadItemCount;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Clock} that will be used to measure dwell times. Should only be set for
+     * testing purposes.
+     *
+     * @param clock A {@link Clock}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    @VisibleForTesting
+    public Builder setClock(Clock clock) {
+      checkState(!buildCalled);
+      this.clock = clock;
+      return this;
+    }
+
+    /** Builds a {@link PredictiveTargetPreloadStatusControl}. */
+    public PredictiveTargetPreloadStatusControl build() {
+      checkState(!buildCalled);
+      buildCalled = true;
+      return new PredictiveTargetPreloadStatusControl(this);
+    }
+  }
+
+  /** The default initial dwell time, in milliseconds. */
+  public static final long DEFAULT_INITIAL_DWELL_TIME_MS = 10_000;
+
+  /** The default minimum buffered duration, in milliseconds. */
+  public static final long DEFAULT_MIN_BUFFERED_DURATION_MS = 500;
+
+  /** The default maximum buffered duration, in milliseconds. */
+  public static final long DEFAULT_MAX_BUFFERED_DURATION_MS = 5_000;
+
+  /** The default lookahead duration, in milliseconds. */
+  public static final long DEFAULT_LOOKAHEAD_DURATION_MS = 10_000;
+
+  /** The default maximum number of items loaded ahead of the current item. */
+  public static final int DEFAULT_MAX_LOOKAHEAD_ITEM_COUNT = 4;
+
+  /** The weight of the latest sample in the moving averages of dwell time and direction. */
+  private static final float SMOOTHING_FACTOR = 0.3f;
+
+  private final long minBufferedDurationMs;
+  private final long maxBufferedDurationMs;
+  private final long lookaheadDurationMs;
+  private final int maxLookaheadItemCount;
+  private final Clock clock;
+
+  private int currentIndex;
+  private long currentIndexStartTimeMs;
+  private float averageDwellTimeMs;
+  private float averageDirection;
+
+  private PredictiveTargetPreloadStatusControl(Builder builder) {
+    minBufferedDurationMs = builder.minBufferedDurationMs;
+    maxBufferedDurationMs = builder.maxBufferedDurationMs;
+    lookaheadDurationMs = builder.lookaheadDurationMs;
+    maxLookaheadItemCount = builder.maxLookaheadItemCount;
+    clock = builder.clock;
+    averageDwellTimeMs = builder.initialDwellTimeMs;
+    currentIndex = 0;
+    currentIndexStartTimeMs = C.TIME_UNSET;
+    // Assume that the user scrolls towards higher indices until they've scrolled.
+    averageDirection = 1f;
+  }
+
+  /**
+   * Sets the index of the item the user is currently on, and updates the predictions of how the
+   * user scrolls.
+   *
+   * @param currentIndex The index of the current item.
+   */
+  public void setCurrentIndex(int currentIndex) {
+    long nowMs = clock.elapsedRealtime();
+    int itemCount = currentIndex - this.currentIndex;
+    if (currentIndexStartTimeMs != C.TIME_UNSET && itemCount != 0) {
+      float dwellTimeMs = (float) (nowMs - currentIndexStartTimeMs) / abs(itemCount);
+      averageDwellTimeMs += SMOOTHING_FACTOR * (max(1f, dwellTimeMs) - averageDwellTimeMs);
+      averageDirection += SMOOTHING_FACTOR * (Math.signum(itemCount) - averageDirection);
+    }
+    this.currentIndex = currentIndex;
+    currentIndexStartTimeMs = nowMs;
+  }
+
+  /** Returns the average time the user dwells on an item, in milliseconds. */
+  public long getAverageDwellTimeMs() {
+    return (long) averageDwellTimeMs;
+  }
+
+  @Override
+  @Nullable
+  public DefaultPreloadManager.Status getTargetPreloadStatus(Integer rankingData) {
+    int offset = rankingData - currentIndex;
+    if (offset == 0) {
+      return new DefaultPreloadManager.Status(
+          DefaultPreloadManager.Status.STAGE_LOADED_TO_POSITION_MS, maxBufferedDurationMs);
+    }
+    boolean isAhead = averageDirection >= 0 ? offset > 0 : offset < 0;
+    int distance = abs(offset);
+    if (!isAhead) {
+      return distance == 1
+          ? new DefaultPreloadManager.Status(DefaultPreloadManager.Status.STAGE_SOURCE_PREPARED)
+          : null;
+    }
+    // The number of items the user is predicted to reach within the lookahead duration.
+    int lookaheadItemCount =
+        Util.constrainValue(
+            (int) Math.ceil(lookaheadDurationMs / averageDwellTimeMs), 1, maxLookaheadItemCount);
+    if (distance == 1) {
+      long bufferedDurationMs =
+          Util.constrainValue(
+              (long) averageDwellTimeMs, minBufferedDurationMs, maxBufferedDurationMs);
+      return new DefaultPreloadManager.Status(
+          DefaultPreloadManager.Status.STAGE_LOADED_TO_POSITION_MS, bufferedDurationMs);
+    } else if (distance <= lookaheadItemCount) {
+      // Buffer just enough to start playback quickly, as the user may scroll past the item.
+      return new DefaultPreloadManager.Status(
+          DefaultPreloadManager.Status.STAGE_LOADED_TO_POSITION_MS, minBufferedDurationMs);
+    } else if (distance <= 2 * lookaheadItemCount) {
+      return new DefaultPreloadManager.Status(DefaultPreloadManager.Status.STAGE_TRACKS_SELECTED);
+    } else if (distance <= 3 * lookaheadItemCount) {
+      return new DefaultPreloadManager.Status(DefaultPreloadManager.Status.STAGE_SOURCE_PREPARED);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Parses a manifest for the data that a source needs before its media can be loaded, so that it can
+ * be prefetched in parallel with the preparation of the source.
+ */
+@UnstableApi
+public interface PrefetchTargetParser {
+
+  /** A piece of data to prefetch. */
+  final class Target {
+
+    /** The {@link DataSpec} of the data. */
+    public final DataSpec dataSpec;
+
+    /**
+     * The {@link C.DataType data type} of the data. Targets of type {@link C#DATA_TYPE_MANIFEST}
+     * are parsed in turn once they've been fetched.
+     */
+    public final @C.DataType int dataType;
+
+    /**
+     * Creates an instance.
+     *
+     * @param dataSpec The {@link DataSpec} of the data.
+     * @param dataType The {@link C.DataType data type} of the data.
+     */
+    public Target(DataSpec dataSpec, @C.DataType int dataType) {
+      this.dataSpec = dataSpec;
+      this.dataType = dataType;
+    }
+  }
+
+  /**
+   * Parses the targets referenced by a manifest.
+   *
+   * @param uri The {@link Uri} of the manifest, after any redirection.
+   * @param inputStream An {@link InputStream} from which the manifest can be read.
+   * @return The {@link Target targets} to prefetch, in order of priority.
+   * @throws IOException If an error occurs reading or parsing the manifest.
+   */
+  List<Target> parse(Uri uri, InputStream inputStream) throws IOException;
+}
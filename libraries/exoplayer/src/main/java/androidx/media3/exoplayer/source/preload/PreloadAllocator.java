@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.media3.exoplayer.upstream.Allocation;
+import androidx.media3.exoplayer.upstream.Allocator;
+
+/**
+ * An {@link Allocator} that obtains its {@linkplain Allocation allocations} from a shared {@link
+ * Allocator}, and keeps track of how many of them are in use, so that the memory held by a single
+ * preloaded source can be measured and limited.
+ */
+/* package */ final class PreloadAllocator implements Allocator {
+
+  private final Allocator allocator;
+
+  @GuardedBy("this")
+  private int allocatedCount;
+
+  /**
+   * Creates an instance.
+   *
+   * @param allocator The shared {@link Allocator} to obtain allocations from.
+   */
+  public PreloadAllocator(Allocator allocator) {
+    this.allocator = allocator;
+  }
+
+  @Override
+  public Allocation allocate() {
+    Allocation allocation = allocator.allocate();
+    synchronized (this) {
+      allocatedCount++;
+    }
+    return allocation;
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    synchronized (this) {
+      allocatedCount--;
+    }
+    allocator.release(allocation);
+  }
+
+  @Override
+  public void release(AllocationNode allocationNode) {
+    int releasedCount = 0;
+    @Nullable AllocationNode node = allocationNode;
+    while (node != null) {
+      releasedCount++;
+      node = node.next();
+    }
+    synchronized (this) {
+      allocatedCount -= releasedCount;
+    }
+    allocator.release(allocationNode);
+  }
+
+  @Override
+  public void trim() {
+    allocator.trim();
+  }
+
+  @Override
+  public synchronized int getTotalBytesAllocated() {
+    return allocatedCount * allocator.getIndividualAllocationLength();
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return allocator.getIndividualAllocationLength();
+  }
+}
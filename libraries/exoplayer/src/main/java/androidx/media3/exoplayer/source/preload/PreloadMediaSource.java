@@ -27,6 +27,7 @@ import androidx.media3.common.Timeline;
 import androidx.media3.common.util.Log;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
+import androidx.media3.datasource.cache.CacheDataSource;
 import androidx.media3.exoplayer.ExoPlaybackException;
 import androidx.media3.exoplayer.ExoPlayer;
 import androidx.media3.exoplayer.LoadControl;
@@ -45,7 +46,9 @@ import androidx.media3.exoplayer.upstream.Allocator;
 import androidx.media3.exoplayer.upstream.BandwidthMeter;
 import androidx.media3.exoplayer.upstream.CmcdConfiguration;
 import androidx.media3.exoplayer.upstream.LoadErrorHandlingPolicy;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * Preloads a {@link MediaSource} and provides a {@link MediaPeriod} that has data loaded before
@@ -116,6 +119,7 @@ public final class PreloadMediaSource extends WrappingMediaSource {
     private final BandwidthMeter bandwidthMeter;
     private final RendererCapabilities[] rendererCapabilities;
     private final PreloadControl preloadControl;
+    @Nullable private SpeculativePrefetcher speculativePrefetcher;
 
     /**
      * Creates a new factory for {@link PreloadMediaSource}.
@@ -154,6 +158,36 @@ public final class PreloadMediaSource extends WrappingMediaSource {
       this.preloadLooper = preloadLooper;
     }
 
+    /**
+     * Enables speculative prefetching for the created {@link PreloadMediaSource} instances.
+     *
+     * <p>When a {@link PreloadMediaSource} is prepared for preloading, the data that its source
+     * needs before its media can be loaded, such as the media playlists of HLS streams and the
+     * initialization segments of tracks, is fetched into the cache of {@code
+     * cacheDataSourceFactory} in parallel with the preparation of the source. The data is derived
+     * from the main manifest by {@code targetParser} as soon as the source has loaded it. The data
+     * that the source of the same {@link MediaItem} loaded the last time it was preloaded is
+     * fetched right away, unless the stream is live. This saves round trips only if the
+     * underlying {@link MediaSource.Factory} reads from the same cache.
+     *
+     * @param cacheDataSourceFactory The {@link CacheDataSource.Factory} for the cache into which
+     *     data is prefetched.
+     * @param executor The {@link Executor} on which data is prefetched. Should run tasks in
+     *     parallel for the data to be prefetched in parallel.
+     * @param targetParser The {@link PrefetchTargetParser} for the manifests of the created
+     *     sources, or {@code null} to only prefetch the data loaded in earlier preloads.
+     * @return This factory, for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Factory setSpeculativePrefetch(
+        CacheDataSource.Factory cacheDataSourceFactory,
+        Executor executor,
+        @Nullable PrefetchTargetParser targetParser) {
+      this.speculativePrefetcher =
+          new SpeculativePrefetcher(cacheDataSourceFactory, executor, targetParser);
+      return this;
+    }
+
     @Override
     public Factory setCmcdConfigurationFactory(CmcdConfiguration.Factory cmcdConfigurationFactory) {
       this.mediaSourceFactory.setCmcdConfigurationFactory(cmcdConfigurationFactory);
@@ -187,10 +221,20 @@ public final class PreloadMediaSource extends WrappingMediaSource {
           bandwidthMeter,
           rendererCapabilities,
           allocator,
-          preloadLooper);
+          preloadLooper,
+          speculativePrefetcher);
     }
 
     public PreloadMediaSource createMediaSource(MediaSource mediaSource) {
+      return createMediaSource(mediaSource, allocator);
+    }
+
+    /**
+     * Creates a {@link PreloadMediaSource} that preloads into the given {@link Allocator} instead
+     * of the one passed to the constructor of this factory.
+     */
+    /* package */ PreloadMediaSource createMediaSource(
+        MediaSource mediaSource, Allocator allocator) {
       return new PreloadMediaSource(
           mediaSource,
           preloadControl,
@@ -198,7 +242,8 @@ public final class PreloadMediaSource extends WrappingMediaSource {
           bandwidthMeter,
           rendererCapabilities,
           allocator,
-          preloadLooper);
+          preloadLooper,
+          speculativePrefetcher);
     }
   }
 
@@ -210,6 +255,7 @@ public final class PreloadMediaSource extends WrappingMediaSource {
   private final RendererCapabilities[] rendererCapabilities;
   private final Allocator allocator;
   private final Handler preloadHandler;
+  @Nullable private final SpeculativePrefetcher.Session speculativePrefetchSession;
   private boolean preloadCalled;
   private boolean prepareChildSourceCalled;
   private long startPositionUs;
@@ -226,7 +272,8 @@ public final class PreloadMediaSource extends WrappingMediaSource {
       BandwidthMeter bandwidthMeter,
       RendererCapabilities[] rendererCapabilities,
       Allocator allocator,
-      Looper preloadLooper) {
+      Looper preloadLooper,
+      @Nullable SpeculativePrefetcher speculativePrefetcher) {
     super(mediaSource);
     this.preloadControl = preloadControl;
     this.trackSelector = trackSelector;
@@ -236,6 +283,12 @@ public final class PreloadMediaSource extends WrappingMediaSource {
 
     preloadHandler = Util.createHandler(preloadLooper, /* callback= */ null);
     startPositionUs = C.TIME_UNSET;
+    if (speculativePrefetcher != null) {
+      speculativePrefetchSession = speculativePrefetcher.createSession(getMediaItem());
+      addEventListener(preloadHandler, speculativePrefetchSession);
+    } else {
+      speculativePrefetchSession = null;
+    }
   }
 
   /**
@@ -256,6 +309,9 @@ public final class PreloadMediaSource extends WrappingMediaSource {
             notifyOnUsedByPlayer();
           } else {
             setPlayerId(PlayerId.UNSET); // Set to PlayerId.UNSET as there is no ongoing playback.
+            if (speculativePrefetchSession != null && !prepareChildSourceCalled) {
+              speculativePrefetchSession.start();
+            }
             prepareSourceInternal(bandwidthMeter.getTransferListener());
           }
         });
@@ -292,6 +348,9 @@ public final class PreloadMediaSource extends WrappingMediaSource {
   @Override
   protected void onChildSourceInfoRefreshed(Timeline newTimeline) {
     this.timeline = newTimeline;
+    if (speculativePrefetchSession != null) {
+      speculativePrefetchSession.onTimelineRefreshed(newTimeline);
+    }
     refreshSourceInfo(newTimeline);
     preloadHandler.post(
         () -> {
@@ -387,6 +446,9 @@ public final class PreloadMediaSource extends WrappingMediaSource {
           preloadCalled = false;
           startPositionUs = C.TIME_UNSET;
           onSourcePreparedNotified = false;
+          if (speculativePrefetchSession != null) {
+            speculativePrefetchSession.cancel();
+          }
           if (preloadingMediaPeriodAndKey != null) {
             mediaSource.releasePeriod(preloadingMediaPeriodAndKey.first.mediaPeriod);
             preloadingMediaPeriodAndKey = null;
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.UnstableApi;
+
+/** Metrics of the preloading done by a {@link DefaultPreloadManager}. */
+@UnstableApi
+public final class PreloadMetrics {
+
+  /** The total number of bytes loaded for preloading. */
+  public final long bytesPreloaded;
+
+  /**
+   * The number of bytes loaded for preloading that were never played, because the preloaded data
+   * was cleared or the source was removed before it was used by a player.
+   */
+  public final long bytesWasted;
+
+  /**
+   * The number of playbacks of preloaded sources reported by {@link
+   * DefaultPreloadManager#reportTimeToFirstFrame(MediaItem, long)}.
+   */
+  public final int preloadedPlaybackCount;
+
+  /**
+   * The average time to first frame of playbacks of preloaded sources in milliseconds, or {@link
+   * C#TIME_UNSET} if no such playbacks have been reported.
+   */
+  public final long averagePreloadedTimeToFirstFrameMs;
+
+  /**
+   * The number of playbacks of sources that weren't preloaded reported by {@link
+   * DefaultPreloadManager#reportTimeToFirstFrame(MediaItem, long)}.
+   */
+  public final int notPreloadedPlaybackCount;
+
+  /**
+   * The average time to first frame of playbacks of sources that weren't preloaded in milliseconds,
+   * or {@link C#TIME_UNSET} if no such playbacks have been reported.
+   */
+  public final long averageNotPreloadedTimeToFirstFrameMs;
+
+  /* package */ PreloadMetrics(
+      long bytesPreloaded,
+      long bytesWasted,
+      int preloadedPlaybackCount,
+      long averagePreloadedTimeToFirstFrameMs,
+      int notPreloadedPlaybackCount,
+      long averageNotPreloadedTimeToFirstFrameMs) {
+    this.bytesPreloaded = bytesPreloaded;
+    this.bytesWasted = bytesWasted;
+    this.preloadedPlaybackCount = preloadedPlaybackCount;
+    this.averagePreloadedTimeToFirstFrameMs = averagePreloadedTimeToFirstFrameMs;
+    this.notPreloadedPlaybackCount = notPreloadedPlaybackCount;
+    this.averageNotPreloadedTimeToFirstFrameMs = averageNotPreloadedTimeToFirstFrameMs;
+  }
+
+  /**
+   * Returns by how much preloading reduced the average time to first frame in milliseconds, or
+   * {@link C#TIME_UNSET} if playbacks of both preloaded sources and sources that weren't preloaded
+   * haven't been reported.
+   */
+  public long getTimeToFirstFrameGainMs() {
+    if (averagePreloadedTimeToFirstFrameMs == C.TIME_UNSET
+        || averageNotPreloadedTimeToFirstFrameMs == C.TIME_UNSET) {
+      return C.TIME_UNSET;
+    }
+    return averageNotPreloadedTimeToFirstFrameMs - averagePreloadedTimeToFirstFrameMs;
+  }
+}
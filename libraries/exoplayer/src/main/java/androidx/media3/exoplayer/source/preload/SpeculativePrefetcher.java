@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import android.net.Uri;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.util.Log;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheWriter;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
+import androidx.media3.exoplayer.source.MediaSource.MediaPeriodId;
+import androidx.media3.exoplayer.source.MediaSourceEventListener;
+import androidx.media3.exoplayer.source.preload.PrefetchTargetParser.Target;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Speculatively fetches the data that the source of a {@link MediaItem} needs before its media can
+ * be loaded, such as the media playlists of HLS streams and the initialization segments of tracks,
+ * in parallel with the preparation of the source.
+ *
+ * <p>The data is written into the cache of a {@link CacheDataSource.Factory}, from which the source
+ * reads it if it uses the same cache. This turns the sequential round trips for the main manifest,
+ * the media playlist and the initialization segment into parallel ones.
+ *
+ * <p>The data to fetch is found in two ways. When the main manifest has been loaded, a {@link
+ * PrefetchTargetParser} derives the data it refers to, and the data that the fetched playlists
+ * refer to in turn. In addition, the media playlists and initialization segments that the source
+ * loaded are recorded, and fetched as soon as the source of the same {@link MediaItem} is prepared
+ * again. The data loaded by the sources of live streams isn't recorded, because their playlists
+ * change over time.
+ */
+/* package */ final class SpeculativePrefetcher {
+
+  /** Fetches and records the data of a single {@link MediaItem}. */
+  public final class Session implements MediaSourceEventListener {
+
+    private final MediaItem mediaItem;
+    private final List<Target> pendingHints;
+
+    @GuardedBy("activeCacheWriters")
+    private final Set<CacheWriter> activeCacheWriters;
+
+    @GuardedBy("activeCacheWriters")
+    private final List<DataSpec> prefetchedDataSpecs;
+
+    @GuardedBy("activeCacheWriters")
+    private boolean canceled;
+
+    private int liveness;
+    private boolean mainManifestParsed;
+
+    private Session(MediaItem mediaItem) {
+      this.mediaItem = mediaItem;
+      pendingHints = new ArrayList<>();
+      activeCacheWriters = new HashSet<>();
+      prefetchedDataSpecs = new ArrayList<>();
+      liveness = LIVENESS_UNKNOWN;
+    }
+
+    /**
+     * Starts fetching the data recorded for the media item, if any. Must be called before the
+     * source of the media item is prepared.
+     */
+    public void start() {
+      List<Target> hints = getHints(mediaItem);
+      synchronized (activeCacheWriters) {
+        canceled = false;
+        prefetchedDataSpecs.clear();
+      }
+      mainManifestParsed = false;
+      for (int i = 0; i < hints.size(); i++) {
+        prefetch(hints.get(i));
+      }
+    }
+
+    /** Cancels fetching data. */
+    public void cancel() {
+      synchronized (activeCacheWriters) {
+        canceled = true;
+        for (CacheWriter cacheWriter : activeCacheWriters) {
+          cacheWriter.cancel();
+        }
+      }
+    }
+
+    /**
+     * Called when the timeline of the source of the media item is refreshed.
+     *
+     * @param timeline The refreshed {@link Timeline}.
+     */
+    public void onTimelineRefreshed(Timeline timeline) {
+      if (timeline.isEmpty()) {
+        return;
+      }
+      Timeline.Window window = timeline.getWindow(/* windowIndex= */ 0, new Timeline.Window());
+      if (window.isPlaceholder) {
+        return;
+      }
+      if (window.isLive()) {
+        liveness = LIVENESS_LIVE;
+        pendingHints.clear();
+        removeHints(mediaItem);
+      } else if (liveness == LIVENESS_UNKNOWN) {
+        liveness = LIVENESS_NOT_LIVE;
+        for (int i = 0; i < pendingHints.size(); i++) {
+          addHint(mediaItem, pendingHints.get(i));
+        }
+        pendingHints.clear();
+      }
+    }
+
+    @Override
+    public void onLoadCompleted(
+        int windowIndex,
+        @Nullable MediaPeriodId mediaPeriodId,
+        LoadEventInfo loadEventInfo,
+        MediaLoadData mediaLoadData) {
+      DataSpec dataSpec = loadEventInfo.dataSpec;
+      if (mediaLoadData.dataType == C.DATA_TYPE_MANIFEST && isMainManifest(dataSpec)) {
+        // The main manifest is loaded by the source itself, so only the data it refers to is
+        // fetched, as soon as it's known. The manifest is read from the cache if the source wrote
+        // it there.
+        if (targetParser != null && !mainManifestParsed) {
+          mainManifestParsed = true;
+          prefetch(new Target(dataSpec, C.DATA_TYPE_MANIFEST));
+        }
+        return;
+      }
+      if (mediaLoadData.dataType != C.DATA_TYPE_MANIFEST
+          && mediaLoadData.dataType != C.DATA_TYPE_MEDIA_INITIALIZATION) {
+        return;
+      }
+      Target hint = new Target(dataSpec, mediaLoadData.dataType);
+      if (liveness == LIVENESS_UNKNOWN) {
+        // Media playlists are loaded before it's known whether the stream is live, so defer
+        // recording them until then.
+        pendingHints.add(hint);
+      } else if (liveness == LIVENESS_NOT_LIVE) {
+        addHint(mediaItem, hint);
+      }
+    }
+
+    private boolean isMainManifest(DataSpec dataSpec) {
+      return mediaItem.localConfiguration != null
+          && dataSpec.uri.equals(mediaItem.localConfiguration.uri);
+    }
+
+    private void prefetch(Target target) {
+      synchronized (activeCacheWriters) {
+        if (canceled || prefetchedDataSpecs.size() >= MAX_PREFETCH_COUNT_PER_SESSION) {
+          return;
+        }
+        for (int i = 0; i < prefetchedDataSpecs.size(); i++) {
+          if (isSameData(prefetchedDataSpecs.get(i), target.dataSpec)) {
+            return;
+          }
+        }
+        prefetchedDataSpecs.add(target.dataSpec);
+      }
+      executor.execute(
+          () -> {
+            if (fetch(target.dataSpec)
+                && target.dataType == C.DATA_TYPE_MANIFEST
+                && targetParser != null) {
+              List<Target> targets = parseTargets(targetParser, target.dataSpec);
+              for (int i = 0; i < targets.size(); i++) {
+                prefetch(targets.get(i));
+              }
+            }
+          });
+    }
+
+    private boolean fetch(DataSpec dataSpec) {
+      CacheWriter cacheWriter =
+          new CacheWriter(
+              cacheDataSourceFactory.createDataSourceForDownloading(),
+              dataSpec,
+              /* temporaryBuffer= */ null,
+              /* progressListener= */ null);
+      synchronized (activeCacheWriters) {
+        if (canceled) {
+          return false;
+        }
+        activeCacheWriters.add(cacheWriter);
+      }
+      try {
+        cacheWriter.cache();
+        return true;
+      } catch (IOException e) {
+        // The source loads the data itself if it isn't in the cache.
+        Log.d(TAG, "Failed to prefetch " + dataSpec.uri, e);
+        return false;
+      } finally {
+        synchronized (activeCacheWriters) {
+          activeCacheWriters.remove(cacheWriter);
+        }
+      }
+    }
+
+    private List<Target> parseTargets(PrefetchTargetParser targetParser, DataSpec dataSpec) {
+      DataSource dataSource = cacheDataSourceFactory.createDataSourceForDownloading();
+      try {
+        byte[] data;
+        Uri uri;
+        try {
+          dataSource.open(dataSpec);
+          data = DataSourceUtil.readToEnd(dataSource);
+          @Nullable Uri dataSourceUri = dataSource.getUri();
+          uri = dataSourceUri != null ? dataSourceUri : dataSpec.uri;
+        } finally {
+          DataSourceUtil.closeQuietly(dataSource);
+        }
+        return targetParser.parse(uri, new ByteArrayInputStream(data));
+      } catch (IOException e) {
+        Log.d(TAG, "Failed to parse " + dataSpec.uri, e);
+        return new ArrayList<>();
+      }
+    }
+  }
+
+  /** The maximum number of {@link MediaItem media items} for which data is recorded. */
+  public static final int MAX_MEDIA_ITEM_COUNT = 100;
+
+  /** The maximum number of pieces of data recorded for each {@link MediaItem}. */
+  public static final int MAX_HINT_COUNT_PER_MEDIA_ITEM = 4;
+
+  /** The maximum number of pieces of data fetched by each {@link Session}. */
+  public static final int MAX_PREFETCH_COUNT_PER_SESSION = 16;
+
+  private static final String TAG = "SpeculativePrefetcher";
+
+  private static final int LIVENESS_UNKNOWN = 0;
+  private static final int LIVENESS_NOT_LIVE = 1;
+  private static final int LIVENESS_LIVE = 2;
+
+  private final CacheDataSource.Factory cacheDataSourceFactory;
+  private final Executor executor;
+  @Nullable private final PrefetchTargetParser targetParser;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<MediaItem, ArrayDeque<Target>> hints;
+
+  /**
+   * Creates an instance.
+   *
+   * @param cacheDataSourceFactory The {@link CacheDataSource.Factory} for the cache into which the
+   *     data is fetched.
+   * @param executor The {@link Executor} on which the data is fetched. Pieces of data are fetched
+   *     in parallel if the executor runs tasks in parallel.
+   * @param targetParser The {@link PrefetchTargetParser} that derives the data to fetch from the
+   *     main manifest, or {@code null} to only fetch the data recorded in earlier sessions.
+   */
+  public SpeculativePrefetcher(
+      CacheDataSource.Factory cacheDataSourceFactory,
+      Executor executor,
+      @Nullable PrefetchTargetParser targetParser) {
+    this.cacheDataSourceFactory = cacheDataSourceFactory;
+    this.executor = executor;
+    this.targetParser = targetParser;
+    hints =
+        new LinkedHashMap<MediaItem, ArrayDeque<Target>>(
+            /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<MediaItem, ArrayDeque<Target>> eldest) {
+            return size() > MAX_MEDIA_ITEM_COUNT;
+          }
+        };
+  }
+
+  /**
+   * Creates a {@link Session} for the source of a {@link MediaItem}. The session must be added as a
+   * {@link MediaSourceEventListener} of the source to record the data it loads.
+   */
+  public Session createSession(MediaItem mediaItem) {
+    return new Session(mediaItem);
+  }
+
+  private synchronized List<Target> getHints(MediaItem mediaItem) {
+    @Nullable ArrayDeque<Target> mediaItemHints = hints.get(mediaItem);
+    return mediaItemHints != null ? new ArrayList<>(mediaItemHints) : new ArrayList<>();
+  }
+
+  private synchronized void addHint(MediaItem mediaItem, Target target) {
+    @Nullable ArrayDeque<Target> mediaItemHints = hints.get(mediaItem);
+    if (mediaItemHints == null) {
+      mediaItemHints = new ArrayDeque<>();
+      hints.put(mediaItem, mediaItemHints);
+    }
+    for (Target hint : mediaItemHints) {
+      if (isSameData(hint.dataSpec, target.dataSpec)) {
+        // Move the hint to the end, as it's the most recently used.
+        mediaItemHints.remove(hint);
+        break;
+      }
+    }
+    mediaItemHints.addLast(target);
+    if (mediaItemHints.size() > MAX_HINT_COUNT_PER_MEDIA_ITEM) {
+      mediaItemHints.removeFirst();
+    }
+  }
+
+  private synchronized void removeHints(MediaItem mediaItem) {
+    hints.remove(mediaItem);
+  }
+
+  private static boolean isSameData(DataSpec dataSpec, DataSpec otherDataSpec) {
+    return dataSpec.uri.equals(otherDataSpec.uri)
+        && dataSpec.position == otherDataSpec.position
+        && dataSpec.length == otherDataSpec.length
+        && Util.areEqual(dataSpec.key, otherDataSpec.key);
+  }
+}
@@ -18,6 +18,7 @@ package androidx.media3.exoplayer.upstream;
 import androidx.media3.common.C;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpConnectionMetrics;
 
 /** Provides an estimate of the time to first byte of a transfer. */
 @UnstableApi
@@ -44,4 +45,15 @@ public interface TimeToFirstByteEstimator {
    * @param dataSpec Describes the data being transferred.
    */
   void onTransferStart(DataSpec dataSpec);
+
+  /**
+   * Called when the timings of the connection used for a transfer are known, before {@link
+   * #onTransferStart(DataSpec)} is called for the transfer.
+   *
+   * <p>The default implementation does nothing.
+   *
+   * @param dataSpec Describes the data for which the transfer is initialized.
+   * @param metrics The {@link HttpConnectionMetrics}.
+   */
+  default void onConnectionMetrics(DataSpec dataSpec, HttpConnectionMetrics metrics) {}
 }
@@ -27,6 +27,7 @@ import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSource;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpConnectionMetrics;
 import androidx.media3.datasource.TransferListener;
 import androidx.media3.exoplayer.upstream.BandwidthMeter;
 import androidx.media3.exoplayer.upstream.TimeToFirstByteEstimator;
@@ -359,6 +360,15 @@ public final class ExperimentalBandwidthMeter implements BandwidthMeter, Transfe
     bandwidthEstimator.onTransferInitializing(source);
   }
 
+  @Override
+  public synchronized void onConnectionMetrics(
+      DataSource source, DataSpec dataSpec, boolean isNetwork, HttpConnectionMetrics metrics) {
+    if (!isTransferAtFullNetworkSpeed(dataSpec, isNetwork)) {
+      return;
+    }
+    timeToFirstByteEstimator.onConnectionMetrics(dataSpec, metrics);
+  }
+
   @Override
   public synchronized void onTransferStart(
       DataSource source, DataSpec dataSpec, boolean isNetwork) {
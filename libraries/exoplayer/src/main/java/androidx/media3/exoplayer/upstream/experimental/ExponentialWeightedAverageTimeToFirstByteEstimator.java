@@ -22,6 +22,7 @@ import androidx.media3.common.util.Clock;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpConnectionMetrics;
 import androidx.media3.exoplayer.upstream.TimeToFirstByteEstimator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -37,6 +38,7 @@ public final class ExponentialWeightedAverageTimeToFirstByteEstimator
   private static final int MAX_DATA_SPECS = 10;
 
   private final LinkedHashMap<DataSpec, Long> initializedDataSpecs;
+  private final LinkedHashMap<DataSpec, Long> measuredTimesToFirstByteUs;
   private final double smoothingFactor;
   private final Clock clock;
 
@@ -68,6 +70,7 @@ public final class ExponentialWeightedAverageTimeToFirstByteEstimator
     this.smoothingFactor = smoothingFactor;
     this.clock = clock;
     initializedDataSpecs = new FixedSizeLinkedHashMap<>(/* maxSize= */ MAX_DATA_SPECS);
+    measuredTimesToFirstByteUs = new FixedSizeLinkedHashMap<>(/* maxSize= */ MAX_DATA_SPECS);
     estimateUs = C.TIME_UNSET;
   }
 
@@ -86,6 +89,14 @@ public final class ExponentialWeightedAverageTimeToFirstByteEstimator
     // Remove to make sure insertion order is updated in case the key already exists.
     initializedDataSpecs.remove(dataSpec);
     initializedDataSpecs.put(dataSpec, Util.msToUs(clock.elapsedRealtime()));
+    measuredTimesToFirstByteUs.remove(dataSpec);
+  }
+
+  @Override
+  public void onConnectionMetrics(DataSpec dataSpec, HttpConnectionMetrics metrics) {
+    if (initializedDataSpecs.containsKey(dataSpec)) {
+      measuredTimesToFirstByteUs.put(dataSpec, Util.msToUs(metrics.timeToFirstByteMs));
+    }
   }
 
   @Override
@@ -95,7 +106,13 @@ public final class ExponentialWeightedAverageTimeToFirstByteEstimator
       return;
     }
 
-    long timeToStartSampleUs = Util.msToUs(clock.elapsedRealtime()) - initializationStartUs;
+    // Prefer the time measured by the data source, which excludes the time spent after receiving
+    // the response headers.
+    @Nullable Long measuredTimeToFirstByteUs = measuredTimesToFirstByteUs.remove(dataSpec);
+    long timeToStartSampleUs =
+        measuredTimeToFirstByteUs != null
+            ? measuredTimeToFirstByteUs
+            : Util.msToUs(clock.elapsedRealtime()) - initializationStartUs;
     if (estimateUs == C.TIME_UNSET) {
       estimateUs = timeToStartSampleUs;
     } else {
@@ -24,6 +24,7 @@ import androidx.media3.common.util.Clock;
 import androidx.media3.common.util.UnstableApi;
 import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpConnectionMetrics;
 import androidx.media3.exoplayer.upstream.SlidingPercentile;
 import androidx.media3.exoplayer.upstream.TimeToFirstByteEstimator;
 import java.util.LinkedHashMap;
@@ -45,6 +46,7 @@ public final class PercentileTimeToFirstByteEstimator implements TimeToFirstByte
   private static final int MAX_DATA_SPECS = 10;
 
   private final LinkedHashMap<DataSpec, Long> initializedDataSpecs;
+  private final LinkedHashMap<DataSpec, Long> measuredTimesToFirstByteUs;
   private final SlidingPercentile slidingPercentile;
   private final float percentile;
   private final Clock clock;
@@ -83,6 +85,7 @@ public final class PercentileTimeToFirstByteEstimator implements TimeToFirstByte
     this.percentile = percentile;
     this.clock = clock;
     initializedDataSpecs = new FixedSizeLinkedHashMap<>(/* maxSize= */ MAX_DATA_SPECS);
+    measuredTimesToFirstByteUs = new FixedSizeLinkedHashMap<>(/* maxSize= */ MAX_DATA_SPECS);
     slidingPercentile = new SlidingPercentile(/* maxWeight= */ numberOfSamples);
     isEmpty = true;
   }
@@ -103,6 +106,14 @@ public final class PercentileTimeToFirstByteEstimator implements TimeToFirstByte
     // Remove to make sure insertion order is updated in case the key already exists.
     initializedDataSpecs.remove(dataSpec);
     initializedDataSpecs.put(dataSpec, Util.msToUs(clock.elapsedRealtime()));
+    measuredTimesToFirstByteUs.remove(dataSpec);
+  }
+
+  @Override
+  public void onConnectionMetrics(DataSpec dataSpec, HttpConnectionMetrics metrics) {
+    if (initializedDataSpecs.containsKey(dataSpec)) {
+      measuredTimesToFirstByteUs.put(dataSpec, Util.msToUs(metrics.timeToFirstByteMs));
+    }
   }
 
   @Override
@@ -111,9 +122,14 @@ public final class PercentileTimeToFirstByteEstimator implements TimeToFirstByte
     if (initializationStartUs == null) {
       return;
     }
-    slidingPercentile.addSample(
-        /* weight= */ 1,
-        /* value= */ (float) (Util.msToUs(clock.elapsedRealtime()) - initializationStartUs));
+    // Prefer the time measured by the data source, which excludes the time spent after receiving
+    // the response headers.
+    @Nullable Long measuredTimeToFirstByteUs = measuredTimesToFirstByteUs.remove(dataSpec);
+    long timeToFirstByteUs =
+        measuredTimeToFirstByteUs != null
+            ? measuredTimeToFirstByteUs
+            : Util.msToUs(clock.elapsedRealtime()) - initializationStartUs;
+    slidingPercentile.addSample(/* weight= */ 1, /* value= */ (float) timeToFirstByteUs);
     isEmpty = false;
   }
 
@@ -15,14 +15,18 @@
  */
 package androidx.media3.exoplayer.offline;
 
+import static androidx.media3.common.util.Assertions.checkNotNull;
 import static androidx.media3.exoplayer.offline.Download.FAILURE_REASON_NONE;
 import static androidx.media3.exoplayer.offline.Download.FAILURE_REASON_UNKNOWN;
 import static androidx.media3.exoplayer.offline.Download.STATE_DOWNLOADING;
+import static androidx.media3.exoplayer.offline.Download.STATE_QUEUED;
 import static androidx.media3.exoplayer.offline.Download.STATE_STOPPED;
 import static androidx.media3.exoplayer.offline.Download.STOP_REASON_NONE;
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import androidx.annotation.Nullable;
@@ -39,6 +43,7 @@ import com.google.common.collect.ImmutableList;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.junit.After;
@@ -126,6 +131,36 @@ public class DefaultDownloadIndexTest {
     assertEqual(readDownload, download);
   }
 
+  @Test
+  public void putDownloads_addsAndReplacesDownloads() throws DatabaseIOException {
+    Download download1 = new DownloadBuilder("id1").setStartTimeMs(0).build();
+    downloadIndex.putDownload(download1);
+    Download updatedDownload1 =
+        new DownloadBuilder("id1")
+            .setStartTimeMs(0)
+            .setState(STATE_DOWNLOADING)
+            .setBytesDownloaded(100)
+            .setPercentDownloaded(50)
+            .build();
+    Download download2 =
+        new DownloadBuilder("id2")
+            .setStartTimeMs(1)
+            .setMimeType(MimeTypes.APPLICATION_MP4)
+            .setCacheKey("cacheKey")
+            .setKeySetId(new byte[] {0, 1, 2, 3})
+            .build();
+
+    downloadIndex.putDownloads(ImmutableList.of(updatedDownload1, download2));
+
+    try (DownloadCursor cursor = downloadIndex.getDownloads()) {
+      assertThat(cursor.getCount()).isEqualTo(2);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), updatedDownload1);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download2);
+    }
+  }
+
   @Test
   public void removeDownload_nonExistingId_doesNotFail() throws DatabaseIOException {
     downloadIndex.removeDownload("non existing id");
@@ -187,6 +222,157 @@ public class DefaultDownloadIndexTest {
     }
   }
 
+  @Test
+  public void getDownloadsPage_returnsPageOfDownloadsWithStatesSortedByStartTime()
+      throws DatabaseIOException {
+    Download download1 = new DownloadBuilder("id1").setStartTimeMs(3).build();
+    downloadIndex.putDownload(download1);
+    Download download2 = new DownloadBuilder("id2").setStartTimeMs(2).build();
+    downloadIndex.putDownload(download2);
+    Download download3 =
+        new DownloadBuilder("id3").setStartTimeMs(1).setState(Download.STATE_COMPLETED).build();
+    downloadIndex.putDownload(download3);
+    Download download4 = new DownloadBuilder("id4").setStartTimeMs(0).build();
+    downloadIndex.putDownload(download4);
+
+    try (DownloadCursor cursor =
+        downloadIndex.getDownloadsPage(/* offset= */ 1, /* limit= */ 2, STATE_QUEUED)) {
+      assertThat(cursor.getCount()).isEqualTo(2);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download2);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download1);
+    }
+    try (DownloadCursor cursor = downloadIndex.getDownloadsPage(/* offset= */ 4, /* limit= */ 2)) {
+      assertThat(cursor.getCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void getDownloadsUpdatedAfter_returnsDownloadsUpdatedAfterTimeSortedByUpdateTime()
+      throws DatabaseIOException {
+    Download download1 = new DownloadBuilder("id1").setUpdateTimeMs(30).build();
+    downloadIndex.putDownload(download1);
+    Download download2 = new DownloadBuilder("id2").setUpdateTimeMs(10).build();
+    downloadIndex.putDownload(download2);
+    Download download3 =
+        new DownloadBuilder("id3").setUpdateTimeMs(20).setState(STATE_DOWNLOADING).build();
+    downloadIndex.putDownload(download3);
+    Download download4 = new DownloadBuilder("id4").setUpdateTimeMs(40).build();
+    downloadIndex.putDownload(download4);
+
+    try (DownloadCursor cursor = downloadIndex.getDownloadsUpdatedAfter(/* updateTimeMs= */ 10)) {
+      assertThat(cursor.getCount()).isEqualTo(3);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download3);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download1);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download4);
+    }
+    try (DownloadCursor cursor =
+        downloadIndex.getDownloadsUpdatedAfter(/* updateTimeMs= */ 10, STATE_QUEUED)) {
+      assertThat(cursor.getCount()).isEqualTo(2);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download1);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download4);
+    }
+  }
+
+  @Test
+  public void listener_isNotifiedOfChanges() throws DatabaseIOException {
+    List<String> changes = new ArrayList<>();
+    downloadIndex.addListener(
+        new DefaultDownloadIndex.Listener() {
+          @Override
+          public void onDownloadChanged(Download download) {
+            changes.add("changed " + download.request.id);
+          }
+
+          @Override
+          public void onDownloadRemoved(String id) {
+            changes.add("removed " + id);
+          }
+
+          @Override
+          public void onDownloadsChanged() {
+            changes.add("changed all");
+          }
+        });
+
+    downloadIndex.putDownload(new DownloadBuilder("id1").build());
+    downloadIndex.putDownload(new DownloadBuilder("id2").build());
+    downloadIndex.removeDownload("id1");
+    downloadIndex.removeDownload("non existing id");
+    downloadIndex.setDownloadingStatesToQueued();
+    downloadIndex.setStatesToRemoving();
+
+    assertThat(changes)
+        .containsExactly("changed id1", "changed id2", "removed id1", "changed all")
+        .inOrder();
+  }
+
+  @Test
+  public void downloadIndex_upgradesFromVersion3_keepsDownloadsAndAddsIndices()
+      throws DatabaseIOException {
+    Download download = new DownloadBuilder("id1").setStreamKeys(new StreamKey(0, 1, 2)).build();
+    downloadIndex.putDownload(download);
+    SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+    writableDatabase.execSQL("DROP INDEX ExoPlayerDownloads_state");
+    writableDatabase.execSQL("DROP INDEX ExoPlayerDownloads_update_time_ms");
+    VersionTable.setVersion(
+        writableDatabase, VersionTable.FEATURE_OFFLINE, EMPTY_NAME, /* version= */ 3);
+
+    downloadIndex = new DefaultDownloadIndex(databaseProvider);
+
+    assertEqual(checkNotNull(downloadIndex.getDownload("id1")), download);
+    assertThat(getIndexNames(writableDatabase))
+        .containsAtLeast("ExoPlayerDownloads_state", "ExoPlayerDownloads_update_time_ms");
+  }
+
+  @Test
+  public void encodeAndDecodeStreamKeys_returnsSameStreamKeys() {
+    List<StreamKey> streamKeys =
+        ImmutableList.of(new StreamKey(0, 1, 2), new StreamKey(10, 200, 3000));
+
+    List<StreamKey> decodedStreamKeys =
+        DefaultDownloadIndex.decodeStreamKeys(DefaultDownloadIndex.encodeStreamKeys(streamKeys));
+
+    assertThat(decodedStreamKeys).isEqualTo(streamKeys);
+    assertThat(DefaultDownloadIndex.decodeStreamKeys("")).isEmpty();
+  }
+
+  @Test
+  public void encodeAndDecodeStreamKeys_withBoundaryValues_returnsSameStreamKeys() {
+    List<StreamKey> streamKeys =
+        ImmutableList.of(
+            new StreamKey(Integer.MIN_VALUE, -1, Integer.MAX_VALUE),
+            new StreamKey(Integer.MAX_VALUE, Integer.MIN_VALUE, 0));
+
+    List<StreamKey> decodedStreamKeys =
+        DefaultDownloadIndex.decodeStreamKeys(DefaultDownloadIndex.encodeStreamKeys(streamKeys));
+
+    assertThat(decodedStreamKeys).isEqualTo(streamKeys);
+  }
+
+  @Test
+  public void decodeStreamKeys_withExplicitSigns_parsesLikeParseInt() {
+    assertThat(DefaultDownloadIndex.decodeStreamKeys("+1.-2.+0,-0.3.-4"))
+        .containsExactly(new StreamKey(1, -2, 0), new StreamKey(0, 3, -4))
+        .inOrder();
+  }
+
+  @Test
+  public void decodeStreamKeys_withOutOfRangeValue_throwsNumberFormatException() {
+    assertThrows(
+        NumberFormatException.class, () -> DefaultDownloadIndex.decodeStreamKeys("0.0.2147483648"));
+    assertThrows(
+        NumberFormatException.class,
+        () -> DefaultDownloadIndex.decodeStreamKeys("-2147483649.0.0"));
+    assertThrows(NumberFormatException.class, () -> DefaultDownloadIndex.decodeStreamKeys("0.-.0"));
+  }
+
   @Test
   public void putDownload_setsVersion() throws DatabaseIOException {
     SQLiteDatabase readableDatabase = databaseProvider.getReadableDatabase();
@@ -372,6 +558,18 @@ public class DefaultDownloadIndexTest {
     assertEqual(readDownload, download);
   }
 
+  private static List<String> getIndexNames(SQLiteDatabase database) {
+    List<String> indexNames = new ArrayList<>();
+    try (Cursor cursor =
+        database.rawQuery(
+            "SELECT name FROM sqlite_master WHERE type = 'index'", /* selectionArgs= */ null)) {
+      while (cursor.moveToNext()) {
+        indexNames.add(cursor.getString(0));
+      }
+    }
+    return indexNames;
+  }
+
   private static void assertEqual(Download download, Download that) {
     assertThat(download.request).isEqualTo(that.request);
     assertThat(download.state).isEqualTo(that.state);
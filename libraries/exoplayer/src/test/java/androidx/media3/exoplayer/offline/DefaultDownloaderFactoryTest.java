@@ -18,6 +18,7 @@ package androidx.media3.exoplayer.offline;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.net.Uri;
+import androidx.media3.common.C;
 import androidx.media3.datasource.PlaceholderDataSource;
 import androidx.media3.datasource.cache.Cache;
 import androidx.media3.datasource.cache.CacheDataSource;
@@ -45,4 +46,23 @@ public final class DefaultDownloaderFactoryTest {
                 .build());
     assertThat(downloader).isInstanceOf(ProgressiveDownloader.class);
   }
+
+  @Test
+  public void createProgressiveDownloader_withDownloadScheduler() throws Exception {
+    DownloaderFactory factory =
+        new DefaultDownloaderFactory(
+            Mockito.mock(Cache.class),
+            PlaceholderDataSource.FACTORY,
+            /* executor= */ Runnable::run,
+            new DownloadScheduler(
+                DownloadScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS,
+                C.RATE_UNSET_INT,
+                /* priorityTaskManager= */ null));
+
+    Downloader downloader =
+        factory.createDownloader(
+            new DownloadRequest.Builder(/* id= */ "id", Uri.parse("https://www.test.com/download"))
+                .build());
+    assertThat(downloader).isInstanceOf(ProgressiveDownloader.class);
+  }
 }
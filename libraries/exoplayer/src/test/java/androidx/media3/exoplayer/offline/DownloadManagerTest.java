@@ -37,6 +37,9 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
@@ -218,6 +221,53 @@ public class DownloadManagerTest {
     assertCurrentDownloadCount(0);
   }
 
+  @Test
+  public void download_withTaskExecutor_runsTasksAndRetriesOnExecutor() throws Throwable {
+    ExecutorService threadPool = Executors.newFixedThreadPool(/* nThreads= */ 2);
+    AtomicInteger executedTaskCount = new AtomicInteger();
+    setupDownloadManager(
+        /* maxParallelDownloads= */ 1,
+        runnable -> {
+          executedTaskCount.incrementAndGet();
+          threadPool.execute(runnable);
+        });
+
+    postDownloadRequest(ID1);
+    FakeDownloader downloader = getDownloaderAt(0);
+    downloader.assertDownloadStarted();
+    downloader.fail();
+    downloader.assertDownloadStarted();
+    downloader.finish();
+    assertCompleted(ID1);
+    downloadManagerListener.blockUntilIdleAndThrowAnyFailure();
+    threadPool.shutdown();
+
+    // The retry after the failure is run as a separate task.
+    assertThat(executedTaskCount.get()).isEqualTo(2);
+    assertDownloaderCount(1);
+  }
+
+  @Test
+  public void download_canceledWhilstWaitingToRetry_stops() throws Throwable {
+    postDownloadRequest(ID1);
+    FakeDownloader downloader0 = getDownloaderAt(0);
+    downloader0.assertDownloadStarted();
+    downloader0.incrementBytesDownloaded();
+    downloader0.fail();
+    downloader0.assertDownloadStarted();
+    downloader0.fail();
+
+    // The second failure is retried after a delay, during which the download is removed.
+    postRemoveRequest(ID1);
+    FakeDownloader downloader1 = getDownloaderAt(1);
+    downloader1.assertRemoveStarted();
+    downloader1.finish();
+    assertRemoved(ID1);
+
+    downloadManagerListener.blockUntilIdleAndThrowAnyFailure();
+    assertDownloaderCount(2);
+  }
+
   @Test
   public void download_WhenRemovalInProgress_doesNotCancelRemoval() throws Throwable {
     postDownloadRequest(ID1);
@@ -714,6 +764,26 @@ public class DownloadManagerTest {
     assertEqualIgnoringUpdateTime(mergedDownload, expectedDownload);
   }
 
+  @Test
+  public void mergeRequest_completedWithSameRequest_keepsProgress() {
+    DownloadRequest downloadRequest = createDownloadRequest(ID1);
+    DownloadBuilder downloadBuilder =
+        new DownloadBuilder(downloadRequest)
+            .setState(Download.STATE_COMPLETED)
+            .setContentLength(100)
+            .setBytesDownloaded(100)
+            .setPercentDownloaded(100);
+    Download download = downloadBuilder.build();
+
+    Download mergedDownload =
+        DownloadManager.mergeRequest(download, downloadRequest, download.stopReason, NOW_MS);
+
+    Download expectedDownload =
+        downloadBuilder.setStartTimeMs(NOW_MS).setState(Download.STATE_QUEUED).build();
+    assertEqualIgnoringUpdateTime(mergedDownload, expectedDownload);
+    assertThat(mergedDownload.progress).isSameInstanceAs(download.progress);
+  }
+
   @Test
   public void removeRequests_runSequentially() throws Throwable {
     // Trigger two remove requests.
@@ -745,6 +815,12 @@ public class DownloadManagerTest {
   }
 
   private void setupDownloadManager(int maxParallelDownloads) throws Exception {
+    setupDownloadManager(
+        maxParallelDownloads, /* taskExecutor= */ runnable -> new Thread(runnable).start());
+  }
+
+  private void setupDownloadManager(int maxParallelDownloads, Executor taskExecutor)
+      throws Exception {
     if (downloadManager != null) {
       releaseDownloadManager();
     }
@@ -755,7 +831,8 @@ public class DownloadManagerTest {
                 new DownloadManager(
                     ApplicationProvider.getApplicationContext(),
                     new DefaultDownloadIndex(TestUtil.getInMemoryDatabaseProvider()),
-                    new FakeDownloaderFactory());
+                    new FakeDownloaderFactory(),
+                    taskExecutor);
             downloadManager.setMaxParallelDownloads(maxParallelDownloads);
             downloadManager.setMinRetryCount(MIN_RETRY_COUNT);
             downloadManager.setRequirements(new Requirements(0));
@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.offline;
+
+import static androidx.media3.common.util.Assertions.checkState;
+import static com.google.common.truth.Truth.assertThat;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.PriorityTaskManager;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.test.utils.FakeClock;
+import androidx.media3.test.utils.FakeDataSet;
+import androidx.media3.test.utils.FakeDataSource;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link DownloadScheduler}. */
+@RunWith(AndroidJUnit4.class)
+public final class DownloadSchedulerTest {
+
+  private static final Uri TEST_URI = Uri.parse("https://www.test.com/data");
+  private static final long TIMEOUT_MS = 10_000;
+
+  private DataSource.Factory upstreamFactory;
+
+  @Before
+  public void setUp() {
+    FakeDataSet fakeDataSet = new FakeDataSet().newData(TEST_URI).appendReadData(100).endData();
+    upstreamFactory = () -> new FakeDataSource(fakeDataSet);
+  }
+
+  @Test
+  public void open_atMaxConcurrentRequests_waitsForRequestToEnd() throws Exception {
+    DownloadScheduler downloadScheduler =
+        new DownloadScheduler(
+            /* maxConcurrentRequests= */ 1, C.RATE_UNSET_INT, /* priorityTaskManager= */ null);
+    DataSource.Factory dataSourceFactory =
+        downloadScheduler.createDataSourceFactory(upstreamFactory);
+    DataSource dataSource = dataSourceFactory.createDataSource();
+    dataSource.open(new DataSpec(TEST_URI));
+    CountDownLatch secondRequestOpened = new CountDownLatch(1);
+
+    Thread thread = startRequestThread(dataSourceFactory, secondRequestOpened::countDown);
+    waitForPendingRequestCount(downloadScheduler, 1);
+    assertThat(secondRequestOpened.getCount()).isEqualTo(1);
+    assertThat(downloadScheduler.getActiveRequestCount()).isEqualTo(1);
+    dataSource.close();
+
+    assertThat(secondRequestOpened.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    thread.join(TIMEOUT_MS);
+    assertThat(downloadScheduler.getActiveRequestCount()).isEqualTo(0);
+    assertThat(downloadScheduler.getPendingRequestCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void open_withPendingRequests_startsRequestForHigherPriorityDownloadFirst()
+      throws Exception {
+    DownloadScheduler downloadScheduler =
+        new DownloadScheduler(
+            /* maxConcurrentRequests= */ 1, C.RATE_UNSET_INT, /* priorityTaskManager= */ null);
+    downloadScheduler.setPriority("high", /* priority= */ 1);
+    DataSource dataSource =
+        downloadScheduler.createDataSourceFactory(upstreamFactory).createDataSource();
+    dataSource.open(new DataSpec(TEST_URI));
+    List<String> openedDownloadIds = Collections.synchronizedList(new ArrayList<>());
+
+    Thread lowPriorityThread =
+        startRequestThread(
+            downloadScheduler.createDataSourceFactory(upstreamFactory, "low"),
+            () -> openedDownloadIds.add("low"));
+    waitForPendingRequestCount(downloadScheduler, 1);
+    Thread highPriorityThread =
+        startRequestThread(
+            downloadScheduler.createDataSourceFactory(upstreamFactory, "high"),
+            () -> openedDownloadIds.add("high"));
+    waitForPendingRequestCount(downloadScheduler, 2);
+    dataSource.close();
+    lowPriorityThread.join(TIMEOUT_MS);
+    highPriorityThread.join(TIMEOUT_MS);
+
+    assertThat(openedDownloadIds).containsExactly("high", "low").inOrder();
+  }
+
+  @Test
+  public void setPriority_ofDownloadWithPendingRequest_reordersPendingRequests() {
+    DownloadScheduler downloadScheduler =
+        new DownloadScheduler(
+            /* maxConcurrentRequests= */ 1, C.RATE_UNSET_INT, /* priorityTaskManager= */ null);
+    DownloadScheduler.Request activeRequest = downloadScheduler.addRequest("active");
+    assertThat(downloadScheduler.tryStartRequest(activeRequest)).isTrue();
+    DownloadScheduler.Request firstRequest = downloadScheduler.addRequest("first");
+    DownloadScheduler.Request secondRequest = downloadScheduler.addRequest("second");
+
+    downloadScheduler.setPriority("second", /* priority= */ 1);
+    downloadScheduler.endRequest();
+
+    assertThat(downloadScheduler.tryStartRequest(firstRequest)).isFalse();
+    assertThat(downloadScheduler.tryStartRequest(secondRequest)).isTrue();
+    downloadScheduler.endRequest();
+    assertThat(downloadScheduler.tryStartRequest(firstRequest)).isTrue();
+  }
+
+  @Test
+  public void open_whilePlaybackRegistered_waitsForPlaybackToEnd() throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    DownloadScheduler downloadScheduler =
+        new DownloadScheduler(
+            DownloadScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS,
+            C.RATE_UNSET_INT,
+            priorityTaskManager);
+    CountDownLatch requestOpened = new CountDownLatch(1);
+
+    Thread thread =
+        startRequestThread(
+            downloadScheduler.createDataSourceFactory(upstreamFactory), requestOpened::countDown);
+    waitForThreadToBlock(thread);
+    assertThat(requestOpened.getCount()).isEqualTo(1);
+    assertThat(downloadScheduler.getActiveRequestCount()).isEqualTo(0);
+    priorityTaskManager.remove(C.PRIORITY_PLAYBACK);
+
+    assertThat(requestOpened.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    thread.join(TIMEOUT_MS);
+    // The download has unregistered itself.
+    priorityTaskManager.proceedNonBlocking(C.PRIORITY_DOWNLOAD - 1);
+  }
+
+  @Test
+  public void simulation_withoutLimits_playbackRebuffers() {
+    NetworkSimulation simulation =
+        new NetworkSimulation(
+            /* maxConcurrentRequests= */ Integer.MAX_VALUE,
+            /* maxBytesPerSecond= */ C.RATE_UNSET_INT,
+            /* yieldToPlayback= */ false);
+
+    simulation.run();
+
+    // Playback gets the same share of the link as each of the many download requests.
+    assertThat(simulation.getRebufferingDurationMs()).isGreaterThan(10_000);
+    assertThat(simulation.getDownloadThroughputBytesPerSecond()).isAtLeast(900_000);
+  }
+
+  @Test
+  public void simulation_yieldingToPlayback_avoidsRebufferingAndKeepsThroughput() {
+    NetworkSimulation simulation =
+        new NetworkSimulation(
+            DownloadScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS,
+            /* maxBytesPerSecond= */ C.RATE_UNSET_INT,
+            /* yieldToPlayback= */ true);
+
+    simulation.run();
+
+    assertThat(simulation.getRebufferingDurationMs()).isEqualTo(0);
+    // Downloads use the link whenever playback isn't loading, which leaves them 750_000 bytes per
+    // second on average.
+    assertThat(simulation.getDownloadThroughputBytesPerSecond()).isAtLeast(650_000);
+  }
+
+  @Test
+  public void simulation_withRateLimit_avoidsRebufferingAndKeepsToRate() {
+    NetworkSimulation simulation =
+        new NetworkSimulation(
+            DownloadScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS,
+            /* maxBytesPerSecond= */ 600_000,
+            /* yieldToPlayback= */ false);
+
+    simulation.run();
+
+    assertThat(simulation.getRebufferingDurationMs()).isEqualTo(0);
+    // The rate limiter allows a short burst above the rate.
+    assertThat(simulation.getDownloadThroughputBytesPerSecond())
+        .isIn(Range.closed(550_000L, 610_000L));
+  }
+
+  @Test
+  public void simulation_withDownloadPriority_completesHigherPriorityDownloadFirst() {
+    NetworkSimulation simulation =
+        new NetworkSimulation(
+            DownloadScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS,
+            /* maxBytesPerSecond= */ C.RATE_UNSET_INT,
+            /* yieldToPlayback= */ true);
+    simulation.downloadScheduler.setPriority(
+        NetworkSimulation.getDownloadId(/* downloadIndex= */ 2), /* priority= */ 1);
+
+    simulation.run();
+
+    assertThat(simulation.getDownloadCompletionOrder()).containsExactly(2, 0, 1).inOrder();
+  }
+
+  @Test
+  public void rateLimiter_reserve_returnsDelayToKeepToRate() {
+    DownloadScheduler.RateLimiter rateLimiter =
+        new DownloadScheduler.RateLimiter(/* bytesPerSecond= */ 1000);
+
+    // The first 100ms of transfer are allowed as a burst.
+    assertThat(rateLimiter.reserve(/* bytes= */ 100, /* nowUs= */ 0)).isEqualTo(0);
+    assertThat(rateLimiter.reserve(/* bytes= */ 1000, /* nowUs= */ 0)).isEqualTo(1_000_000);
+    assertThat(rateLimiter.reserve(/* bytes= */ 500, /* nowUs= */ 1_000_000)).isEqualTo(500_000);
+    // Idle periods don't accumulate more than the burst.
+    assertThat(rateLimiter.reserve(/* bytes= */ 500, /* nowUs= */ 10_000_000)).isEqualTo(400_000);
+  }
+
+  private static void waitForPendingRequestCount(
+      DownloadScheduler downloadScheduler, int pendingRequestCount) throws InterruptedException {
+    long endTimeMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (downloadScheduler.getPendingRequestCount() < pendingRequestCount
+        && System.currentTimeMillis() < endTimeMs) {
+      Thread.sleep(/* millis= */ 1);
+    }
+    assertThat(downloadScheduler.getPendingRequestCount()).isEqualTo(pendingRequestCount);
+  }
+
+  private static void waitForThreadToBlock(Thread thread) throws InterruptedException {
+    long endTimeMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < endTimeMs) {
+      Thread.sleep(/* millis= */ 1);
+    }
+    assertThat(thread.getState()).isEqualTo(Thread.State.WAITING);
+  }
+
+  private static Thread startRequestThread(
+      DataSource.Factory dataSourceFactory, Runnable onOpened) {
+    Thread thread =
+        new Thread(
+            () -> {
+              DataSource dataSource = dataSourceFactory.createDataSource();
+              try {
+                dataSource.open(new DataSpec(TEST_URI));
+                onOpened.run();
+                DataSourceUtil.readToEnd(dataSource);
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              } finally {
+                DataSourceUtil.closeQuietly(dataSource);
+              }
+            });
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Simulates playback and several downloads sharing a network link, in steps of virtual time.
+   *
+   * <p>Each download fetches its segments on several threads, as a {@link SegmentDownloader} does
+   * with a multi-threaded {@link java.util.concurrent.Executor}. Each simulated request follows the
+   * steps of a {@link DataSource} created by the {@link DownloadScheduler}: it waits until it's
+   * allowed to proceed by the {@link PriorityTaskManager}, waits for the scheduler to start it, and
+   * then transfers data whilst it's allowed to proceed and the rate limit allows. The link is
+   * shared equally by the requests transferring data in each step, as it is by TCP connections.
+   *
+   * <p>Playback loads media whilst its buffer is below a minimum duration until it reaches a
+   * maximum duration, and is registered with the {@link PriorityTaskManager} whilst loading, as an
+   * {@link androidx.media3.exoplayer.ExoPlayer} is. It rebuffers when its buffer runs out.
+   */
+  private static final class NetworkSimulation {
+
+    private static final long STEP_MS = 10;
+    private static final long LINK_BYTES_PER_SECOND = 1_000_000;
+    private static final long PLAYBACK_BYTES_PER_SECOND = 250_000;
+    private static final long PLAYBACK_START_BUFFER_MS = 2_500;
+    private static final long PLAYBACK_MIN_BUFFER_MS = 15_000;
+    private static final long PLAYBACK_MAX_BUFFER_MS = 30_000;
+    private static final int DOWNLOAD_COUNT = 3;
+    private static final int DOWNLOAD_THREAD_COUNT = 4;
+    private static final int DOWNLOAD_SEGMENT_COUNT = 20;
+    private static final int DOWNLOAD_SEGMENT_BYTES = 500_000;
+    private static final long MAX_DURATION_MS = 1_000_000;
+
+    public final DownloadScheduler downloadScheduler;
+
+    private final FakeClock clock;
+    @Nullable private final PriorityTaskManager priorityTaskManager;
+    private final int[] pendingSegmentCounts;
+    private final int[] activeThreadCounts;
+    private final List<DownloadThread> downloadThreads;
+    private final List<Integer> downloadCompletionOrder;
+
+    private long playbackBufferBytes;
+    private boolean playbackLoading;
+    private boolean playbackPlaying;
+    private boolean playbackStarted;
+    private long rebufferingDurationMs;
+    private long downloadedBytes;
+    private long durationMs;
+
+    public NetworkSimulation(
+        int maxConcurrentRequests, long maxBytesPerSecond, boolean yieldToPlayback) {
+      clock = new FakeClock(/* initialTimeMs= */ 0);
+      priorityTaskManager = yieldToPlayback ? new PriorityTaskManager() : null;
+      downloadScheduler =
+          new DownloadScheduler(
+              maxConcurrentRequests, maxBytesPerSecond, priorityTaskManager, clock);
+      pendingSegmentCounts = new int[DOWNLOAD_COUNT];
+      activeThreadCounts = new int[DOWNLOAD_COUNT];
+      downloadThreads = new ArrayList<>();
+      for (int i = 0; i < DOWNLOAD_COUNT; i++) {
+        pendingSegmentCounts[i] = DOWNLOAD_SEGMENT_COUNT;
+        for (int j = 0; j < DOWNLOAD_THREAD_COUNT; j++) {
+          downloadThreads.add(new DownloadThread(/* downloadIndex= */ i));
+        }
+      }
+      downloadCompletionOrder = new ArrayList<>();
+    }
+
+    public static String getDownloadId(int downloadIndex) {
+      return "download" + downloadIndex;
+    }
+
+    public void run() {
+      while (downloadCompletionOrder.size() < DOWNLOAD_COUNT) {
+        checkState(durationMs < MAX_DURATION_MS);
+        updatePlaybackLoading();
+        for (int i = 0; i < downloadThreads.size(); i++) {
+          downloadThreads.get(i).maybeStartRequest();
+        }
+        // Requests that were waiting for others may start once those have started.
+        for (int i = 0; i < downloadThreads.size(); i++) {
+          downloadThreads.get(i).maybeStartRequest();
+        }
+        transferData();
+        updatePlayback();
+        clock.advanceTime(STEP_MS);
+        durationMs += STEP_MS;
+      }
+    }
+
+    public long getRebufferingDurationMs() {
+      return rebufferingDurationMs;
+    }
+
+    public long getDownloadThroughputBytesPerSecond() {
+      return downloadedBytes * 1000 / durationMs;
+    }
+
+    public List<Integer> getDownloadCompletionOrder() {
+      return downloadCompletionOrder;
+    }
+
+    private void updatePlaybackLoading() {
+      long bufferMs = playbackBufferBytes * 1000 / PLAYBACK_BYTES_PER_SECOND;
+      if (!playbackLoading && bufferMs < PLAYBACK_MIN_BUFFER_MS) {
+        playbackLoading = true;
+        if (priorityTaskManager != null) {
+          priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+        }
+      } else if (playbackLoading && bufferMs >= PLAYBACK_MAX_BUFFER_MS) {
+        playbackLoading = false;
+        if (priorityTaskManager != null) {
+          priorityTaskManager.remove(C.PRIORITY_PLAYBACK);
+        }
+      }
+    }
+
+    private void transferData() {
+      List<DownloadThread> transferringThreads = new ArrayList<>();
+      for (int i = 0; i < downloadThreads.size(); i++) {
+        DownloadThread downloadThread = downloadThreads.get(i);
+        if (downloadThread.canTransfer()) {
+          transferringThreads.add(downloadThread);
+        }
+      }
+      int flowCount = transferringThreads.size() + (playbackLoading ? 1 : 0);
+      if (flowCount == 0) {
+        return;
+      }
+      long bytesPerFlow = LINK_BYTES_PER_SECOND * STEP_MS / 1000 / flowCount;
+      if (playbackLoading) {
+        playbackBufferBytes += bytesPerFlow;
+      }
+      for (int i = 0; i < transferringThreads.size(); i++) {
+        downloadedBytes += transferringThreads.get(i).transfer(bytesPerFlow);
+      }
+    }
+
+    private void updatePlayback() {
+      long bytesPerStep = PLAYBACK_BYTES_PER_SECOND * STEP_MS / 1000;
+      if (!playbackPlaying
+          && playbackBufferBytes * 1000 / PLAYBACK_BYTES_PER_SECOND >= PLAYBACK_START_BUFFER_MS) {
+        playbackPlaying = true;
+        playbackStarted = true;
+      } else if (playbackPlaying && playbackBufferBytes < bytesPerStep) {
+        playbackPlaying = false;
+      }
+      if (playbackPlaying) {
+        playbackBufferBytes -= bytesPerStep;
+      } else if (playbackStarted) {
+        rebufferingDurationMs += STEP_MS;
+      }
+    }
+
+    /** A thread of a download, which downloads segments one after another. */
+    private final class DownloadThread {
+
+      private final int downloadIndex;
+
+      private boolean isOpen;
+      @Nullable private DownloadScheduler.Request pendingRequest;
+      private boolean isRequestStarted;
+      private long segmentBytesRemaining;
+      private long nextTransferTimeUs;
+
+      public DownloadThread(int downloadIndex) {
+        this.downloadIndex = downloadIndex;
+      }
+
+      public void maybeStartRequest() {
+        if (!isOpen) {
+          if (pendingSegmentCounts[downloadIndex] == 0) {
+            return;
+          }
+          pendingSegmentCounts[downloadIndex]--;
+          activeThreadCounts[downloadIndex]++;
+          isOpen = true;
+          segmentBytesRemaining = DOWNLOAD_SEGMENT_BYTES;
+          if (priorityTaskManager != null) {
+            priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+          }
+        }
+        if (isRequestStarted) {
+          return;
+        }
+        if (pendingRequest == null) {
+          if (downloadScheduler.shouldPause()) {
+            return;
+          }
+          pendingRequest = downloadScheduler.addRequest(getDownloadId(downloadIndex));
+        }
+        if (downloadScheduler.tryStartRequest(pendingRequest)) {
+          pendingRequest = null;
+          isRequestStarted = true;
+        }
+      }
+
+      public boolean canTransfer() {
+        return isRequestStarted
+            && !downloadScheduler.shouldPause()
+            && nextTransferTimeUs <= clock.elapsedRealtime() * 1000;
+      }
+
+      public long transfer(long maxBytes) {
+        int bytes = (int) min(maxBytes, segmentBytesRemaining);
+        segmentBytesRemaining -= bytes;
+        nextTransferTimeUs =
+            clock.elapsedRealtime() * 1000 + downloadScheduler.onBytesTransferred(bytes);
+        if (segmentBytesRemaining == 0) {
+          close();
+        }
+        return bytes;
+      }
+
+      private void close() {
+        isOpen = false;
+        isRequestStarted = false;
+        downloadScheduler.endRequest();
+        if (priorityTaskManager != null) {
+          priorityTaskManager.remove(C.PRIORITY_DOWNLOAD);
+        }
+        activeThreadCounts[downloadIndex]--;
+        if (pendingSegmentCounts[downloadIndex] == 0 && activeThreadCounts[downloadIndex] == 0) {
+          downloadCompletionOrder.add(downloadIndex);
+        }
+      }
+    }
+  }
+}
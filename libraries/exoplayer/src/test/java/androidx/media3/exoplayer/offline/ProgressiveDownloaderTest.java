@@ -37,6 +37,8 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
@@ -173,6 +175,36 @@ public class ProgressiveDownloaderTest {
     assertThat(progressListener.bytesDownloaded).isEqualTo(2_000_000);
   }
 
+  @Test
+  public void download_inParallel_downloadsAllData() throws Exception {
+    Uri uri = Uri.parse("test:///test.mp4");
+    FakeDataSet data = new FakeDataSet();
+    data.newData(uri).appendReadData(2_000_000);
+    DataSource.Factory upstreamDataSource = new FakeDataSource.Factory().setFakeDataSet(data);
+    MediaItem mediaItem = MediaItem.fromUri(uri);
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(downloadCache)
+            .setUpstreamDataSourceFactory(upstreamDataSource);
+    ExecutorService executor = Executors.newFixedThreadPool(/* nThreads= */ 4);
+    ProgressiveDownloader downloader =
+        new ProgressiveDownloader(
+            mediaItem, cacheDataSourceFactory, executor, /* parallelChunkLength= */ 300_000);
+    TestProgressListener progressListener = new TestProgressListener();
+
+    try {
+      downloader.download(progressListener);
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(progressListener.bytesDownloaded).isEqualTo(2_000_000);
+    assertThat(downloadCache.getCachedBytes(uri.toString(), 0, C.LENGTH_UNSET))
+        .isEqualTo(2_000_000);
+    // Each chunk is written to the cache as at least one separate span.
+    assertThat(downloadCache.getCachedSpans(uri.toString()).size()).isAtLeast(7);
+  }
+
   private static final class TestProgressListener implements Downloader.ProgressListener {
 
     public long bytesDownloaded;
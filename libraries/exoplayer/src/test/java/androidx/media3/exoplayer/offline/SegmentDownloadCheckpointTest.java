@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.offline;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.CacheWriter;
+import androidx.media3.datasource.cache.NoOpCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.media3.test.utils.CacheAsserts;
+import androidx.media3.test.utils.FakeDataSource;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SegmentDownloadCheckpoint}. */
+@RunWith(AndroidJUnit4.class)
+public final class SegmentDownloadCheckpointTest {
+
+  private static final Uri MANIFEST_URI = Uri.parse("https://www.test.com/manifest");
+  private static final String MANIFEST_KEY = "manifest";
+
+  private File tempFolder;
+  private SimpleCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void storeAndRestore_restoresDownloadedSegments() throws Exception {
+    cacheManifest();
+    long[] segmentFingerprints = getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 100);
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(cache, MANIFEST_KEY, segmentFingerprints);
+    checkpoint.onSegmentDownloaded(0);
+    checkpoint.onSegmentDownloaded(99);
+
+    checkpoint.store();
+    SegmentDownloadCheckpoint restoredCheckpoint =
+        SegmentDownloadCheckpoint.restore(cache, MANIFEST_KEY, segmentFingerprints);
+
+    assertThat(restoredCheckpoint.isSegmentDownloaded(0)).isTrue();
+    assertThat(restoredCheckpoint.isSegmentDownloaded(1)).isFalse();
+    assertThat(restoredCheckpoint.isSegmentDownloaded(98)).isFalse();
+    assertThat(restoredCheckpoint.isSegmentDownloaded(99)).isTrue();
+  }
+
+  @Test
+  public void restore_withUpdatedSegments_restoresNoSegments() throws Exception {
+    cacheManifest();
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 10));
+    for (int i = 0; i < 10; i++) {
+      checkpoint.onSegmentDownloaded(i);
+    }
+    checkpoint.store();
+
+    // Simulate a live manifest whose window has moved forward by five segments.
+    SegmentDownloadCheckpoint restoredCheckpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 5, /* count= */ 10));
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(restoredCheckpoint.isSegmentDownloaded(i)).isFalse();
+    }
+  }
+
+  @Test
+  public void store_afterSegmentNotDownloaded_restoresSegmentAsNotDownloaded() throws Exception {
+    cacheManifest();
+    long[] segmentFingerprints = getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 10);
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(cache, MANIFEST_KEY, segmentFingerprints);
+    checkpoint.onSegmentDownloaded(0);
+    checkpoint.onSegmentDownloaded(1);
+    checkpoint.store();
+    SegmentDownloadCheckpoint restoredCheckpoint =
+        SegmentDownloadCheckpoint.restore(cache, MANIFEST_KEY, segmentFingerprints);
+    restoredCheckpoint.onSegmentNotDownloaded(0);
+
+    restoredCheckpoint.store();
+    SegmentDownloadCheckpoint checkpointAfterStore =
+        SegmentDownloadCheckpoint.restore(cache, MANIFEST_KEY, segmentFingerprints);
+
+    assertThat(checkpointAfterStore.isSegmentDownloaded(0)).isFalse();
+    assertThat(checkpointAfterStore.isSegmentDownloaded(1)).isTrue();
+  }
+
+  @Test
+  public void store_storesFingerprintAndBitmap() throws Exception {
+    cacheManifest();
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 800));
+    for (int i = 0; i < 800; i++) {
+      checkpoint.onSegmentDownloaded(i);
+    }
+
+    checkpoint.store();
+
+    // The version, the manifest fingerprint and a bit for each segment.
+    assertThat(getStoredCheckpoint()).hasLength(4 + 8 + 100);
+  }
+
+  @Test
+  public void store_withSegmentCacheKeys_keepsKeysOfSegmentsThatNoLongerRemain() throws Exception {
+    cacheManifest();
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 3));
+    checkpoint.setSegmentCacheKeys(getSegmentCacheKeys(/* firstSegment= */ 0, /* count= */ 3));
+    checkpoint.onSegmentDownloaded(0);
+    checkpoint.onSegmentDownloaded(1);
+    checkpoint.store();
+    // Simulate a live manifest whose window has moved forward by two segments.
+    SegmentDownloadCheckpoint updatedCheckpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 2, /* count= */ 3));
+    updatedCheckpoint.setSegmentCacheKeys(
+        getSegmentCacheKeys(/* firstSegment= */ 2, /* count= */ 3));
+    updatedCheckpoint.onSegmentDownloaded(0);
+    updatedCheckpoint.store();
+
+    assertThat(SegmentDownloadCheckpoint.getDownloadedSegmentCacheKeys(cache, MANIFEST_KEY))
+        .containsExactly("segment0", "segment1", "segment2");
+  }
+
+  @Test
+  public void store_withoutSegmentCacheKeys_doesNotStoreKeys() throws Exception {
+    cacheManifest();
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 3));
+    checkpoint.onSegmentDownloaded(0);
+    checkpoint.store();
+
+    assertThat(isCheckpointStored()).isTrue();
+    assertThat(SegmentDownloadCheckpoint.getDownloadedSegmentCacheKeys(cache, MANIFEST_KEY))
+        .isEmpty();
+  }
+
+  @Test
+  public void maybeStore_storesAfterOnePercentOfSegments() throws Exception {
+    cacheManifest();
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 200));
+
+    checkpoint.onSegmentDownloaded(0);
+    checkpoint.maybeStore();
+    boolean isStoredAfterOneSegment = isCheckpointStored();
+    checkpoint.onSegmentDownloaded(1);
+    checkpoint.maybeStore();
+    boolean isStoredAfterTwoSegments = isCheckpointStored();
+
+    assertThat(isStoredAfterOneSegment).isFalse();
+    assertThat(isStoredAfterTwoSegments).isTrue();
+  }
+
+  @Test
+  public void store_withManifestNotCached_doesNotAddCacheEntry() throws Exception {
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 10));
+    checkpoint.onSegmentDownloaded(0);
+
+    checkpoint.store();
+
+    CacheAsserts.assertCacheEmpty(cache);
+  }
+
+  @Test
+  public void removeManifest_removesCheckpoint() throws Exception {
+    cacheManifest();
+    SegmentDownloadCheckpoint checkpoint =
+        SegmentDownloadCheckpoint.restore(
+            cache, MANIFEST_KEY, getSegmentFingerprints(/* firstSegment= */ 0, /* count= */ 10));
+    checkpoint.onSegmentDownloaded(0);
+    checkpoint.store();
+
+    cache.removeResource(MANIFEST_KEY);
+
+    assertThat(isCheckpointStored()).isFalse();
+  }
+
+  @Test
+  public void getSegmentFingerprint_dependsOnAllSegmentProperties() {
+    long fingerprint =
+        SegmentDownloadCheckpoint.getSegmentFingerprint("key", /* position= */ 0, /* length= */ 10);
+
+    assertThat(
+            SegmentDownloadCheckpoint.getSegmentFingerprint(
+                "otherKey", /* position= */ 0, /* length= */ 10))
+        .isNotEqualTo(fingerprint);
+    assertThat(
+            SegmentDownloadCheckpoint.getSegmentFingerprint(
+                "key", /* position= */ 10, /* length= */ 10))
+        .isNotEqualTo(fingerprint);
+    assertThat(
+            SegmentDownloadCheckpoint.getSegmentFingerprint(
+                "key", /* position= */ 0, C.LENGTH_UNSET))
+        .isNotEqualTo(fingerprint);
+  }
+
+  private void cacheManifest() throws Exception {
+    FakeDataSource upstreamDataSource = new FakeDataSource();
+    upstreamDataSource.getDataSet().setRandomData(MANIFEST_URI, /* length= */ 10);
+    new CacheWriter(
+            new CacheDataSource(cache, upstreamDataSource),
+            new DataSpec.Builder().setUri(MANIFEST_URI).setKey(MANIFEST_KEY).build(),
+            /* temporaryBuffer= */ null,
+            /* progressListener= */ null)
+        .cache();
+  }
+
+  private static long[] getSegmentFingerprints(int firstSegment, int count) {
+    long[] segmentFingerprints = new long[count];
+    for (int i = 0; i < count; i++) {
+      segmentFingerprints[i] =
+          SegmentDownloadCheckpoint.getSegmentFingerprint(
+              "segment" + (firstSegment + i), /* position= */ 0, C.LENGTH_UNSET);
+    }
+    return segmentFingerprints;
+  }
+
+  private static String[] getSegmentCacheKeys(int firstSegment, int count) {
+    String[] segmentCacheKeys = new String[count];
+    for (int i = 0; i < count; i++) {
+      segmentCacheKeys[i] = "segment" + (firstSegment + i);
+    }
+    return segmentCacheKeys;
+  }
+
+  private boolean isCheckpointStored() {
+    return getStoredCheckpoint() != null;
+  }
+
+  @Nullable
+  private byte[] getStoredCheckpoint() {
+    return cache
+        .getContentMetadata(MANIFEST_KEY)
+        .get(SegmentDownloadCheckpoint.METADATA_KEY, /* defaultValue= */ (byte[]) null);
+  }
+}
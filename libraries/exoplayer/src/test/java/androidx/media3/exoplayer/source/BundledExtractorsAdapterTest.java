@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.datasource.ByteArrayDataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheKeyFactory;
+import androidx.media3.extractor.Extractor;
+import androidx.media3.extractor.ExtractorInput;
+import androidx.media3.extractor.ExtractorOutput;
+import androidx.media3.extractor.ExtractorsFactory;
+import androidx.media3.extractor.PositionHolder;
+import androidx.media3.test.utils.FakeExtractorOutput;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link BundledExtractorsAdapter}. */
+@RunWith(AndroidJUnit4.class)
+public final class BundledExtractorsAdapterTest {
+
+  private static final Uri URI = Uri.parse("https://test.test/media");
+  private static final DataSpec DATA_SPEC = new DataSpec(URI);
+
+  @Test
+  public void init_withUriInCache_sniffsCachedExtractorFirst() throws IOException {
+    List<String> sniffedExtractors = new ArrayList<>();
+    ExtractorsFactory extractorsFactory =
+        () ->
+            new Extractor[] {
+              new FirstExtractor(sniffedExtractors, /* sniffResult= */ false),
+              new SecondExtractor(sniffedExtractors, /* sniffResult= */ true)
+            };
+    SniffedExtractorCache sniffedExtractorCache =
+        new SniffedExtractorCache(CacheKeyFactory.DEFAULT);
+
+    initAdapter(
+        createAdapter(extractorsFactory, sniffedExtractorCache, /* customCacheKey= */ null));
+    List<String> firstLoadSniffedExtractors = new ArrayList<>(sniffedExtractors);
+    sniffedExtractors.clear();
+    initAdapter(
+        createAdapter(extractorsFactory, sniffedExtractorCache, /* customCacheKey= */ null));
+
+    assertThat(firstLoadSniffedExtractors).containsExactly("First", "Second").inOrder();
+    assertThat(sniffedExtractors).containsExactly("Second");
+    assertThat(sniffedExtractorCache.get(DATA_SPEC)).isEqualTo(SecondExtractor.class);
+  }
+
+  @Test
+  public void init_withCachedExtractorNoLongerSniffing_sniffsOtherExtractors() throws IOException {
+    List<String> sniffedExtractors = new ArrayList<>();
+    ExtractorsFactory extractorsFactory =
+        () ->
+            new Extractor[] {
+              new FirstExtractor(sniffedExtractors, /* sniffResult= */ true),
+              new SecondExtractor(sniffedExtractors, /* sniffResult= */ false)
+            };
+    SniffedExtractorCache sniffedExtractorCache =
+        new SniffedExtractorCache(CacheKeyFactory.DEFAULT);
+    sniffedExtractorCache.put(DATA_SPEC, SecondExtractor.class);
+
+    initAdapter(
+        createAdapter(extractorsFactory, sniffedExtractorCache, /* customCacheKey= */ null));
+
+    assertThat(sniffedExtractors).containsExactly("Second", "First").inOrder();
+    assertThat(sniffedExtractorCache.get(DATA_SPEC)).isEqualTo(FirstExtractor.class);
+  }
+
+  @Test
+  public void init_withCustomCacheKey_usesCacheEntryOfCustomCacheKey() throws IOException {
+    List<String> sniffedExtractors = new ArrayList<>();
+    ExtractorsFactory extractorsFactory =
+        () ->
+            new Extractor[] {
+              new FirstExtractor(sniffedExtractors, /* sniffResult= */ true),
+              new SecondExtractor(sniffedExtractors, /* sniffResult= */ true)
+            };
+    SniffedExtractorCache sniffedExtractorCache =
+        new SniffedExtractorCache(CacheKeyFactory.DEFAULT);
+    sniffedExtractorCache.put(DATA_SPEC, SecondExtractor.class);
+    DataSpec customKeyDataSpec = new DataSpec.Builder().setUri(URI).setKey("customKey").build();
+
+    initAdapter(createAdapter(extractorsFactory, sniffedExtractorCache, "customKey"));
+
+    // The entry of the URI without custom key isn't used for the custom key.
+    assertThat(sniffedExtractors).containsExactly("First");
+    assertThat(sniffedExtractorCache.get(customKeyDataSpec)).isEqualTo(FirstExtractor.class);
+    assertThat(sniffedExtractorCache.get(DATA_SPEC)).isEqualTo(SecondExtractor.class);
+  }
+
+  @Test
+  public void init_withCacheKeyFactory_sharesCacheEntryOfSameCacheKey() throws IOException {
+    List<String> sniffedExtractors = new ArrayList<>();
+    ExtractorsFactory extractorsFactory =
+        () ->
+            new Extractor[] {
+              new FirstExtractor(sniffedExtractors, /* sniffResult= */ true),
+              new SecondExtractor(sniffedExtractors, /* sniffResult= */ true)
+            };
+    // Identifies the media by its path, ignoring the query parameters.
+    SniffedExtractorCache sniffedExtractorCache =
+        new SniffedExtractorCache(dataSpec -> String.valueOf(dataSpec.uri.getPath()));
+    sniffedExtractorCache.put(
+        new DataSpec(Uri.parse("https://test.test/media?token=1")), SecondExtractor.class);
+
+    initAdapter(
+        createAdapter(extractorsFactory, sniffedExtractorCache, /* customCacheKey= */ null));
+
+    assertThat(sniffedExtractors).containsExactly("Second");
+  }
+
+  private static BundledExtractorsAdapter createAdapter(
+      ExtractorsFactory extractorsFactory,
+      SniffedExtractorCache sniffedExtractorCache,
+      @Nullable String customCacheKey) {
+    return new BundledExtractorsAdapter(extractorsFactory, sniffedExtractorCache, customCacheKey);
+  }
+
+  private static void initAdapter(BundledExtractorsAdapter adapter) throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(new byte[10]);
+    long length = dataSource.open(new DataSpec(URI));
+    adapter.init(
+        dataSource,
+        URI,
+        /* responseHeaders= */ ImmutableMap.of(),
+        /* position= */ 0,
+        length,
+        new FakeExtractorOutput());
+  }
+
+  private static class RecordingExtractor implements Extractor {
+
+    private final String name;
+    private final List<String> sniffedExtractors;
+    private final boolean sniffResult;
+
+    public RecordingExtractor(String name, List<String> sniffedExtractors, boolean sniffResult) {
+      this.name = name;
+      this.sniffedExtractors = sniffedExtractors;
+      this.sniffResult = sniffResult;
+    }
+
+    @Override
+    public boolean sniff(ExtractorInput input) {
+      sniffedExtractors.add(name);
+      return sniffResult;
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {}
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition) {
+      return RESULT_END_OF_INPUT;
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {}
+
+    @Override
+    public void release() {}
+  }
+
+  private static final class FirstExtractor extends RecordingExtractor {
+
+    public FirstExtractor(List<String> sniffedExtractors, boolean sniffResult) {
+      super("First", sniffedExtractors, sniffResult);
+    }
+  }
+
+  private static final class SecondExtractor extends RecordingExtractor {
+
+    public SecondExtractor(List<String> sniffedExtractors, boolean sniffResult) {
+      super("Second", sniffedExtractors, sniffResult);
+    }
+  }
+}
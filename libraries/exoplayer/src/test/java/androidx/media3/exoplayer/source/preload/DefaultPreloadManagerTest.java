@@ -15,6 +15,7 @@
  */
 package androidx.media3.exoplayer.source.preload;
 
+import static androidx.media3.common.util.Assertions.checkNotNull;
 import static androidx.media3.exoplayer.source.preload.DefaultPreloadManager.Status.STAGE_LOADED_TO_POSITION_MS;
 import static androidx.media3.exoplayer.source.preload.DefaultPreloadManager.Status.STAGE_SOURCE_PREPARED;
 import static androidx.media3.exoplayer.source.preload.DefaultPreloadManager.Status.STAGE_TRACKS_SELECTED;
@@ -39,6 +40,7 @@ import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DefaultDataSource;
 import androidx.media3.datasource.TransferListener;
 import androidx.media3.exoplayer.DefaultRendererCapabilitiesList;
+import androidx.media3.exoplayer.LoadingInfo;
 import androidx.media3.exoplayer.Renderer;
 import androidx.media3.exoplayer.RendererCapabilitiesList;
 import androidx.media3.exoplayer.RenderersFactory;
@@ -53,10 +55,12 @@ import androidx.media3.exoplayer.source.ProgressiveMediaSource;
 import androidx.media3.exoplayer.source.TrackGroupArray;
 import androidx.media3.exoplayer.trackselection.DefaultTrackSelector;
 import androidx.media3.exoplayer.trackselection.TrackSelector;
+import androidx.media3.exoplayer.upstream.Allocation;
 import androidx.media3.exoplayer.upstream.Allocator;
 import androidx.media3.exoplayer.upstream.BandwidthMeter;
 import androidx.media3.exoplayer.upstream.DefaultAllocator;
 import androidx.media3.exoplayer.upstream.DefaultBandwidthMeter;
+import androidx.media3.test.utils.ExoPlayerTestRunner;
 import androidx.media3.test.utils.FakeAudioRenderer;
 import androidx.media3.test.utils.FakeMediaPeriod;
 import androidx.media3.test.utils.FakeMediaSource;
@@ -820,4 +824,354 @@ public class DefaultPreloadManagerTest {
       assertThat(renderer.isReleased).isTrue();
     }
   }
+
+  @Test
+  public void invalidate_memoryBudgetExceeded_stopsLoadingAfterTracksSelected() {
+    TargetPreloadStatusControl<Integer> targetPreloadStatusControl =
+        rankingData -> new DefaultPreloadManager.Status(STAGE_LOADED_TO_POSITION_MS, 1000L);
+    MediaSource.Factory mockMediaSourceFactory = mock(MediaSource.Factory.class);
+    AtomicInteger continueLoadingCallCount = new AtomicInteger();
+    when(mockMediaSourceFactory.createMediaSource(any()))
+        .thenAnswer(
+            invocation ->
+                new FakeMediaSource() {
+                  @Override
+                  protected MediaPeriod createMediaPeriod(
+                      MediaPeriodId id,
+                      TrackGroupArray trackGroupArray,
+                      Allocator allocator,
+                      MediaSourceEventListener.EventDispatcher mediaSourceEventDispatcher,
+                      DrmSessionManager drmSessionManager,
+                      DrmSessionEventListener.EventDispatcher drmEventDispatcher,
+                      @Nullable TransferListener transferListener) {
+                    return new FakeMediaPeriod(
+                        trackGroupArray,
+                        allocator,
+                        FakeTimeline.TimelineWindowDefinition
+                            .DEFAULT_WINDOW_OFFSET_IN_FIRST_PERIOD_US,
+                        mediaSourceEventDispatcher) {
+                      @Override
+                      public boolean continueLoading(LoadingInfo loadingInfo) {
+                        continueLoadingCallCount.incrementAndGet();
+                        return super.continueLoading(loadingInfo);
+                      }
+                    };
+                  }
+                });
+    DefaultPreloadManager preloadManager =
+        new DefaultPreloadManager(
+            targetPreloadStatusControl,
+            mockMediaSourceFactory,
+            trackSelector,
+            bandwidthMeter,
+            rendererCapabilitiesListFactory,
+            allocator,
+            Util.getCurrentOrMainLooper());
+    preloadManager.setMemoryBudgetBytes(C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    MediaItem mediaItem =
+        new MediaItem.Builder()
+            .setMediaId("mediaId1")
+            .setUri("http://exoplayer.dev/video1")
+            .build();
+    preloadManager.add(mediaItem, /* rankingData= */ 1);
+    // Simulate that the player has used up the memory budget.
+    Allocation allocation = allocator.allocate();
+
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(continueLoadingCallCount.get()).isEqualTo(0);
+
+    allocator.release(allocation);
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(continueLoadingCallCount.get()).isGreaterThan(0);
+  }
+
+  @Test
+  public void getPreloadMetrics_preloadedSourceRemoved_countsBytesAsWasted() {
+    TargetPreloadStatusControl<Integer> targetPreloadStatusControl =
+        rankingData -> new DefaultPreloadManager.Status(STAGE_LOADED_TO_POSITION_MS, 1000L);
+    MediaSource.Factory mockMediaSourceFactory = mock(MediaSource.Factory.class);
+    when(mockMediaSourceFactory.createMediaSource(any()))
+        .thenAnswer(
+            invocation -> {
+              MediaItem mediaItem = invocation.getArgument(0);
+              return new FakeMediaSource() {
+                @Override
+                public MediaItem getMediaItem() {
+                  return mediaItem;
+                }
+              };
+            });
+    DefaultPreloadManager preloadManager =
+        new DefaultPreloadManager(
+            targetPreloadStatusControl,
+            mockMediaSourceFactory,
+            trackSelector,
+            bandwidthMeter,
+            rendererCapabilitiesListFactory,
+            allocator,
+            Util.getCurrentOrMainLooper());
+    MediaItem mediaItem =
+        new MediaItem.Builder()
+            .setMediaId("mediaId1")
+            .setUri("http://exoplayer.dev/video1")
+            .build();
+    preloadManager.add(mediaItem, /* rankingData= */ 1);
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    preloadManager.remove(mediaItem);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    PreloadMetrics preloadMetrics = preloadManager.getPreloadMetrics();
+    // FakeMediaSource and FakeMediaPeriod each report a load of 100 bytes for their preparation.
+    assertThat(preloadMetrics.bytesPreloaded).isEqualTo(200);
+    assertThat(preloadMetrics.bytesWasted).isEqualTo(200);
+  }
+
+  @Test
+  public void getPreloadMetrics_preloadedSourceUsedByPlayer_reportsTimeToFirstFrameGain() {
+    TargetPreloadStatusControl<Integer> targetPreloadStatusControl =
+        rankingData -> new DefaultPreloadManager.Status(STAGE_LOADED_TO_POSITION_MS, 1000L);
+    MediaSource.Factory mockMediaSourceFactory = mock(MediaSource.Factory.class);
+    when(mockMediaSourceFactory.createMediaSource(any()))
+        .thenAnswer(
+            invocation -> {
+              MediaItem mediaItem = invocation.getArgument(0);
+              return new FakeMediaSource() {
+                @Override
+                public MediaItem getMediaItem() {
+                  return mediaItem;
+                }
+              };
+            });
+    DefaultPreloadManager preloadManager =
+        new DefaultPreloadManager(
+            targetPreloadStatusControl,
+            mockMediaSourceFactory,
+            trackSelector,
+            bandwidthMeter,
+            rendererCapabilitiesListFactory,
+            allocator,
+            Util.getCurrentOrMainLooper());
+    MediaItem.Builder mediaItemBuilder = new MediaItem.Builder();
+    MediaItem mediaItem1 =
+        mediaItemBuilder.setMediaId("mediaId1").setUri("http://exoplayer.dev/video1").build();
+    MediaItem mediaItem2 =
+        mediaItemBuilder.setMediaId("mediaId2").setUri("http://exoplayer.dev/video2").build();
+    preloadManager.add(mediaItem1, /* rankingData= */ 1);
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+    PreloadMediaSource preloadMediaSource1 =
+        (PreloadMediaSource) preloadManager.getMediaSource(mediaItem1);
+    // Simulate that preloadMediaSource1 is using by the player.
+    preloadMediaSource1.prepareSource(
+        (source, timeline) -> {}, bandwidthMeter.getTransferListener(), PlayerId.UNSET);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    preloadManager.reportTimeToFirstFrame(mediaItem1, /* timeToFirstFrameMs= */ 100);
+    preloadManager.reportTimeToFirstFrame(mediaItem2, /* timeToFirstFrameMs= */ 300);
+    preloadManager.remove(mediaItem1);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    PreloadMetrics preloadMetrics = preloadManager.getPreloadMetrics();
+    assertThat(preloadMetrics.bytesPreloaded).isEqualTo(200);
+    assertThat(preloadMetrics.bytesWasted).isEqualTo(0);
+    assertThat(preloadMetrics.preloadedPlaybackCount).isEqualTo(1);
+    assertThat(preloadMetrics.averagePreloadedTimeToFirstFrameMs).isEqualTo(100);
+    assertThat(preloadMetrics.notPreloadedPlaybackCount).isEqualTo(1);
+    assertThat(preloadMetrics.averageNotPreloadedTimeToFirstFrameMs).isEqualTo(300);
+    assertThat(preloadMetrics.getTimeToFirstFrameGainMs()).isEqualTo(200);
+  }
+
+  @Test
+  public void getAllocatedBytes_afterPreloading_returnsBytesAllocatedForEachSource() {
+    TargetPreloadStatusControl<Integer> targetPreloadStatusControl =
+        rankingData -> new DefaultPreloadManager.Status(STAGE_LOADED_TO_POSITION_MS, 1000L);
+    DefaultPreloadManager preloadManager =
+        new DefaultPreloadManager(
+            targetPreloadStatusControl,
+            createFakeMediaSourceFactory(
+                /* releasedPreloadingPeriodMediaIds= */ new ArrayList<>(),
+                /* continueLoadingCallCount= */ new AtomicInteger()),
+            trackSelector,
+            bandwidthMeter,
+            rendererCapabilitiesListFactory,
+            allocator,
+            Util.getCurrentOrMainLooper());
+    MediaItem.Builder mediaItemBuilder = new MediaItem.Builder();
+    MediaItem mediaItem0 =
+        mediaItemBuilder.setMediaId("mediaId0").setUri("http://exoplayer.dev/video0").build();
+    MediaItem mediaItem1 =
+        mediaItemBuilder.setMediaId("mediaId1").setUri("http://exoplayer.dev/video1").build();
+    MediaItem mediaItem2 =
+        mediaItemBuilder.setMediaId("mediaId2").setUri("http://exoplayer.dev/video2").build();
+    preloadManager.add(mediaItem0, /* rankingData= */ 0);
+    preloadManager.add(mediaItem1, /* rankingData= */ 1);
+
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(preloadManager.getAllocatedBytes(mediaItem0)).isGreaterThan(0);
+    assertThat(preloadManager.getAllocatedBytes(mediaItem1)).isGreaterThan(0);
+    assertThat(preloadManager.getAllocatedBytes(mediaItem2)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(preloadManager.getTotalAllocatedBytes())
+        .isEqualTo(
+            preloadManager.getAllocatedBytes(mediaItem0)
+                + preloadManager.getAllocatedBytes(mediaItem1));
+    assertThat(preloadManager.getTotalAllocatedBytes())
+        .isEqualTo(allocator.getTotalBytesAllocated());
+
+    preloadManager.remove(mediaItem0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(preloadManager.getAllocatedBytes(mediaItem0)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(preloadManager.getTotalAllocatedBytes())
+        .isEqualTo(preloadManager.getAllocatedBytes(mediaItem1));
+    assertThat(allocator.getTotalBytesAllocated())
+        .isEqualTo(preloadManager.getAllocatedBytes(mediaItem1));
+  }
+
+  @Test
+  public void invalidate_perSourceMemoryQuotaReached_stopsLoadingSource() {
+    TargetPreloadStatusControl<Integer> targetPreloadStatusControl =
+        rankingData -> new DefaultPreloadManager.Status(STAGE_LOADED_TO_POSITION_MS, 1000L);
+    AtomicInteger continueLoadingCallCount = new AtomicInteger();
+    DefaultPreloadManager preloadManager =
+        new DefaultPreloadManager(
+            targetPreloadStatusControl,
+            createFakeMediaSourceFactory(
+                /* releasedPreloadingPeriodMediaIds= */ new ArrayList<>(),
+                continueLoadingCallCount),
+            trackSelector,
+            bandwidthMeter,
+            rendererCapabilitiesListFactory,
+            allocator,
+            Util.getCurrentOrMainLooper());
+    MediaItem mediaItem =
+        new MediaItem.Builder()
+            .setMediaId("mediaId0")
+            .setUri("http://exoplayer.dev/video0")
+            .build();
+    preloadManager.add(mediaItem, /* rankingData= */ 0);
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+    long allocatedBytes = preloadManager.getAllocatedBytes(mediaItem);
+    assertThat(allocatedBytes).isGreaterThan(0);
+    assertThat(continueLoadingCallCount.get()).isEqualTo(1);
+
+    preloadManager.setPerSourceMemoryQuotaBytes(allocatedBytes);
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(continueLoadingCallCount.get()).isEqualTo(1);
+    assertThat(preloadManager.getAllocatedBytes(mediaItem)).isEqualTo(allocatedBytes);
+  }
+
+  @Test
+  public void invalidate_totalMemoryQuotaExceeded_clearsLowestRankedSourcesFirst() {
+    TargetPreloadStatusControl<Integer> targetPreloadStatusControl =
+        rankingData -> new DefaultPreloadManager.Status(STAGE_LOADED_TO_POSITION_MS, 1000L);
+    ArrayList<String> releasedPreloadingPeriodMediaIds = new ArrayList<>();
+    DefaultPreloadManager preloadManager =
+        new DefaultPreloadManager(
+            targetPreloadStatusControl,
+            createFakeMediaSourceFactory(
+                releasedPreloadingPeriodMediaIds,
+                /* continueLoadingCallCount= */ new AtomicInteger()),
+            trackSelector,
+            bandwidthMeter,
+            rendererCapabilitiesListFactory,
+            allocator,
+            Util.getCurrentOrMainLooper());
+    MediaItem.Builder mediaItemBuilder = new MediaItem.Builder();
+    MediaItem mediaItem0 =
+        mediaItemBuilder.setMediaId("mediaId0").setUri("http://exoplayer.dev/video0").build();
+    MediaItem mediaItem1 =
+        mediaItemBuilder.setMediaId("mediaId1").setUri("http://exoplayer.dev/video1").build();
+    MediaItem mediaItem2 =
+        mediaItemBuilder.setMediaId("mediaId2").setUri("http://exoplayer.dev/video2").build();
+    preloadManager.add(mediaItem0, /* rankingData= */ 0);
+    preloadManager.add(mediaItem1, /* rankingData= */ 1);
+    preloadManager.add(mediaItem2, /* rankingData= */ 2);
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+    long allocatedBytesPerSource = preloadManager.getAllocatedBytes(mediaItem0);
+    assertThat(preloadManager.getTotalAllocatedBytes()).isEqualTo(3 * allocatedBytesPerSource);
+    assertThat(releasedPreloadingPeriodMediaIds).isEmpty();
+
+    // Leave room for two sources and one more allocation, so that continuing to preload the
+    // highest ranked source needs the memory of one other source.
+    preloadManager.setTotalMemoryQuotaBytes(
+        2 * allocatedBytesPerSource + allocator.getIndividualAllocationLength());
+    preloadManager.invalidate();
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(releasedPreloadingPeriodMediaIds).containsExactly("mediaId2");
+    assertThat(preloadManager.getTotalAllocatedBytes())
+        .isAtMost(2 * allocatedBytesPerSource + allocator.getIndividualAllocationLength());
+  }
+
+  /**
+   * Returns a factory of fake sources that load all their data at once, report that they have
+   * loaded to the end of the source, and record the media IDs of their released periods.
+   */
+  private static MediaSource.Factory createFakeMediaSourceFactory(
+      List<String> releasedPreloadingPeriodMediaIds, AtomicInteger continueLoadingCallCount) {
+    MediaSource.Factory mockMediaSourceFactory = mock(MediaSource.Factory.class);
+    when(mockMediaSourceFactory.createMediaSource(any()))
+        .thenAnswer(
+            invocation -> {
+              MediaItem mediaItem = invocation.getArgument(0);
+              return new FakeMediaSource(new FakeTimeline(), ExoPlayerTestRunner.VIDEO_FORMAT) {
+                @Override
+                public MediaItem getMediaItem() {
+                  return mediaItem;
+                }
+
+                @Override
+                protected MediaPeriod createMediaPeriod(
+                    MediaPeriodId id,
+                    TrackGroupArray trackGroupArray,
+                    Allocator allocator,
+                    MediaSourceEventListener.EventDispatcher mediaSourceEventDispatcher,
+                    DrmSessionManager drmSessionManager,
+                    DrmSessionEventListener.EventDispatcher drmEventDispatcher,
+                    @Nullable TransferListener transferListener) {
+                  return new FakeMediaPeriod(
+                      trackGroupArray,
+                      allocator,
+                      FakeTimeline.TimelineWindowDefinition
+                          .DEFAULT_WINDOW_OFFSET_IN_FIRST_PERIOD_US,
+                      mediaSourceEventDispatcher) {
+                    @Nullable private Callback callback;
+
+                    @Override
+                    public synchronized void prepare(Callback callback, long positionUs) {
+                      this.callback = callback;
+                      super.prepare(callback, positionUs);
+                    }
+
+                    @Override
+                    public boolean continueLoading(LoadingInfo loadingInfo) {
+                      continueLoadingCallCount.incrementAndGet();
+                      boolean madeProgress = super.continueLoading(loadingInfo);
+                      checkNotNull(callback).onContinueLoadingRequested(this);
+                      return madeProgress;
+                    }
+
+                    @Override
+                    public void release() {
+                      releasedPreloadingPeriodMediaIds.add(mediaItem.mediaId);
+                      super.release();
+                    }
+                  };
+                }
+              };
+            });
+    return mockMediaSourceFactory;
+  }
 }
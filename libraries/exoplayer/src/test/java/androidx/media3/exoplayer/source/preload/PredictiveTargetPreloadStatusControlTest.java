@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import static androidx.media3.exoplayer.source.preload.DefaultPreloadManager.Status.STAGE_LOADED_TO_POSITION_MS;
+import static androidx.media3.exoplayer.source.preload.DefaultPreloadManager.Status.STAGE_SOURCE_PREPARED;
+import static androidx.media3.exoplayer.source.preload.DefaultPreloadManager.Status.STAGE_TRACKS_SELECTED;
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.test.utils.FakeClock;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link PredictiveTargetPreloadStatusControl}. */
+@RunWith(AndroidJUnit4.class)
+public class PredictiveTargetPreloadStatusControlTest {
+
+  @Test
+  public void getTargetPreloadStatus_withInitialDwellTime_returnsStatusesByDistance() {
+    PredictiveTargetPreloadStatusControl control =
+        new PredictiveTargetPreloadStatusControl.Builder()
+            .setInitialDwellTimeMs(10_000)
+            .setLookaheadDurationMs(10_000)
+            .setBufferedDurationsMs(
+                /* minBufferedDurationMs= */ 500, /* maxBufferedDurationMs= */ 5_000)
+            .setClock(new FakeClock(/* initialTimeMs= */ 0))
+            .build();
+
+    control.setCurrentIndex(5);
+
+    assertStatus(control.getTargetPreloadStatus(5), STAGE_LOADED_TO_POSITION_MS, 5_000);
+    assertStatus(control.getTargetPreloadStatus(6), STAGE_LOADED_TO_POSITION_MS, 5_000);
+    assertThat(control.getTargetPreloadStatus(7).getStage()).isEqualTo(STAGE_TRACKS_SELECTED);
+    assertThat(control.getTargetPreloadStatus(8).getStage()).isEqualTo(STAGE_SOURCE_PREPARED);
+    assertThat(control.getTargetPreloadStatus(9)).isNull();
+    assertThat(control.getTargetPreloadStatus(4).getStage()).isEqualTo(STAGE_SOURCE_PREPARED);
+    assertThat(control.getTargetPreloadStatus(3)).isNull();
+  }
+
+  @Test
+  public void getTargetPreloadStatus_afterScrollingQuickly_preloadsMoreItemsWithShorterBuffers() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    PredictiveTargetPreloadStatusControl control =
+        new PredictiveTargetPreloadStatusControl.Builder()
+            .setInitialDwellTimeMs(10_000)
+            .setLookaheadDurationMs(10_000)
+            .setBufferedDurationsMs(
+                /* minBufferedDurationMs= */ 500, /* maxBufferedDurationMs= */ 5_000)
+            .setMaxLookaheadItemCount(4)
+            .setClock(clock)
+            .build();
+
+    control.setCurrentIndex(0);
+    for (int i = 1; i <= 20; i++) {
+      clock.advanceTime(1_000);
+      control.setCurrentIndex(i);
+    }
+
+    long averageDwellTimeMs = control.getAverageDwellTimeMs();
+    assertThat(averageDwellTimeMs).isAtLeast(1_000);
+    assertThat(averageDwellTimeMs).isLessThan(1_100);
+    assertStatus(
+        control.getTargetPreloadStatus(21), STAGE_LOADED_TO_POSITION_MS, averageDwellTimeMs);
+    assertStatus(control.getTargetPreloadStatus(24), STAGE_LOADED_TO_POSITION_MS, 500);
+    assertThat(control.getTargetPreloadStatus(28).getStage()).isEqualTo(STAGE_TRACKS_SELECTED);
+    assertThat(control.getTargetPreloadStatus(32).getStage()).isEqualTo(STAGE_SOURCE_PREPARED);
+    assertThat(control.getTargetPreloadStatus(33)).isNull();
+  }
+
+  @Test
+  public void getTargetPreloadStatus_afterScrollingBackwards_preloadsItemsWithLowerIndices() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    PredictiveTargetPreloadStatusControl control =
+        new PredictiveTargetPreloadStatusControl.Builder()
+            .setInitialDwellTimeMs(10_000)
+            .setLookaheadDurationMs(10_000)
+            .setClock(clock)
+            .build();
+
+    control.setCurrentIndex(10);
+    for (int i = 9; i >= 6; i--) {
+      clock.advanceTime(10_000);
+      control.setCurrentIndex(i);
+    }
+
+    assertThat(control.getTargetPreloadStatus(5).getStage()).isEqualTo(STAGE_LOADED_TO_POSITION_MS);
+    assertThat(control.getTargetPreloadStatus(4).getStage()).isEqualTo(STAGE_TRACKS_SELECTED);
+    assertThat(control.getTargetPreloadStatus(7).getStage()).isEqualTo(STAGE_SOURCE_PREPARED);
+    assertThat(control.getTargetPreloadStatus(8)).isNull();
+  }
+
+  @Test
+  public void setCurrentIndex_skippingItems_averagesDwellTimeOverSkippedItems() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    PredictiveTargetPreloadStatusControl control =
+        new PredictiveTargetPreloadStatusControl.Builder()
+            .setInitialDwellTimeMs(1_000)
+            .setClock(clock)
+            .build();
+
+    control.setCurrentIndex(0);
+    clock.advanceTime(4_000);
+    control.setCurrentIndex(4);
+
+    assertThat(control.getAverageDwellTimeMs()).isEqualTo(1_000);
+  }
+
+  private static void assertStatus(
+      TargetPreloadStatusControl.PreloadStatus status, int expectedStage, long expectedValue) {
+    assertThat(status.getStage()).isEqualTo(expectedStage);
+    assertThat(status.getValue()).isEqualTo(expectedValue);
+  }
+}
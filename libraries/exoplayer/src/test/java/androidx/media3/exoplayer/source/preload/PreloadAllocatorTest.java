@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import androidx.media3.exoplayer.upstream.Allocation;
+import androidx.media3.exoplayer.upstream.Allocator;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link PreloadAllocator}. */
+@RunWith(AndroidJUnit4.class)
+public class PreloadAllocatorTest {
+
+  private static final int INDIVIDUAL_ALLOCATION_SIZE = 16;
+
+  @Test
+  public void allocateAndRelease_tracksBytesAllocatedThroughThisAllocator() {
+    DefaultAllocator sharedAllocator =
+        new DefaultAllocator(/* trimOnReset= */ true, INDIVIDUAL_ALLOCATION_SIZE);
+    PreloadAllocator preloadAllocator1 = new PreloadAllocator(sharedAllocator);
+    PreloadAllocator preloadAllocator2 = new PreloadAllocator(sharedAllocator);
+
+    Allocation allocation1 = preloadAllocator1.allocate();
+    preloadAllocator1.allocate();
+    preloadAllocator2.allocate();
+
+    assertThat(preloadAllocator1.getTotalBytesAllocated())
+        .isEqualTo(2 * INDIVIDUAL_ALLOCATION_SIZE);
+    assertThat(preloadAllocator2.getTotalBytesAllocated()).isEqualTo(INDIVIDUAL_ALLOCATION_SIZE);
+    assertThat(sharedAllocator.getTotalBytesAllocated()).isEqualTo(3 * INDIVIDUAL_ALLOCATION_SIZE);
+
+    preloadAllocator1.release(allocation1);
+
+    assertThat(preloadAllocator1.getTotalBytesAllocated()).isEqualTo(INDIVIDUAL_ALLOCATION_SIZE);
+    assertThat(sharedAllocator.getTotalBytesAllocated()).isEqualTo(2 * INDIVIDUAL_ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void releaseAllocationNode_releasesAllAllocationsInChain() {
+    DefaultAllocator sharedAllocator =
+        new DefaultAllocator(/* trimOnReset= */ true, INDIVIDUAL_ALLOCATION_SIZE);
+    PreloadAllocator preloadAllocator = new PreloadAllocator(sharedAllocator);
+    TestAllocationNode node3 = new TestAllocationNode(preloadAllocator.allocate(), null);
+    TestAllocationNode node2 = new TestAllocationNode(preloadAllocator.allocate(), node3);
+    TestAllocationNode node1 = new TestAllocationNode(preloadAllocator.allocate(), node2);
+
+    preloadAllocator.release(node1);
+
+    assertThat(preloadAllocator.getTotalBytesAllocated()).isEqualTo(0);
+    assertThat(sharedAllocator.getTotalBytesAllocated()).isEqualTo(0);
+  }
+
+  private static final class TestAllocationNode implements Allocator.AllocationNode {
+
+    private final Allocation allocation;
+    @Nullable private final Allocator.AllocationNode next;
+
+    public TestAllocationNode(Allocation allocation, @Nullable Allocator.AllocationNode next) {
+      this.allocation = allocation;
+      this.next = next;
+    }
+
+    @Override
+    public Allocation getAllocation() {
+      return allocation;
+    }
+
+    @Nullable
+    @Override
+    public Allocator.AllocationNode next() {
+      return next;
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.source.preload;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.NoOpCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.media3.exoplayer.source.LoadEventInfo;
+import androidx.media3.exoplayer.source.MediaLoadData;
+import androidx.media3.exoplayer.source.MediaSource;
+import androidx.media3.test.utils.FakeDataSet;
+import androidx.media3.test.utils.FakeDataSource;
+import androidx.media3.test.utils.FakeTimeline;
+import androidx.media3.test.utils.TestUtil;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link SpeculativePrefetcher}. */
+@RunWith(AndroidJUnit4.class)
+public class SpeculativePrefetcherTest {
+
+  private static final String MANIFEST_URI = "https://test.test/main.m3u8";
+  private static final String MEDIA_PLAYLIST_URI = "https://test.test/media.m3u8";
+  private static final String INITIALIZATION_URI = "https://test.test/init.mp4";
+  private static final String MEDIA_URI = "https://test.test/segment0.m4s";
+  private static final byte[] MANIFEST_DATA =
+      Util.getUtf8Bytes("manifest " + MEDIA_PLAYLIST_URI + "\n");
+  private static final byte[] MEDIA_PLAYLIST_DATA =
+      Util.getUtf8Bytes("init " + INITIALIZATION_URI + "\n");
+
+  private final MediaItem mediaItem = MediaItem.fromUri(MANIFEST_URI);
+
+  private File tempFolder;
+  private SimpleCache cache;
+  private CacheDataSource.Factory cacheDataSourceFactory;
+  private SpeculativePrefetcher speculativePrefetcher;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .setData(MANIFEST_URI, MANIFEST_DATA)
+            .setData(MEDIA_PLAYLIST_URI, MEDIA_PLAYLIST_DATA)
+            .setRandomData(INITIALIZATION_URI, /* length= */ 30)
+            .setRandomData(MEDIA_URI, /* length= */ 40);
+    cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+    speculativePrefetcher =
+        new SpeculativePrefetcher(
+            cacheDataSourceFactory, /* executor= */ Runnable::run, /* targetParser= */ null);
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void start_afterPreviousSessionOfSameMediaItem_prefetchesPlaylistsAndInitialization() {
+    SpeculativePrefetcher.Session previousSession = speculativePrefetcher.createSession(mediaItem);
+    previousSession.start();
+    reportLoadCompleted(previousSession, MANIFEST_URI, C.DATA_TYPE_MANIFEST);
+    reportLoadCompleted(previousSession, MEDIA_PLAYLIST_URI, C.DATA_TYPE_MANIFEST);
+    previousSession.onTimelineRefreshed(new FakeTimeline());
+    reportLoadCompleted(previousSession, INITIALIZATION_URI, C.DATA_TYPE_MEDIA_INITIALIZATION);
+    reportLoadCompleted(previousSession, MEDIA_URI, C.DATA_TYPE_MEDIA);
+    assertThat(cache.getKeys()).isEmpty();
+
+    speculativePrefetcher.createSession(mediaItem).start();
+
+    assertThat(cache.getKeys()).containsExactly(MEDIA_PLAYLIST_URI, INITIALIZATION_URI);
+    assertThat(cache.getCachedBytes(MEDIA_PLAYLIST_URI, /* position= */ 0, C.LENGTH_UNSET))
+        .isEqualTo(MEDIA_PLAYLIST_DATA.length);
+    assertThat(cache.getCachedBytes(INITIALIZATION_URI, /* position= */ 0, C.LENGTH_UNSET))
+        .isEqualTo(30);
+  }
+
+  @Test
+  public void onLoadCompleted_mainManifestCachedBySource_prefetchesTargetsOfManifests()
+      throws Exception {
+    SpeculativePrefetcher speculativePrefetcher =
+        new SpeculativePrefetcher(
+            cacheDataSourceFactory, /* executor= */ Runnable::run, new FakeTargetParser());
+    SpeculativePrefetcher.Session session = speculativePrefetcher.createSession(mediaItem);
+    session.start();
+    readThroughCache(MANIFEST_URI);
+    assertThat(cache.getKeys()).containsExactly(MANIFEST_URI);
+
+    reportLoadCompleted(session, MANIFEST_URI, C.DATA_TYPE_MANIFEST);
+
+    assertThat(cache.getKeys())
+        .containsExactly(MANIFEST_URI, MEDIA_PLAYLIST_URI, INITIALIZATION_URI);
+    assertThat(cache.getCachedBytes(MANIFEST_URI, /* position= */ 0, C.LENGTH_UNSET))
+        .isEqualTo(MANIFEST_DATA.length);
+    assertThat(cache.getCachedBytes(INITIALIZATION_URI, /* position= */ 0, C.LENGTH_UNSET))
+        .isEqualTo(30);
+  }
+
+  @Test
+  public void start_afterPreviousSessionCachedItsData_prefetchesTargetsOfRecordedPlaylists()
+      throws Exception {
+    SpeculativePrefetcher speculativePrefetcher =
+        new SpeculativePrefetcher(
+            cacheDataSourceFactory, /* executor= */ Runnable::run, new FakeTargetParser());
+    SpeculativePrefetcher.Session previousSession = speculativePrefetcher.createSession(mediaItem);
+    previousSession.start();
+    // The source of the previous session loads all of its data through the cache. HLS sources
+    // don't report the loads of initialization segments.
+    readThroughCache(MANIFEST_URI);
+    reportLoadCompleted(previousSession, MANIFEST_URI, C.DATA_TYPE_MANIFEST);
+    readThroughCache(MEDIA_PLAYLIST_URI);
+    reportLoadCompleted(previousSession, MEDIA_PLAYLIST_URI, C.DATA_TYPE_MANIFEST);
+    previousSession.onTimelineRefreshed(new FakeTimeline());
+    readThroughCache(INITIALIZATION_URI);
+    readThroughCache(MEDIA_URI);
+    reportLoadCompleted(previousSession, MEDIA_URI, C.DATA_TYPE_MEDIA);
+    // Simulate the cache having evicted the data since.
+    for (String key : cache.getKeys()) {
+      cache.removeResource(key);
+    }
+
+    speculativePrefetcher.createSession(mediaItem).start();
+
+    assertThat(cache.getKeys()).containsExactly(MEDIA_PLAYLIST_URI, INITIALIZATION_URI);
+  }
+
+  @Test
+  public void start_afterPreviousSessionOfOtherMediaItem_doesNotPrefetch() {
+    SpeculativePrefetcher.Session previousSession =
+        speculativePrefetcher.createSession(MediaItem.fromUri("https://test.test/other.m3u8"));
+    reportLoadCompleted(previousSession, MEDIA_PLAYLIST_URI, C.DATA_TYPE_MANIFEST);
+    previousSession.onTimelineRefreshed(new FakeTimeline());
+
+    speculativePrefetcher.createSession(mediaItem).start();
+
+    assertThat(cache.getKeys()).isEmpty();
+  }
+
+  @Test
+  public void start_afterPreviousSessionOfLiveStream_doesNotPrefetch() {
+    SpeculativePrefetcher.Session previousSession = speculativePrefetcher.createSession(mediaItem);
+    reportLoadCompleted(previousSession, MEDIA_PLAYLIST_URI, C.DATA_TYPE_MANIFEST);
+    previousSession.onTimelineRefreshed(
+        new FakeTimeline(
+            new FakeTimeline.TimelineWindowDefinition(
+                /* isSeekable= */ true, /* isDynamic= */ true, /* durationUs= */ 1_000_000)));
+    reportLoadCompleted(previousSession, INITIALIZATION_URI, C.DATA_TYPE_MEDIA_INITIALIZATION);
+
+    speculativePrefetcher.createSession(mediaItem).start();
+
+    assertThat(cache.getKeys()).isEmpty();
+  }
+
+  @Test
+  public void cancel_beforeQueuedFetchesRun_doesNotPrefetch() {
+    List<Runnable> queuedRunnables = new ArrayList<>();
+    SpeculativePrefetcher speculativePrefetcher =
+        new SpeculativePrefetcher(
+            cacheDataSourceFactory, /* executor= */ queuedRunnables::add, /* targetParser= */ null);
+    SpeculativePrefetcher.Session previousSession = speculativePrefetcher.createSession(mediaItem);
+    previousSession.onTimelineRefreshed(new FakeTimeline());
+    reportLoadCompleted(previousSession, INITIALIZATION_URI, C.DATA_TYPE_MEDIA_INITIALIZATION);
+    SpeculativePrefetcher.Session session = speculativePrefetcher.createSession(mediaItem);
+    session.start();
+    assertThat(queuedRunnables).hasSize(1);
+
+    session.cancel();
+    queuedRunnables.get(0).run();
+
+    assertThat(cache.getKeys()).isEmpty();
+  }
+
+  private void readThroughCache(String uri) throws IOException {
+    DataSource dataSource = cacheDataSourceFactory.createDataSource();
+    try {
+      dataSource.open(new DataSpec(Uri.parse(uri)));
+      DataSourceUtil.readToEnd(dataSource);
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private static void reportLoadCompleted(
+      SpeculativePrefetcher.Session session, String uri, @C.DataType int dataType) {
+    session.onLoadCompleted(
+        /* windowIndex= */ 0,
+        new MediaSource.MediaPeriodId(/* periodUid= */ new Object()),
+        new LoadEventInfo(
+            LoadEventInfo.getNewId(), new DataSpec(Uri.parse(uri)), /* elapsedRealtimeMs= */ 0),
+        new MediaLoadData(dataType));
+  }
+
+  /**
+   * Parses manifests whose lines consist of the data type and the URI of a target, either {@code
+   * manifest} or {@code init}.
+   */
+  private static final class FakeTargetParser implements PrefetchTargetParser {
+
+    @Override
+    public List<Target> parse(Uri uri, InputStream inputStream) throws IOException {
+      List<Target> targets = new ArrayList<>();
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+      @Nullable String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = Util.split(line, " ");
+        targets.add(
+            new Target(
+                new DataSpec(Uri.parse(parts[1])),
+                parts[0].equals("manifest")
+                    ? C.DATA_TYPE_MANIFEST
+                    : C.DATA_TYPE_MEDIA_INITIALIZATION));
+      }
+      return targets;
+    }
+  }
+}
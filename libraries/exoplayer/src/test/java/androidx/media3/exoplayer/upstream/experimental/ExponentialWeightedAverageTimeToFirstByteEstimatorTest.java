@@ -21,6 +21,7 @@ import static com.google.common.truth.Truth.assertThat;
 import android.net.Uri;
 import androidx.media3.common.C;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpConnectionMetrics;
 import androidx.media3.test.utils.FakeClock;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import org.junit.Test;
@@ -59,6 +60,26 @@ public class ExponentialWeightedAverageTimeToFirstByteEstimatorTest {
     assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(C.TIME_UNSET);
   }
 
+  @Test
+  public void timeToFirstByteEstimate_withConnectionMetrics_usesMeasuredTimeToFirstByte() {
+    FakeClock clock = new FakeClock(0);
+    ExponentialWeightedAverageTimeToFirstByteEstimator estimator =
+        new ExponentialWeightedAverageTimeToFirstByteEstimator(DEFAULT_SMOOTHING_FACTOR, clock);
+    DataSpec dataSpec = new DataSpec.Builder().setUri(Uri.EMPTY).build();
+
+    estimator.onTransferInitializing(dataSpec);
+    clock.advanceTime(10);
+    estimator.onConnectionMetrics(
+        dataSpec,
+        new HttpConnectionMetrics(
+            /* connectDurationMs= */ 2,
+            /* timeToFirstByteMs= */ 6,
+            /* isConnectionReused= */ false));
+    estimator.onTransferStart(dataSpec);
+
+    assertThat(estimator.getTimeToFirstByteEstimateUs()).isEqualTo(6000);
+  }
+
   @Test
   public void timeToFirstByteEstimate_afterTwoSamples_returnsEstimate() {
     FakeClock clock = new FakeClock(0);
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertThrows;
 import android.net.Uri;
 import androidx.media3.common.C;
 import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpConnectionMetrics;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.time.Duration;
 import org.junit.Before;
@@ -74,6 +75,23 @@ public class PercentileTimeToFirstByteEstimatorTest {
         .isEqualTo(C.TIME_UNSET);
   }
 
+  @Test
+  public void getTimeToRespondEstimateUs_withConnectionMetrics_usesMeasuredTimeToFirstByte() {
+    DataSpec dataSpec = new DataSpec(Uri.EMPTY);
+
+    percentileTimeToResponseEstimator.onTransferInitializing(dataSpec);
+    ShadowSystemClock.advanceBy(Duration.ofMillis(10));
+    percentileTimeToResponseEstimator.onConnectionMetrics(
+        dataSpec,
+        new HttpConnectionMetrics(
+            /* connectDurationMs= */ 2,
+            /* timeToFirstByteMs= */ 6,
+            /* isConnectionReused= */ false));
+    percentileTimeToResponseEstimator.onTransferStart(dataSpec);
+
+    assertThat(percentileTimeToResponseEstimator.getTimeToFirstByteEstimateUs()).isEqualTo(6_000);
+  }
+
   @Test
   public void getTimeToRespondEstimateUs_medianOfOddNumberOfSamples_returnsCenterSampleValue() {
     DataSpec dataSpec = new DataSpec(Uri.EMPTY);
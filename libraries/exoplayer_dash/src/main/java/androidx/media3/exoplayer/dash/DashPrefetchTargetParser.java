@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.dash;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.dash.manifest.AdaptationSet;
+import androidx.media3.exoplayer.dash.manifest.DashManifest;
+import androidx.media3.exoplayer.dash.manifest.DashManifestParser;
+import androidx.media3.exoplayer.dash.manifest.Period;
+import androidx.media3.exoplayer.dash.manifest.RangedUri;
+import androidx.media3.exoplayer.dash.manifest.Representation;
+import androidx.media3.exoplayer.source.preload.PrefetchTargetParser;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link PrefetchTargetParser} for DASH manifests.
+ *
+ * <p>The targets are the initialization segments of the audio and video representations of the
+ * first period, merged with their segment index where {@link DefaultDashChunkSource} would merge
+ * them.
+ */
+@UnstableApi
+public final class DashPrefetchTargetParser implements PrefetchTargetParser {
+
+  private final DashManifestParser manifestParser;
+
+  /** Creates an instance. */
+  public DashPrefetchTargetParser() {
+    manifestParser = new DashManifestParser();
+  }
+
+  @Override
+  public List<Target> parse(Uri uri, InputStream inputStream) throws IOException {
+    DashManifest manifest = manifestParser.parse(uri, inputStream);
+    List<Target> targets = new ArrayList<>();
+    if (manifest.getPeriodCount() == 0) {
+      return targets;
+    }
+    Period period = manifest.getPeriod(0);
+    for (int i = 0; i < period.adaptationSets.size(); i++) {
+      AdaptationSet adaptationSet = period.adaptationSets.get(i);
+      if (adaptationSet.type != C.TRACK_TYPE_VIDEO && adaptationSet.type != C.TRACK_TYPE_AUDIO) {
+        continue;
+      }
+      for (int j = 0; j < adaptationSet.representations.size(); j++) {
+        Representation representation = adaptationSet.representations.get(j);
+        @Nullable RangedUri initializationUri = representation.getInitializationUri();
+        if (initializationUri == null || representation.baseUrls.isEmpty()) {
+          continue;
+        }
+        String baseUrl = representation.baseUrls.get(0).url;
+        RangedUri requestUri = initializationUri;
+        if (representation.getIndex() == null) {
+          @Nullable
+          RangedUri mergedUri =
+              initializationUri.attemptMerge(representation.getIndexUri(), baseUrl);
+          if (mergedUri != null) {
+            requestUri = mergedUri;
+          }
+        }
+        targets.add(
+            new Target(
+                DashUtil.buildDataSpec(
+                    representation,
+                    baseUrl,
+                    requestUri,
+                    /* flags= */ 0,
+                    /* httpRequestHeaders= */ ImmutableMap.of()),
+                C.DATA_TYPE_MEDIA_INITIALIZATION));
+      }
+    }
+    return targets;
+  }
+}
@@ -1270,10 +1270,17 @@ public class DashManifestParser extends DefaultHandler
     return new EventMessage(schemeIdUri, value, durationMs, id, messageData);
   }
 
+  /**
+   * Parses a SegmentTimeline element.
+   *
+   * <p>The returned list stores each S element as a run of segments rather than holding an element
+   * per segment, so its size doesn't affect memory usage. Elements built by {@link
+   * #buildSegmentTimelineElement(long, long)} that continue the previous run are merged into it.
+   */
   protected List<SegmentTimelineElement> parseSegmentTimeline(
       XmlPullParser xpp, long timescale, long periodDurationMs)
       throws XmlPullParserException, IOException {
-    List<SegmentTimelineElement> segmentTimeline = new ArrayList<>();
+    RunLengthSegmentTimeline.Builder segmentTimeline = new RunLengthSegmentTimeline.Builder();
     long startTime = 0;
     long elementDuration = C.TIME_UNSET;
     int elementRepeatCount = 0;
@@ -1310,7 +1317,7 @@ public class DashManifestParser extends DefaultHandler
           elementRepeatCount,
           /* endTime= */ periodDuration);
     }
-    return segmentTimeline;
+    return segmentTimeline.build();
   }
 
   /**
@@ -1325,7 +1332,7 @@ public class DashManifestParser extends DefaultHandler
    * @return Calculated next start time.
    */
   private long addSegmentTimelineElementsToList(
-      List<SegmentTimelineElement> segmentTimeline,
+      RunLengthSegmentTimeline.Builder segmentTimeline,
       long startTime,
       long elementDuration,
       int elementRepeatCount,
@@ -1335,7 +1342,8 @@ public class DashManifestParser extends DefaultHandler
             ? 1 + elementRepeatCount
             : (int) Util.ceilDivide(endTime - startTime, elementDuration);
     for (int i = 0; i < count; i++) {
-      segmentTimeline.add(buildSegmentTimelineElement(startTime, elementDuration));
+      SegmentTimelineElement element = buildSegmentTimelineElement(startTime, elementDuration);
+      segmentTimeline.add(element.startTime, element.duration, /* count= */ 1);
       startTime += elementDuration;
     }
     return startTime;
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.dash.manifest;
+
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A segment timeline that stores runs of consecutive segments with the same duration, as described
+ * by the S elements of a SegmentTimeline and their {@code r} attribute, rather than one element per
+ * segment.
+ *
+ * <p>Elements are created when they're accessed. {@link #getStartTime(int)} and {@link
+ * #getDuration(int)} look up a segment without creating an element.
+ */
+/* package */ final class RunLengthSegmentTimeline extends AbstractList<SegmentTimelineElement>
+    implements RandomAccess {
+
+  /** Builds a {@link RunLengthSegmentTimeline}. */
+  public static final class Builder {
+
+    private long[] runStartTimes;
+    private long[] runDurations;
+    private int[] runFirstIndices;
+    private int runCount;
+    private int size;
+
+    /** Creates an instance. */
+    public Builder() {
+      runStartTimes = new long[4];
+      runDurations = new long[4];
+      runFirstIndices = new int[4];
+    }
+
+    /**
+     * Adds consecutive segments with the same duration.
+     *
+     * @param startTime The start time of the first segment, in the timescale of the enclosing
+     *     element.
+     * @param duration The duration of each segment, in the timescale of the enclosing element.
+     * @param count The number of segments. Nothing is added if the count isn't positive.
+     * @return This builder.
+     */
+    public Builder add(long startTime, long duration, int count) {
+      if (count <= 0) {
+        return this;
+      }
+      if (runCount > 0
+          && runDurations[runCount - 1] == duration
+          && runStartTimes[runCount - 1] + (size - runFirstIndices[runCount - 1]) * duration
+              == startTime) {
+        // The segments continue the previous run.
+        size += count;
+        return this;
+      }
+      if (runCount == runStartTimes.length) {
+        int newLength = runCount * 2;
+        runStartTimes = Arrays.copyOf(runStartTimes, newLength);
+        runDurations = Arrays.copyOf(runDurations, newLength);
+        runFirstIndices = Arrays.copyOf(runFirstIndices, newLength);
+      }
+      runStartTimes[runCount] = startTime;
+      runDurations[runCount] = duration;
+      runFirstIndices[runCount] = size;
+      runCount++;
+      size += count;
+      return this;
+    }
+
+    /** Builds the {@link RunLengthSegmentTimeline}. */
+    public RunLengthSegmentTimeline build() {
+      return new RunLengthSegmentTimeline(
+          Arrays.copyOf(runStartTimes, runCount),
+          Arrays.copyOf(runDurations, runCount),
+          Arrays.copyOf(runFirstIndices, runCount),
+          size);
+    }
+  }
+
+  private final long[] runStartTimes;
+  private final long[] runDurations;
+  private final int[] runFirstIndices;
+  private final int size;
+
+  private RunLengthSegmentTimeline(
+      long[] runStartTimes, long[] runDurations, int[] runFirstIndices, int size) {
+    this.runStartTimes = runStartTimes;
+    this.runDurations = runDurations;
+    this.runFirstIndices = runFirstIndices;
+    this.size = size;
+  }
+
+  /** Returns the start time of the segment at {@code index}. */
+  public long getStartTime(int index) {
+    int runIndex = getRunIndex(index);
+    return runStartTimes[runIndex] + (index - runFirstIndices[runIndex]) * runDurations[runIndex];
+  }
+
+  /** Returns the duration of the segment at {@code index}. */
+  public long getDuration(int index) {
+    return runDurations[getRunIndex(index)];
+  }
+
+  /** Returns the number of runs of segments with the same duration. */
+  public int getRunCount() {
+    return runFirstIndices.length;
+  }
+
+  @Override
+  public SegmentTimelineElement get(int index) {
+    int runIndex = getRunIndex(index);
+    long duration = runDurations[runIndex];
+    return new SegmentTimelineElement(
+        runStartTimes[runIndex] + (index - runFirstIndices[runIndex]) * duration, duration);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private int getRunIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return Util.binarySearchFloor(
+        runFirstIndices, index, /* inclusive= */ true, /* stayInBounds= */ true);
+  }
+}
@@ -157,6 +157,11 @@ public final class DashDownloader extends SegmentDownloader<DashManifest> {
     baseUrlExclusionList = new BaseUrlExclusionList();
   }
 
+  @Override
+  protected boolean isLiveManifest(DashManifest manifest) {
+    return manifest.dynamic;
+  }
+
   @Override
   protected List<Segment> getSegments(
       DataSource dataSource, DashManifest manifest, boolean removing)
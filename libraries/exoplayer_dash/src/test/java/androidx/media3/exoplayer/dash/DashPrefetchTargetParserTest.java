@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.dash;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.source.preload.PrefetchTargetParser.Target;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link DashPrefetchTargetParser}. */
+@RunWith(AndroidJUnit4.class)
+public class DashPrefetchTargetParserTest {
+
+  private static final String MANIFEST =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<MPD xmlns=\"urn:mpeg:DASH:schema:MPD:2011\" type=\"static\""
+          + " mediaPresentationDuration=\"PT10S\">\n"
+          + "  <Period>\n"
+          + "    <AdaptationSet mimeType=\"video/mp4\">\n"
+          + "      <SegmentTemplate timescale=\"1000\" duration=\"2000\""
+          + " initialization=\"video_$RepresentationID$_init.mp4\""
+          + " media=\"video_$RepresentationID$_$Number$.m4s\"/>\n"
+          + "      <Representation id=\"1\" bandwidth=\"1000000\" codecs=\"avc1.4d401f\"/>\n"
+          + "      <Representation id=\"2\" bandwidth=\"2000000\" codecs=\"avc1.4d401f\"/>\n"
+          + "    </AdaptationSet>\n"
+          + "    <AdaptationSet mimeType=\"audio/mp4\">\n"
+          + "      <Representation id=\"3\" bandwidth=\"128000\" codecs=\"mp4a.40.2\">\n"
+          + "        <BaseURL>audio.mp4</BaseURL>\n"
+          + "        <SegmentBase indexRange=\"1000-1999\">\n"
+          + "          <Initialization range=\"0-999\"/>\n"
+          + "        </SegmentBase>\n"
+          + "      </Representation>\n"
+          + "    </AdaptationSet>\n"
+          + "    <AdaptationSet mimeType=\"application/mp4\">\n"
+          + "      <SegmentTemplate timescale=\"1000\" duration=\"2000\""
+          + " initialization=\"text_init.mp4\" media=\"text_$Number$.m4s\"/>\n"
+          + "      <Representation id=\"4\" bandwidth=\"1000\" codecs=\"wvtt\"/>\n"
+          + "    </AdaptationSet>\n"
+          + "  </Period>\n"
+          + "</MPD>\n";
+
+  @Test
+  public void parse_returnsInitializationSegmentsOfAudioAndVideoRepresentations()
+      throws Exception {
+    List<Target> targets =
+        new DashPrefetchTargetParser()
+            .parse(
+                Uri.parse("https://test.test/manifest.mpd"),
+                new ByteArrayInputStream(Util.getUtf8Bytes(MANIFEST)));
+
+    assertThat(targets).hasSize(3);
+    assertThat(targets.get(0).dataSpec.uri.toString())
+        .isEqualTo("https://test.test/video_1_init.mp4");
+    assertThat(targets.get(0).dataType).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+    assertThat(targets.get(1).dataSpec.uri.toString())
+        .isEqualTo("https://test.test/video_2_init.mp4");
+    assertThat(targets.get(1).dataType).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+    // The initialization data of the audio representation is merged with its adjacent index.
+    assertThat(targets.get(2).dataSpec.uri.toString()).isEqualTo("https://test.test/audio.mp4");
+    assertThat(targets.get(2).dataSpec.position).isEqualTo(0);
+    assertThat(targets.get(2).dataSpec.length).isEqualTo(2000);
+    assertThat(targets.get(2).dataType).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+  }
+}
@@ -438,6 +438,63 @@ public class DashManifestParserTest {
     assertNextTag(xpp);
   }
 
+  @Test
+  public void parseSegmentTimeline_largeRepeatCount() throws Exception {
+    DashManifestParser parser = new DashManifestParser();
+    XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+    xpp.setInput(
+        new StringReader(
+            "<SegmentTimeline><S t=\"48000\" d=\"96000\" r=\"999999\"/><S d=\"48000\"/>"
+                + "</SegmentTimeline>"
+                + NEXT_TAG));
+    xpp.next();
+
+    List<SegmentTimelineElement> elements =
+        parser.parseSegmentTimeline(xpp, /* timescale= */ 48000, /* periodDurationMs= */ 10000);
+
+    assertThat(elements).hasSize(1_000_001);
+    assertThat(((RunLengthSegmentTimeline) elements).getRunCount()).isEqualTo(2);
+    assertThat(elements.get(0))
+        .isEqualTo(new SegmentTimelineElement(/* startTime= */ 48000, /* duration= */ 96000));
+    assertThat(elements.get(999_999))
+        .isEqualTo(
+            new SegmentTimelineElement(/* startTime= */ 95_999_952_000L, /* duration= */ 96000));
+    assertThat(elements.get(1_000_000))
+        .isEqualTo(
+            new SegmentTimelineElement(/* startTime= */ 96_000_048_000L, /* duration= */ 48000));
+    assertNextTag(xpp);
+  }
+
+  @Test
+  public void parseSegmentTimeline_withBuildSegmentTimelineElementOverridden_usesBuiltElements()
+      throws Exception {
+    DashManifestParser parser =
+        new DashManifestParser() {
+          @Override
+          protected SegmentTimelineElement buildSegmentTimelineElement(
+              long startTime, long duration) {
+            return new SegmentTimelineElement(startTime + 1, duration);
+          }
+        };
+    XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+    xpp.setInput(
+        new StringReader(
+            "<SegmentTimeline><S d=\"96000\" r=\"1\"/><S d=\"48000\"/></SegmentTimeline>"
+                + NEXT_TAG));
+    xpp.next();
+
+    List<SegmentTimelineElement> elements =
+        parser.parseSegmentTimeline(xpp, /* timescale= */ 48000, /* periodDurationMs= */ 10000);
+
+    assertThat(elements)
+        .containsExactly(
+            new SegmentTimelineElement(/* startTime= */ 1, /* duration= */ 96000),
+            new SegmentTimelineElement(/* startTime= */ 96001, /* duration= */ 96000),
+            new SegmentTimelineElement(/* startTime= */ 192001, /* duration= */ 48000))
+        .inOrder();
+    assertNextTag(xpp);
+  }
+
   @Test
   public void parseLabel() throws Exception {
     DashManifestParser parser = new DashManifestParser();
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.dash.manifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.media3.exoplayer.dash.manifest.SegmentBase.SegmentTimelineElement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link RunLengthSegmentTimeline}. */
+@RunWith(AndroidJUnit4.class)
+public final class RunLengthSegmentTimelineTest {
+
+  @Test
+  public void build_withContiguousRunsOfSameDuration_mergesRuns() {
+    RunLengthSegmentTimeline timeline =
+        new RunLengthSegmentTimeline.Builder()
+            .add(/* startTime= */ 0, /* duration= */ 10, /* count= */ 2)
+            .add(/* startTime= */ 20, /* duration= */ 10, /* count= */ 3)
+            .add(/* startTime= */ 50, /* duration= */ 5, /* count= */ 1)
+            .add(/* startTime= */ 100, /* duration= */ 5, /* count= */ 2)
+            .add(/* startTime= */ 110, /* duration= */ 5, /* count= */ 0)
+            .build();
+
+    assertThat(timeline.getRunCount()).isEqualTo(3);
+    assertThat(timeline)
+        .containsExactly(
+            new SegmentTimelineElement(/* startTime= */ 0, /* duration= */ 10),
+            new SegmentTimelineElement(/* startTime= */ 10, /* duration= */ 10),
+            new SegmentTimelineElement(/* startTime= */ 20, /* duration= */ 10),
+            new SegmentTimelineElement(/* startTime= */ 30, /* duration= */ 10),
+            new SegmentTimelineElement(/* startTime= */ 40, /* duration= */ 10),
+            new SegmentTimelineElement(/* startTime= */ 50, /* duration= */ 5),
+            new SegmentTimelineElement(/* startTime= */ 100, /* duration= */ 5),
+            new SegmentTimelineElement(/* startTime= */ 105, /* duration= */ 5))
+        .inOrder();
+  }
+
+  @Test
+  public void getStartTimeAndDuration_withLargeRun_returnsValuesOfSegment() {
+    RunLengthSegmentTimeline timeline =
+        new RunLengthSegmentTimeline.Builder()
+            .add(/* startTime= */ 1000, /* duration= */ 2000, /* count= */ 1)
+            .add(/* startTime= */ 3000, /* duration= */ 96_000, /* count= */ 1_000_000)
+            .build();
+
+    assertThat(timeline.size()).isEqualTo(1_000_001);
+    assertThat(timeline.getStartTime(0)).isEqualTo(1000);
+    assertThat(timeline.getDuration(0)).isEqualTo(2000);
+    assertThat(timeline.getStartTime(1_000_000)).isEqualTo(3000 + 999_999L * 96_000);
+    assertThat(timeline.getDuration(1_000_000)).isEqualTo(96_000);
+  }
+
+  @Test
+  public void get_withIndexOutOfBounds_throwsIndexOutOfBoundsException() {
+    RunLengthSegmentTimeline timeline =
+        new RunLengthSegmentTimeline.Builder()
+            .add(/* startTime= */ 0, /* duration= */ 10, /* count= */ 2)
+            .build();
+
+    assertThrows(IndexOutOfBoundsException.class, () -> timeline.get(2));
+    assertThrows(IndexOutOfBoundsException.class, () -> timeline.getStartTime(-1));
+  }
+}
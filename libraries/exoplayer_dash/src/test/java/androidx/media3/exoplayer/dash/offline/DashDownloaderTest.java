@@ -292,6 +292,25 @@ public class DashDownloaderTest {
     progressListener.assertBytesDownloaded(10 + 4 + 5 + 6);
   }
 
+  @Test
+  public void download_afterSharedSegmentRemoved_downloadsSegmentAgain() throws Exception {
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .setData(TEST_MPD_URI, TEST_MPD)
+            .setRandomData("audio_init_data", 10)
+            .setRandomData("audio_segment_1", 4)
+            .setRandomData("audio_segment_2", 5)
+            .setRandomData("audio_segment_3", 6);
+    DashDownloader dashDownloader = getDashDownloader(fakeDataSet, new StreamKey(0, 0, 0));
+    dashDownloader.download(progressListener);
+    // Simulate another download that shares the initialization segment being removed.
+    cache.removeResource("audio_init_data");
+
+    dashDownloader.download(progressListener);
+
+    assertCachedData(cache, new RequestSet(fakeDataSet).useBoundedDataSpecFor("audio_init_data"));
+  }
+
   @Test
   public void remove() throws Exception {
     FakeDataSet fakeDataSet =
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.hls;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.UriUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.exoplayer.hls.playlist.HlsMediaPlaylist;
+import androidx.media3.exoplayer.hls.playlist.HlsMultivariantPlaylist;
+import androidx.media3.exoplayer.hls.playlist.HlsPlaylist;
+import androidx.media3.exoplayer.hls.playlist.HlsPlaylistParser;
+import androidx.media3.exoplayer.source.preload.PrefetchTargetParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link PrefetchTargetParser} for HLS playlists.
+ *
+ * <p>For a multivariant playlist, the targets are the media playlist of the first variant, which
+ * is the one that {@link HlsMediaSource} loads first, and the first audio rendition of its audio
+ * group. For a media playlist, the target is the initialization segment of its first segment, which
+ * is declared by an {@code EXT-X-MAP} tag.
+ */
+@UnstableApi
+public final class HlsPrefetchTargetParser implements PrefetchTargetParser {
+
+  private final HlsPlaylistParser playlistParser;
+
+  /** Creates an instance. */
+  public HlsPrefetchTargetParser() {
+    playlistParser = new HlsPlaylistParser();
+  }
+
+  @Override
+  public List<Target> parse(Uri uri, InputStream inputStream) throws IOException {
+    HlsPlaylist playlist = playlistParser.parse(uri, inputStream);
+    List<Target> targets = new ArrayList<>();
+    if (playlist instanceof HlsMultivariantPlaylist) {
+      HlsMultivariantPlaylist multivariantPlaylist = (HlsMultivariantPlaylist) playlist;
+      if (multivariantPlaylist.variants.isEmpty()) {
+        return targets;
+      }
+      HlsMultivariantPlaylist.Variant variant = multivariantPlaylist.variants.get(0);
+      targets.add(new Target(new DataSpec(variant.url), C.DATA_TYPE_MANIFEST));
+      @Nullable
+      Uri audioPlaylistUrl =
+          getFirstRenditionUrl(multivariantPlaylist.audios, variant.audioGroupId);
+      if (audioPlaylistUrl != null) {
+        targets.add(new Target(new DataSpec(audioPlaylistUrl), C.DATA_TYPE_MANIFEST));
+      }
+    } else {
+      HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+      if (mediaPlaylist.segments.isEmpty()) {
+        return targets;
+      }
+      @Nullable
+      HlsMediaPlaylist.Segment initializationSegment =
+          mediaPlaylist.segments.get(0).initializationSegment;
+      if (initializationSegment != null) {
+        // Matches the DataSpec that HlsMediaChunk loads the initialization segment with.
+        DataSpec dataSpec =
+            new DataSpec.Builder()
+                .setUri(UriUtil.resolveToUri(mediaPlaylist.baseUri, initializationSegment.url))
+                .setPosition(initializationSegment.byteRangeOffset)
+                .setLength(initializationSegment.byteRangeLength)
+                .build();
+        targets.add(new Target(dataSpec, C.DATA_TYPE_MEDIA_INITIALIZATION));
+      }
+    }
+    return targets;
+  }
+
+  @Nullable
+  private static Uri getFirstRenditionUrl(
+      List<HlsMultivariantPlaylist.Rendition> renditions, @Nullable String groupId) {
+    if (groupId == null) {
+      return null;
+    }
+    for (int i = 0; i < renditions.size(); i++) {
+      HlsMultivariantPlaylist.Rendition rendition = renditions.get(i);
+      if (rendition.url != null && groupId.equals(rendition.groupId)) {
+        return rendition.url;
+      }
+    }
+    return null;
+  }
+}
@@ -185,6 +185,11 @@ public final class HlsDownloader extends SegmentDownloader<HlsPlaylist> {
     return segments;
   }
 
+  @Override
+  protected boolean isLiveManifest(HlsPlaylist manifest) {
+    return manifest instanceof HlsMediaPlaylist && !((HlsMediaPlaylist) manifest).hasEndTag;
+  }
+
   private void addMediaPlaylistDataSpecs(List<Uri> mediaPlaylistUrls, List<DataSpec> out) {
     for (int i = 0; i < mediaPlaylistUrls.size(); i++) {
       out.add(SegmentDownloader.getCompressibleDataSpec(mediaPlaylistUrls.get(i)));
@@ -826,7 +826,12 @@ public final class DefaultHlsPlaylistTracker
           uriBuilder.appendQueryParameter(BLOCK_PART_PARAM, String.valueOf(targetPartIndex));
         }
       }
-      if (playlistSnapshot.serverControl.skipUntilUs != C.TIME_UNSET) {
+      if (playlistSnapshot.serverControl.skipUntilUs != C.TIME_UNSET
+          && SystemClock.elapsedRealtime() - lastSnapshotLoadMs
+              <= Util.usToMs(playlistSnapshot.serverControl.skipUntilUs) / 2) {
+        // Only request a delta update if the snapshot is no older than half the skip boundary, as
+        // the skipped segments may otherwise be missing from the snapshot (see RFC 8216bis,
+        // section 6.3.7).
         uriBuilder.appendQueryParameter(
             SKIP_PARAM, playlistSnapshot.serverControl.canSkipDateRanges ? "v2" : "YES");
       }
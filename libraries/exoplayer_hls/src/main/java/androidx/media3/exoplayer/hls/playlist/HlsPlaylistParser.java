@@ -76,6 +76,9 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   private static final String PLAYLIST_HEADER = "#EXTM3U";
 
+  /** The maximum number of seconds that can be converted to microseconds without overflowing. */
+  private static final long MAX_PARSED_SECONDS = Long.MAX_VALUE / C.MICROS_PER_SECOND - 1;
+
   private static final String TAG_PREFIX = "#EXT";
 
   private static final String TAG_VERSION = "#EXT-X-VERSION";
@@ -682,6 +685,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     TreeMap<String, SchemeData> currentSchemeDatas = new TreeMap<>();
     @Nullable String encryptionScheme = null;
     @Nullable DrmInitData cachedDrmInitData = null;
+    boolean reusePreviousSegments = previousMediaPlaylist != null;
 
     String line;
     while (iterator.hasNext()) {
@@ -764,8 +768,23 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
               parseStringAttr(line, REGEX_VALUE, variableDefinitions));
         }
       } else if (line.startsWith(TAG_MEDIA_DURATION)) {
-        segmentDurationUs = parseTimeSecondsToUs(line, REGEX_MEDIA_DURATION);
-        segmentTitle = parseOptionalStringAttr(line, REGEX_MEDIA_TITLE, "", variableDefinitions);
+        // Media playlists mostly consist of these tags, so they are parsed without regular
+        // expressions where possible.
+        int durationEndIndex = getDecimalEndIndex(line, TAG_MEDIA_DURATION.length() + 1);
+        segmentDurationUs =
+            durationEndIndex != C.INDEX_UNSET
+                ? parseDecimalSecondsToUs(line, TAG_MEDIA_DURATION.length() + 1, durationEndIndex)
+                : C.TIME_UNSET;
+        if (segmentDurationUs != C.TIME_UNSET) {
+          segmentTitle =
+              durationEndIndex + 1 < line.length() ? line.substring(durationEndIndex + 1) : "";
+          if (!variableDefinitions.isEmpty()) {
+            segmentTitle = replaceVariableReferences(segmentTitle, variableDefinitions);
+          }
+        } else {
+          segmentDurationUs = parseTimeSecondsToUs(line, REGEX_MEDIA_DURATION);
+          segmentTitle = parseOptionalStringAttr(line, REGEX_MEDIA_TITLE, "", variableDefinitions);
+        }
       } else if (line.startsWith(TAG_SKIP)) {
         int skippedSegmentCount = parseIntAttr(line, REGEX_SKIPPED_SEGMENTS);
         checkState(previousMediaPlaylist != null && segments.isEmpty());
@@ -834,11 +853,32 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         }
       } else if (line.startsWith(TAG_BYTERANGE)) {
-        String byteRange = parseStringAttr(line, REGEX_BYTERANGE, variableDefinitions);
-        String[] splitByteRange = Util.split(byteRange, "@");
-        segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
-        if (splitByteRange.length > 1) {
-          segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+        int lengthStartIndex = TAG_BYTERANGE.length() + 1;
+        int separatorIndex = line.indexOf('@', lengthStartIndex);
+        long byteRangeLength =
+            variableDefinitions.isEmpty()
+                    && line.length() > lengthStartIndex
+                    && line.charAt(lengthStartIndex - 1) == ':'
+                ? parseDigits(
+                    line, lengthStartIndex, separatorIndex != -1 ? separatorIndex : line.length())
+                : C.LENGTH_UNSET;
+        long byteRangeOffset =
+            separatorIndex != -1 && byteRangeLength != C.LENGTH_UNSET
+                ? parseDigits(line, separatorIndex + 1, line.length())
+                : C.LENGTH_UNSET;
+        if (byteRangeLength != C.LENGTH_UNSET
+            && (separatorIndex == -1 || byteRangeOffset != C.LENGTH_UNSET)) {
+          segmentByteRangeLength = byteRangeLength;
+          if (byteRangeOffset != C.LENGTH_UNSET) {
+            segmentByteRangeOffset = byteRangeOffset;
+          }
+        } else {
+          String byteRange = parseStringAttr(line, REGEX_BYTERANGE, variableDefinitions);
+          String[] splitByteRange = Util.split(byteRange, "@");
+          segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
+          if (splitByteRange.length > 1) {
+            segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+          }
         }
       } else if (line.startsWith(TAG_DISCONTINUITY_SEQUENCE)) {
         hasDiscontinuitySequence = true;
@@ -992,26 +1032,69 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         }
 
-        segments.add(
-            new Segment(
+        @Nullable
+        Segment segmentInitializationSegment =
+            initializationSegment != null ? initializationSegment : inferredInitSegment;
+        @Nullable
+        Segment previousSegment =
+            reusePreviousSegments && trailingParts.isEmpty()
+                ? getSegment(previousMediaPlaylist, /* mediaSequence= */ segmentMediaSequence - 1)
+                : null;
+        if (previousSegment != null
+            && previousSegment.parts.isEmpty()
+            && (initializationSegment != null || inferredInitSegment == null)
+            && isSameSegment(
+                previousSegment,
                 segmentUri,
-                initializationSegment != null ? initializationSegment : inferredInitSegment,
+                segmentInitializationSegment,
                 segmentTitle,
                 segmentDurationUs,
-                relativeDiscontinuitySequence,
-                segmentStartTimeUs,
+                /* previousRelativeDiscontinuitySequence= */ playlistDiscontinuitySequence
+                    + relativeDiscontinuitySequence
+                    - castNonNull(previousMediaPlaylist).discontinuitySequence,
                 cachedDrmInitData,
                 fullSegmentEncryptionKeyUri,
                 segmentEncryptionIV,
                 segmentByteRangeOffset,
                 segmentByteRangeLength,
-                hasGapTag,
-                trailingParts));
+                hasGapTag)) {
+          // The segment is unchanged since the previous playlist, as is usual for playlists that
+          // grow or slide, so the previous instance is reused. If segments were removed from the
+          // start of the playlist, its relative start time and discontinuity sequence need to be
+          // rebased, as for skipped segments. The previous initialization segment instance is used
+          // from now on, so that it's shared with the segments that follow.
+          if (previousSegment.relativeStartTimeUs != segmentStartTimeUs
+              || previousSegment.relativeDiscontinuitySequence != relativeDiscontinuitySequence) {
+            previousSegment =
+                previousSegment.copyWith(segmentStartTimeUs, relativeDiscontinuitySequence);
+          }
+          segments.add(previousSegment);
+          initializationSegment = previousSegment.initializationSegment;
+        } else {
+          // Stop reusing segments once one differs, so that the segments that follow share the
+          // initialization segment instance of this one.
+          reusePreviousSegments = false;
+          segments.add(
+              new Segment(
+                  segmentUri,
+                  segmentInitializationSegment,
+                  segmentTitle,
+                  segmentDurationUs,
+                  relativeDiscontinuitySequence,
+                  segmentStartTimeUs,
+                  cachedDrmInitData,
+                  fullSegmentEncryptionKeyUri,
+                  segmentEncryptionIV,
+                  segmentByteRangeOffset,
+                  segmentByteRangeLength,
+                  hasGapTag,
+                  trailingParts));
+          trailingParts = new ArrayList<>();
+        }
         segmentStartTimeUs += segmentDurationUs;
         partStartTimeUs = segmentStartTimeUs;
         segmentDurationUs = 0;
         segmentTitle = "";
-        trailingParts = new ArrayList<>();
         if (segmentByteRangeLength != C.LENGTH_UNSET) {
           segmentByteRangeOffset += segmentByteRangeLength;
         }
@@ -1181,6 +1264,135 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         : C.CENC_TYPE_cbcs;
   }
 
+  @Nullable
+  private static Segment getSegment(@Nullable HlsMediaPlaylist mediaPlaylist, long mediaSequence) {
+    if (mediaPlaylist == null) {
+      return null;
+    }
+    long segmentIndex = mediaSequence - mediaPlaylist.mediaSequence;
+    return segmentIndex >= 0 && segmentIndex < mediaPlaylist.segments.size()
+        ? mediaPlaylist.segments.get((int) segmentIndex)
+        : null;
+  }
+
+  /**
+   * Returns whether a segment of the previous playlist has the given properties. The relative start
+   * time isn't compared, because it changes when segments are removed from the start of the
+   * playlist. The discontinuity sequence is given relative to the previous playlist.
+   */
+  private static boolean isSameSegment(
+      Segment segment,
+      String url,
+      @Nullable Segment initializationSegment,
+      String title,
+      long durationUs,
+      int previousRelativeDiscontinuitySequence,
+      @Nullable DrmInitData drmInitData,
+      @Nullable String fullSegmentEncryptionKeyUri,
+      @Nullable String encryptionIV,
+      long byteRangeOffset,
+      long byteRangeLength,
+      boolean hasGapTag) {
+    return segment.durationUs == durationUs
+        && segment.relativeDiscontinuitySequence == previousRelativeDiscontinuitySequence
+        && segment.byteRangeOffset == byteRangeOffset
+        && segment.byteRangeLength == byteRangeLength
+        && segment.hasGapTag == hasGapTag
+        && segment.url.equals(url)
+        && segment.title.equals(title)
+        && Util.areEqual(segment.drmInitData, drmInitData)
+        && Util.areEqual(segment.fullSegmentEncryptionKeyUri, fullSegmentEncryptionKeyUri)
+        && Util.areEqual(segment.encryptionIV, encryptionIV)
+        && isSameInitializationSegment(segment.initializationSegment, initializationSegment);
+  }
+
+  private static boolean isSameInitializationSegment(
+      @Nullable Segment initializationSegment, @Nullable Segment otherInitializationSegment) {
+    if (initializationSegment == otherInitializationSegment) {
+      return true;
+    }
+    return initializationSegment != null
+        && otherInitializationSegment != null
+        && initializationSegment.byteRangeOffset == otherInitializationSegment.byteRangeOffset
+        && initializationSegment.byteRangeLength == otherInitializationSegment.byteRangeLength
+        && initializationSegment.url.equals(otherInitializationSegment.url)
+        && Util.areEqual(
+            initializationSegment.fullSegmentEncryptionKeyUri,
+            otherInitializationSegment.fullSegmentEncryptionKeyUri)
+        && Util.areEqual(
+            initializationSegment.encryptionIV, otherInitializationSegment.encryptionIV);
+  }
+
+  /**
+   * Returns the index after the decimal number starting at {@code startIndex} of {@code line}, if
+   * the number consists of digits with at most one decimal point and is followed by the end of the
+   * line or a comma, or {@link C#INDEX_UNSET} otherwise.
+   */
+  private static int getDecimalEndIndex(String line, int startIndex) {
+    if (startIndex > line.length() || line.charAt(startIndex - 1) != ':') {
+      return C.INDEX_UNSET;
+    }
+    boolean hasDecimalPoint = false;
+    int index = startIndex;
+    while (index < line.length() && line.charAt(index) != ',') {
+      char c = line.charAt(index);
+      if (c == '.' && !hasDecimalPoint) {
+        hasDecimalPoint = true;
+      } else if (c < '0' || c > '9') {
+        return C.INDEX_UNSET;
+      }
+      index++;
+    }
+    return index > startIndex && line.charAt(index - 1) != '.' ? index : C.INDEX_UNSET;
+  }
+
+  /**
+   * Parses a number of seconds made of digits with at most one decimal point into microseconds,
+   * truncating any sub-microsecond digits like {@link #parseTimeSecondsToUs(String, Pattern)}, or
+   * returns {@link C#TIME_UNSET} if it's too large.
+   */
+  private static long parseDecimalSecondsToUs(String line, int startIndex, int endIndex) {
+    long seconds = 0;
+    long fractionUs = 0;
+    long fractionDigitValueUs = C.MICROS_PER_SECOND;
+    boolean isFraction = false;
+    for (int i = startIndex; i < endIndex; i++) {
+      char c = line.charAt(i);
+      if (c == '.') {
+        isFraction = true;
+      } else if (isFraction) {
+        fractionDigitValueUs /= 10;
+        fractionUs += (c - '0') * fractionDigitValueUs;
+      } else {
+        seconds = seconds * 10 + (c - '0');
+        if (seconds > MAX_PARSED_SECONDS) {
+          return C.TIME_UNSET;
+        }
+      }
+    }
+    return seconds * C.MICROS_PER_SECOND + fractionUs;
+  }
+
+  /**
+   * Parses the non-negative integer between {@code startIndex} and {@code endIndex} of {@code
+   * line}, or returns {@link C#LENGTH_UNSET} if it's empty, contains characters other than digits
+   * or is too large.
+   */
+  private static long parseDigits(String line, int startIndex, int endIndex) {
+    if (endIndex <= startIndex || endIndex - startIndex > 18) {
+      return C.LENGTH_UNSET;
+    }
+    long value = 0;
+    for (int i = startIndex; i < endIndex; i++) {
+      char c = line.charAt(i);
+      if (c < '0' || c > '9') {
+        return C.LENGTH_UNSET;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
   private static int parseIntAttr(String line, Pattern pattern) throws ParserException {
     return Integer.parseInt(parseStringAttr(line, pattern, Collections.emptyMap()));
   }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.exoplayer.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.source.preload.PrefetchTargetParser.Target;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link HlsPrefetchTargetParser}. */
+@RunWith(AndroidJUnit4.class)
+public class HlsPrefetchTargetParserTest {
+
+  @Test
+  public void parse_multivariantPlaylist_returnsFirstVariantAndItsAudioRendition()
+      throws Exception {
+    String playlist =
+        "#EXTM3U\n"
+            + "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aud1\",NAME=\"English\",URI=\"audio1.m3u8\"\n"
+            + "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aud2\",NAME=\"English\",URI=\"audio2.m3u8\"\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=1280000,AUDIO=\"aud2\"\n"
+            + "video1.m3u8\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=2560000,AUDIO=\"aud1\"\n"
+            + "video2.m3u8\n";
+
+    List<Target> targets = parse("https://test.test/main.m3u8", playlist);
+
+    assertThat(targets).hasSize(2);
+    assertThat(targets.get(0).dataSpec.uri.toString())
+        .isEqualTo("https://test.test/video1.m3u8");
+    assertThat(targets.get(0).dataType).isEqualTo(C.DATA_TYPE_MANIFEST);
+    assertThat(targets.get(1).dataSpec.uri.toString())
+        .isEqualTo("https://test.test/audio2.m3u8");
+    assertThat(targets.get(1).dataType).isEqualTo(C.DATA_TYPE_MANIFEST);
+  }
+
+  @Test
+  public void parse_mediaPlaylistWithInitializationSegment_returnsInitializationSegment()
+      throws Exception {
+    String playlist =
+        "#EXTM3U\n"
+            + "#EXT-X-VERSION:7\n"
+            + "#EXT-X-TARGETDURATION:10\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\",BYTERANGE=\"720@100\"\n"
+            + "#EXTINF:10,\n"
+            + "segment0.m4s\n"
+            + "#EXTINF:10,\n"
+            + "segment1.m4s\n"
+            + "#EXT-X-ENDLIST\n";
+
+    List<Target> targets = parse("https://test.test/video/media.m3u8", playlist);
+
+    assertThat(targets).hasSize(1);
+    assertThat(targets.get(0).dataSpec.uri.toString())
+        .isEqualTo("https://test.test/video/init.mp4");
+    assertThat(targets.get(0).dataSpec.position).isEqualTo(100);
+    assertThat(targets.get(0).dataSpec.length).isEqualTo(720);
+    assertThat(targets.get(0).dataType).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+  }
+
+  @Test
+  public void parse_mediaPlaylistWithoutInitializationSegment_returnsNoTargets()
+      throws Exception {
+    String playlist =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:10\n"
+            + "#EXTINF:10,\n"
+            + "segment0.ts\n"
+            + "#EXT-X-ENDLIST\n";
+
+    List<Target> targets = parse("https://test.test/media.m3u8", playlist);
+
+    assertThat(targets).isEmpty();
+  }
+
+  private static List<Target> parse(String uri, String playlist) throws Exception {
+    return new HlsPrefetchTargetParser()
+        .parse(Uri.parse(uri), new ByteArrayInputStream(Util.getUtf8Bytes(playlist)));
+  }
+}
@@ -33,12 +33,17 @@ import static androidx.media3.exoplayer.hls.offline.HlsDownloadTestData.MULTIVAR
 import static androidx.media3.test.utils.CacheAsserts.assertCacheEmpty;
 import static androidx.media3.test.utils.CacheAsserts.assertCachedData;
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 
 import android.net.Uri;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.MimeTypes;
 import androidx.media3.common.StreamKey;
 import androidx.media3.common.util.Util;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.PlaceholderDataSource;
 import androidx.media3.datasource.cache.Cache;
 import androidx.media3.datasource.cache.CacheDataSource;
@@ -56,6 +61,7 @@ import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -63,6 +69,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.AdditionalAnswers;
 import org.mockito.Mockito;
 
 /** Unit tests for {@link HlsDownloader}. */
@@ -218,16 +225,171 @@ public class HlsDownloaderTest {
     assertCachedData(cache, fakeDataSet);
   }
 
+  @Test
+  public void downloadLiveMediaPlaylist_afterPlaylistUpdate_downloadsOnlyNewSegments()
+      throws Exception {
+    fakeDataSet =
+        new FakeDataSet()
+            .setData(MEDIA_PLAYLIST_1_URI, getLiveMediaPlaylistData(/* segmentCount= */ 2))
+            .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence0.ts", 10)
+            .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence1.ts", 11);
+    FakeDataSource fakeDataSource = new FakeDataSource(fakeDataSet);
+    FakeDataSource.Factory factory = Mockito.mock(FakeDataSource.Factory.class);
+    Mockito.when(factory.createDataSource()).thenReturn(fakeDataSource);
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys(), factory).download(progressListener);
+    assertThat(fakeDataSource.getAndClearOpenedDataSpecs()).hasLength(3);
+
+    fakeDataSet
+        .setData(MEDIA_PLAYLIST_1_URI, getLiveMediaPlaylistData(/* segmentCount= */ 3))
+        .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence2.ts", 12);
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys(), factory).download(progressListener);
+
+    DataSpec[] openedDataSpecs = fakeDataSource.getAndClearOpenedDataSpecs();
+    assertThat(openedDataSpecs).hasLength(2);
+    assertThat(openedDataSpecs[0].uri.toString()).isEqualTo(MEDIA_PLAYLIST_1_URI);
+    assertThat(openedDataSpecs[1].uri.toString())
+        .isEqualTo(MEDIA_PLAYLIST_1_DIR + "fileSequence2.ts");
+    assertCachedData(cache, fakeDataSet);
+    progressListener.assertBytesDownloaded(
+        getLiveMediaPlaylistData(/* segmentCount= */ 3).length + 10 + 11 + 12);
+  }
+
+  @Test
+  public void downloadLiveMediaPlaylist_withPlaylistUpdateFailing_keepsCachedPlaylist()
+      throws Exception {
+    byte[] playlistData = getLiveMediaPlaylistData(/* segmentCount= */ 2);
+    byte[] segment0Data = TestUtil.buildTestData(/* length= */ 10);
+    byte[] segment1Data = TestUtil.buildTestData(/* length= */ 11);
+    fakeDataSet =
+        new FakeDataSet()
+            .setData(MEDIA_PLAYLIST_1_URI, playlistData)
+            .setData(MEDIA_PLAYLIST_1_DIR + "fileSequence0.ts", segment0Data)
+            .setData(MEDIA_PLAYLIST_1_DIR + "fileSequence1.ts", segment1Data);
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys()).download(progressListener);
+    FakeDataSet expectedDataSet =
+        new FakeDataSet()
+            .setData(MEDIA_PLAYLIST_1_URI, playlistData)
+            .setData(MEDIA_PLAYLIST_1_DIR + "fileSequence0.ts", segment0Data)
+            .setData(MEDIA_PLAYLIST_1_DIR + "fileSequence1.ts", segment1Data);
+
+    fakeDataSet.setData(MEDIA_PLAYLIST_1_URI, Util.getUtf8Bytes("invalid"));
+    HlsDownloader downloader = getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys());
+
+    assertThrows(IOException.class, () -> downloader.download(progressListener));
+    assertCachedData(cache, expectedDataSet);
+  }
+
+  @Test
+  public void remove_afterSlidingWindowPlaylistUpdate_removesSegmentsNoLongerListed()
+      throws Exception {
+    fakeDataSet =
+        new FakeDataSet()
+            .setData(
+                MEDIA_PLAYLIST_1_URI,
+                getSlidingWindowMediaPlaylistData(/* firstSegment= */ 0, /* segmentCount= */ 2))
+            .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence0.ts", 10)
+            .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence1.ts", 11);
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys()).download(progressListener);
+    fakeDataSet
+        .setData(
+            MEDIA_PLAYLIST_1_URI,
+            getSlidingWindowMediaPlaylistData(/* firstSegment= */ 1, /* segmentCount= */ 2))
+        .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence2.ts", 12);
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys()).download(progressListener);
+
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys()).remove();
+
+    assertCacheEmpty(cache);
+  }
+
+  @Test
+  public void remove_afterInterruptedPlaylistUpdate_removesAllDownloadedSegments()
+      throws Exception {
+    fakeDataSet =
+        new FakeDataSet()
+            .setData(
+                MEDIA_PLAYLIST_1_URI,
+                getSlidingWindowMediaPlaylistData(/* firstSegment= */ 0, /* segmentCount= */ 2))
+            .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence0.ts", 10)
+            .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence1.ts", 11);
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys()).download(progressListener);
+    fakeDataSet
+        .setData(
+            MEDIA_PLAYLIST_1_URI,
+            getSlidingWindowMediaPlaylistData(/* firstSegment= */ 1, /* segmentCount= */ 2))
+        .setRandomData(MEDIA_PLAYLIST_1_DIR + "fileSequence2.ts", 12);
+    // Fail writing the updated playlist in place of the cached playlist, after the cached playlist
+    // has been removed.
+    Cache failingCache = Mockito.mock(Cache.class, AdditionalAnswers.delegatesTo(cache));
+    Mockito.doThrow(new Cache.CacheException("Failed to write playlist"))
+        .when(failingCache)
+        .startFile(eq(MEDIA_PLAYLIST_1_URI), anyLong(), anyLong());
+    HlsDownloader downloader =
+        getHlsDownloader(
+            failingCache,
+            MEDIA_PLAYLIST_1_URI,
+            getKeys(),
+            new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+    assertThrows(IOException.class, () -> downloader.download(progressListener));
+
+    getHlsDownloader(MEDIA_PLAYLIST_1_URI, getKeys()).remove();
+
+    assertCacheEmpty(cache);
+  }
+
   private HlsDownloader getHlsDownloader(String mediaPlaylistUri, List<StreamKey> keys) {
+    return getHlsDownloader(
+        mediaPlaylistUri, keys, new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+  }
+
+  private HlsDownloader getHlsDownloader(
+      String mediaPlaylistUri, List<StreamKey> keys, DataSource.Factory upstreamDataSourceFactory) {
+    return getHlsDownloader(cache, mediaPlaylistUri, keys, upstreamDataSourceFactory);
+  }
+
+  private static HlsDownloader getHlsDownloader(
+      Cache cache,
+      String mediaPlaylistUri,
+      List<StreamKey> keys,
+      DataSource.Factory upstreamDataSourceFactory) {
     CacheDataSource.Factory cacheDataSourceFactory =
         new CacheDataSource.Factory()
             .setCache(cache)
-            .setUpstreamDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet));
+            .setUpstreamDataSourceFactory(upstreamDataSourceFactory);
     return new HlsDownloader(
         new MediaItem.Builder().setUri(mediaPlaylistUri).setStreamKeys(keys).build(),
         cacheDataSourceFactory);
   }
 
+  private static byte[] getLiveMediaPlaylistData(int segmentCount) {
+    StringBuilder playlist =
+        new StringBuilder(
+            "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:10\n"
+                + "#EXT-X-VERSION:3\n"
+                + "#EXT-X-MEDIA-SEQUENCE:0\n"
+                + "#EXT-X-PLAYLIST-TYPE:EVENT\n");
+    for (int i = 0; i < segmentCount; i++) {
+      playlist.append("#EXTINF:9.97667,\nfileSequence").append(i).append(".ts\n");
+    }
+    return Util.getUtf8Bytes(playlist.toString());
+  }
+
+  private static byte[] getSlidingWindowMediaPlaylistData(int firstSegment, int segmentCount) {
+    StringBuilder playlist =
+        new StringBuilder(
+            "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:10\n"
+                + "#EXT-X-VERSION:3\n"
+                + "#EXT-X-MEDIA-SEQUENCE:"
+                + firstSegment
+                + "\n");
+    for (int i = firstSegment; i < firstSegment + segmentCount; i++) {
+      playlist.append("#EXTINF:9.97667,\nfileSequence").append(i).append(".ts\n");
+    }
+    return Util.getUtf8Bytes(playlist.toString());
+  }
+
   private static ArrayList<StreamKey> getKeys(int... variantIndices) {
     ArrayList<StreamKey> streamKeys = new ArrayList<>();
     for (int variantIndex : variantIndices) {
@@ -15,6 +15,7 @@
  */
 package androidx.media3.exoplayer.hls.playlist;
 
+import static androidx.media3.common.util.Assertions.checkNotNull;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
@@ -464,6 +465,175 @@ public class HlsMediaPlaylistParserTest {
     assertThat(playlist.trailingParts.get(0).relativeDiscontinuitySequence).isEqualTo(1);
   }
 
+  @Test
+  public void parseMediaPlaylist_withUnchangedSegments_reusesPreviousSegments() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-PLAYLIST-TYPE:EVENT\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence265.mp4\n";
+    String playlistString = previousPlaylistString + "#EXTINF:4.00008,\n" + "fileSequence266.mp4\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.segments).hasSize(3);
+    assertThat(playlist.segments.get(0)).isSameInstanceAs(previousPlaylist.segments.get(0));
+    assertThat(playlist.segments.get(1)).isSameInstanceAs(previousPlaylist.segments.get(1));
+    Segment newSegment = playlist.segments.get(2);
+    assertThat(newSegment.url).isEqualTo("fileSequence266.mp4");
+    assertThat(newSegment.relativeStartTimeUs).isEqualTo(8000160);
+    assertThat(newSegment.initializationSegment)
+        .isSameInstanceAs(previousPlaylist.segments.get(0).initializationSegment);
+  }
+
+  @Test
+  public void parseMediaPlaylist_withSlidingWindow_reusesRebasedPreviousSegments()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXT-X-DISCONTINUITY-SEQUENCE:0\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXT-X-DISCONTINUITY\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence266.mp4\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-MEDIA-SEQUENCE:265\n"
+            + "#EXT-X-DISCONTINUITY-SEQUENCE:1\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence266.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence267.mp4\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.segments).hasSize(3);
+    Segment initializationSegment =
+        checkNotNull(previousPlaylist.segments.get(1).initializationSegment);
+    for (int i = 0; i < 3; i++) {
+      Segment segment = playlist.segments.get(i);
+      assertThat(segment.url).isEqualTo("fileSequence" + (265 + i) + ".mp4");
+      assertThat(segment.relativeStartTimeUs).isEqualTo(i * 4000080L);
+      assertThat(segment.relativeDiscontinuitySequence).isEqualTo(0);
+      assertThat(segment.initializationSegment).isSameInstanceAs(initializationSegment);
+    }
+  }
+
+  @Test
+  public void parseMediaPlaylist_withChangedSegment_doesNotReuseLaterSegments() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence266.mp4\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:264\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence264.mp4\n"
+            + "#EXTINF:2.00004,\n"
+            + "fileSequence265.mp4\n"
+            + "#EXTINF:4.00008,\n"
+            + "fileSequence266.mp4\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMultivariantPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.segments.get(0)).isSameInstanceAs(previousPlaylist.segments.get(0));
+    assertThat(playlist.segments.get(1).durationUs).isEqualTo(2000040);
+    assertThat(playlist.segments.get(2)).isNotSameInstanceAs(previousPlaylist.segments.get(2));
+    assertThat(playlist.segments.get(2).relativeStartTimeUs).isEqualTo(6000120);
+  }
+
+  @Test
+  public void parseMediaPlaylist_withExtInfAndByteRangeTags_parsesValues() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXTINF:4.0000019,Title, with comma\n"
+            + "#EXT-X-BYTERANGE:100@200\n"
+            + "segment.ts\n"
+            + "#EXTINF:.5\n"
+            + "#EXT-X-BYTERANGE:300\n"
+            + "segment.ts\n"
+            + "#EXTINF:10.,\n"
+            + "segment.ts\n";
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.segments).hasSize(3);
+    Segment segment = playlist.segments.get(0);
+    assertThat(segment.durationUs).isEqualTo(4000001);
+    assertThat(segment.title).isEqualTo("Title, with comma");
+    assertThat(segment.byteRangeOffset).isEqualTo(200);
+    assertThat(segment.byteRangeLength).isEqualTo(100);
+    segment = playlist.segments.get(1);
+    assertThat(segment.durationUs).isEqualTo(500000);
+    assertThat(segment.title).isEmpty();
+    assertThat(segment.byteRangeOffset).isEqualTo(300);
+    assertThat(segment.byteRangeLength).isEqualTo(300);
+    segment = playlist.segments.get(2);
+    assertThat(segment.durationUs).isEqualTo(10000000);
+    assertThat(segment.byteRangeLength).isEqualTo(C.LENGTH_UNSET);
+  }
+
   @Test
   public void parseMediaPlaylist_withParts_parsesPartWithAllAttributes() throws IOException {
     Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
@@ -144,6 +144,11 @@ public final class SsDownloader extends SegmentDownloader<SsManifest> {
         maxMergedSegmentStartTimeDiffMs);
   }
 
+  @Override
+  protected boolean isLiveManifest(SsManifest manifest) {
+    return manifest.isLive;
+  }
+
   @Override
   protected List<Segment> getSegments(
       DataSource dataSource, SsManifest manifest, boolean removing) {
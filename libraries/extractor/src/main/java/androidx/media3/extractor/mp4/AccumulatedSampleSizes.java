@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import androidx.media3.common.C;
+import java.util.ArrayList;
+
+/**
+ * For each sample of each track, calculates the accumulated size of all samples which need to be
+ * read before this sample can be used, when the samples of all tracks are read in timestamp order.
+ *
+ * <p>The samples of the tracks are only merged as far as needed to answer the queries. Each track
+ * has its own merge cursor, so that tracks whose current samples are far apart can be queried in
+ * turn, and the state of the merge is kept every {@link #SNAPSHOT_INTERVAL} samples, so that a
+ * cursor can resume close to an earlier sample after a seek.
+ *
+ * <p>Instances must only be accessed from one thread at a time.
+ */
+/* package */ final class AccumulatedSampleSizes {
+
+  /** The number of merged samples between two snapshots of the merge state. */
+  private static final int SNAPSHOT_INTERVAL = 1024;
+
+  private final TrackSampleTable[] sampleTables;
+  private final MergeState[] cursors;
+  private final ArrayList<MergeState> snapshots;
+
+  /**
+   * Creates an instance.
+   *
+   * @param sampleTables The sample tables of the tracks.
+   */
+  public AccumulatedSampleSizes(TrackSampleTable[] sampleTables) {
+    this.sampleTables = sampleTables;
+    MergeState initialState = new MergeState(sampleTables);
+    snapshots = new ArrayList<>();
+    snapshots.add(initialState);
+    cursors = new MergeState[sampleTables.length];
+    for (int i = 0; i < sampleTables.length; i++) {
+      cursors[i] = new MergeState(initialState);
+    }
+  }
+
+  /**
+   * Returns the accumulated size of all samples which need to be read before a sample can be used.
+   *
+   * @param trackIndex The index of the track of the sample.
+   * @param sampleIndex The index of the sample in its track.
+   * @return The accumulated size of all samples which need to be read before the sample, in bytes.
+   */
+  public long get(int trackIndex, int sampleIndex) {
+    MergeState cursor = cursors[trackIndex];
+    int nextSampleIndex = cursor.nextSampleIndices[trackIndex];
+    if (nextSampleIndex == sampleIndex + 1) {
+      // The cursor stopped at the queried sample.
+      return cursor.accumulatedSizeBeforeLastSample;
+    } else if (nextSampleIndex > sampleIndex) {
+      cursor = new MergeState(getLatestSnapshotBefore(trackIndex, sampleIndex));
+      cursors[trackIndex] = cursor;
+    }
+    while (true) {
+      int mergedTrackIndex = cursor.mergeNextSample(sampleTables);
+      if (cursor.mergedSampleCount == (long) snapshots.size() * SNAPSHOT_INTERVAL) {
+        snapshots.add(new MergeState(cursor));
+      }
+      if (mergedTrackIndex == trackIndex
+          && cursor.nextSampleIndices[trackIndex] == sampleIndex + 1) {
+        return cursor.accumulatedSizeBeforeLastSample;
+      }
+    }
+  }
+
+  /**
+   * Returns the latest snapshot in which the sample with index {@code sampleIndex} of the track
+   * with index {@code trackIndex} hasn't been merged yet.
+   */
+  private MergeState getLatestSnapshotBefore(int trackIndex, int sampleIndex) {
+    // The merged samples of each track only increase from one snapshot to the next, and the first
+    // snapshot hasn't merged any samples.
+    int low = 0;
+    int high = snapshots.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (snapshots.get(mid).nextSampleIndices[trackIndex] <= sampleIndex) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return snapshots.get(low);
+  }
+
+  /** The state of merging the samples of the tracks in timestamp order. */
+  private static final class MergeState {
+
+    /** The index of the next sample to merge for each track. */
+    public final int[] nextSampleIndices;
+
+    /** The timestamp of the next sample to merge for each track. */
+    public final long[] nextSampleTimesUs;
+
+    /** The number of samples that have been merged. */
+    public long mergedSampleCount;
+
+    /** The accumulated size of the samples that have been merged. */
+    public long accumulatedSize;
+
+    /** The accumulated size of the samples merged before the last merged sample. */
+    public long accumulatedSizeBeforeLastSample;
+
+    /** Creates the state in which no samples have been merged. */
+    public MergeState(TrackSampleTable[] sampleTables) {
+      nextSampleIndices = new int[sampleTables.length];
+      nextSampleTimesUs = new long[sampleTables.length];
+      for (int i = 0; i < sampleTables.length; i++) {
+        nextSampleTimesUs[i] =
+            sampleTables[i].sampleCount > 0 ? sampleTables[i].getTimestampUs(0) : C.TIME_UNSET;
+      }
+    }
+
+    /** Creates a copy of {@code other}. */
+    public MergeState(MergeState other) {
+      nextSampleIndices = other.nextSampleIndices.clone();
+      nextSampleTimesUs = other.nextSampleTimesUs.clone();
+      mergedSampleCount = other.mergedSampleCount;
+      accumulatedSize = other.accumulatedSize;
+      accumulatedSizeBeforeLastSample = other.accumulatedSizeBeforeLastSample;
+    }
+
+    /**
+     * Merges the next sample, which is the one with the smallest timestamp of all tracks, or the
+     * one of the last such track in case of a tie. Must only be called while samples remain.
+     *
+     * @param sampleTables The sample tables of the tracks.
+     * @return The index of the track of the merged sample.
+     */
+    public int mergeNextSample(TrackSampleTable[] sampleTables) {
+      long minTimeUs = Long.MAX_VALUE;
+      int minTimeTrackIndex = C.INDEX_UNSET;
+      for (int i = 0; i < sampleTables.length; i++) {
+        if (nextSampleIndices[i] < sampleTables[i].sampleCount
+            && nextSampleTimesUs[i] <= minTimeUs) {
+          minTimeTrackIndex = i;
+          minTimeUs = nextSampleTimesUs[i];
+        }
+      }
+      TrackSampleTable sampleTable = sampleTables[minTimeTrackIndex];
+      int sampleIndex = nextSampleIndices[minTimeTrackIndex];
+      accumulatedSizeBeforeLastSample = accumulatedSize;
+      accumulatedSize += sampleTable.getSize(sampleIndex);
+      nextSampleIndices[minTimeTrackIndex] = ++sampleIndex;
+      if (sampleIndex < sampleTable.sampleCount) {
+        nextSampleTimesUs[minTimeTrackIndex] = sampleTable.getTimestampUs(sampleIndex);
+      }
+      mergedSampleCount++;
+      return minTimeTrackIndex;
+    }
+  }
+}
@@ -113,6 +113,8 @@ import java.util.Objects;
    * @param drmInitData {@link DrmInitData} to be included in the format, or {@code null}.
    * @param ignoreEditLists Whether to ignore any edit lists in the trak boxes.
    * @param isQuickTime True for QuickTime media. False otherwise.
+   * @param useCompactSampleTables Whether to decode sample tables on demand where possible, rather
+   *     than into per-sample arrays.
    * @param modifyTrackFunction A function to apply to the {@link Track Tracks} in the result.
    * @return A list of {@link TrackSampleTable} instances.
    * @throws ParserException Thrown if the trak atoms can't be parsed.
@@ -124,6 +126,7 @@ import java.util.Objects;
       @Nullable DrmInitData drmInitData,
       boolean ignoreEditLists,
       boolean isQuickTime,
+      boolean useCompactSampleTables,
       Function<@NullableType Track, @NullableType Track> modifyTrackFunction)
       throws ParserException {
     List<TrackSampleTable> trackSampleTables = new ArrayList<>();
@@ -151,7 +154,13 @@ import java.util.Objects;
                       checkNotNull(atom.getContainerAtomOfType(Atom.TYPE_mdia))
                           .getContainerAtomOfType(Atom.TYPE_minf))
                   .getContainerAtomOfType(Atom.TYPE_stbl));
-      TrackSampleTable trackSampleTable = parseStbl(track, stblAtom, gaplessInfoHolder);
+      @Nullable
+      CompactSampleTable compactSampleTable =
+          useCompactSampleTables ? CompactSampleTable.create(track, stblAtom) : null;
+      TrackSampleTable trackSampleTable =
+          compactSampleTable != null
+              ? new TrackSampleTable(track, compactSampleTable)
+              : parseStbl(track, stblAtom, gaplessInfoHolder);
       trackSampleTables.add(trackSampleTable);
     }
     return trackSampleTables;
@@ -0,0 +1,701 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.common.util.Util;
+import java.util.Arrays;
+
+/**
+ * The samples of a track in an MP4 file, decoded on demand from the boxes of an stbl atom (defined
+ * in ISO/IEC 14496-12).
+ *
+ * <p>The stsz, stco/co64 and stss boxes are kept as they were read from the file, and the stsc,
+ * stts and ctts boxes are kept as runs of samples that share a value. This uses a fraction of the
+ * memory of per-sample arrays, and creating an instance doesn't require iterating over every
+ * sample's timing and position.
+ *
+ * <p>Instances must only be accessed from one thread at a time.
+ */
+/* package */ final class CompactSampleTable {
+
+  /** Offset of the first sample size in an stsz atom. */
+  private static final int STSZ_ENTRIES_OFFSET = Atom.FULL_HEADER_SIZE + 8;
+
+  /** Offset of the first chunk offset in an stco or co64 atom. */
+  private static final int CHUNK_OFFSETS_ENTRIES_OFFSET = Atom.FULL_HEADER_SIZE + 4;
+
+  /** Offset of the first sample number in an stss atom. */
+  private static final int STSS_ENTRIES_OFFSET = Atom.FULL_HEADER_SIZE + 4;
+
+  /** Number of samples. */
+  public final int sampleCount;
+
+  /** Maximum sample size in bytes. */
+  public final int maximumSize;
+
+  /** The duration of the samples in microseconds. */
+  public final long durationUs;
+
+  private final int fixedSampleSize;
+  @Nullable private final byte[] sampleSizes;
+  private final byte[] chunkOffsets;
+  private final boolean chunkOffsetsAreLongs;
+
+  /** For each run of chunks with the same number of samples, the index of its first sample. */
+  private final int[] chunkRunFirstSampleIndices;
+
+  /** For each run of chunks with the same number of samples, the index of its first chunk. */
+  private final int[] chunkRunFirstChunkIndices;
+
+  /** For each run of chunks with the same number of samples, the number of samples per chunk. */
+  private final int[] chunkRunSamplesPerChunk;
+
+  /** For each run of samples with the same duration, the index of its first sample. */
+  private final int[] durationRunFirstSampleIndices;
+
+  /** For each run of samples with the same duration, the decoding time of its first sample. */
+  private final long[] durationRunFirstDecodingTimes;
+
+  /** For each run of samples with the same duration, the duration of its samples. */
+  private final int[] durationRunDeltas;
+
+  /** For each run of samples with the same composition offset, the index of its first sample. */
+  @Nullable private final int[] compositionOffsetRunFirstSampleIndices;
+
+  /** For each run of samples with the same composition offset, the composition offset. */
+  @Nullable private final int[] compositionOffsetRunOffsets;
+
+  @Nullable private final byte[] synchronizationSamples;
+  private final int synchronizationSampleCount;
+
+  private final long timescale;
+  private final long timestampShift;
+  private final boolean clampTimestampsToZero;
+
+  // The position of the sample that was last read, which is only accessed from the loading thread.
+  private int readCursorSampleIndex;
+  private long readCursorOffset;
+  private int readCursorChunkEndSampleIndex;
+
+  /**
+   * Creates a compact sample table for the samples described by an stbl atom, or returns null if
+   * the samples can't be represented compactly and a {@link TrackSampleTable} with per-sample
+   * arrays should be used instead.
+   *
+   * <p>Tables are only created for stbl atoms whose boxes are consistent with each other, so that
+   * the samples are the same as if they were decoded into per-sample arrays. Raw audio that needs
+   * to be rechunked, stz2 boxes and edit lists other than a single edit that keeps all the samples
+   * of a non-audio track aren't supported.
+   *
+   * @param track The track to which the stbl atom corresponds.
+   * @param stblAtom The stbl (sample table) atom.
+   * @return The compact sample table, or null.
+   */
+  @Nullable
+  public static CompactSampleTable create(Track track, Atom.ContainerAtom stblAtom) {
+    @Nullable Atom.LeafAtom stszAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stsz);
+    @Nullable Atom.LeafAtom stscAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stsc);
+    @Nullable Atom.LeafAtom sttsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stts);
+    boolean chunkOffsetsAreLongs = false;
+    @Nullable Atom.LeafAtom chunkOffsetsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stco);
+    if (chunkOffsetsAtom == null) {
+      chunkOffsetsAreLongs = true;
+      chunkOffsetsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_co64);
+    }
+    if (stszAtom == null || stscAtom == null || sttsAtom == null || chunkOffsetsAtom == null) {
+      return null;
+    }
+    if (MimeTypes.AUDIO_RAW.equals(track.format.sampleMimeType)
+        || MimeTypes.AUDIO_MLAW.equals(track.format.sampleMimeType)
+        || MimeTypes.AUDIO_ALAW.equals(track.format.sampleMimeType)) {
+      // Raw audio may need to be rechunked, and its tables are small once it is.
+      return null;
+    }
+
+    // Sample sizes.
+    ParsableByteArray stsz = stszAtom.data;
+    if (stsz.limit() < STSZ_ENTRIES_OFFSET) {
+      return null;
+    }
+    int fixedSampleSize = readInt(stsz.getData(), Atom.FULL_HEADER_SIZE);
+    int stszSampleCount = readInt(stsz.getData(), Atom.FULL_HEADER_SIZE + 4);
+    if (fixedSampleSize < 0
+        || stszSampleCount <= 0
+        || (fixedSampleSize == 0
+            && (long) STSZ_ENTRIES_OFFSET + 4L * stszSampleCount > stsz.limit())) {
+      return null;
+    }
+
+    // Chunks.
+    ParsableByteArray chunkOffsetsData = chunkOffsetsAtom.data;
+    if (chunkOffsetsData.limit() < CHUNK_OFFSETS_ENTRIES_OFFSET) {
+      return null;
+    }
+    int chunkCount = readInt(chunkOffsetsData.getData(), Atom.FULL_HEADER_SIZE);
+    if (chunkCount < 0
+        || (long) CHUNK_OFFSETS_ENTRIES_OFFSET + (chunkOffsetsAreLongs ? 8L : 4L) * chunkCount
+            > chunkOffsetsData.limit()) {
+      return null;
+    }
+    ParsableByteArray stsc = stscAtom.data;
+    byte[] stscData = stsc.getData();
+    if (stsc.limit() < Atom.FULL_HEADER_SIZE + 4) {
+      return null;
+    }
+    int stscEntryCount = readInt(stscData, Atom.FULL_HEADER_SIZE);
+    if (stscEntryCount <= 0
+        || (long) Atom.FULL_HEADER_SIZE + 4 + 12L * stscEntryCount > stsc.limit()
+        || readInt(stscData, Atom.FULL_HEADER_SIZE + 4) != 1) {
+      return null;
+    }
+    int[] chunkRunFirstSampleIndices = new int[stscEntryCount];
+    int[] chunkRunFirstChunkIndices = new int[stscEntryCount];
+    int[] chunkRunSamplesPerChunk = new int[stscEntryCount];
+    int chunkRunCount = 0;
+    long chunkedSampleCount = 0;
+    for (int i = 0; i < stscEntryCount; i++) {
+      int entryPosition = Atom.FULL_HEADER_SIZE + 4 + 12 * i;
+      int firstChunkIndex = readInt(stscData, entryPosition) - 1;
+      int samplesPerChunk = readInt(stscData, entryPosition + 4);
+      int nextFirstChunkIndex =
+          i + 1 < stscEntryCount ? readInt(stscData, entryPosition + 12) - 1 : chunkCount;
+      if (samplesPerChunk < 0 || nextFirstChunkIndex <= firstChunkIndex) {
+        return null;
+      }
+      if (firstChunkIndex >= chunkCount) {
+        break;
+      }
+      int runChunkCount = min(nextFirstChunkIndex, chunkCount) - firstChunkIndex;
+      if (samplesPerChunk == 0) {
+        continue;
+      }
+      chunkRunFirstSampleIndices[chunkRunCount] = (int) min(chunkedSampleCount, Integer.MAX_VALUE);
+      chunkRunFirstChunkIndices[chunkRunCount] = firstChunkIndex;
+      chunkRunSamplesPerChunk[chunkRunCount] = samplesPerChunk;
+      chunkRunCount++;
+      chunkedSampleCount += (long) runChunkCount * samplesPerChunk;
+    }
+    // Samples without chunks are dropped, as they are when decoding into per-sample arrays.
+    int sampleCount = (int) min(stszSampleCount, chunkedSampleCount);
+    if (sampleCount == 0) {
+      return null;
+    }
+
+    // Sample durations.
+    ParsableByteArray stts = sttsAtom.data;
+    byte[] sttsData = stts.getData();
+    if (stts.limit() < Atom.FULL_HEADER_SIZE + 4) {
+      return null;
+    }
+    int sttsEntryCount = readInt(sttsData, Atom.FULL_HEADER_SIZE);
+    if (sttsEntryCount <= 0
+        || (long) Atom.FULL_HEADER_SIZE + 4 + 8L * sttsEntryCount > stts.limit()) {
+      return null;
+    }
+    int[] durationRunFirstSampleIndices = new int[sttsEntryCount];
+    long[] durationRunFirstDecodingTimes = new long[sttsEntryCount];
+    int[] durationRunDeltas = new int[sttsEntryCount];
+    long durationSampleCount = 0;
+    long decodingTime = 0;
+    for (int i = 0; i < sttsEntryCount; i++) {
+      int entryPosition = Atom.FULL_HEADER_SIZE + 4 + 8 * i;
+      int count = readInt(sttsData, entryPosition);
+      if (count <= 0) {
+        return null;
+      }
+      durationRunFirstSampleIndices[i] = (int) min(durationSampleCount, Integer.MAX_VALUE);
+      durationRunFirstDecodingTimes[i] = decodingTime;
+      // Sample deltas are decoded as signed integers, as some streams violate the spec.
+      durationRunDeltas[i] = readInt(sttsData, entryPosition + 4);
+      durationSampleCount += count;
+      decodingTime += (long) count * durationRunDeltas[i];
+    }
+    if (durationSampleCount != sampleCount) {
+      return null;
+    }
+
+    // Composition offsets.
+    @Nullable int[] compositionOffsetRunFirstSampleIndices = null;
+    @Nullable int[] compositionOffsetRunOffsets = null;
+    int lastCompositionOffset = 0;
+    @Nullable Atom.LeafAtom cttsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_ctts);
+    if (cttsAtom != null) {
+      ParsableByteArray ctts = cttsAtom.data;
+      byte[] cttsData = ctts.getData();
+      if (ctts.limit() < Atom.FULL_HEADER_SIZE + 4) {
+        return null;
+      }
+      int cttsEntryCount = readInt(cttsData, Atom.FULL_HEADER_SIZE);
+      if (cttsEntryCount < 0
+          || (long) Atom.FULL_HEADER_SIZE + 4 + 8L * cttsEntryCount > ctts.limit()) {
+        return null;
+      }
+      compositionOffsetRunFirstSampleIndices = new int[cttsEntryCount];
+      compositionOffsetRunOffsets = new int[cttsEntryCount];
+      int compositionOffsetRunCount = 0;
+      long compositionOffsetSampleCount = 0;
+      for (int i = 0; i < cttsEntryCount; i++) {
+        int entryPosition = Atom.FULL_HEADER_SIZE + 4 + 8 * i;
+        int count = readInt(cttsData, entryPosition);
+        if (count < 0) {
+          return null;
+        } else if (count == 0) {
+          continue;
+        }
+        compositionOffsetRunFirstSampleIndices[compositionOffsetRunCount] =
+            (int) min(compositionOffsetSampleCount, Integer.MAX_VALUE);
+        // Sample offsets are decoded as signed integers, as some streams violate the spec.
+        lastCompositionOffset = readInt(cttsData, entryPosition + 4);
+        compositionOffsetRunOffsets[compositionOffsetRunCount] = lastCompositionOffset;
+        compositionOffsetRunCount++;
+        compositionOffsetSampleCount += count;
+      }
+      if (compositionOffsetSampleCount != sampleCount) {
+        return null;
+      }
+      compositionOffsetRunFirstSampleIndices =
+          trim(compositionOffsetRunFirstSampleIndices, compositionOffsetRunCount);
+      compositionOffsetRunOffsets = trim(compositionOffsetRunOffsets, compositionOffsetRunCount);
+    }
+
+    // Synchronization samples.
+    @Nullable byte[] synchronizationSamples = null;
+    int synchronizationSampleCount = 0;
+    @Nullable Atom.LeafAtom stssAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stss);
+    if (stssAtom != null) {
+      ParsableByteArray stss = stssAtom.data;
+      if (stss.limit() < STSS_ENTRIES_OFFSET) {
+        return null;
+      }
+      synchronizationSampleCount = readInt(stss.getData(), Atom.FULL_HEADER_SIZE);
+      if (synchronizationSampleCount < 0
+          || (long) STSS_ENTRIES_OFFSET + 4L * synchronizationSampleCount > stss.limit()) {
+        return null;
+      }
+      // Empty stss boxes are ignored, which causes all samples to be treated as sync samples.
+      if (synchronizationSampleCount > 0) {
+        synchronizationSamples = stss.getData();
+        int previousSampleNumber = 0;
+        for (int i = 0; i < synchronizationSampleCount; i++) {
+          int sampleNumber = readInt(synchronizationSamples, STSS_ENTRIES_OFFSET + 4 * i);
+          if (sampleNumber <= previousSampleNumber || sampleNumber > sampleCount) {
+            return null;
+          }
+          previousSampleNumber = sampleNumber;
+        }
+      }
+    }
+
+    int maximumSize;
+    byte[] stszData = stsz.getData();
+    if (fixedSampleSize != 0) {
+      maximumSize = fixedSampleSize;
+    } else {
+      maximumSize = 0;
+      for (int i = 0; i < sampleCount; i++) {
+        int size = readInt(stszData, STSZ_ENTRIES_OFFSET + 4 * i);
+        if (size < 0) {
+          return null;
+        }
+        maximumSize = max(maximumSize, size);
+      }
+    }
+
+    CompactSampleTable compactSampleTable =
+        new CompactSampleTable(
+            sampleCount,
+            maximumSize,
+            fixedSampleSize != 0 ? fixedSampleSize : C.LENGTH_UNSET,
+            fixedSampleSize != 0 ? null : stszData,
+            chunkOffsetsData.getData(),
+            chunkOffsetsAreLongs,
+            trim(chunkRunFirstSampleIndices, chunkRunCount),
+            trim(chunkRunFirstChunkIndices, chunkRunCount),
+            trim(chunkRunSamplesPerChunk, chunkRunCount),
+            durationRunFirstSampleIndices,
+            durationRunFirstDecodingTimes,
+            durationRunDeltas,
+            compositionOffsetRunFirstSampleIndices,
+            compositionOffsetRunOffsets,
+            synchronizationSamples,
+            synchronizationSampleCount,
+            track.timescale,
+            /* timestampShift= */ 0,
+            /* clampTimestampsToZero= */ false,
+            /* durationUs= */ Util.scaleLargeTimestamp(
+                decodingTime + lastCompositionOffset, C.MICROS_PER_SECOND, track.timescale));
+    return compactSampleTable.maybeApplyEditList(track, decodingTime + lastCompositionOffset);
+  }
+
+  private CompactSampleTable(
+      int sampleCount,
+      int maximumSize,
+      int fixedSampleSize,
+      @Nullable byte[] sampleSizes,
+      byte[] chunkOffsets,
+      boolean chunkOffsetsAreLongs,
+      int[] chunkRunFirstSampleIndices,
+      int[] chunkRunFirstChunkIndices,
+      int[] chunkRunSamplesPerChunk,
+      int[] durationRunFirstSampleIndices,
+      long[] durationRunFirstDecodingTimes,
+      int[] durationRunDeltas,
+      @Nullable int[] compositionOffsetRunFirstSampleIndices,
+      @Nullable int[] compositionOffsetRunOffsets,
+      @Nullable byte[] synchronizationSamples,
+      int synchronizationSampleCount,
+      long timescale,
+      long timestampShift,
+      boolean clampTimestampsToZero,
+      long durationUs) {
+    this.sampleCount = sampleCount;
+    this.maximumSize = maximumSize;
+    this.fixedSampleSize = fixedSampleSize;
+    this.sampleSizes = sampleSizes;
+    this.chunkOffsets = chunkOffsets;
+    this.chunkOffsetsAreLongs = chunkOffsetsAreLongs;
+    this.chunkRunFirstSampleIndices = chunkRunFirstSampleIndices;
+    this.chunkRunFirstChunkIndices = chunkRunFirstChunkIndices;
+    this.chunkRunSamplesPerChunk = chunkRunSamplesPerChunk;
+    this.durationRunFirstSampleIndices = durationRunFirstSampleIndices;
+    this.durationRunFirstDecodingTimes = durationRunFirstDecodingTimes;
+    this.durationRunDeltas = durationRunDeltas;
+    this.compositionOffsetRunFirstSampleIndices = compositionOffsetRunFirstSampleIndices;
+    this.compositionOffsetRunOffsets = compositionOffsetRunOffsets;
+    this.synchronizationSamples = synchronizationSamples;
+    this.synchronizationSampleCount = synchronizationSampleCount;
+    this.timescale = timescale;
+    this.timestampShift = timestampShift;
+    this.clampTimestampsToZero = clampTimestampsToZero;
+    this.durationUs = durationUs;
+    readCursorSampleIndex = C.INDEX_UNSET;
+  }
+
+  /** Returns the size of a sample in bytes. */
+  public int getSize(int sampleIndex) {
+    return sampleSizes == null
+        ? fixedSampleSize
+        : readInt(sampleSizes, STSZ_ENTRIES_OFFSET + 4 * sampleIndex);
+  }
+
+  /**
+   * Returns the offset of a sample in bytes.
+   *
+   * <p>May be called from any thread.
+   */
+  public long getOffset(int sampleIndex) {
+    return getOffset(sampleIndex, /* updateReadCursor= */ false);
+  }
+
+  /**
+   * Returns the offset of a sample in bytes, like {@link #getOffset(int)}, but in constant time if
+   * the sample follows the previously requested one in the same chunk.
+   *
+   * <p>Must only be called from the thread that reads the samples, because it updates a cursor.
+   */
+  public long getReadOffset(int sampleIndex) {
+    if (sampleIndex == readCursorSampleIndex) {
+      return readCursorOffset;
+    } else if (readCursorSampleIndex != C.INDEX_UNSET
+        && sampleIndex == readCursorSampleIndex + 1
+        && sampleIndex < readCursorChunkEndSampleIndex) {
+      // The sample follows the previous one in the same chunk, as when samples are read in order.
+      readCursorOffset += getSize(readCursorSampleIndex);
+      readCursorSampleIndex = sampleIndex;
+      return readCursorOffset;
+    }
+    return getOffset(sampleIndex, /* updateReadCursor= */ true);
+  }
+
+  /** Returns the presentation timestamp of a sample in microseconds. */
+  public long getTimestampUs(int sampleIndex) {
+    long timestampUs =
+        Util.scaleLargeTimestamp(
+            getTimestamp(sampleIndex) - timestampShift, C.MICROS_PER_SECOND, timescale);
+    return clampTimestampsToZero ? max(0, timestampUs) : timestampUs;
+  }
+
+  /** Returns whether a sample is a synchronization sample. */
+  public boolean isSynchronizationSample(int sampleIndex) {
+    return synchronizationSamples == null
+        || getSynchronizationSampleIndex(sampleIndex, /* floor= */ true) == sampleIndex;
+  }
+
+  /**
+   * Returns the index of the closest synchronization sample at or before the given timestamp, or
+   * {@link C#INDEX_UNSET} if none, like {@link
+   * TrackSampleTable#getIndexOfEarlierOrEqualSynchronizationSample(long)}.
+   */
+  public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    int startIndex =
+        binarySearchTimestampsFloor(
+            timeUs, /* inUs= */ true, /* inclusive= */ true, /* stayInBounds= */ false);
+    return startIndex < 0
+        ? C.INDEX_UNSET
+        : getSynchronizationSampleIndex(startIndex, /* floor= */ true);
+  }
+
+  /**
+   * Returns the index of the closest synchronization sample at or after the given timestamp, or
+   * {@link C#INDEX_UNSET} if none, like {@link
+   * TrackSampleTable#getIndexOfLaterOrEqualSynchronizationSample(long)}.
+   */
+  public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    int startIndex =
+        binarySearchTimestampsCeil(
+            timeUs, /* inUs= */ true, /* inclusive= */ true, /* stayInBounds= */ false);
+    return startIndex >= sampleCount
+        ? C.INDEX_UNSET
+        : getSynchronizationSampleIndex(startIndex, /* floor= */ false);
+  }
+
+  /**
+   * Returns a table whose timestamps and duration have the track's edit list applied, or null if
+   * the edit list isn't supported.
+   */
+  @Nullable
+  private CompactSampleTable maybeApplyEditList(Track track, long duration) {
+    @Nullable long[] editListDurations = track.editListDurations;
+    @Nullable long[] editListMediaTimes = track.editListMediaTimes;
+    if (editListDurations == null || editListMediaTimes == null) {
+      return this;
+    }
+    if (editListDurations.length != 1 || track.type == C.TRACK_TYPE_AUDIO) {
+      // Audio edits may be applied as gapless playback information, and multiple edits move
+      // samples relative to each other.
+      return null;
+    }
+    long editMediaTime = editListMediaTimes[0];
+    if (editListDurations[0] == 0) {
+      // Edits with zero duration include all samples, see AtomParsers.parseStbl.
+      return withTimestampAdjustment(
+          /* timestampShift= */ editMediaTime,
+          /* clampTimestampsToZero= */ false,
+          Util.scaleLargeTimestamp(duration - editMediaTime, C.MICROS_PER_SECOND, track.timescale));
+    }
+    if (editMediaTime == -1) {
+      return null;
+    }
+    long editDuration =
+        Util.scaleLargeTimestamp(editListDurations[0], track.timescale, track.movieTimescale);
+    int startIndex =
+        binarySearchTimestampsFloor(
+            editMediaTime, /* inUs= */ false, /* inclusive= */ true, /* stayInBounds= */ true);
+    int endIndex =
+        binarySearchTimestampsCeil(
+            editMediaTime + editDuration,
+            /* inUs= */ false,
+            /* inclusive= */ false,
+            /* stayInBounds= */ false);
+    while (startIndex < endIndex && !isSynchronizationSample(startIndex)) {
+      startIndex++;
+    }
+    if (startIndex != 0 || endIndex != sampleCount) {
+      // The edit drops samples.
+      return null;
+    }
+    return withTimestampAdjustment(
+        /* timestampShift= */ editMediaTime,
+        /* clampTimestampsToZero= */ true,
+        Util.scaleLargeTimestamp(editListDurations[0], C.MICROS_PER_SECOND, track.movieTimescale));
+  }
+
+  private CompactSampleTable withTimestampAdjustment(
+      long timestampShift, boolean clampTimestampsToZero, long durationUs) {
+    return new CompactSampleTable(
+        sampleCount,
+        maximumSize,
+        fixedSampleSize,
+        sampleSizes,
+        chunkOffsets,
+        chunkOffsetsAreLongs,
+        chunkRunFirstSampleIndices,
+        chunkRunFirstChunkIndices,
+        chunkRunSamplesPerChunk,
+        durationRunFirstSampleIndices,
+        durationRunFirstDecodingTimes,
+        durationRunDeltas,
+        compositionOffsetRunFirstSampleIndices,
+        compositionOffsetRunOffsets,
+        synchronizationSamples,
+        synchronizationSampleCount,
+        timescale,
+        timestampShift,
+        clampTimestampsToZero,
+        durationUs);
+  }
+
+  private long getOffset(int sampleIndex, boolean updateReadCursor) {
+    int runIndex =
+        Util.binarySearchFloor(
+            chunkRunFirstSampleIndices,
+            sampleIndex,
+            /* inclusive= */ true,
+            /* stayInBounds= */ true);
+    int indexInRun = sampleIndex - chunkRunFirstSampleIndices[runIndex];
+    int samplesPerChunk = chunkRunSamplesPerChunk[runIndex];
+    int chunkIndex = chunkRunFirstChunkIndices[runIndex] + indexInRun / samplesPerChunk;
+    int indexInChunk = indexInRun % samplesPerChunk;
+    long offset = readChunkOffset(chunkIndex);
+    if (sampleSizes == null) {
+      offset += (long) indexInChunk * fixedSampleSize;
+    } else {
+      for (int i = sampleIndex - indexInChunk; i < sampleIndex; i++) {
+        offset += getSize(i);
+      }
+    }
+    if (updateReadCursor) {
+      readCursorSampleIndex = sampleIndex;
+      readCursorOffset = offset;
+      readCursorChunkEndSampleIndex = sampleIndex - indexInChunk + samplesPerChunk;
+    }
+    return offset;
+  }
+
+  /** Returns the presentation timestamp of a sample in the track's timescale, before edits. */
+  private long getTimestamp(int sampleIndex) {
+    int runIndex =
+        Util.binarySearchFloor(
+            durationRunFirstSampleIndices,
+            sampleIndex,
+            /* inclusive= */ true,
+            /* stayInBounds= */ true);
+    long timestamp =
+        durationRunFirstDecodingTimes[runIndex]
+            + (long) (sampleIndex - durationRunFirstSampleIndices[runIndex])
+                * durationRunDeltas[runIndex];
+    if (compositionOffsetRunFirstSampleIndices != null && compositionOffsetRunOffsets != null) {
+      int compositionOffsetRunIndex =
+          Util.binarySearchFloor(
+              compositionOffsetRunFirstSampleIndices,
+              sampleIndex,
+              /* inclusive= */ true,
+              /* stayInBounds= */ true);
+      timestamp += compositionOffsetRunOffsets[compositionOffsetRunIndex];
+    }
+    return timestamp;
+  }
+
+  /**
+   * Returns the index of the closest synchronization sample at or before ({@code floor}) or at or
+   * after (not {@code floor}) a sample, or {@link C#INDEX_UNSET} if none.
+   */
+  private int getSynchronizationSampleIndex(int sampleIndex, boolean floor) {
+    if (synchronizationSamples == null) {
+      return sampleIndex;
+    }
+    int sampleNumber = sampleIndex + 1;
+    int low = 0;
+    int high = synchronizationSampleCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midSampleNumber = readInt(synchronizationSamples, STSS_ENTRIES_OFFSET + 4 * mid);
+      if (midSampleNumber < sampleNumber) {
+        low = mid + 1;
+      } else if (midSampleNumber > sampleNumber) {
+        high = mid - 1;
+      } else {
+        return sampleIndex;
+      }
+    }
+    int entryIndex = floor ? high : low;
+    if (entryIndex < 0 || entryIndex >= synchronizationSampleCount) {
+      return C.INDEX_UNSET;
+    }
+    return readInt(synchronizationSamples, STSS_ENTRIES_OFFSET + 4 * entryIndex) - 1;
+  }
+
+  // The timestamp searches behave like Util.binarySearchFloor and Util.binarySearchCeil on an
+  // array of the timestamps, including for timestamps that aren't sorted because of composition
+  // offsets.
+
+  private int binarySearchTimestampsFloor(
+      long value, boolean inUs, boolean inclusive, boolean stayInBounds) {
+    int index = binarySearchTimestamps(value, inUs);
+    if (index < 0) {
+      index = -(index + 2);
+    } else {
+      while (--index >= 0 && getTimestamp(index, inUs) == value) {}
+      if (inclusive) {
+        index++;
+      }
+    }
+    return stayInBounds ? max(0, index) : index;
+  }
+
+  private int binarySearchTimestampsCeil(
+      long value, boolean inUs, boolean inclusive, boolean stayInBounds) {
+    int index = binarySearchTimestamps(value, inUs);
+    if (index < 0) {
+      index = ~index;
+    } else {
+      while (++index < sampleCount && getTimestamp(index, inUs) == value) {}
+      if (inclusive) {
+        index--;
+      }
+    }
+    return stayInBounds ? min(sampleCount - 1, index) : index;
+  }
+
+  /** Searches the timestamps like {@link Arrays#binarySearch(long[], long)}. */
+  private int binarySearchTimestamps(long value, boolean inUs) {
+    int low = 0;
+    int high = sampleCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midValue = getTimestamp(mid, inUs);
+      if (midValue < value) {
+        low = mid + 1;
+      } else if (midValue > value) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private long getTimestamp(int sampleIndex, boolean inUs) {
+    return inUs ? getTimestampUs(sampleIndex) : getTimestamp(sampleIndex);
+  }
+
+  private long readChunkOffset(int chunkIndex) {
+    if (chunkOffsetsAreLongs) {
+      int position = CHUNK_OFFSETS_ENTRIES_OFFSET + 8 * chunkIndex;
+      return ((long) readInt(chunkOffsets, position) << 32)
+          | (readInt(chunkOffsets, position + 4) & 0xFFFFFFFFL);
+    }
+    return readInt(chunkOffsets, CHUNK_OFFSETS_ENTRIES_OFFSET + 4 * chunkIndex) & 0xFFFFFFFFL;
+  }
+
+  private static int readInt(byte[] data, int position) {
+    return (data[position] & 0xFF) << 24
+        | (data[position + 1] & 0xFF) << 16
+        | (data[position + 2] & 0xFF) << 8
+        | (data[position + 3] & 0xFF);
+  }
+
+  private static int[] trim(int[] array, int length) {
+    return array.length == length ? array : Arrays.copyOf(array, length);
+  }
+}
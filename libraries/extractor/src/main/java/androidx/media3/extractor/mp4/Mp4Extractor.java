@@ -91,7 +91,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         FLAG_READ_MOTION_PHOTO_METADATA,
         FLAG_READ_SEF_DATA,
         FLAG_MARK_FIRST_VIDEO_TRACK_WITH_MAIN_ROLE,
-        FLAG_EMIT_RAW_SUBTITLE_DATA
+        FLAG_EMIT_RAW_SUBTITLE_DATA,
+        FLAG_USE_COMPACT_SAMPLE_TABLES
       })
   public @interface Flags {}
 
@@ -121,6 +122,17 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
   public static final int FLAG_EMIT_RAW_SUBTITLE_DATA = 1 << 4;
 
+  /**
+   * Flag to decode the sample tables of tracks on demand rather than into per-sample arrays when
+   * the moov atom is parsed.
+   *
+   * <p>This reduces the memory used by, and the time taken to start extracting, files with a large
+   * number of samples, at the cost of slightly more work per sample. Tracks whose sample tables
+   * can't be decoded on demand, such as raw audio tracks and tracks with edit lists that drop
+   * samples, are decoded into per-sample arrays regardless.
+   */
+  public static final int FLAG_USE_COMPACT_SAMPLE_TABLES = 1 << 5;
+
   /**
    * @deprecated Use {@link #newFactory(SubtitleParser.Factory)} instead.
    */
@@ -201,7 +213,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private ExtractorOutput extractorOutput;
   private Mp4Track[] tracks;
 
-  private long @MonotonicNonNull [][] accumulatedSampleSizes;
+  private @MonotonicNonNull AccumulatedSampleSizes accumulatedSampleSizes;
   private int firstVideoTrackIndex;
   private long durationUs;
   private @FileType int fileType;
@@ -386,14 +398,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == C.INDEX_UNSET) {
         return new SeekPoints(SeekPoint.START);
       }
-      long sampleTimeUs = sampleTable.timestampsUs[sampleIndex];
+      long sampleTimeUs = sampleTable.getTimestampUs(sampleIndex);
       firstTimeUs = sampleTimeUs;
-      firstOffset = sampleTable.offsets[sampleIndex];
+      firstOffset = sampleTable.getOffset(sampleIndex);
       if (sampleTimeUs < timeUs && sampleIndex < sampleTable.sampleCount - 1) {
         int secondSampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
         if (secondSampleIndex != C.INDEX_UNSET && secondSampleIndex != sampleIndex) {
-          secondTimeUs = sampleTable.timestampsUs[secondSampleIndex];
-          secondOffset = sampleTable.offsets[secondSampleIndex];
+          secondTimeUs = sampleTable.getTimestampUs(secondSampleIndex);
+          secondOffset = sampleTable.getOffset(secondSampleIndex);
         }
       }
     } else {
@@ -596,6 +608,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
             /* drmInitData= */ null,
             ignoreEditLists,
             isQuickTime,
+            /* useCompactSampleTables= */ (flags & FLAG_USE_COMPACT_SAMPLE_TABLES) != 0,
             /* modifyTrackFunction= */ track -> track);
 
     int trackIndex = 0;
@@ -655,7 +668,13 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     this.firstVideoTrackIndex = firstVideoTrackIndex;
     this.durationUs = durationUs;
     this.tracks = tracks.toArray(new Mp4Track[0]);
-    accumulatedSampleSizes = calculateAccumulatedSampleSizes(this.tracks);
+    TrackSampleTable[] sampleTables = new TrackSampleTable[this.tracks.length];
+    for (int i = 0; i < this.tracks.length; i++) {
+      sampleTables[i] = this.tracks[i].sampleTable;
+    }
+    // The accumulated sample sizes are calculated on demand, so that the moov atom can be
+    // processed without iterating over every sample.
+    accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
 
     extractorOutput.endTracks();
     extractorOutput.seekMap(this);
@@ -687,8 +706,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = tracks[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position = track.sampleTable.getReadOffset(sampleIndex);
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     @Nullable TrueHdSampleRechunker trueHdSampleRechunker = track.trueHdSampleRechunker;
     long skipAmount = position - inputPosition + sampleBytesRead;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
@@ -759,8 +778,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
     }
 
-    long timeUs = track.sampleTable.timestampsUs[sampleIndex];
-    @C.BufferFlags int flags = track.sampleTable.flags[sampleIndex];
+    long timeUs = track.sampleTable.getTimestampUs(sampleIndex);
+    @C.BufferFlags int flags = track.sampleTable.getFlags(sampleIndex);
     if (trueHdSampleRechunker != null) {
       trueHdSampleRechunker.sampleMetadata(
           trackOutput, timeUs, flags, sampleSize, /* offset= */ 0, /* cryptoData= */ null);
@@ -807,8 +826,9 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == track.sampleTable.sampleCount) {
         continue;
       }
-      long sampleOffset = track.sampleTable.offsets[sampleIndex];
-      long sampleAccumulatedBytes = castNonNull(accumulatedSampleSizes)[trackIndex][sampleIndex];
+      long sampleOffset = track.sampleTable.getReadOffset(sampleIndex);
+      long sampleAccumulatedBytes =
+          castNonNull(accumulatedSampleSizes).get(trackIndex, sampleIndex);
       long skipAmount = sampleOffset - inputPosition;
       boolean requiresReload = skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
       if ((!requiresReload && preferredRequiresReload)
@@ -878,45 +898,6 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     }
   }
 
-  /**
-   * For each sample of each track, calculates accumulated size of all samples which need to be read
-   * before this sample can be used.
-   */
-  private static long[][] calculateAccumulatedSampleSizes(Mp4Track[] tracks) {
-    long[][] accumulatedSampleSizes = new long[tracks.length][];
-    int[] nextSampleIndex = new int[tracks.length];
-    long[] nextSampleTimesUs = new long[tracks.length];
-    boolean[] tracksFinished = new boolean[tracks.length];
-    for (int i = 0; i < tracks.length; i++) {
-      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.sampleCount];
-      nextSampleTimesUs[i] = tracks[i].sampleTable.timestampsUs[0];
-    }
-    long accumulatedSampleSize = 0;
-    int finishedTracks = 0;
-    while (finishedTracks < tracks.length) {
-      long minTimeUs = Long.MAX_VALUE;
-      int minTimeTrackIndex = -1;
-      for (int i = 0; i < tracks.length; i++) {
-        if (!tracksFinished[i] && nextSampleTimesUs[i] <= minTimeUs) {
-          minTimeTrackIndex = i;
-          minTimeUs = nextSampleTimesUs[i];
-        }
-      }
-      int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
-      accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
-      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.sizes[trackSampleIndex];
-      nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
-      if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
-        nextSampleTimesUs[minTimeTrackIndex] =
-            tracks[minTimeTrackIndex].sampleTable.timestampsUs[trackSampleIndex];
-      } else {
-        tracksFinished[minTimeTrackIndex] = true;
-        finishedTracks++;
-      }
-    }
-    return accumulatedSampleSizes;
-  }
-
   /**
    * Adjusts a seek point offset to take into account the track with the given {@code sampleTable},
    * for a given {@code seekTimeUs}.
@@ -932,7 +913,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     if (sampleIndex == C.INDEX_UNSET) {
       return offset;
     }
-    long sampleOffset = sampleTable.offsets[sampleIndex];
+    long sampleOffset = sampleTable.getOffset(sampleIndex);
     return min(sampleOffset, offset);
   }
 
@@ -15,11 +15,17 @@
  */
 package androidx.media3.extractor.mp4;
 
+import androidx.annotation.Nullable;
 import androidx.media3.common.C;
 import androidx.media3.common.util.Assertions;
 import androidx.media3.common.util.Util;
 
-/** Sample table for a track in an MP4 file. */
+/**
+ * Sample table for a track in an MP4 file.
+ *
+ * <p>The samples are either held in per-sample arrays or decoded on demand from a {@link
+ * CompactSampleTable}.
+ */
 /* package */ final class TrackSampleTable {
 
   /** The track corresponding to this sample table. */
@@ -28,24 +34,18 @@ import androidx.media3.common.util.Util;
   /** Number of samples. */
   public final int sampleCount;
 
-  /** Sample offsets in bytes. */
-  public final long[] offsets;
-
-  /** Sample sizes in bytes. */
-  public final int[] sizes;
-
-  /** Maximum sample size in {@link #sizes}. */
+  /** Maximum sample size in bytes. */
   public final int maximumSize;
 
-  /** Sample timestamps in microseconds. */
-  public final long[] timestampsUs;
-
-  /** Sample flags. */
-  public final int[] flags;
-
   /** The duration of the track sample table in microseconds. */
   public final long durationUs;
 
+  @Nullable private final long[] offsets;
+  @Nullable private final int[] sizes;
+  @Nullable private final long[] timestampsUs;
+  @Nullable private final int[] flags;
+  @Nullable private final CompactSampleTable compactSampleTable;
+
   public TrackSampleTable(
       Track track,
       long[] offsets,
@@ -65,12 +65,73 @@ import androidx.media3.common.util.Util;
     this.timestampsUs = timestampsUs;
     this.flags = flags;
     this.durationUs = durationUs;
+    compactSampleTable = null;
     sampleCount = offsets.length;
     if (flags.length > 0) {
       flags[flags.length - 1] |= C.BUFFER_FLAG_LAST_SAMPLE;
     }
   }
 
+  public TrackSampleTable(Track track, CompactSampleTable compactSampleTable) {
+    this.track = track;
+    this.compactSampleTable = compactSampleTable;
+    sampleCount = compactSampleTable.sampleCount;
+    maximumSize = compactSampleTable.maximumSize;
+    durationUs = compactSampleTable.durationUs;
+    offsets = null;
+    sizes = null;
+    timestampsUs = null;
+    flags = null;
+  }
+
+  /** Returns the offset of a sample in bytes. */
+  public long getOffset(int sampleIndex) {
+    return offsets != null
+        ? offsets[sampleIndex]
+        : Assertions.checkNotNull(compactSampleTable).getOffset(sampleIndex);
+  }
+
+  /**
+   * Returns the offset of a sample in bytes, like {@link #getOffset(int)}, but faster when samples
+   * are requested in order.
+   *
+   * <p>Must only be called from the thread that reads the samples.
+   */
+  public long getReadOffset(int sampleIndex) {
+    return offsets != null
+        ? offsets[sampleIndex]
+        : Assertions.checkNotNull(compactSampleTable).getReadOffset(sampleIndex);
+  }
+
+  /** Returns the size of a sample in bytes. */
+  public int getSize(int sampleIndex) {
+    return sizes != null
+        ? sizes[sampleIndex]
+        : Assertions.checkNotNull(compactSampleTable).getSize(sampleIndex);
+  }
+
+  /** Returns the timestamp of a sample in microseconds. */
+  public long getTimestampUs(int sampleIndex) {
+    return timestampsUs != null
+        ? timestampsUs[sampleIndex]
+        : Assertions.checkNotNull(compactSampleTable).getTimestampUs(sampleIndex);
+  }
+
+  /** Returns the {@link C.BufferFlags} of a sample. */
+  public @C.BufferFlags int getFlags(int sampleIndex) {
+    if (flags != null) {
+      return flags[sampleIndex];
+    }
+    @C.BufferFlags int flags = 0;
+    if (Assertions.checkNotNull(compactSampleTable).isSynchronizationSample(sampleIndex)) {
+      flags |= C.BUFFER_FLAG_KEY_FRAME;
+    }
+    if (sampleIndex == sampleCount - 1) {
+      flags |= C.BUFFER_FLAG_LAST_SAMPLE;
+    }
+    return flags;
+  }
+
   /**
    * Returns the sample index of the closest synchronization sample at or before the given
    * timestamp, if one is available.
@@ -79,6 +140,11 @@ import androidx.media3.common.util.Util;
    * @return Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
    */
   public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    if (compactSampleTable != null) {
+      return compactSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
+    }
+    long[] timestampsUs = Assertions.checkNotNull(this.timestampsUs);
+    int[] flags = Assertions.checkNotNull(this.flags);
     // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
     // Frames are not reordered past synchronization samples so this works in practice.
     int startIndex = Util.binarySearchFloor(timestampsUs, timeUs, true, false);
@@ -98,6 +164,11 @@ import androidx.media3.common.util.Util;
    * @return index Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
    */
   public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    if (compactSampleTable != null) {
+      return compactSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
+    }
+    long[] timestampsUs = Assertions.checkNotNull(this.timestampsUs);
+    int[] flags = Assertions.checkNotNull(this.flags);
     int startIndex = Util.binarySearchCeil(timestampsUs, timeUs, true, false);
     for (int i = startIndex; i < timestampsUs.length; i++) {
       if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
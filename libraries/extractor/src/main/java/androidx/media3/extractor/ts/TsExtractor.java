@@ -463,9 +463,10 @@ public final class TsExtractor implements Extractor {
 
     int endOfPacket = findEndOfFirstTsPacketInBuffer();
     int limit = tsPacketBuffer.limit();
-    if (endOfPacket > limit) {
+    if (endOfPacket > limit || !skipIgnoredTsPacketsInBuffer()) {
       return RESULT_CONTINUE;
     }
+    endOfPacket = tsPacketBuffer.getPosition() + TS_PACKET_SIZE;
 
     @TsPayloadReader.Flags int packetHeaderFlags = 0;
 
@@ -604,6 +605,46 @@ public final class TsExtractor implements Extractor {
     return endOfPacket;
   }
 
+  /**
+   * Skips consecutive TS packets at the current position of the packet buffer that would be
+   * discarded without being passed to a payload reader, so that they don't each need a call to
+   * {@link #read}.
+   *
+   * <p>Must only be called if a full TS packet starts at the current position.
+   *
+   * @return Whether a full TS packet that needs to be processed starts at the new position. If
+   *     false, the next packet either isn't fully in the buffer or doesn't start with a sync byte.
+   */
+  private boolean skipIgnoredTsPacketsInBuffer() {
+    byte[] data = tsPacketBuffer.getData();
+    int limit = tsPacketBuffer.limit();
+    int position = tsPacketBuffer.getPosition();
+    while (isIgnoredTsPacket(data, position)) {
+      position += TS_PACKET_SIZE;
+      if (position + TS_PACKET_SIZE > limit || data[position] != TS_SYNC_BYTE) {
+        tsPacketBuffer.setPosition(position);
+        return false;
+      }
+    }
+    tsPacketBuffer.setPosition(position);
+    return true;
+  }
+
+  /**
+   * Returns whether the TS packet starting at {@code position} has uncorrectable errors, has no
+   * payload or belongs to a PID without a payload reader.
+   */
+  private boolean isIgnoredTsPacket(byte[] data, int position) {
+    // Note: See ISO/IEC 13818-1, section 2.4.3.2 for details of the header format.
+    int pidAndFlags = data[position + 1] & 0xFF;
+    if ((pidAndFlags & 0x80) != 0 // transport_error_indicator
+        || (data[position + 3] & 0x10) == 0) { // payload doesn't exist
+      return true;
+    }
+    int pid = ((pidAndFlags & 0x1F) << 8) | (data[position + 2] & 0xFF);
+    return tsPayloadReaders.get(pid) == null;
+  }
+
   private boolean shouldConsumePacketPayload(int packetPid) {
     return mode == MODE_HLS
         || tracksEnded
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link AccumulatedSampleSizes}. */
+@RunWith(AndroidJUnit4.class)
+public final class AccumulatedSampleSizesTest {
+
+  private static final int VIDEO_SAMPLE_COUNT = 3000;
+  private static final int AUDIO_SAMPLE_COUNT = 4500;
+
+  @Test
+  public void get_inReadingOrder_returnsAccumulatedSizes() {
+    TrackSampleTable[] sampleTables = createSampleTables();
+    long[][] expectedSizes = calculateAccumulatedSampleSizes(sampleTables);
+    AccumulatedSampleSizes accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
+
+    int videoSampleIndex = 0;
+    int audioSampleIndex = 0;
+    while (videoSampleIndex < VIDEO_SAMPLE_COUNT || audioSampleIndex < AUDIO_SAMPLE_COUNT) {
+      // Both tracks are queried before each sample is read, like Mp4Extractor does.
+      if (videoSampleIndex < VIDEO_SAMPLE_COUNT) {
+        assertThat(accumulatedSampleSizes.get(/* trackIndex= */ 0, videoSampleIndex))
+            .isEqualTo(expectedSizes[0][videoSampleIndex]);
+      }
+      if (audioSampleIndex < AUDIO_SAMPLE_COUNT) {
+        assertThat(accumulatedSampleSizes.get(/* trackIndex= */ 1, audioSampleIndex))
+            .isEqualTo(expectedSizes[1][audioSampleIndex]);
+      }
+      if (audioSampleIndex == AUDIO_SAMPLE_COUNT
+          || (videoSampleIndex < VIDEO_SAMPLE_COUNT
+              && expectedSizes[0][videoSampleIndex] < expectedSizes[1][audioSampleIndex])) {
+        videoSampleIndex++;
+      } else {
+        audioSampleIndex++;
+      }
+    }
+  }
+
+  @Test
+  public void get_inRandomOrder_returnsAccumulatedSizes() {
+    TrackSampleTable[] sampleTables = createSampleTables();
+    long[][] expectedSizes = calculateAccumulatedSampleSizes(sampleTables);
+    AccumulatedSampleSizes accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
+    Random random = new Random(/* seed= */ 0);
+
+    for (int i = 0; i < 1000; i++) {
+      int trackIndex = random.nextInt(2);
+      int sampleIndex = random.nextInt(sampleTables[trackIndex].sampleCount);
+      assertThat(accumulatedSampleSizes.get(trackIndex, sampleIndex))
+          .isEqualTo(expectedSizes[trackIndex][sampleIndex]);
+    }
+  }
+
+  /**
+   * Returns a video track whose timestamps are reordered like those of B-frames, and an audio track
+   * with monotonic timestamps.
+   */
+  private static TrackSampleTable[] createSampleTables() {
+    Random random = new Random(/* seed= */ 0);
+    long[] videoTimestampsUs = new long[VIDEO_SAMPLE_COUNT];
+    for (int i = 0; i < VIDEO_SAMPLE_COUNT; i++) {
+      int presentationIndex = i % 3 == 0 ? i : (i % 3 == 1 ? i + 1 : i - 1);
+      videoTimestampsUs[i] = presentationIndex * 33_333L;
+    }
+    long[] audioTimestampsUs = new long[AUDIO_SAMPLE_COUNT];
+    for (int i = 0; i < AUDIO_SAMPLE_COUNT; i++) {
+      audioTimestampsUs[i] = i * 21_333L;
+    }
+    return new TrackSampleTable[] {
+      createSampleTable(C.TRACK_TYPE_VIDEO, MimeTypes.VIDEO_H264, videoTimestampsUs, random),
+      createSampleTable(C.TRACK_TYPE_AUDIO, MimeTypes.AUDIO_AAC, audioTimestampsUs, random)
+    };
+  }
+
+  private static TrackSampleTable createSampleTable(
+      @C.TrackType int trackType, String sampleMimeType, long[] timestampsUs, Random random) {
+    int sampleCount = timestampsUs.length;
+    long[] offsets = new long[sampleCount];
+    int[] sizes = new int[sampleCount];
+    int[] flags = new int[sampleCount];
+    int maximumSize = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      sizes[i] = 1 + random.nextInt(1000);
+      maximumSize = Math.max(maximumSize, sizes[i]);
+      flags[i] = C.BUFFER_FLAG_KEY_FRAME;
+    }
+    Track track =
+        new Track(
+            /* id= */ 1,
+            trackType,
+            /* timescale= */ 1_000_000,
+            /* movieTimescale= */ 1000,
+            /* durationUs= */ C.TIME_UNSET,
+            new Format.Builder().setSampleMimeType(sampleMimeType).build(),
+            Track.TRANSFORMATION_NONE,
+            /* sampleDescriptionEncryptionBoxes= */ null,
+            /* nalUnitLengthFieldLength= */ 4,
+            /* editListDurations= */ null,
+            /* editListMediaTimes= */ null);
+    return new TrackSampleTable(
+        track, offsets, sizes, maximumSize, timestampsUs, flags, /* durationUs= */ C.TIME_UNSET);
+  }
+
+  /** Calculates the accumulated sample sizes of all samples in advance. */
+  private static long[][] calculateAccumulatedSampleSizes(TrackSampleTable[] sampleTables) {
+    long[][] accumulatedSampleSizes = new long[sampleTables.length][];
+    int[] nextSampleIndex = new int[sampleTables.length];
+    long[] nextSampleTimesUs = new long[sampleTables.length];
+    boolean[] tracksFinished = new boolean[sampleTables.length];
+    for (int i = 0; i < sampleTables.length; i++) {
+      accumulatedSampleSizes[i] = new long[sampleTables[i].sampleCount];
+      nextSampleTimesUs[i] = sampleTables[i].getTimestampUs(0);
+    }
+    long accumulatedSampleSize = 0;
+    int finishedTracks = 0;
+    while (finishedTracks < sampleTables.length) {
+      long minTimeUs = Long.MAX_VALUE;
+      int minTimeTrackIndex = -1;
+      for (int i = 0; i < sampleTables.length; i++) {
+        if (!tracksFinished[i] && nextSampleTimesUs[i] <= minTimeUs) {
+          minTimeTrackIndex = i;
+          minTimeUs = nextSampleTimesUs[i];
+        }
+      }
+      int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
+      accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
+      accumulatedSampleSize += sampleTables[minTimeTrackIndex].getSize(trackSampleIndex);
+      nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
+      if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
+        nextSampleTimesUs[minTimeTrackIndex] =
+            sampleTables[minTimeTrackIndex].getTimestampUs(trackSampleIndex);
+      } else {
+        tracksFinished[minTimeTrackIndex] = true;
+        finishedTracks++;
+      }
+    }
+    return accumulatedSampleSizes;
+  }
+}
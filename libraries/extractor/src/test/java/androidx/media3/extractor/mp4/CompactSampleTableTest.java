@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.media3.extractor.mp4;
+
+import static androidx.media3.common.util.Assertions.checkNotNull;
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.ParsableByteArray;
+import androidx.media3.common.util.Util;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link CompactSampleTable}. */
+@RunWith(AndroidJUnit4.class)
+public final class CompactSampleTableTest {
+
+  private static final String ATOM_HEADER = "000000000000000000000000";
+  // Six samples with sizes 10, 20, 30, 40, 50 and 60.
+  private static final String STSZ =
+      ATOM_HEADER + "00000000" + "00000006" + "0000000A000000140000001E00000028000000320000003C";
+  // Two chunks at offsets 1000 and 2000.
+  private static final String STCO = ATOM_HEADER + "00000002" + "000003E8000007D0";
+  // Four samples in the first chunk and two samples in the second chunk.
+  private static final String STSC =
+      ATOM_HEADER + "00000002" + "000000010000000400000001" + "000000020000000200000001";
+  // Four samples with duration 1000 followed by two samples with duration 2000.
+  private static final String STTS =
+      ATOM_HEADER + "00000002" + "00000004000003E8" + "00000002000007D0";
+  // Two samples with composition offset 1000 followed by four samples without offset.
+  private static final String CTTS =
+      ATOM_HEADER + "00000002" + "00000002000003E8" + "0000000400000000";
+  // The first and fifth samples are synchronization samples.
+  private static final String STSS = ATOM_HEADER + "00000002" + "0000000100000005";
+
+  private static final long[] OFFSETS = new long[] {1000, 1010, 1030, 1060, 2000, 2050};
+  private static final long[] TIMESTAMPS_US =
+      new long[] {100_000, 200_000, 200_000, 300_000, 400_000, 600_000};
+
+  @Test
+  public void create_returnsSamplesOfStbl() {
+    Track track = createVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null);
+
+    TrackSampleTable sampleTable =
+        new TrackSampleTable(track, checkNotNull(createCompactSampleTable(track, STTS)));
+
+    assertThat(sampleTable.sampleCount).isEqualTo(6);
+    assertThat(sampleTable.maximumSize).isEqualTo(60);
+    assertThat(sampleTable.durationUs).isEqualTo(800_000);
+    for (int i = 0; i < sampleTable.sampleCount; i++) {
+      assertThat(sampleTable.getOffset(i)).isEqualTo(OFFSETS[i]);
+      assertThat(sampleTable.getSize(i)).isEqualTo((i + 1) * 10);
+      assertThat(sampleTable.getTimestampUs(i)).isEqualTo(TIMESTAMPS_US[i]);
+    }
+    assertThat(sampleTable.getFlags(0)).isEqualTo(C.BUFFER_FLAG_KEY_FRAME);
+    assertThat(sampleTable.getFlags(1)).isEqualTo(0);
+    assertThat(sampleTable.getFlags(4)).isEqualTo(C.BUFFER_FLAG_KEY_FRAME);
+    assertThat(sampleTable.getFlags(5)).isEqualTo(C.BUFFER_FLAG_LAST_SAMPLE);
+  }
+
+  @Test
+  public void getOffset_inReverseOrder_returnsOffsetsOfSamples() {
+    CompactSampleTable compactSampleTable =
+        checkNotNull(
+            createCompactSampleTable(
+                createVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null),
+                STTS));
+
+    for (int i = compactSampleTable.sampleCount - 1; i >= 0; i--) {
+      assertThat(compactSampleTable.getOffset(i)).isEqualTo(OFFSETS[i]);
+    }
+  }
+
+  @Test
+  public void getReadOffset_inOrderAndInReverseOrder_returnsOffsetsOfSamples() {
+    CompactSampleTable compactSampleTable =
+        checkNotNull(
+            createCompactSampleTable(
+                createVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null),
+                STTS));
+
+    for (int i = 0; i < compactSampleTable.sampleCount; i++) {
+      assertThat(compactSampleTable.getReadOffset(i)).isEqualTo(OFFSETS[i]);
+    }
+    for (int i = compactSampleTable.sampleCount - 1; i >= 0; i--) {
+      assertThat(compactSampleTable.getReadOffset(i)).isEqualTo(OFFSETS[i]);
+    }
+  }
+
+  @Test
+  public void getReadOffset_interleavedWithGetOffset_returnsOffsetsOfSamples() {
+    CompactSampleTable compactSampleTable =
+        checkNotNull(
+            createCompactSampleTable(
+                createVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null),
+                STTS));
+    int lastSampleIndex = compactSampleTable.sampleCount - 1;
+
+    for (int i = 0; i < compactSampleTable.sampleCount; i++) {
+      assertThat(compactSampleTable.getReadOffset(i)).isEqualTo(OFFSETS[i]);
+      assertThat(compactSampleTable.getOffset(lastSampleIndex - i))
+          .isEqualTo(OFFSETS[lastSampleIndex - i]);
+    }
+  }
+
+  @Test
+  public void getSynchronizationSampleIndices_returnsClosestSynchronizationSamples() {
+    CompactSampleTable compactSampleTable =
+        checkNotNull(
+            createCompactSampleTable(
+                createVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null),
+                STTS));
+
+    assertThat(compactSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(50_000))
+        .isEqualTo(C.INDEX_UNSET);
+    assertThat(compactSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(350_000))
+        .isEqualTo(0);
+    assertThat(compactSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(400_000))
+        .isEqualTo(4);
+    assertThat(compactSampleTable.getIndexOfLaterOrEqualSynchronizationSample(250_000))
+        .isEqualTo(4);
+    assertThat(compactSampleTable.getIndexOfLaterOrEqualSynchronizationSample(700_000))
+        .isEqualTo(C.INDEX_UNSET);
+  }
+
+  @Test
+  public void create_withEditKeepingAllSamples_shiftsTimestamps() {
+    Track track =
+        createVideoTrack(
+            /* editListDurations= */ new long[] {800}, /* editListMediaTimes= */ new long[] {1000});
+
+    CompactSampleTable compactSampleTable = checkNotNull(createCompactSampleTable(track, STTS));
+
+    assertThat(compactSampleTable.durationUs).isEqualTo(800_000);
+    for (int i = 0; i < compactSampleTable.sampleCount; i++) {
+      assertThat(compactSampleTable.getTimestampUs(i)).isEqualTo(TIMESTAMPS_US[i] - 100_000);
+    }
+  }
+
+  @Test
+  public void create_withEditDroppingSamples_returnsNull() {
+    Track track =
+        createVideoTrack(
+            /* editListDurations= */ new long[] {300}, /* editListMediaTimes= */ new long[] {3000});
+
+    assertThat(createCompactSampleTable(track, STTS)).isNull();
+  }
+
+  @Test
+  public void create_withInconsistentStts_returnsNull() {
+    String stts = ATOM_HEADER + "00000001" + "00000005000003E8";
+
+    assertThat(
+            createCompactSampleTable(
+                createVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null),
+                stts))
+        .isNull();
+  }
+
+  @Test
+  public void create_withRawAudio_returnsNull() {
+    Track track =
+        new Track(
+            /* id= */ 1,
+            C.TRACK_TYPE_AUDIO,
+            /* timescale= */ 10_000,
+            /* movieTimescale= */ 1000,
+            /* durationUs= */ 800_000,
+            new Format.Builder()
+                .setSampleMimeType(MimeTypes.AUDIO_RAW)
+                .setPcmEncoding(C.ENCODING_PCM_16BIT)
+                .setChannelCount(1)
+                .build(),
+            Track.TRANSFORMATION_NONE,
+            /* sampleDescriptionEncryptionBoxes= */ null,
+            /* nalUnitLengthFieldLength= */ 0,
+            /* editListDurations= */ null,
+            /* editListMediaTimes= */ null);
+
+    assertThat(createCompactSampleTable(track, STTS)).isNull();
+  }
+
+  private static Track createVideoTrack(
+      @Nullable long[] editListDurations, @Nullable long[] editListMediaTimes) {
+    return new Track(
+        /* id= */ 1,
+        C.TRACK_TYPE_VIDEO,
+        /* timescale= */ 10_000,
+        /* movieTimescale= */ 1000,
+        /* durationUs= */ 800_000,
+        new Format.Builder().setSampleMimeType(MimeTypes.VIDEO_H264).build(),
+        Track.TRANSFORMATION_NONE,
+        /* sampleDescriptionEncryptionBoxes= */ null,
+        /* nalUnitLengthFieldLength= */ 4,
+        editListDurations,
+        editListMediaTimes);
+  }
+
+  @Nullable
+  private static CompactSampleTable createCompactSampleTable(Track track, String stts) {
+    Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, /* endPosition= */ 0);
+    stblAtom.add(createLeafAtom(Atom.TYPE_stsz, STSZ));
+    stblAtom.add(createLeafAtom(Atom.TYPE_stco, STCO));
+    stblAtom.add(createLeafAtom(Atom.TYPE_stsc, STSC));
+    stblAtom.add(createLeafAtom(Atom.TYPE_stts, stts));
+    stblAtom.add(createLeafAtom(Atom.TYPE_ctts, CTTS));
+    stblAtom.add(createLeafAtom(Atom.TYPE_stss, STSS));
+    return CompactSampleTable.create(track, stblAtom);
+  }
+
+  private static Atom.LeafAtom createLeafAtom(int type, String hexString) {
+    return new Atom.LeafAtom(type, new ParsableByteArray(Util.getBytesFromHexString(hexString)));
+  }
+}
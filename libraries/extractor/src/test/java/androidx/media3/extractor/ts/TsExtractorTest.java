@@ -21,6 +21,7 @@ import static androidx.media3.extractor.ts.DefaultTsPayloadReaderFactory.FLAG_EN
 import static androidx.media3.extractor.ts.TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES;
 import static androidx.media3.extractor.ts.TsExtractor.MODE_MULTI_PMT;
 import static androidx.media3.extractor.ts.TsExtractor.MODE_SINGLE_PMT;
+import static androidx.media3.extractor.ts.TsExtractor.TS_PACKET_SIZE;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.util.SparseArray;
@@ -37,12 +38,15 @@ import androidx.media3.extractor.text.DefaultSubtitleParserFactory;
 import androidx.media3.extractor.text.SubtitleParser;
 import androidx.media3.extractor.ts.TsPayloadReader.EsInfo;
 import androidx.media3.extractor.ts.TsPayloadReader.TrackIdGenerator;
+import androidx.media3.test.utils.Dumper;
 import androidx.media3.test.utils.ExtractorAsserts;
 import androidx.media3.test.utils.FakeExtractorInput;
 import androidx.media3.test.utils.FakeExtractorOutput;
 import androidx.media3.test.utils.FakeTrackOutput;
 import androidx.media3.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
+import com.google.common.primitives.Bytes;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
@@ -441,6 +445,85 @@ public final class TsExtractorTest {
     assertThat(factory.sdtReader.consumedSdts).isEqualTo(2);
   }
 
+  @Test
+  public void streamWithIgnoredPacketsAndPartialFinalPacket_outputsSameAsStreamWithout()
+      throws Exception {
+    byte[] data =
+        TestUtil.getByteArray(
+            ApplicationProvider.getApplicationContext(), "media/ts/sample_h262_mpeg_audio.ts");
+    // The run of ignored packets at the end of the stream is followed by half a packet.
+    byte[] dataWithIgnoredPackets =
+        Bytes.concat(
+            data,
+            buildNullPackets(/* count= */ 5),
+            Arrays.copyOf(buildNullPackets(/* count= */ 1), TS_PACKET_SIZE / 2));
+
+    assertThat(extractAndDump(dataWithIgnoredPackets)).isEqualTo(extractAndDump(data));
+  }
+
+  @Test
+  public void streamWithMissingSyncByteInIgnoredPackets_outputsSameAsStreamWithout()
+      throws Exception {
+    byte[] data =
+        TestUtil.getByteArray(
+            ApplicationProvider.getApplicationContext(), "media/ts/sample_h262_mpeg_audio.ts");
+    byte[] corruptedNullPacket = buildNullPackets(/* count= */ 1);
+    corruptedNullPacket[0] = 0;
+    // The run of ignored packets in the middle of the stream contains a packet that doesn't start
+    // with a sync byte, so the extractor needs to resynchronize within the run.
+    int insertPosition = 20 * TS_PACKET_SIZE;
+    byte[] dataWithIgnoredPackets =
+        Bytes.concat(
+            Arrays.copyOf(data, insertPosition),
+            buildNullPackets(/* count= */ 3),
+            corruptedNullPacket,
+            buildNullPackets(/* count= */ 3),
+            Arrays.copyOfRange(data, insertPosition, data.length));
+
+    assertThat(extractAndDump(dataWithIgnoredPackets)).isEqualTo(extractAndDump(data));
+  }
+
+  /** Returns TS packets with payload for the null packet PID, which has no payload reader. */
+  private static byte[] buildNullPackets(int count) {
+    byte[] packets = new byte[count * TS_PACKET_SIZE];
+    Arrays.fill(packets, (byte) 0xFF);
+    for (int i = 0; i < count; i++) {
+      int position = i * TS_PACKET_SIZE;
+      packets[position] = TsExtractor.TS_SYNC_BYTE;
+      packets[position + 1] = 0x1F; // PID 0x1FFF.
+      packets[position + 2] = (byte) 0xFF;
+      packets[position + 3] = 0x10; // Payload only, continuity counter 0.
+    }
+    return packets;
+  }
+
+  /**
+   * Extracts {@code data} with a {@link TsExtractor} and returns the dump of the output.
+   *
+   * <p>The length of the input is unknown, so that the output doesn't depend on the input length.
+   */
+  private String extractAndDump(byte[] data) throws Exception {
+    Extractor extractor = getExtractorFactory(subtitlesParsedDuringExtraction).create();
+    FakeExtractorInput input =
+        new FakeExtractorInput.Builder()
+            .setData(data)
+            .setSimulateIOErrors(false)
+            .setSimulateUnknownLength(true)
+            .setSimulatePartialReads(false)
+            .build();
+    FakeExtractorOutput output = new FakeExtractorOutput();
+    extractor.init(output);
+    PositionHolder seekPositionHolder = new PositionHolder();
+    int readResult = Extractor.RESULT_CONTINUE;
+    while (readResult != Extractor.RESULT_END_OF_INPUT) {
+      readResult = extractor.read(input, seekPositionHolder);
+      if (readResult == Extractor.RESULT_SEEK) {
+        input.setPosition((int) seekPositionHolder.position);
+      }
+    }
+    return new Dumper().add(output).toString();
+  }
+
   private static ExtractorAsserts.ExtractorFactory getExtractorFactory(
       boolean subtitlesParsedDuringExtraction) {
     return getExtractorFactory(